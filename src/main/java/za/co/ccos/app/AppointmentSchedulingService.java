@@ -6,10 +6,12 @@ import org.springframework.stereotype.Service;
 import za.co.ccos.domain.Consultation;
 import za.co.ccos.domain.GeneratedNote;
 import za.co.ccos.infra.llm.LlamaAdapter;
+import za.co.ccos.infra.llm.LlamaException;
 import za.co.ccos.infra.llm.LlamaOptions;
+import za.co.ccos.infra.prompt.PromptName;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
@@ -17,49 +19,41 @@ import java.time.format.DateTimeFormatter;
 public class AppointmentSchedulingService {
     
     private final LlamaAdapter llamaAdapter;
+    private final PromptTemplateRegistry promptTemplates;
     
     public String suggestNextAppointment(Consultation consultation, GeneratedNote note) {
-        log.info("Generating appointment recommendation for consultation {}", consultation.getId());
-        
-        String prompt = buildSchedulingPrompt(consultation, note);
-        
         try {
-            LlamaOptions options = LlamaOptions.builder()
-                    .temperature(0.3)
-                    .maxTokens(300)
-                    .build();
-            
-            String suggestion = llamaAdapter.runPrompt(prompt, options).getContent();
-            log.info("Appointment recommendation generated");
-            return suggestion;
-            
+            return generateRecommendation(consultation, note);
         } catch (Exception e) {
             log.error("Failed to generate appointment recommendation", e);
             return generateDefaultRecommendation(note);
         }
     }
     
-    private String buildSchedulingPrompt(Consultation consultation, GeneratedNote note) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You are a clinical scheduling assistant. Based on the consultation, recommend the next follow-up appointment.\n\n");
-        
-        prompt.append("ASSESSMENT:\n").append(note.getSoapAssessment()).append("\n\n");
-        prompt.append("PLAN:\n").append(note.getSoapPlan()).append("\n\n");
+    /**
+     * Like {@link #suggestNextAppointment} but without the default recommendation, for
+     * callers that store the result and would rather retry later than keep a default
+     */
+    public String generateRecommendation(Consultation consultation, GeneratedNote note) throws LlamaException {
+        log.info("Generating appointment recommendation for consultation {}", consultation.getId());
         
-        prompt.append("TASK: Recommend next appointment timing and provide brief rationale.\n\n");
-        prompt.append("Consider:\n");
-        prompt.append("- Condition severity and stability\n");
-        prompt.append("- Medication changes requiring monitoring\n");
-        prompt.append("- Lab results pending review\n");
-        prompt.append("- Chronic disease management intervals\n");
-        prompt.append("- Urgent vs routine follow-up needs\n\n");
+        String prompt = buildSchedulingPrompt(consultation, note);
         
-        prompt.append("Return in this format:\n");
-        prompt.append("TIMEFRAME: [1 week | 2 weeks | 1 month | 3 months | 6 months | As needed]\n");
-        prompt.append("REASON: [Brief clinical rationale]\n");
-        prompt.append("PRIORITY: [Urgent | Routine | Optional]\n");
+        LlamaOptions options = LlamaOptions.builder()
+                .temperature(0.3)
+                .maxTokens(300)
+                .stage("scheduling")
+                .build();
         
-        return prompt.toString();
+        String suggestion = llamaAdapter.runPrompt(prompt, options).getContent();
+        log.info("Appointment recommendation generated");
+        return suggestion;
+    }
+    
+    private String buildSchedulingPrompt(Consultation consultation, GeneratedNote note) {
+        return promptTemplates.render(PromptName.SCHEDULING, Map.of(
+                "ASSESSMENT", String.valueOf(note.getSoapAssessment()),
+                "PLAN", String.valueOf(note.getSoapPlan())));
     }
     
     private String generateDefaultRecommendation(GeneratedNote note) {
@@ -0,0 +1,145 @@
+package za.co.ccos.app;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+import za.co.ccos.config.AsyncConfig;
+import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.ConsultationState;
+import za.co.ccos.domain.GeneratedNote;
+import za.co.ccos.domain.Patient;
+import za.co.ccos.infra.persistence.ConsultationRepository;
+import za.co.ccos.infra.persistence.GeneratedNoteRepository;
+import za.co.ccos.infra.persistence.PatientRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Prepares what approving a note needs from the LLM, the follow-up recommendation and
+ * the patient's explanation, in the background as soon as the pipeline marks the
+ * consultation READY. Both are stored on the note with a hash of the fields they were
+ * generated from, so approval reads them instead of waiting on two LLM calls. If the
+ * note has changed since, or they were never generated, approval generates them itself.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ApprovalArtifactService {
+    
+    public record ApprovalArtifacts(String appointmentRecommendation, String patientExplanation) {
+    }
+    
+    private final ConsultationRepository consultationRepository;
+    private final PatientRepository patientRepository;
+    private final GeneratedNoteRepository generatedNoteRepository;
+    private final AppointmentSchedulingService appointmentService;
+    private final PatientEmailService emailService;
+    private final MeterRegistry meterRegistry;
+    @Qualifier(AsyncConfig.APPROVAL_EXECUTOR)
+    private final TaskExecutor approvalExecutor;
+    
+    @Value("${approval.precompute.enabled:true}")
+    private boolean precomputeEnabled = true;
+    
+    @EventListener
+    public void onConsultationProgress(ConsultationProgressEvent event) {
+        if (precomputeEnabled && !event.isStageEvent() && event.state() == ConsultationState.READY) {
+            approvalExecutor.execute(() -> precompute(event.consultationId()));
+        }
+    }
+    
+    /**
+     * Generates and stores the artifacts of the consultation's note unless they are
+     * already current. A failed LLM call stores nothing, so approval tries again
+     * rather than sending a template.
+     */
+    public void precompute(UUID consultationId) {
+        try {
+            Consultation consultation = consultationRepository.findById(consultationId).orElse(null);
+            if (consultation == null || consultation.getGeneratedNoteId() == null) {
+                return;
+            }
+            GeneratedNote note = generatedNoteRepository.findById(consultation.getGeneratedNoteId()).orElse(null);
+            Patient patient = patientRepository.findById(consultation.getPatientId()).orElse(null);
+            if (note == null || patient == null || isCurrent(note, patient)) {
+                return;
+            }
+            
+            String sourceHash = sourceHash(patient, note);
+            String appointment = appointmentService.generateRecommendation(consultation, note);
+            String explanation = emailService.generateExplanation(patient, note);
+            generatedNoteRepository.updateApprovalArtifacts(note.getId(), appointment, explanation, sourceHash);
+            meterRegistry.counter("approval.artifacts.precomputed", "outcome", "stored").increment();
+            log.info("Approval artifacts of consultation {} precomputed", consultationId);
+        } catch (Exception e) {
+            meterRegistry.counter("approval.artifacts.precomputed", "outcome", "failed").increment();
+            log.warn("Could not precompute approval artifacts of consultation {}: {}", consultationId, e.getMessage());
+        }
+    }
+    
+    /**
+     * The stored artifacts if they were generated from the note and patient as they are
+     * now, otherwise freshly generated ones
+     */
+    public ApprovalArtifacts artifactsFor(Consultation consultation, GeneratedNote note, Patient patient) {
+        Optional<ApprovalArtifacts> precomputed = precomputed(note, patient);
+        if (precomputed.isPresent()) {
+            meterRegistry.counter("approval.artifacts", "source", "precomputed").increment();
+            return precomputed.get();
+        }
+        meterRegistry.counter("approval.artifacts", "source", "generated").increment();
+        log.info("No current approval artifacts for consultation {}, generating them now", consultation.getId());
+        return new ApprovalArtifacts(
+                appointmentService.suggestNextAppointment(consultation, note),
+                emailService.generatePatientFriendlyExplanation(patient, note));
+    }
+    
+    /**
+     * The stored artifacts, only if they were generated from the note and patient as they are now
+     */
+    public Optional<ApprovalArtifacts> precomputed(GeneratedNote note, Patient patient) {
+        return isCurrent(note, patient)
+                ? Optional.of(new ApprovalArtifacts(note.getAppointmentRecommendation(), note.getPatientExplanation()))
+                : Optional.empty();
+    }
+    
+    private static boolean isCurrent(GeneratedNote note, Patient patient) {
+        return note.getAppointmentRecommendation() != null
+                && note.getPatientExplanation() != null
+                && sourceHash(patient, note).equals(note.getArtifactsSourceHash());
+    }
+    
+    /**
+     * SHA-256 over everything the scheduling and patient-email prompts read
+     */
+    static String sourceHash(Patient patient, GeneratedNote note) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, patient.getFirstName());
+            update(digest, patient.getLastName());
+            update(digest, note.getSoapAssessment());
+            update(digest, note.getSoapPlan());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    private static void update(MessageDigest digest, String value) {
+        // Length prefix keeps ("ab", "c") and ("a", "bc") from hashing to the same value
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+}
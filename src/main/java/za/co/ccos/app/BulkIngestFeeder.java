@@ -0,0 +1,49 @@
+package za.co.ccos.app;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves bulk-loaded consultations onto the job queue a few at a time. Pending jobs are
+ * kept below {@code bulk.ingest.max-pending}, under the backlog at which uploads get 429,
+ * so a migrated backlog drains at the pipeline's pace without locking out clinicians.
+ * Also picks up any consultation left QUEUED without a job.
+ */
+@Component
+@ConditionalOnProperty(name = "pipeline.jobs.worker-enabled", havingValue = "true", matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class BulkIngestFeeder {
+    
+    private final ConsultationJobQueue jobQueue;
+    
+    @Value("${bulk.ingest.max-pending:100}")
+    private int maxPending = 100;
+    
+    @Value("${bulk.ingest.feed-batch:50}")
+    private int feedBatch = 50;
+    
+    @Scheduled(fixedDelayString = "${bulk.ingest.feed-interval-ms:5000}")
+    public void feed() {
+        long room = maxPending - jobQueue.pendingCount();
+        if (room <= 0) {
+            return;
+        }
+        try {
+            int queued = jobQueue.enqueueWaiting((int) Math.min(room, feedBatch));
+            if (queued > 0) {
+                log.info("Queued {} waiting consultations for the pipeline", queued);
+            }
+        } catch (DataIntegrityViolationException e) {
+            // Another node fed the same consultations first; the next run catches up
+            log.debug("Waiting consultations were queued concurrently: {}", e.getMostSpecificCause().getMessage());
+        } catch (Exception e) {
+            log.warn("Feeding waiting consultations failed", e);
+        }
+    }
+}
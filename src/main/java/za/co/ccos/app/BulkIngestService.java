@@ -0,0 +1,267 @@
+package za.co.ccos.app;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.ConsultationState;
+import za.co.ccos.domain.Patient;
+import za.co.ccos.domain.VitalSigns;
+import za.co.ccos.infra.persistence.BulkIngestWriter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Loads patients and consultations from NDJSON, one JSON object per line with a
+ * {@code type} of {@code patient} or {@code consultation}. Lines are read and inserted
+ * in batches of {@code bulk.ingest.batch-size}, so memory stays flat however large the
+ * input is. A line that cannot be read or stored is reported with its number and the
+ * rest of the input still loads; a consultation may refer to a patient from an earlier
+ * line of the same input.
+ * <p>
+ * Consultations are stored QUEUED without a pipeline job; {@link BulkIngestFeeder}
+ * hands them to the job queue at a pace that leaves room for interactive uploads.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BulkIngestService {
+    
+    public record LineError(long line, String error) {
+    }
+    
+    public record Result(long lines, int patients, int consultations, int failed, List<LineError> errors) {
+    }
+    
+    private record Line<T>(long number, T value) {
+    }
+    
+    private final BulkIngestWriter writer;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final PlatformTransactionManager transactionManager;
+    
+    @Value("${bulk.ingest.batch-size:500}")
+    private int batchSize = 500;
+    
+    @Value("${bulk.ingest.max-reported-errors:1000}")
+    private int maxReportedErrors = 1000;
+    
+    public Result ingest(InputStream ndjson) {
+        Report report = new Report();
+        List<Line<Patient>> patients = new ArrayList<>();
+        List<Line<Consultation>> consultations = new ArrayList<>();
+        long number = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8))) {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                number++;
+                if (text.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonNode node = objectMapper.readTree(text);
+                    switch (node.path("type").asText("")) {
+                        case "patient" -> patients.add(new Line<>(number, patient(node)));
+                        case "consultation" -> consultations.add(new Line<>(number, consultation(node)));
+                        default -> throw new IllegalArgumentException("type must be patient or consultation");
+                    }
+                } catch (JsonProcessingException e) {
+                    report.failed(number, "unknown", "Not valid JSON: " + e.getOriginalMessage());
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    report.failed(number, "unknown", e.getMessage());
+                }
+                if (patients.size() + consultations.size() >= batchSize) {
+                    flush(patients, consultations, report);
+                }
+            }
+        } catch (IOException e) {
+            // Everything before the unreadable part is kept; the caller sends the rest again
+            report.failed(number + 1, "input", "Could not read input: " + e.getMessage());
+        }
+        flush(patients, consultations, report);
+        log.info("Bulk ingest of {} lines: {} patients, {} consultations, {} failed",
+                number, report.patients, report.consultations, report.failed);
+        return new Result(number, report.patients, report.consultations, report.failed, report.errors);
+    }
+    
+    private void flush(List<Line<Patient>> patients, List<Line<Consultation>> consultations, Report report) {
+        if (!patients.isEmpty()) {
+            Set<UUID> stored = writer.existingPatientIds(patients.stream().map(l -> l.value().getId()).toList());
+            List<Line<Patient>> fresh = unique(patients, Patient::getId, stored, "Patient", report);
+            store(fresh, "patient", writer::insertPatients, report);
+        }
+        if (!consultations.isEmpty()) {
+            // Sees the patients just stored, including those of this batch
+            Set<UUID> knownPatients = writer.existingPatientIds(
+                    consultations.stream().map(l -> l.value().getPatientId()).distinct().toList());
+            List<Line<Consultation>> valid = new ArrayList<>();
+            for (Line<Consultation> line : consultations) {
+                if (knownPatients.contains(line.value().getPatientId())) {
+                    valid.add(line);
+                } else {
+                    report.failed(line.number(), "consultation", "Patient not found: " + line.value().getPatientId());
+                }
+            }
+            Set<UUID> stored = writer.existingConsultationIds(valid.stream().map(l -> l.value().getId()).toList());
+            store(unique(valid, Consultation::getId, stored, "Consultation", report), "consultation",
+                    writer::insertConsultations, report);
+        }
+        patients.clear();
+        consultations.clear();
+    }
+    
+    private <T> List<Line<T>> unique(List<Line<T>> lines, Function<T, UUID> id, Set<UUID> stored, String kind,
+                                     Report report) {
+        List<Line<T>> fresh = new ArrayList<>();
+        Set<UUID> seen = new HashSet<>(stored);
+        for (Line<T> line : lines) {
+            if (seen.add(id.apply(line.value()))) {
+                fresh.add(line);
+            } else {
+                report.failed(line.number(), kind.toLowerCase(Locale.ROOT), kind + " already exists: " + id.apply(line.value()));
+            }
+        }
+        return fresh;
+    }
+    
+    /**
+     * Inserts the batch in one transaction. If the database rejects it, the rows are
+     * inserted one at a time so only the offending lines fail.
+     */
+    private <T> void store(List<Line<T>> lines, String type, Consumer<List<T>> insert, Report report) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        try {
+            transaction.executeWithoutResult(status -> insert.accept(lines.stream().map(Line::value).toList()));
+            report.stored(type, lines.size());
+        } catch (DataAccessException e) {
+            log.warn("Bulk insert of {} {} rows failed, inserting them one by one: {}", lines.size(), type,
+                    e.getMostSpecificCause().getMessage());
+            for (Line<T> line : lines) {
+                try {
+                    transaction.executeWithoutResult(status -> insert.accept(List.of(line.value())));
+                    report.stored(type, 1);
+                } catch (DataAccessException rowError) {
+                    report.failed(line.number(), type, rowError.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+    }
+    
+    private Patient patient(JsonNode node) {
+        Patient patient = new Patient();
+        patient.setId(uuid(node, "id", false));
+        if (patient.getId() == null) {
+            patient.setId(UUID.randomUUID());
+        }
+        patient.setFirstName(text(node, "firstName", true));
+        patient.setLastName(text(node, "lastName", true));
+        String dob = text(node, "dob", false);
+        patient.setDob(dob != null ? LocalDate.parse(dob) : null);
+        patient.setMedicalRecordNumber(text(node, "medicalRecordNumber", false));
+        JsonNode allergies = node.path("allergies");
+        if (allergies.isArray()) {
+            List<String> names = new ArrayList<>();
+            allergies.forEach(allergy -> names.add(allergy.asText()));
+            patient.setAllergies(String.join(", ", names));
+        } else {
+            patient.setAllergies(text(node, "allergies", false));
+        }
+        node.path("chronicConditions").forEach(condition -> patient.getChronicConditions().add(condition.asText()));
+        return patient;
+    }
+    
+    private Consultation consultation(JsonNode node) {
+        Consultation consultation = new Consultation();
+        consultation.setId(uuid(node, "id", false));
+        if (consultation.getId() == null) {
+            consultation.setId(UUID.randomUUID());
+        }
+        consultation.setPatientId(uuid(node, "patientId", true));
+        consultation.setClinicianId(uuid(node, "clinicianId", true));
+        consultation.setRawTranscript(text(node, "rawTranscript", true));
+        consultation.setAudioUrl(text(node, "audioUrl", false));
+        String createdAt = text(node, "createdAt", false);
+        consultation.setCreatedAt(createdAt != null ? LocalDateTime.parse(createdAt) : LocalDateTime.now());
+        if (node.path("vitalSigns").isObject()) {
+            try {
+                consultation.setVitalSigns(objectMapper.treeToValue(node.get("vitalSigns"), VitalSigns.class));
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("vitalSigns: " + e.getOriginalMessage());
+            }
+        }
+        consultation.setState(ConsultationState.QUEUED);
+        return consultation;
+    }
+    
+    private static String text(JsonNode node, String field, boolean required) {
+        JsonNode value = node.path(field);
+        if (value.isMissingNode() || value.isNull() || value.asText().isBlank()) {
+            if (required) {
+                throw new IllegalArgumentException(field + " is required");
+            }
+            return null;
+        }
+        return value.asText();
+    }
+    
+    private static UUID uuid(JsonNode node, String field, boolean required) {
+        String value = text(node, field, required);
+        try {
+            return value != null ? UUID.fromString(value) : null;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(field + " is not a UUID: " + value);
+        }
+    }
+    
+    private class Report {
+        int patients;
+        int consultations;
+        int failed;
+        final List<LineError> errors = new ArrayList<>();
+        
+        void stored(String type, int count) {
+            if (type.equals("patient")) {
+                patients += count;
+            } else {
+                consultations += count;
+            }
+            meterRegistry.counter("bulk.ingest.lines", "type", type, "outcome", "stored").increment(count);
+        }
+        
+        void failed(long line, String type, String error) {
+            failed++;
+            // Counted in full, but only the first errors are listed so a bad file cannot grow the report
+            if (errors.size() < maxReportedErrors) {
+                errors.add(new LineError(line, error));
+            }
+            meterRegistry.counter("bulk.ingest.lines", "type", type, "outcome", "failed").increment();
+        }
+    }
+}
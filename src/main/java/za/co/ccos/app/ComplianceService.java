@@ -1,23 +1,59 @@
 package za.co.ccos.app;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import za.co.ccos.app.compliance.DrugAllergyRules;
+import za.co.ccos.infra.llm.JsonObjectExtractor;
 import za.co.ccos.infra.llm.LlamaAdapter;
 import za.co.ccos.infra.llm.LlamaException;
 import za.co.ccos.infra.llm.LlamaOptions;
 import za.co.ccos.infra.llm.LlamaResponse;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import za.co.ccos.infra.prompt.PromptName;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Checks a finished note for allergy conflicts and completeness. The local rules
+ * decide most notes; the compliance model is only asked, depending on
+ * {@code compliance.llm-mode}, when a patient has an allergy the rules do not know or
+ * the note words a conflicting drug so that the rules cannot tell if it is prescribed.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ComplianceService {
     
+    public enum LlmMode {
+        /** Rules only; unknown allergies are flagged for manual review */
+        NEVER,
+        /** Ask the model when the rules cannot decide */
+        UNDECIDED,
+        /** Always ask the model as well, e.g. for medicolegal review */
+        ALWAYS
+    }
+    
+    private static final List<String> SOAP_SECTIONS = List.of("subjective", "objective", "assessment", "plan");
+    
     private final LlamaAdapter llamaAdapter;
+    private final PromptTemplateRegistry promptTemplates;
+    private final DrugAllergyRules rules;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${compliance.llm-mode:undecided}")
+    private LlmMode llmMode = LlmMode.UNDECIDED;
     
     public String validateCompliance(String soapJson, String icd10Json, String allergies) throws LlamaException {
         List<String> allergyList = new java.util.ArrayList<>();
@@ -28,41 +64,147 @@ public class ComplianceService {
     }
     
     public String validateCompliance(String soapJson, String icd10Json, List<String> allergies) throws LlamaException {
-        try {
-            String promptTemplate = loadPromptTemplate("prompts/compliance.prompt.txt");
-            
-            String prompt = promptTemplate
-                    .replace("<<SOAP_JSON>>", soapJson != null ? soapJson : "{}")
-                    .replace("<<ICD10_JSON>>", icd10Json != null ? icd10Json : "[]")
-                    .replace("<<PATIENT_ALLERGIES>>", allergies != null && !allergies.isEmpty() ? String.join(", ", allergies) : "None");
-            
-            LlamaOptions options = LlamaOptions.builder()
-                    .temperature(0.1)
-                    .maxTokens(1024)
-                    .build();
-            
-            log.info("Running compliance agent");
-            LlamaResponse response = llamaAdapter.runPrompt(prompt, options);
-            
-            return extractJsonFromResponse(response.getContent());
-            
-        } catch (IOException e) {
-            throw new LlamaException("Failed to validate compliance", e);
+        return validateCompliance(soapJson, icd10Json, allergies, null);
+    }
+    
+    /**
+     * @param actionsJson the coordination stage's suggested actions, scanned for
+     *                    prescriptions along with the plan; may be null
+     * @return JSON with {@code issues}, {@code suggested_edits} and {@code compliance_ok}
+     */
+    public String validateCompliance(String soapJson, String icd10Json, List<String> allergies, String actionsJson)
+            throws LlamaException {
+        return validateCompliance(soapJson, icd10Json, allergies, actionsJson, null);
+    }
+    
+    /**
+     * @param modelReview the compliance model's review when it was already obtained,
+     *                    e.g. by the fused coordination call; used instead of asking the
+     *                    model again. May be null.
+     */
+    public String validateCompliance(String soapJson, String icd10Json, List<String> allergies, String actionsJson,
+                                     JsonNode modelReview) throws LlamaException {
+        JsonNode soap = readTree(soapJson);
+        Map<String, String> texts = new LinkedHashMap<>();
+        texts.put("plan", soap.path("plan").asText(null));
+        texts.put("suggested_actions", actionsJson);
+        List<String> allergyList = allergies != null ? allergies : List.of();
+        
+        long start = System.nanoTime();
+        DrugAllergyRules.Verdict verdict = rules.evaluate(allergyList, texts);
+        ObjectNode result = objectMapper.createObjectNode();
+        ArrayNode issues = result.putArray("issues");
+        ArrayNode edits = result.putArray("suggested_edits");
+        verdict.issues().forEach(issue -> issues.addPOJO(issue));
+        verdict.suggestedEdits().forEach(edit -> edits.addPOJO(edit));
+        checkCompleteness(soap, icd10Json, issues);
+        meterRegistry.timer("compliance.rules.duration").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        
+        boolean askModel = llmMode == LlmMode.ALWAYS || (llmMode == LlmMode.UNDECIDED && !verdict.decided());
+        meterRegistry.counter("compliance.checks", "decided_by", askModel ? "llm" : "rules").increment();
+        if (askModel) {
+            log.info("Running compliance agent{}", verdict.decided() ? ""
+                    : " as the rules cannot decide: unknown allergies " + verdict.unrecognizedAllergies()
+                    + ", unclear mentions " + verdict.unclearMentions());
+            JsonNode modelResult = modelReview != null
+                    ? modelReview : readTree(runModel(soapJson, icd10Json, allergyList));
+            modelResult.path("issues").forEach(issues::add);
+            modelResult.path("suggested_edits").forEach(edits::add);
+        } else {
+            verdict.unrecognizedAllergies().forEach(allergy -> issues.addObject()
+                    .put("type", "UNVERIFIED_ALLERGY")
+                    .put("detail", "Allergy '" + allergy + "' is not in the drug dictionary; check the plan manually."));
+            verdict.unclearMentions().forEach(drug -> issues.addObject()
+                    .put("type", "UNVERIFIED_PRESCRIPTION")
+                    .put("detail", "Could not tell whether " + drug + " is prescribed; check the plan manually."));
+            log.info("Compliance decided by rules: {} issue(s)", issues.size());
+        }
+        result.put("compliance_ok", issues.isEmpty());
+        return result.toString();
+    }
+    
+    /**
+     * Adds the rules' findings on the coordination stage's suggested actions to the
+     * result of {@link #validateCompliance}. Rules only, so a note checked while its
+     * actions were still being generated is not sent to the model a second time.
+     *
+     * @return the combined JSON, with {@code compliance_ok} recomputed
+     */
+    public String checkActions(String complianceJson, List<String> allergies, String actionsJson) {
+        JsonNode checked = readTree(complianceJson);
+        ObjectNode result = checked.isObject() ? (ObjectNode) checked : objectMapper.createObjectNode();
+        ArrayNode issues = result.path("issues").isArray() ? (ArrayNode) result.get("issues") : result.putArray("issues");
+        ArrayNode edits = result.path("suggested_edits").isArray()
+                ? (ArrayNode) result.get("suggested_edits") : result.putArray("suggested_edits");
+        if (actionsJson != null) {
+            DrugAllergyRules.Verdict verdict = rules.evaluate(allergies != null ? allergies : List.of(),
+                    Map.of("suggested_actions", actionsJson));
+            // A drug both the plan and the actions name is reported once
+            Set<String> reported = new HashSet<>();
+            issues.forEach(issue -> reported.add(issue.path("detail").asText()));
+            verdict.issues().stream()
+                    .filter(issue -> reported.add(issue.detail()))
+                    .forEach(issue -> issues.addPOJO(issue));
+            verdict.suggestedEdits().forEach(edit -> edits.addPOJO(edit));
+            verdict.unclearMentions().forEach(drug -> issues.addObject()
+                    .put("type", "UNVERIFIED_PRESCRIPTION")
+                    .put("detail", "Could not tell whether " + drug + " is suggested; check the actions manually."));
+        }
+        result.put("compliance_ok", issues.isEmpty());
+        return result.toString();
+    }
+    
+    /**
+     * Whether checking a note for these allergies will ask the compliance model. The
+     * rules decide from the allergies alone, before any note or action is written.
+     */
+    public boolean needsModel(List<String> allergies) {
+        return llmMode == LlmMode.ALWAYS || (llmMode == LlmMode.UNDECIDED
+                && !rules.evaluate(allergies != null ? allergies : List.of(), Map.of()).decided());
+    }
+    
+    private void checkCompleteness(JsonNode soap, String icd10Json, ArrayNode issues) {
+        for (String section : SOAP_SECTIONS) {
+            if (soap.path(section).asText("").isBlank()) {
+                issues.addObject()
+                        .put("type", "INCOMPLETE_NOTE")
+                        .put("detail", "The " + section + " section of the SOAP note is empty.");
+            }
+        }
+        // Documentation stores the suggestions as a JSON array
+        if (icd10Json == null || icd10Json.isBlank() || icd10Json.replaceAll("\\s", "").equals("[]")) {
+            issues.addObject()
+                    .put("type", "MISSING_CODING")
+                    .put("detail", "No ICD-10 code recorded for billing.");
         }
     }
     
-    private String loadPromptTemplate(String path) throws IOException {
-        ClassPathResource resource = new ClassPathResource(path);
-        return new String(resource.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    private String runModel(String soapJson, String icd10Json, List<String> allergies) throws LlamaException {
+        String prompt = promptTemplates.render(PromptName.COMPLIANCE, Map.of(
+                "SOAP_JSON", soapJson != null ? soapJson : "{}",
+                "ICD10_JSON", icd10Json != null ? icd10Json : "[]",
+                "PATIENT_ALLERGIES", !allergies.isEmpty() ? String.join(", ", allergies) : "None"));
+        
+        LlamaOptions options = LlamaOptions.builder()
+                .temperature(0.1)
+                .maxTokens(1024)
+                .stage("compliance")
+                .jsonOutput(true)
+                .build();
+        
+        LlamaResponse response = llamaAdapter.runPrompt(prompt, options);
+        
+        return JsonObjectExtractor.extract(response.getContent());
     }
     
-    private String extractJsonFromResponse(String response) {
-        response = response.trim();
-        int start = response.indexOf('{');
-        int end = response.lastIndexOf('}');
-        if (start >= 0 && end > start) {
-            return response.substring(start, end + 1);
+    private JsonNode readTree(String json) {
+        if (json == null || json.isBlank()) {
+            return objectMapper.createObjectNode();
+        }
+        try {
+            return objectMapper.readTree(json);
+        } catch (Exception e) {
+            return objectMapper.createObjectNode();
         }
-        return response;
     }
 }
@@ -0,0 +1,101 @@
+package za.co.ccos.app;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import za.co.ccos.app.ApprovalArtifactService.ApprovalArtifacts;
+import za.co.ccos.domain.*;
+import za.co.ccos.infra.persistence.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Approves consultations. The state change and the side effects it triggers, the
+ * patient email and the EHR sync, are written to the outbox in the same transaction,
+ * and {@link OutboxDispatcher} delivers them afterwards. Approving therefore never
+ * waits on a downstream system, and a crash cannot leave an approval without its sync.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ConsultationApprovalService {
+    
+    private final ConsultationRepository consultationRepository;
+    private final GeneratedNoteRepository generatedNoteRepository;
+    private final PatientRepository patientRepository;
+    private final OutboxMessageRepository outboxRepository;
+    private final ApprovalArtifactService approvalArtifacts;
+    private final ApplicationEventPublisher eventPublisher;
+    private final PlatformTransactionManager transactionManager;
+    
+    @Value("${outbox.max-attempts:8}")
+    private int maxAttempts = 8;
+    
+    /**
+     * Marks the consultation APPROVED and queues its side effects. Approving a
+     * consultation that is already APPROVED or SYNCED changes nothing.
+     *
+     * @return the follow-up recommendation if it was prepared in advance, otherwise null
+     */
+    public String approve(UUID consultationId, UUID clinicianId) {
+        Consultation consultation = new TransactionTemplate(transactionManager).execute(status -> {
+            Consultation c = consultationRepository.findById(consultationId)
+                    .orElseThrow(() -> new RuntimeException("Consultation not found"));
+            if (c.getState() == ConsultationState.APPROVED || c.getState() == ConsultationState.SYNCED) {
+                return null;
+            }
+            c.setState(ConsultationState.APPROVED);
+            consultationRepository.save(c);
+            
+            // Keyed by note, so approving a reprocessed consultation delivers its new note
+            String noteKey = c.getGeneratedNoteId() != null ? c.getGeneratedNoteId().toString() : "none";
+            if (c.getGeneratedNoteId() != null) {
+                addMessage(c.getId(), OutboxMessageType.PATIENT_EMAIL, noteKey);
+            }
+            addMessage(c.getId(), OutboxMessageType.EHR_SYNC, noteKey);
+            return c;
+        });
+        if (consultation == null) {
+            log.info("Consultation {} was already approved", consultationId);
+            return null;
+        }
+        
+        eventPublisher.publishEvent(ConsultationProgressEvent.stateChanged(consultationId, ConsultationState.APPROVED, null));
+        log.info("Consultation {} approved by clinician {}", consultationId, clinicianId);
+        return precomputedRecommendation(consultation);
+    }
+    
+    private void addMessage(UUID consultationId, OutboxMessageType type, String noteKey) {
+        String idempotencyKey = type + ":" + consultationId + ":" + noteKey;
+        if (outboxRepository.existsByIdempotencyKey(idempotencyKey)) {
+            return;
+        }
+        OutboxMessage message = new OutboxMessage();
+        message.setConsultationId(consultationId);
+        message.setType(type);
+        message.setIdempotencyKey(idempotencyKey);
+        message.setStatus(JobStatus.PENDING);
+        message.setMaxAttempts(maxAttempts);
+        message.setAvailableAt(LocalDateTime.now());
+        outboxRepository.save(message);
+    }
+    
+    private String precomputedRecommendation(Consultation consultation) {
+        if (consultation.getGeneratedNoteId() == null) {
+            return null;
+        }
+        GeneratedNote note = generatedNoteRepository.findById(consultation.getGeneratedNoteId()).orElse(null);
+        Patient patient = patientRepository.findById(consultation.getPatientId()).orElse(null);
+        if (note == null || patient == null) {
+            return null;
+        }
+        return approvalArtifacts.precomputed(note, patient)
+                .map(ApprovalArtifacts::appointmentRecommendation)
+                .orElse(null);
+    }
+}
@@ -0,0 +1,308 @@
+package za.co.ccos.app;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import za.co.ccos.domain.*;
+import za.co.ccos.infra.persistence.*;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable queue of consultations waiting for the pipeline. Any number of nodes can
+ * claim from it: on PostgreSQL with {@code FOR UPDATE SKIP LOCKED}, elsewhere (H2)
+ * with a compare-and-set update per row. A claim is a lease; the owning worker keeps
+ * extending it, and the reaper returns jobs whose lease lapsed to the queue.
+ * <p>
+ * The number of pending jobs is published as {@code pipeline.jobs.pending} and the
+ * time a due job waited for a worker as {@code pipeline.jobs.claim.wait}.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ConsultationJobQueue {
+    
+    private final ConsultationJobRepository jobRepository;
+    private final ConsultationRepository consultationRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final PlatformTransactionManager transactionManager;
+    private final DataSource dataSource;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${pipeline.jobs.max-attempts:3}")
+    private int maxAttempts;
+    
+    @Value("${pipeline.jobs.visibility-timeout:10m}")
+    private Duration visibilityTimeout;
+    
+    @Value("${pipeline.jobs.retry-backoff:30s}")
+    private Duration retryBackoff;
+    
+    @Value("${pipeline.jobs.max-retry-backoff:10m}")
+    private Duration maxRetryBackoff;
+    
+    private boolean skipLocked;
+    
+    // Counted every pending-refresh-ms, and adjusted in between by what this node queues and claims
+    private final AtomicLong pending = new AtomicLong();
+    private Timer claimWait;
+    
+    @PostConstruct
+    void init() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            skipLocked = "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+        }
+        log.info("Consultation job queue claiming with {}", skipLocked ? "FOR UPDATE SKIP LOCKED" : "compare-and-set updates");
+        
+        refreshPendingCount();
+        Gauge.builder("pipeline.jobs.pending", pending, AtomicLong::get)
+                .description("Consultation jobs waiting for a pipeline worker, across all nodes")
+                .register(meterRegistry);
+        claimWait = Timer.builder("pipeline.jobs.claim.wait")
+                .description("Time a due consultation job waits before a worker claims it")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+    
+    /**
+     * @throws DataIntegrityViolationException if the consultation already has a job
+     */
+    public void enqueue(UUID consultationId) {
+        jobRepository.insertPending(consultationId, maxAttempts, LocalDateTime.now());
+        pending.incrementAndGet();
+    }
+    
+    /**
+     * Stores a new consultation together with its job, so {@link BulkIngestFeeder} never
+     * sees it QUEUED without one and queues it a second time
+     */
+    public Consultation submit(Consultation consultation) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            Consultation saved = consultationRepository.save(consultation);
+            enqueue(saved.getId());
+            return saved;
+        });
+    }
+    
+    /**
+     * Queues up to {@code limit} consultations that were stored QUEUED without a job,
+     * such as bulk-loaded ones
+     *
+     * @return how many were queued
+     */
+    public int enqueueWaiting(int limit) {
+        int queued = jobRepository.enqueueWaiting(maxAttempts, LocalDateTime.now(), limit);
+        pending.addAndGet(queued);
+        return queued;
+    }
+    
+    /**
+     * Puts a finished or dead-lettered consultation back on the queue with a fresh
+     * attempt budget
+     */
+    public void requeue(UUID consultationId) {
+        ConsultationJob job = jobRepository.findById(consultationId).orElseGet(() -> {
+            ConsultationJob created = new ConsultationJob();
+            created.setConsultationId(consultationId);
+            return created;
+        });
+        job.setStatus(JobStatus.PENDING);
+        job.setAttempts(0);
+        job.setMaxAttempts(maxAttempts);
+        job.setAvailableAt(LocalDateTime.now());
+        job.setLockedBy(null);
+        job.setLockedUntil(null);
+        job.setLastError(null);
+        jobRepository.save(job);
+        pending.incrementAndGet();
+    }
+    
+    /**
+     * @return whether the consultation is waiting for or running on a worker
+     */
+    public boolean isActive(UUID consultationId) {
+        return jobRepository.findById(consultationId)
+                .map(job -> job.getStatus() == JobStatus.PENDING || job.getStatus() == JobStatus.RUNNING)
+                .orElse(false);
+    }
+    
+    /**
+     * Pending jobs as last counted, without a query; cheap enough to check on every upload
+     */
+    public long pendingCount() {
+        return pending.get();
+    }
+    
+    @Scheduled(fixedDelayString = "${pipeline.jobs.pending-refresh-ms:1000}")
+    public void refreshPendingCount() {
+        pending.set(jobRepository.countByStatus(JobStatus.PENDING));
+    }
+    
+    /**
+     * Claims up to {@code limit} due jobs for this node and returns them RUNNING
+     */
+    public List<ConsultationJob> claim(String nodeId, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime leaseUntil = now.plus(visibilityTimeout);
+        
+        List<UUID> claimed;
+        if (skipLocked) {
+            claimed = new TransactionTemplate(transactionManager).execute(status -> {
+                List<UUID> locked = jobRepository.lockAvailable(now, limit);
+                locked.forEach(id -> jobRepository.claim(id, nodeId, leaseUntil, now, JobStatus.RUNNING, JobStatus.PENDING));
+                return locked;
+            });
+        } else {
+            claimed = new ArrayList<>();
+            for (UUID id : jobRepository.findAvailable(JobStatus.PENDING, now, PageRequest.of(0, limit))) {
+                if (jobRepository.claim(id, nodeId, leaseUntil, now, JobStatus.RUNNING, JobStatus.PENDING) == 1) {
+                    claimed.add(id);
+                }
+            }
+        }
+        if (claimed.isEmpty()) {
+            return List.of();
+        }
+        pending.addAndGet(-claimed.size());
+        List<ConsultationJob> jobs = jobRepository.findAllById(claimed);
+        for (ConsultationJob job : jobs) {
+            if (job.getAvailableAt() != null && job.getAvailableAt().isBefore(now)) {
+                claimWait.record(Duration.between(job.getAvailableAt(), now));
+            } else {
+                claimWait.record(Duration.ZERO);
+            }
+        }
+        return jobs;
+    }
+    
+    public void extendLeases(String nodeId, Collection<UUID> consultationIds) {
+        if (!consultationIds.isEmpty()) {
+            LocalDateTime now = LocalDateTime.now();
+            jobRepository.extendLeases(consultationIds, nodeId, now.plus(visibilityTimeout), now, JobStatus.RUNNING);
+        }
+    }
+    
+    /**
+     * The outcome methods below only apply while {@code nodeId} still holds the job.
+     *
+     * @return false if the lease was lost, e.g. reaped and claimed by another node
+     */
+    public boolean complete(UUID consultationId, String nodeId) {
+        return jobRepository.findById(consultationId)
+                .map(job -> finish(job, nodeId, JobStatus.COMPLETED, job.getAvailableAt(), job.getLastError()))
+                .orElse(false);
+    }
+    
+    /**
+     * Puts a failed job back on the queue after an exponential backoff
+     */
+    public boolean retryLater(UUID consultationId, String nodeId, String error) {
+        return jobRepository.findById(consultationId).map(job -> {
+            Duration delay = backoff(job.getAttempts());
+            boolean retried = finish(job, nodeId, JobStatus.PENDING, LocalDateTime.now().plus(delay),
+                    error != null ? error : consultationError(consultationId));
+            if (retried) {
+                pending.incrementAndGet();
+                log.info("Consultation {} failed attempt {}/{}, retrying in {}s",
+                        consultationId, job.getAttempts(), job.getMaxAttempts(), delay.toSeconds());
+            }
+            return retried;
+        }).orElse(false);
+    }
+    
+    public boolean deadLetter(UUID consultationId, String nodeId, String error) {
+        return jobRepository.findById(consultationId).map(job -> {
+            String lastError = error != null ? error : consultationError(consultationId);
+            boolean dead = finish(job, nodeId, JobStatus.DEAD, job.getAvailableAt(), lastError);
+            if (dead) {
+                log.warn("Consultation {} dead-lettered after {} attempts: {}", consultationId, job.getAttempts(), lastError);
+            }
+            return dead;
+        }).orElse(false);
+    }
+    
+    /**
+     * Returns a claimed job untouched, e.g. when the local executor refused it
+     */
+    public boolean release(UUID consultationId, String nodeId) {
+        boolean released = jobRepository.release(consultationId, nodeId, LocalDateTime.now(), JobStatus.PENDING, JobStatus.RUNNING) == 1;
+        if (released) {
+            pending.incrementAndGet();
+        }
+        return released;
+    }
+    
+    /**
+     * Recovers jobs whose worker died or hung past the visibility timeout, together
+     * with the consultation it left in PROCESSING. Each job is first taken over with a
+     * compare-and-set, so a lease extended meanwhile or a second reaper is left alone.
+     */
+    @Scheduled(fixedDelayString = "${pipeline.jobs.reaper-interval-ms:30000}")
+    public void reapExpiredLeases() {
+        LocalDateTime now = LocalDateTime.now();
+        for (ConsultationJob job : jobRepository.findByStatusAndLockedUntilBefore(JobStatus.RUNNING, now)) {
+            String reaper = "reaper-" + UUID.randomUUID();
+            if (jobRepository.takeOver(job.getConsultationId(), job.getLockedBy(), reaper, now, JobStatus.RUNNING) != 1) {
+                continue;
+            }
+            String error = "Worker " + job.getLockedBy() + " lost its lease";
+            if (job.hasAttemptsLeft()) {
+                retryLater(job.getConsultationId(), reaper, error);
+                setConsultationState(job.getConsultationId(), ConsultationState.QUEUED, error);
+            } else {
+                deadLetter(job.getConsultationId(), reaper, error);
+                setConsultationState(job.getConsultationId(), ConsultationState.ERROR, error);
+            }
+        }
+    }
+    
+    private boolean finish(ConsultationJob job, String nodeId, JobStatus status, LocalDateTime availableAt, String error) {
+        boolean finished = jobRepository.finish(job.getConsultationId(), nodeId, status, availableAt, error,
+                LocalDateTime.now(), JobStatus.RUNNING) == 1;
+        if (!finished) {
+            log.warn("Node {} no longer holds consultation {}, not marking it {}", nodeId, job.getConsultationId(), status);
+        }
+        return finished;
+    }
+    
+    private Duration backoff(int attempts) {
+        Duration delay = retryBackoff.multipliedBy(1L << Math.min(Math.max(attempts - 1, 0), 16));
+        return delay.compareTo(maxRetryBackoff) > 0 ? maxRetryBackoff : delay;
+    }
+    
+    private String consultationError(UUID consultationId) {
+        return consultationRepository.findById(consultationId).map(Consultation::getErrorMessage).orElse(null);
+    }
+    
+    private void setConsultationState(UUID consultationId, ConsultationState state, String error) {
+        consultationRepository.findById(consultationId).ifPresent(c -> {
+            c.setState(state);
+            c.setErrorMessage(error);
+            consultationRepository.save(c);
+            eventPublisher.publishEvent(ConsultationProgressEvent.stateChanged(consultationId, state, error));
+        });
+    }
+}
@@ -0,0 +1,92 @@
+package za.co.ccos.app;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import za.co.ccos.domain.ConsultationJob;
+import za.co.ccos.domain.ConsultationState;
+
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pulls consultations from {@link ConsultationJobQueue} onto this node's pipeline
+ * executor. Claims only as many jobs as there are idle pipeline threads, so a lease
+ * is never held by a job sitting in a local queue, and heartbeats the leases of the
+ * jobs it is running.
+ */
+@Component
+@ConditionalOnProperty(name = "pipeline.jobs.worker-enabled", havingValue = "true", matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class ConsultationJobWorker {
+    
+    private final ConsultationJobQueue jobQueue;
+    private final ConsultationOrchestrator orchestrator;
+    
+    @Value("${pipeline.jobs.node-id:}")
+    private String nodeId;
+    
+    @Value("${pipeline.executor.pool-size:8}")
+    private int poolSize;
+    
+    private final Set<UUID> running = ConcurrentHashMap.newKeySet();
+    
+    @PostConstruct
+    void init() throws Exception {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = InetAddress.getLocalHost().getHostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+        log.info("Consultation job worker {} started with {} slots", nodeId, poolSize);
+    }
+    
+    @Scheduled(fixedDelayString = "${pipeline.jobs.poll-interval-ms:500}")
+    public void poll() {
+        for (ConsultationJob job : jobQueue.claim(nodeId, poolSize - running.size())) {
+            start(job);
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${pipeline.jobs.heartbeat-interval-ms:60000}")
+    public void heartbeat() {
+        jobQueue.extendLeases(nodeId, Set.copyOf(running));
+    }
+    
+    private void start(ConsultationJob job) {
+        UUID consultationId = job.getConsultationId();
+        running.add(consultationId);
+        try {
+            orchestrator.processConsultation(consultationId, job.hasAttemptsLeft())
+                    .whenComplete((state, error) -> finish(consultationId, state, error));
+        } catch (TaskRejectedException e) {
+            running.remove(consultationId);
+            jobQueue.release(consultationId, nodeId);
+        }
+    }
+    
+    private void finish(UUID consultationId, ConsultationState state, Throwable error) {
+        try {
+            // A null error means the orchestrator already recorded it on the consultation
+            String message = error != null ? error.getMessage() : null;
+            if (error == null && state == ConsultationState.READY) {
+                jobQueue.complete(consultationId, nodeId);
+            } else if (error == null && state == ConsultationState.QUEUED) {
+                jobQueue.retryLater(consultationId, nodeId, message);
+            } else {
+                jobQueue.deadLetter(consultationId, nodeId, message);
+            }
+        } catch (Exception e) {
+            // The lease will lapse and the reaper takes over
+            log.error("Failed to record outcome of consultation {}", consultationId, e);
+        } finally {
+            running.remove(consultationId);
+        }
+    }
+}
@@ -2,20 +2,75 @@ package za.co.ccos.app;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import za.co.ccos.app.ConsultationProgressEvent.StageStatus;
+import za.co.ccos.app.pipeline.PipelineContext;
+import za.co.ccos.app.pipeline.PipelineGraph;
+import za.co.ccos.app.pipeline.PipelineStage;
+import za.co.ccos.app.pipeline.StageListener;
+import za.co.ccos.config.AsyncConfig;
 import za.co.ccos.domain.*;
 import za.co.ccos.infra.persistence.*;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ConsultationOrchestrator {
     
+    /**
+     * How actions are generated and reviewed after documentation
+     */
+    public enum PipelineMode {
+        /** Coordination, then compliance, each with its own model call */
+        SEPARATE,
+        /** One model call returns the actions and the compliance review, when compliance needs the model */
+        FUSED
+    }
+    
+    // Values exchanged between pipeline stages
+    private static final String TRANSCRIPT = "transcript";
+    private static final String PATIENT = "patient";
+    private static final String CONSULTATION = "consultation";
+    private static final String STRUCTURED_JSON = "structuredJson";
+    private static final String NOTE = "note";
+    private static final String SOAP_JSON = "soapJson";
+    private static final String ACTIONS = "actions";
+    private static final String NOTE_COMPLIANCE = "noteCompliance";
+    private static final String COMPLIANCE_RESULT = "complianceResult";
+    
+    // Stages after documentation, timed together as pipeline.review.duration
+    private static final Set<String> REVIEW_STAGES = Set.of("coordination", "compliance", "action-compliance",
+            "coordination-compliance");
+    
+    // Stage outputs worth checkpointing, and the type each one is restored as
+    private static final Map<String, Class<?>> CHECKPOINT_TYPES = Map.of(
+            STRUCTURED_JSON, String.class,
+            NOTE, GeneratedNote.class,
+            SOAP_JSON, String.class,
+            ACTIONS, String.class,
+            NOTE_COMPLIANCE, String.class,
+            COMPLIANCE_RESULT, String.class);
+    
     private final PerceptionService perceptionService;
     private final DocumentationService documentationService;
     private final CoordinationService coordinationService;
@@ -23,10 +78,153 @@ public class ConsultationOrchestrator {
     private final ConsultationRepository consultationRepository;
     private final PatientRepository patientRepository;
     private final GeneratedNoteRepository generatedNoteRepository;
+    private final StageCheckpointService checkpoints;
     private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MeterRegistry meterRegistry;
+    @Qualifier(AsyncConfig.PIPELINE_STAGE_EXECUTOR)
+    private final TaskExecutor stageExecutor;
+    
+    @Value("${pipeline.stage-timeout.perception:90s}")
+    private Duration perceptionTimeout;
+    
+    @Value("${pipeline.stage-timeout.documentation:120s}")
+    private Duration documentationTimeout;
+    
+    @Value("${pipeline.stage-timeout.coordination:90s}")
+    private Duration coordinationTimeout;
+    
+    @Value("${pipeline.stage-timeout.compliance:90s}")
+    private Duration complianceTimeout;
+    
+    @Value("${pipeline.mode:separate}")
+    private PipelineMode mode = PipelineMode.SEPARATE;
+    
+    private PipelineGraph pipeline;
     
-    @Async
-    public void processConsultation(UUID consultationId) {
+    /**
+     * Perception feeds Documentation, which feeds Coordination and Compliance in parallel.
+     * The suggested actions are checked once both finish, by the local allergy rules
+     * only, so the compliance model never waits for coordination. In {@link PipelineMode#FUSED}
+     * mode coordination and compliance run as one stage that asks the model once for both.
+     */
+    @PostConstruct
+    void buildPipeline() {
+        PipelineGraph.Builder builder = PipelineGraph.builder()
+                .stage(checkpointed("perception", Set.of(TRANSCRIPT, PATIENT), Set.of(STRUCTURED_JSON),
+                        perceptionTimeout, ctx -> {
+                            JsonNode structuredFacts = perceptionService.extractStructuredFacts(
+                                    ctx.get(TRANSCRIPT, String.class), ctx.get(PATIENT, Patient.class));
+                            String structuredJson = objectMapper.writeValueAsString(structuredFacts);
+                            consultationRepository.updateStructuredData(
+                                    ctx.get(CONSULTATION, Consultation.class).getId(), structuredJson);
+                            return Map.of(STRUCTURED_JSON, structuredJson);
+                        }))
+                .stage(checkpointed("documentation", Set.of(STRUCTURED_JSON, TRANSCRIPT, CONSULTATION),
+                        Set.of(NOTE, SOAP_JSON), documentationTimeout, ctx -> {
+                            Consultation consultation = ctx.get(CONSULTATION, Consultation.class);
+                            // Saved now so the checkpoint carries its id, and a resumed attempt
+                            // updates this row instead of adding another
+                            GeneratedNote note = generatedNoteRepository.save(documentationService.generateDocumentation(
+                                    ctx.get(STRUCTURED_JSON, String.class),
+                                    ctx.get(TRANSCRIPT, String.class),
+                                    consultation.getId(),
+                                    consultation.getClinicianId()));
+                            return Map.of(NOTE, note, SOAP_JSON, toSoapJson(note));
+                        }));
+        if (mode == PipelineMode.FUSED) {
+            builder.stage(checkpointed("coordination-compliance", Set.of(STRUCTURED_JSON, SOAP_JSON, NOTE, PATIENT),
+                    Set.of(ACTIONS, COMPLIANCE_RESULT), coordinationTimeout.plus(complianceTimeout),
+                    this::coordinateAndCheck));
+        } else {
+            builder.stage(checkpointed("coordination", Set.of(STRUCTURED_JSON, SOAP_JSON), Set.of(ACTIONS),
+                            coordinationTimeout, ctx -> Map.of(ACTIONS, coordinationService.generateActions(
+                                    ctx.get(STRUCTURED_JSON, String.class), ctx.get(SOAP_JSON, String.class)))))
+                    .stage(checkpointed("compliance", Set.of(SOAP_JSON, NOTE, PATIENT),
+                            Set.of(NOTE_COMPLIANCE), complianceTimeout, ctx -> Map.of(NOTE_COMPLIANCE,
+                                    complianceService.validateCompliance(
+                                            ctx.get(SOAP_JSON, String.class),
+                                            ctx.get(NOTE, GeneratedNote.class).getIcd10Codes(),
+                                            ctx.get(PATIENT, Patient.class).getAllergies()))))
+                    .stage(checkpointed("action-compliance", Set.of(NOTE_COMPLIANCE, ACTIONS, PATIENT),
+                            Set.of(COMPLIANCE_RESULT), complianceTimeout, ctx -> Map.of(COMPLIANCE_RESULT,
+                                    complianceService.checkActions(
+                                            ctx.get(NOTE_COMPLIANCE, String.class),
+                                            ctx.get(PATIENT, Patient.class).getAllergies(),
+                                            ctx.get(ACTIONS, String.class)))));
+        }
+        pipeline = builder.build();
+        log.info("Consultation pipeline stages ({} mode): {}", mode, pipeline.getStageNames());
+    }
+    
+    /**
+     * The fused stage. When the rules can decide the patient's allergies without the
+     * model there is no compliance call to save, so only the actions are generated.
+     */
+    private Map<String, Object> coordinateAndCheck(PipelineContext ctx) throws Exception {
+        String structuredJson = ctx.get(STRUCTURED_JSON, String.class);
+        String soapJson = ctx.get(SOAP_JSON, String.class);
+        String icd10Json = ctx.get(NOTE, GeneratedNote.class).getIcd10Codes();
+        List<String> allergies = ctx.get(PATIENT, Patient.class).getAllergies();
+        
+        String actions;
+        JsonNode review = null;
+        if (complianceService.needsModel(allergies)) {
+            CoordinationService.ActionsAndReview fused = coordinationService.generateActionsAndReview(
+                    structuredJson, soapJson, icd10Json, allergies);
+            actions = fused.actionsJson();
+            review = fused.review();
+        } else {
+            actions = coordinationService.generateActions(structuredJson, soapJson);
+        }
+        return Map.of(ACTIONS, actions, COMPLIANCE_RESULT,
+                complianceService.validateCompliance(soapJson, icd10Json, allergies, actions, review));
+    }
+    
+    /**
+     * Saves what the stage produced once it succeeds, keyed by the consultation being processed
+     */
+    private PipelineStage checkpointed(String name, Set<String> inputs, Set<String> outputs, Duration timeout,
+                                       PipelineStage.Action action) {
+        Set<String> withConsultation = new HashSet<>(inputs);
+        withConsultation.add(CONSULTATION);
+        return new PipelineStage(name, withConsultation, outputs, timeout, ctx -> {
+            Map<String, Object> produced = action.run(ctx);
+            checkpoints.save(ctx.get(CONSULTATION, Consultation.class).getId(), name, produced);
+            return produced;
+        });
+    }
+    
+    /**
+     * Discards the checkpoints of the named stage and everything downstream of it, so
+     * the next attempt recomputes them.
+     *
+     * @return the stages that will run again
+     * @throws IllegalArgumentException if there is no such stage
+     */
+    public List<String> resetFromStage(UUID consultationId, String fromStage) {
+        List<String> stages = pipeline.downstreamOf(fromStage);
+        checkpoints.discard(consultationId, stages);
+        return stages;
+    }
+    
+    @Async(AsyncConfig.CONSULTATION_EXECUTOR)
+    public CompletableFuture<ConsultationState> processConsultation(UUID consultationId) {
+        return CompletableFuture.completedFuture(process(consultationId, false));
+    }
+    
+    /**
+     * Runs one attempt from the job queue. When another attempt will follow, a failure
+     * returns the consultation to QUEUED instead of ERROR.
+     *
+     * @return READY on success, otherwise QUEUED or ERROR
+     */
+    @Async(AsyncConfig.CONSULTATION_EXECUTOR)
+    public CompletableFuture<ConsultationState> processConsultation(UUID consultationId, boolean willRetry) {
+        return CompletableFuture.completedFuture(process(consultationId, willRetry));
+    }
+    
+    private ConsultationState process(UUID consultationId, boolean willRetry) {
         try {
             log.info("Starting async processing of consultation {}", consultationId);
             
@@ -42,47 +240,70 @@ public class ConsultationOrchestrator {
             
             log.info("Processing consultation {} for patient {}", consultationId, patient.getId());
             
-            // Step 1: Perception - extract structured facts
-            JsonNode structuredFacts = perceptionService.extractStructuredFacts(
-                    consultation.getRawTranscript(), patient);
-            String structuredJson = objectMapper.writeValueAsString(structuredFacts);
-            
-            // Step 2: Documentation - generate SOAP note
-            GeneratedNote note = documentationService.generateDocumentation(
-                    structuredJson, 
-                    consultation.getRawTranscript(),
-                    consultationId,
-                    consultation.getClinicianId());
+            PipelineContext context = new PipelineContext()
+                    .put(TRANSCRIPT, consultation.getRawTranscript())
+                    .put(PATIENT, patient)
+                    .put(CONSULTATION, consultation);
             
-            // Step 3: Coordination - generate actions
-            String soapJson = objectMapper.writeValueAsString(objectMapper.createObjectNode()
-                    .put("subjective", note.getSoapSubjective())
-                    .put("objective", note.getSoapObjective())
-                    .put("assessment", note.getSoapAssessment())
-                    .put("plan", note.getSoapPlan()));
+            // Stages whose outputs were checkpointed by an earlier attempt are skipped
+            Map<String, Object> restored = checkpoints.restore(consultationId, CHECKPOINT_TYPES);
+            if (!restored.isEmpty()) {
+                log.info("Resuming consultation {} with checkpointed {}", consultationId, restored.keySet());
+                restored.forEach(context::put);
+            }
             
-            String actions = coordinationService.generateActions(structuredJson, soapJson);
-            note.setSuggestedActions(actions);
+            StageProgressListener listener = new StageProgressListener(consultationId, eventPublisher,
+                    new ConcurrentHashMap<>());
+            pipeline.run(context, stageExecutor, listener).get();
+            recordReviewDuration(listener.completed());
             
-            // Step 4: Compliance - validate
-            String complianceResult = complianceService.validateCompliance(
-                    soapJson, 
-                    note.getIcd10Codes(),
-                    patient.getAllergies());
+            GeneratedNote note = context.get(NOTE, GeneratedNote.class);
+            note.setSuggestedActions(context.get(ACTIONS, String.class));
             
-            log.info("Compliance check result: {}", complianceResult);
+            log.info("Compliance check result: {}", context.get(COMPLIANCE_RESULT, String.class));
             
             // Save note with transaction
             saveNoteAndUpdateConsultation(note, consultationId);
             
             log.info("Consultation {} processed successfully", consultationId);
+            return ConsultationState.READY;
             
+        } catch (ExecutionException e) {
+            log.error("Error processing consultation {}", consultationId, e.getCause());
+            return updateConsultationError(consultationId, e.getCause().getMessage(), willRetry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return updateConsultationError(consultationId, "Processing interrupted", willRetry);
         } catch (Exception e) {
             log.error("Error processing consultation {}", consultationId, e);
-            updateConsultationError(consultationId, e.getMessage());
+            return updateConsultationError(consultationId, e.getMessage(), willRetry);
         }
     }
     
+    /**
+     * Time from documentation to the compliance result, tagged with the mode so the
+     * modes can be compared on a deployment's own provider. Token usage of the same
+     * calls is in {@code llm.tokens} under the stage names.
+     */
+    private void recordReviewDuration(Map<String, Duration> completed) {
+        Duration review = completed.entrySet().stream()
+                .filter(stage -> REVIEW_STAGES.contains(stage.getKey()))
+                .map(Map.Entry::getValue)
+                .reduce(Duration.ZERO, Duration::plus);
+        // Resumed attempts whose review stages were checkpointed did not run them
+        if (!review.isZero()) {
+            meterRegistry.timer("pipeline.review.duration", "mode", mode.name().toLowerCase(Locale.ROOT)).record(review);
+        }
+    }
+    
+    private String toSoapJson(GeneratedNote note) throws Exception {
+        return objectMapper.writeValueAsString(objectMapper.createObjectNode()
+                .put("subjective", note.getSoapSubjective())
+                .put("objective", note.getSoapObjective())
+                .put("assessment", note.getSoapAssessment())
+                .put("plan", note.getSoapPlan()));
+    }
+    
     @Transactional
     private void saveNoteAndUpdateConsultation(GeneratedNote note, UUID consultationId) {
         GeneratedNote savedNote = generatedNoteRepository.save(note);
@@ -92,6 +313,7 @@ public class ConsultationOrchestrator {
         consultation.setGeneratedNoteId(savedNote.getId());
         consultation.setState(ConsultationState.READY);
         consultationRepository.save(consultation);
+        eventPublisher.publishEvent(ConsultationProgressEvent.stateChanged(consultationId, ConsultationState.READY, null));
     }
     
     @Transactional
@@ -100,14 +322,48 @@ public class ConsultationOrchestrator {
                 .orElseThrow(() -> new RuntimeException("Consultation not found"));
         consultation.setState(state);
         consultationRepository.save(consultation);
+        eventPublisher.publishEvent(ConsultationProgressEvent.stateChanged(consultationId, state, null));
     }
     
     @Transactional
-    private void updateConsultationError(UUID consultationId, String errorMessage) {
+    private ConsultationState updateConsultationError(UUID consultationId, String errorMessage, boolean willRetry) {
+        ConsultationState state = willRetry ? ConsultationState.QUEUED : ConsultationState.ERROR;
         consultationRepository.findById(consultationId).ifPresent(c -> {
-            c.setState(ConsultationState.ERROR);
+            c.setState(state);
             c.setErrorMessage(errorMessage);
             consultationRepository.save(c);
+            eventPublisher.publishEvent(ConsultationProgressEvent.stateChanged(consultationId, state, errorMessage));
         });
+        return state;
+    }
+    
+    /**
+     * @param completed how long each completed stage took
+     */
+    private record StageProgressListener(UUID consultationId, ApplicationEventPublisher publisher,
+                                         Map<String, Duration> completed) implements StageListener {
+        
+        @Override
+        public void onStageStarted(String stage) {
+            publisher.publishEvent(ConsultationProgressEvent.stageChanged(consultationId, stage, StageStatus.STARTED));
+        }
+        
+        @Override
+        public void onStageCompleted(String stage, Duration elapsed) {
+            log.info("Consultation {} stage {} completed in {}ms", consultationId, stage, elapsed.toMillis());
+            completed.put(stage, elapsed);
+            publisher.publishEvent(ConsultationProgressEvent.stageChanged(consultationId, stage, StageStatus.COMPLETED));
+        }
+        
+        @Override
+        public void onStageSkipped(String stage) {
+            publisher.publishEvent(ConsultationProgressEvent.stageChanged(consultationId, stage, StageStatus.SKIPPED));
+        }
+        
+        @Override
+        public void onStageFailed(String stage, Throwable cause) {
+            log.warn("Consultation {} stage {} failed: {}", consultationId, stage, cause.getMessage());
+            publisher.publishEvent(ConsultationProgressEvent.stageChanged(consultationId, stage, StageStatus.FAILED));
+        }
     }
 }
@@ -0,0 +1,46 @@
+package za.co.ccos.app;
+
+import za.co.ccos.domain.ConsultationState;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Published whenever a consultation changes state or a pipeline stage starts or
+ * finishes. Listeners run on the publishing thread and must not block it.
+ */
+public record ConsultationProgressEvent(
+        UUID consultationId,
+        ConsultationState state,
+        String stage,
+        StageStatus stageStatus,
+        String errorMessage,
+        Instant timestamp
+) {
+    
+    public enum StageStatus {
+        STARTED,
+        COMPLETED,
+        SKIPPED,
+        FAILED
+    }
+    
+    public static ConsultationProgressEvent stateChanged(UUID consultationId, ConsultationState state, String errorMessage) {
+        return new ConsultationProgressEvent(consultationId, state, null, null, errorMessage, Instant.now());
+    }
+    
+    public static ConsultationProgressEvent stageChanged(UUID consultationId, String stage, StageStatus status) {
+        return new ConsultationProgressEvent(consultationId, ConsultationState.PROCESSING, stage, status, null, Instant.now());
+    }
+    
+    public boolean isStageEvent() {
+        return stage != null;
+    }
+    
+    /**
+     * No further pipeline progress follows a terminal event
+     */
+    public boolean isTerminal() {
+        return !isStageEvent() && (state == ConsultationState.READY || state == ConsultationState.ERROR);
+    }
+}
@@ -1,61 +1,105 @@
 package za.co.ccos.app;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
+import za.co.ccos.infra.llm.JsonObjectExtractor;
 import za.co.ccos.infra.llm.LlamaAdapter;
 import za.co.ccos.infra.llm.LlamaException;
 import za.co.ccos.infra.llm.LlamaOptions;
 import za.co.ccos.infra.llm.LlamaResponse;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import za.co.ccos.infra.prompt.PromptName;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
+import java.util.List;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class CoordinationService {
     
+    /**
+     * Output of the fused coordination and compliance call
+     *
+     * @param actionsJson the coordination document, {@code actions} and {@code notes}
+     * @param review      the model's compliance review, {@code issues} and {@code suggested_edits}
+     */
+    public record ActionsAndReview(String actionsJson, ObjectNode review) {
+    }
+    
     private final LlamaAdapter llamaAdapter;
-    @SuppressWarnings("unused")
     private final ObjectMapper objectMapper;
+    private final PromptTemplateRegistry promptTemplates;
     
     public String generateActions(String structuredJson, String soapJson) throws LlamaException {
-        try {
-            String promptTemplate = loadPromptTemplate("prompts/coordination.prompt.txt");
-            
-            String prompt = promptTemplate
-                    .replace("<<STRUCTURED_JSON>>", structuredJson)
-                    .replace("<<SOAP_JSON>>", soapJson);
-            
-            LlamaOptions options = LlamaOptions.builder()
-                    .temperature(0.3)
-                    .maxTokens(1024)
-                    .build();
-            
-            log.info("Running coordination agent");
-            LlamaResponse response = llamaAdapter.runPrompt(prompt, options);
-            
-            return extractJsonFromResponse(response.getContent());
-            
-        } catch (IOException e) {
-            throw new LlamaException("Failed to generate coordination actions", e);
-        }
+        String prompt = promptTemplates.render(PromptName.COORDINATION, Map.of(
+                "STRUCTURED_JSON", structuredJson,
+                "SOAP_JSON", soapJson));
+        
+        LlamaOptions options = LlamaOptions.builder()
+                .temperature(0.3)
+                .maxTokens(1024)
+                .stage("coordination")
+                .jsonOutput(true)
+                .build();
+        
+        log.info("Running coordination agent");
+        LlamaResponse response = llamaAdapter.runPrompt(prompt, options);
+        
+        return JsonObjectExtractor.extract(response.getContent());
     }
     
-    private String loadPromptTemplate(String path) throws IOException {
-        ClassPathResource resource = new ClassPathResource(path);
-        return new String(resource.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-    }
-    
-    private String extractJsonFromResponse(String response) {
-        response = response.trim();
-        int start = response.indexOf('{');
-        int end = response.lastIndexOf('}');
-        if (start >= 0 && end > start) {
-            return response.substring(start, end + 1);
+    /**
+     * Generates the actions and the compliance model's review of the note and those
+     * actions in one completion, saving the compliance round trip. The review still
+     * goes through {@link ComplianceService} for the local rules.
+     *
+     * @throws LlamaException if the completion lacks either document
+     */
+    public ActionsAndReview generateActionsAndReview(String structuredJson, String soapJson, String icd10Json,
+                                                     List<String> allergies) throws LlamaException {
+        String prompt = promptTemplates.render(PromptName.COORDINATION_COMPLIANCE, Map.of(
+                "STRUCTURED_JSON", structuredJson,
+                "SOAP_JSON", soapJson,
+                "ICD10_JSON", icd10Json != null ? icd10Json : "[]",
+                "PATIENT_ALLERGIES", allergies != null && !allergies.isEmpty() ? String.join(", ", allergies) : "None"));
+        
+        LlamaOptions options = LlamaOptions.builder()
+                .temperature(0.2)
+                .maxTokens(1536)
+                .stage("coordination-compliance")
+                .jsonOutput(true)
+                .build();
+        
+        log.info("Running fused coordination and compliance agent");
+        LlamaResponse response = llamaAdapter.runPrompt(prompt, options);
+        
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(JsonObjectExtractor.extract(response.getContent()));
+        } catch (Exception e) {
+            throw new LlamaException("Fused coordination response is not JSON", e);
+        }
+        JsonNode coordination = root.path("coordination");
+        JsonNode compliance = root.path("compliance");
+        if (!coordination.path("actions").isArray() || !compliance.isObject()) {
+            throw new LlamaException("Fused coordination response lacks coordination.actions or compliance");
+        }
+        
+        // Same shapes the separate coordination and compliance calls return
+        ObjectNode actions = objectMapper.createObjectNode();
+        actions.set("actions", coordination.get("actions"));
+        if (coordination.hasNonNull("notes")) {
+            actions.set("notes", coordination.get("notes"));
         }
-        return response;
+        ObjectNode review = objectMapper.createObjectNode();
+        review.set("issues", compliance.path("issues").isArray()
+                ? compliance.get("issues") : objectMapper.createArrayNode());
+        review.set("suggested_edits", compliance.path("suggested_edits").isArray()
+                ? compliance.get("suggested_edits") : objectMapper.createArrayNode());
+        return new ActionsAndReview(actions.toString(), review);
     }
 }
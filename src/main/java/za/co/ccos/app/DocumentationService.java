@@ -4,15 +4,18 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
+import za.co.ccos.app.coding.Icd10Catalog;
 import za.co.ccos.domain.GeneratedNote;
+import za.co.ccos.infra.llm.JsonObjectExtractor;
 import za.co.ccos.infra.llm.LlamaAdapter;
 import za.co.ccos.infra.llm.LlamaException;
 import za.co.ccos.infra.llm.LlamaOptions;
 import za.co.ccos.infra.llm.LlamaResponse;
+import za.co.ccos.infra.prompt.PromptName;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.UUID;
 
 @Service
@@ -22,24 +25,26 @@ public class DocumentationService {
     
     private final LlamaAdapter llamaAdapter;
     private final ObjectMapper objectMapper;
+    private final PromptTemplateRegistry promptTemplates;
+    private final Icd10Catalog icd10Catalog;
     
     public GeneratedNote generateDocumentation(String structuredJson, String transcript, UUID consultationId, UUID clinicianId) throws LlamaException {
         try {
-            String promptTemplate = loadPromptTemplate("prompts/documentation.prompt.txt");
-            
-            String prompt = promptTemplate
-                    .replace("<<STRUCTURED_JSON>>", structuredJson)
-                    .replace("<<TRANSCRIPT>>", transcript);
+            String prompt = promptTemplates.render(PromptName.DOCUMENTATION, Map.of(
+                    "STRUCTURED_JSON", structuredJson,
+                    "TRANSCRIPT", transcript));
             
             LlamaOptions options = LlamaOptions.builder()
                     .temperature(0.1)
                     .maxTokens(2048)
+                    .stage("documentation")
+                    .jsonOutput(true)
                     .build();
             
             log.info("Running documentation agent for consultation {}", consultationId);
             LlamaResponse response = llamaAdapter.runPrompt(prompt, options);
             
-            String content = extractJsonFromResponse(response.getContent());
+            String content = JsonObjectExtractor.extract(response.getContent());
             JsonNode docNode = objectMapper.readTree(content);
             
             GeneratedNote note = new GeneratedNote();
@@ -58,8 +63,8 @@ public class DocumentationService {
                 note.setPatientSummary(docNode.get("patient_summary").asText());
             }
             
-            if (docNode.has("icd10_suggestions")) {
-                note.setIcd10Codes(docNode.get("icd10_suggestions").toString());
+            if (docNode.path("icd10_suggestions").isArray()) {
+                note.setIcd10Codes(icd10Catalog.reviewSuggestions(docNode.get("icd10_suggestions")).toString());
             }
             
             if (docNode.has("confidence")) {
@@ -72,19 +77,4 @@ public class DocumentationService {
             throw new LlamaException("Failed to generate documentation", e);
         }
     }
-    
-    private String loadPromptTemplate(String path) throws IOException {
-        ClassPathResource resource = new ClassPathResource(path);
-        return new String(resource.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-    }
-    
-    private String extractJsonFromResponse(String response) {
-        response = response.trim();
-        int start = response.indexOf('{');
-        int end = response.lastIndexOf('}');
-        if (start >= 0 && end > start) {
-            return response.substring(start, end + 1);
-        }
-        return response;
-    }
 }
@@ -0,0 +1,88 @@
+package za.co.ccos.app;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.GeneratedNote;
+import za.co.ccos.domain.OutboxMessage;
+import za.co.ccos.domain.Patient;
+import za.co.ccos.infra.fhir.FhirBundleExporter;
+import za.co.ccos.infra.fhir.FhirEncounter;
+import za.co.ccos.infra.persistence.ConsultationRepository;
+import za.co.ccos.infra.persistence.GeneratedNoteRepository;
+import za.co.ccos.infra.persistence.PatientRepository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Pushes approved consultations to the EHR as FHIR transaction bundles. Each outbox
+ * message's idempotency key becomes the conditional-create identifier of the resources
+ * it exports, so a sync retried after a lost acknowledgement is recorded once. Without
+ * {@code fhir.base-url} the sync is only logged.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class EhrSyncService {
+    
+    private final ConsultationRepository consultationRepository;
+    private final GeneratedNoteRepository generatedNoteRepository;
+    private final PatientRepository patientRepository;
+    private final FhirBundleExporter fhirExporter;
+    
+    /**
+     * Exports the consultations of the given EHR_SYNC messages together.
+     *
+     * @return the failure of each message the EHR did not accept, keyed by message id
+     */
+    public Map<UUID, Exception> sync(List<OutboxMessage> messages) {
+        Map<UUID, Exception> failures = new HashMap<>();
+        if (!fhirExporter.isEnabled()) {
+            for (OutboxMessage message : messages) {
+                log.info("Simulating FHIR sync for consultation {} (idempotency key {})",
+                        message.getConsultationId(), message.getIdempotencyKey());
+            }
+            return failures;
+        }
+        
+        // Three queries for the whole batch rather than three per consultation
+        Map<UUID, Consultation> consultations = byId(consultationRepository.findAllById(
+                messages.stream().map(OutboxMessage::getConsultationId).toList()), Consultation::getId);
+        Map<UUID, GeneratedNote> notes = byId(generatedNoteRepository.findAllById(consultations.values().stream()
+                .map(Consultation::getGeneratedNoteId).filter(Objects::nonNull).toList()), GeneratedNote::getId);
+        Map<UUID, Patient> patients = byId(patientRepository.findAllById(consultations.values().stream()
+                .map(Consultation::getPatientId).distinct().toList()), Patient::getId);
+        
+        List<FhirEncounter> encounters = new ArrayList<>();
+        Map<String, UUID> messageIds = new HashMap<>();
+        for (OutboxMessage message : messages) {
+            Consultation consultation = consultations.get(message.getConsultationId());
+            Patient patient = consultation != null ? patients.get(consultation.getPatientId()) : null;
+            if (consultation == null || patient == null) {
+                failures.put(message.getId(), new IllegalStateException(
+                        consultation == null ? "Consultation not found" : "Patient not found"));
+                continue;
+            }
+            GeneratedNote note = consultation.getGeneratedNoteId() != null
+                    ? notes.get(consultation.getGeneratedNoteId()) : null;
+            encounters.add(new FhirEncounter(consultation, patient, note, message.getIdempotencyKey()));
+            messageIds.put(message.getIdempotencyKey(), message.getId());
+        }
+        
+        fhirExporter.export(encounters).forEach((key, error) -> failures.put(messageIds.get(key), error));
+        log.info("Synced {} of {} consultations to the EHR", messages.size() - failures.size(), messages.size());
+        return failures;
+    }
+    
+    private static <T> Map<UUID, T> byId(List<T> entities, Function<T, UUID> id) {
+        return entities.stream().collect(Collectors.toMap(id, Function.identity()));
+    }
+}
@@ -5,8 +5,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import za.co.ccos.infra.llm.LlamaAdapter;
 import za.co.ccos.infra.llm.LlamaOptions;
+import za.co.ccos.infra.prompt.PromptName;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
 
-import java.util.Base64;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
@@ -14,6 +16,7 @@ import java.util.Base64;
 public class ImageAnalysisService {
     
     private final LlamaAdapter llamaAdapter;
+    private final PromptTemplateRegistry promptTemplates;
     
     public String analyzeImage(String base64Image, String additionalContext) {
         log.info("Analyzing medical image with LLAMA Vision");
@@ -26,6 +29,7 @@ public class ImageAnalysisService {
             LlamaOptions options = LlamaOptions.builder()
                     .temperature(0.2)
                     .maxTokens(500)
+                    .stage("image-analysis")
                     .build();
             
             String analysis = llamaAdapter.runPrompt(prompt, options).getContent();
@@ -39,23 +43,9 @@ public class ImageAnalysisService {
     }
     
     private String buildImageAnalysisPrompt(String context) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You are a clinical AI assistant analyzing a medical image. ");
-        prompt.append("Provide a structured clinical assessment.\n\n");
-        
-        if (context != null && !context.isEmpty()) {
-            prompt.append("CLINICAL CONTEXT: ").append(context).append("\n\n");
-        }
-        
-        prompt.append("Analyze the image and provide:\n");
-        prompt.append("1. VISUAL FINDINGS: Describe what you observe\n");
-        prompt.append("2. CLINICAL SIGNIFICANCE: What this might indicate\n");
-        prompt.append("3. DIFFERENTIAL DIAGNOSIS: Possible conditions (list 3-5)\n");
-        prompt.append("4. RECOMMENDED ACTIONS: Next steps for diagnosis/treatment\n");
-        prompt.append("5. URGENCY LEVEL: Routine / Urgent / Emergency\n\n");
-        prompt.append("Be specific, clinical, and actionable. Note any red flags.\n");
-        
-        return prompt.toString();
+        String clinicalContext = context != null && !context.isEmpty()
+                ? "CLINICAL CONTEXT: " + context + "\n\n" : "";
+        return promptTemplates.render(PromptName.IMAGE_ANALYSIS, Map.of("CLINICAL_CONTEXT", clinicalContext));
     }
     
     private String generateFallbackAnalysis() {
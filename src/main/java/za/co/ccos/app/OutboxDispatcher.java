@@ -0,0 +1,228 @@
+package za.co.ccos.app;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import za.co.ccos.app.ApprovalArtifactService.ApprovalArtifacts;
+import za.co.ccos.domain.*;
+import za.co.ccos.infra.fhir.FhirException;
+import za.co.ccos.infra.persistence.*;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Delivers outbox messages in batches. Each message is claimed with a lease, like
+ * consultation jobs, so several nodes can drain the outbox without delivering a message
+ * twice at the same time; a message whose dispatcher died is claimed again once its
+ * lease lapses. Failed deliveries are retried with exponential backoff until
+ * {@code outbox.max-attempts}, then dead-lettered. The EHR syncs of a batch are sent
+ * together as FHIR bundles, and delivering one marks its consultation SYNCED.
+ */
+@Component
+@ConditionalOnProperty(name = "outbox.dispatcher-enabled", havingValue = "true", matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxDispatcher {
+    
+    private final OutboxMessageRepository outboxRepository;
+    private final ConsultationRepository consultationRepository;
+    private final GeneratedNoteRepository generatedNoteRepository;
+    private final PatientRepository patientRepository;
+    private final ApprovalArtifactService approvalArtifacts;
+    private final PatientEmailService emailService;
+    private final EhrSyncService ehrSyncService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${pipeline.jobs.node-id:}")
+    private String nodeId;
+    
+    @Value("${outbox.batch-size:20}")
+    private int batchSize = 20;
+    
+    @Value("${outbox.visibility-timeout:5m}")
+    private Duration visibilityTimeout = Duration.ofMinutes(5);
+    
+    @Value("${outbox.retry-backoff:10s}")
+    private Duration retryBackoff = Duration.ofSeconds(10);
+    
+    @Value("${outbox.max-retry-backoff:10m}")
+    private Duration maxRetryBackoff = Duration.ofMinutes(10);
+    
+    // Kept well under the visibility timeout so a long batch never outlives its leases
+    @Value("${outbox.max-batch-duration:2m}")
+    private Duration maxBatchDuration = Duration.ofMinutes(2);
+    
+    @PostConstruct
+    void init() throws Exception {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = InetAddress.getLocalHost().getHostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+    }
+    
+    /**
+     * Each email may wait on the LLM for its artifacts, so a batch stops starting new
+     * ones after {@code outbox.max-batch-duration} and hands the rest back unattempted.
+     */
+    @Scheduled(fixedDelayString = "${outbox.poll-interval-ms:1000}")
+    public void dispatch() {
+        long deadline = System.nanoTime() + maxBatchDuration.toNanos();
+        List<OutboxMessage> messages = claim();
+        List<OutboxMessage> syncs = messages.stream()
+                .filter(m -> m.getType() == OutboxMessageType.EHR_SYNC)
+                .toList();
+        if (!syncs.isEmpty()) {
+            syncToEhr(syncs);
+        }
+        for (OutboxMessage message : messages) {
+            if (message.getType() != OutboxMessageType.PATIENT_EMAIL) {
+                continue;
+            }
+            if (System.nanoTime() - deadline < 0) {
+                deliverEmail(message);
+            } else {
+                postpone(message);
+            }
+        }
+    }
+    
+    private List<OutboxMessage> claim() {
+        LocalDateTime now = LocalDateTime.now();
+        List<UUID> claimed = new ArrayList<>();
+        for (UUID id : outboxRepository.findClaimable(JobStatus.PENDING, JobStatus.RUNNING, now,
+                PageRequest.of(0, batchSize))) {
+            if (outboxRepository.claim(id, nodeId, now.plus(visibilityTimeout), now,
+                    JobStatus.RUNNING, JobStatus.PENDING) == 1) {
+                claimed.add(id);
+            }
+        }
+        return claimed.isEmpty() ? List.of() : outboxRepository.findAllById(claimed);
+    }
+    
+    private void deliverEmail(OutboxMessage message) {
+        try {
+            sendPatientEmail(message);
+            delivered(message);
+        } catch (Exception e) {
+            failed(message, e);
+        }
+    }
+    
+    private void delivered(OutboxMessage message) {
+        message.setStatus(JobStatus.COMPLETED);
+        message.setDeliveredAt(LocalDateTime.now());
+        message.setLastError(null);
+        meterRegistry.counter("outbox.deliveries", "type", type(message), "outcome", "delivered").increment();
+        release(message);
+    }
+    
+    private void failed(OutboxMessage message, Exception e) {
+        String type = type(message);
+        message.setLastError(e.getMessage());
+        // A resource the FHIR server rejected would be rejected again
+        boolean retryable = !(e instanceof FhirException fhir) || fhir.isTransient();
+        if (retryable && message.hasAttemptsLeft()) {
+            Duration delay = backoff(message.getAttempts());
+            message.setStatus(JobStatus.PENDING);
+            message.setAvailableAt(LocalDateTime.now().plus(delay));
+            meterRegistry.counter("outbox.deliveries", "type", type, "outcome", "retried").increment();
+            log.warn("Outbox {} of consultation {} failed attempt {}/{}, retrying in {}s: {}", message.getType(),
+                    message.getConsultationId(), message.getAttempts(), message.getMaxAttempts(),
+                    delay.toSeconds(), e.getMessage());
+        } else {
+            message.setStatus(JobStatus.DEAD);
+            meterRegistry.counter("outbox.deliveries", "type", type, "outcome", "dead").increment();
+            log.error("Outbox {} of consultation {} dead-lettered after {} attempts", message.getType(),
+                    message.getConsultationId(), message.getAttempts(), e);
+        }
+        release(message);
+    }
+    
+    private void postpone(OutboxMessage message) {
+        // The claim counted an attempt that never started
+        message.setAttempts(message.getAttempts() - 1);
+        message.setStatus(JobStatus.PENDING);
+        message.setAvailableAt(LocalDateTime.now());
+        meterRegistry.counter("outbox.deliveries", "type", type(message), "outcome", "postponed").increment();
+        log.info("Outbox batch ran past {}s, postponing {} of consultation {}", maxBatchDuration.toSeconds(),
+                message.getType(), message.getConsultationId());
+        release(message);
+    }
+    
+    private void release(OutboxMessage message) {
+        message.setLockedBy(null);
+        message.setLockedUntil(null);
+        outboxRepository.save(message);
+    }
+    
+    private void sendPatientEmail(OutboxMessage message) {
+        Consultation consultation = consultation(message);
+        GeneratedNote note = generatedNoteRepository.findById(consultation.getGeneratedNoteId())
+                .orElseThrow(() -> new IllegalStateException("Note not found"));
+        Patient patient = patientRepository.findById(consultation.getPatientId())
+                .orElseThrow(() -> new IllegalStateException("Patient not found"));
+        
+        ApprovalArtifacts artifacts = approvalArtifacts.artifactsFor(consultation, note, patient);
+        String patientEmail = patient.getFirstName().toLowerCase() + "." + patient.getLastName().toLowerCase() + "@email.com";
+        emailService.sendEmail(patientEmail, "Your Visit Summary", artifacts.patientExplanation(),
+                message.getIdempotencyKey());
+    }
+    
+    private void syncToEhr(List<OutboxMessage> messages) {
+        Map<UUID, Exception> failures;
+        try {
+            failures = ehrSyncService.sync(messages);
+        } catch (Exception e) {
+            messages.forEach(message -> failed(message, e));
+            return;
+        }
+        for (OutboxMessage message : messages) {
+            Exception failure = failures.get(message.getId());
+            if (failure != null) {
+                failed(message, failure);
+                continue;
+            }
+            markSynced(message.getConsultationId());
+            delivered(message);
+        }
+    }
+    
+    private void markSynced(UUID consultationId) {
+        // A sync delivered again after the first one succeeded finds the consultation already SYNCED
+        Consultation consultation = consultationRepository.findById(consultationId).orElse(null);
+        if (consultation != null && consultation.getState() == ConsultationState.APPROVED) {
+            consultation.setState(ConsultationState.SYNCED);
+            consultationRepository.save(consultation);
+            eventPublisher.publishEvent(ConsultationProgressEvent.stateChanged(
+                    consultationId, ConsultationState.SYNCED, null));
+        }
+    }
+    
+    private Consultation consultation(OutboxMessage message) {
+        return consultationRepository.findById(message.getConsultationId())
+                .orElseThrow(() -> new IllegalStateException("Consultation not found"));
+    }
+    
+    private static String type(OutboxMessage message) {
+        return message.getType().name().toLowerCase(Locale.ROOT);
+    }
+    
+    private Duration backoff(int attempts) {
+        Duration delay = retryBackoff.multipliedBy(1L << Math.min(Math.max(attempts - 1, 0), 16));
+        return delay.compareTo(maxRetryBackoff) > 0 ? maxRetryBackoff : delay;
+    }
+}
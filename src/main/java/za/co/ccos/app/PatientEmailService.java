@@ -7,7 +7,12 @@ import za.co.ccos.domain.Consultation;
 import za.co.ccos.domain.GeneratedNote;
 import za.co.ccos.domain.Patient;
 import za.co.ccos.infra.llm.LlamaAdapter;
+import za.co.ccos.infra.llm.LlamaException;
 import za.co.ccos.infra.llm.LlamaOptions;
+import za.co.ccos.infra.prompt.PromptName;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
+
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
@@ -15,55 +20,42 @@ import za.co.ccos.infra.llm.LlamaOptions;
 public class PatientEmailService {
     
     private final LlamaAdapter llamaAdapter;
+    private final PromptTemplateRegistry promptTemplates;
     
     public String generatePatientFriendlyExplanation(Patient patient, GeneratedNote note) {
-        log.info("Generating patient-friendly explanation for {}", patient.getFirstName());
-        
-        String prompt = buildPatientExplanationPrompt(patient, note);
-        
         try {
-            LlamaOptions options = LlamaOptions.builder()
-                    .temperature(0.4)
-                    .maxTokens(600)
-                    .build();
-            
-            String explanation = llamaAdapter.runPrompt(prompt, options).getContent();
-            log.info("Patient explanation generated");
-            return explanation;
-            
+            return generateExplanation(patient, note);
         } catch (Exception e) {
             log.error("Failed to generate patient explanation", e);
             return generateSimpleExplanation(note);
         }
     }
     
-    private String buildPatientExplanationPrompt(Patient patient, GeneratedNote note) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You are a compassionate doctor explaining medical findings to a patient in simple, non-technical language.\n\n");
-        
-        prompt.append("PATIENT: ").append(patient.getFirstName()).append(" ").append(patient.getLastName()).append("\n\n");
-        
-        prompt.append("CLINICAL ASSESSMENT:\n").append(note.getSoapAssessment()).append("\n\n");
-        prompt.append("TREATMENT PLAN:\n").append(note.getSoapPlan()).append("\n\n");
-        
-        prompt.append("TASK: Write a warm, clear email to the patient explaining:\n");
-        prompt.append("1. What we found (in simple terms)\n");
-        prompt.append("2. What it means for their health\n");
-        prompt.append("3. What we're doing about it\n");
-        prompt.append("4. What they need to do\n");
-        prompt.append("5. When to follow up\n\n");
+    /**
+     * Like {@link #generatePatientFriendlyExplanation} but without the template fallback,
+     * for callers that store the result and would rather retry later than keep the template
+     */
+    public String generateExplanation(Patient patient, GeneratedNote note) throws LlamaException {
+        log.info("Generating patient-friendly explanation for {}", patient.getFirstName());
         
-        prompt.append("GUIDELINES:\n");
-        prompt.append("- Use everyday language (avoid medical jargon)\n");
-        prompt.append("- Be reassuring but honest\n");
-        prompt.append("- Keep it conversational and warm\n");
-        prompt.append("- Use analogies if helpful\n");
-        prompt.append("- Include specific action items\n");
-        prompt.append("- End with encouragement\n\n");
+        String prompt = buildPatientExplanationPrompt(patient, note);
         
-        prompt.append("Format as a friendly email (no subject line needed).\n");
+        LlamaOptions options = LlamaOptions.builder()
+                .temperature(0.4)
+                .maxTokens(600)
+                .stage("patient-email")
+                .build();
         
-        return prompt.toString();
+        String explanation = llamaAdapter.runPrompt(prompt, options).getContent();
+        log.info("Patient explanation generated");
+        return explanation;
+    }
+    
+    private String buildPatientExplanationPrompt(Patient patient, GeneratedNote note) {
+        return promptTemplates.render(PromptName.PATIENT_EMAIL, Map.of(
+                "PATIENT_NAME", patient.getFirstName() + " " + patient.getLastName(),
+                "ASSESSMENT", String.valueOf(note.getSoapAssessment()),
+                "PLAN", String.valueOf(note.getSoapPlan())));
     }
     
     private String generateSimpleExplanation(GeneratedNote note) {
@@ -81,8 +73,16 @@ public class PatientEmailService {
     }
     
     public void sendEmail(String patientEmail, String subject, String body) {
+        sendEmail(patientEmail, subject, body, null);
+    }
+    
+    /**
+     * @param idempotencyKey passed to the mail provider so a retried send is not
+     *                       delivered twice; may be null
+     */
+    public void sendEmail(String patientEmail, String subject, String body, String idempotencyKey) {
         // Simulate email sending
-        log.info("📧 EMAIL SENT to {}", patientEmail);
+        log.info("📧 EMAIL SENT to {}{}", patientEmail, idempotencyKey != null ? " (idempotency key " + idempotencyKey + ")" : "");
         log.info("Subject: {}", subject);
         log.info("Body preview: {}", body.substring(0, Math.min(100, body.length())));
         
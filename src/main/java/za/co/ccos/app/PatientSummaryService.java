@@ -2,28 +2,158 @@ package za.co.ccos.app;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import za.co.ccos.config.AsyncConfig;
 import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.ConsultationState;
 import za.co.ccos.domain.Patient;
+import za.co.ccos.domain.PatientSummary;
 import za.co.ccos.infra.llm.LlamaAdapter;
 import za.co.ccos.infra.llm.LlamaOptions;
+import za.co.ccos.infra.llm.TokenBudget;
+import za.co.ccos.infra.llm.TokenCounter;
 import za.co.ccos.infra.persistence.ConsultationRepository;
 import za.co.ccos.infra.persistence.PatientRepository;
+import za.co.ccos.infra.persistence.PatientSummaryRepository;
+import za.co.ccos.infra.prompt.PromptName;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
 
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Serves patient chart summaries from the {@code patient_summaries} table. A summary
+ * is regenerated in the background when one of the patient's consultations is
+ * approved or synced, and generated on the spot only the first time a chart is
+ * opened. Concurrent requests for the same patient share a single generation.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class PatientSummaryService {
     
+    private static final String STAGE = "patient-summary";
+    private static final int MAX_TOKENS = 400;
+    private static final int MAX_VISITS = 5;
+    
     private final PatientRepository patientRepository;
     private final ConsultationRepository consultationRepository;
+    private final PatientSummaryRepository summaryRepository;
     private final LlamaAdapter llamaAdapter;
+    private final PromptTemplateRegistry promptTemplates;
+    private final TokenBudget tokenBudget;
+    @Qualifier(AsyncConfig.SUMMARY_EXECUTOR)
+    private final TaskExecutor summaryExecutor;
+    
+    private final Map<UUID, CompletableFuture<PatientSummary>> inFlight = new ConcurrentHashMap<>();
+    
+    // Patients whose history changed while their summary was being generated
+    private final Set<UUID> refreshAgain = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * The stored summary, or a freshly generated one if the patient has none yet.
+     * A summary that fell back to the template is returned as is and retried in the background.
+     */
+    public PatientSummary getSummary(UUID patientId) {
+        PatientSummary stored = summaryRepository.findById(patientId).orElse(null);
+        if (stored != null) {
+            if (stored.getSource() == PatientSummary.Source.FALLBACK) {
+                generate(patientId, false);
+            }
+            return stored;
+        }
+        if (!patientRepository.existsById(patientId)) {
+            throw new RuntimeException("Patient not found");
+        }
+        try {
+            return generate(patientId, false).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+    
+    /**
+     * Regenerates the patient's summary in the background. Joins the generation already
+     * running for the patient, if any, and schedules one more run after it because the
+     * running one may not have seen the latest consultation.
+     */
+    public CompletableFuture<PatientSummary> refresh(UUID patientId) {
+        return generate(patientId, true);
+    }
+    
+    // A caller that only needs a summary joins the running generation as is; one that
+    // knows the history changed also asks for a rerun after it
+    private CompletableFuture<PatientSummary> generate(UUID patientId, boolean historyChanged) {
+        CompletableFuture<PatientSummary> started = new CompletableFuture<>();
+        CompletableFuture<PatientSummary> running = inFlight.putIfAbsent(patientId, started);
+        if (running != null) {
+            if (historyChanged) {
+                refreshAgain.add(patientId);
+            }
+            return running;
+        }
+        summaryExecutor.execute(() -> {
+            try {
+                started.complete(generateAndStore(patientId));
+            } catch (Exception e) {
+                log.error("Failed to refresh summary of patient {}", patientId, e);
+                started.completeExceptionally(e);
+            } finally {
+                inFlight.remove(patientId, started);
+                if (refreshAgain.remove(patientId)) {
+                    refresh(patientId);
+                }
+            }
+        });
+        return started;
+    }
+    
+    /**
+     * Queues summary generation for a list of patients, e.g. tomorrow's appointments
+     * @return how many refreshes were queued
+     */
+    public int prewarm(Collection<UUID> patientIds) {
+        List<UUID> distinct = patientIds.stream().distinct().toList();
+        log.info("Pre-warming summaries of {} patients", distinct.size());
+        distinct.forEach(this::refresh);
+        return distinct.size();
+    }
+    
+    /**
+     * Nightly fill-in for patients who have never had a summary generated
+     */
+    @Scheduled(cron = "${patient-summary.prewarm-cron:0 0 2 * * *}")
+    public void prewarmMissing() {
+        List<UUID> missing = summaryRepository.findPatientIdsWithoutSummary();
+        if (!missing.isEmpty()) {
+            prewarm(missing);
+        }
+    }
+    
+    @EventListener
+    public void onConsultationProgress(ConsultationProgressEvent event) {
+        if (event.isStageEvent()
+                || (event.state() != ConsultationState.APPROVED && event.state() != ConsultationState.SYNCED)) {
+            return;
+        }
+        consultationRepository.findById(event.consultationId())
+                .ifPresent(consultation -> refresh(consultation.getPatientId()));
+    }
     
-    public String generatePatientSummary(UUID patientId) {
+    private PatientSummary generateAndStore(UUID patientId) {
         log.info("Generating AI summary for patient {}", patientId);
         
         Patient patient = patientRepository.findById(patientId)
@@ -31,74 +161,101 @@ public class PatientSummaryService {
         
         List<Consultation> history = consultationRepository.findByPatientIdOrderByCreatedAtDesc(patientId);
         
+        PatientSummary summary = new PatientSummary();
+        summary.setPatientId(patientId);
+        summary.setConsultationCount(history.size());
+        
         if (history.isEmpty()) {
-            return generateFirstVisitSummary(patient);
+            summary.setSummary(generateFirstVisitSummary(patient));
+            summary.setSource(PatientSummary.Source.FIRST_VISIT);
+        } else {
+            try {
+                LlamaOptions options = LlamaOptions.builder()
+                        .temperature(0.3)
+                        .maxTokens(MAX_TOKENS)
+                        .stage(STAGE)
+                        .build();
+                
+                summary.setSummary(llamaAdapter.runPrompt(buildSummaryPrompt(patient, history), options).getContent());
+                summary.setSource(PatientSummary.Source.LLM);
+                log.info("Generated patient summary successfully");
+                
+            } catch (Exception e) {
+                log.error("Failed to generate patient summary", e);
+                summary.setSummary(generateFallbackSummary(patient, history));
+                summary.setSource(PatientSummary.Source.FALLBACK);
+            }
         }
         
-        String prompt = buildSummaryPrompt(patient, history);
-        
-        try {
-            LlamaOptions options = LlamaOptions.builder()
-                    .temperature(0.3)
-                    .maxTokens(400)
-                    .build();
-            
-            String summary = llamaAdapter.runPrompt(prompt, options).getContent();
-            log.info("Generated patient summary successfully");
-            return summary;
-            
-        } catch (Exception e) {
-            log.error("Failed to generate patient summary", e);
-            return generateFallbackSummary(patient, history);
-        }
+        summary.setGeneratedAt(LocalDateTime.now());
+        return summaryRepository.save(summary);
     }
     
+    /**
+     * The latest visits with their notes trimmed to what the stage's context leaves
+     * after the rest of the prompt. Each note gets an equal share of the room; what a
+     * short note leaves over goes to the older visits after it.
+     */
     private String buildSummaryPrompt(Patient patient, List<Consultation> history) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You are a clinical AI assistant. Analyze this patient's medical history and provide a concise summary for the clinician.\n\n");
-        
-        prompt.append("PATIENT INFORMATION:\n");
-        prompt.append("Name: ").append(patient.getFirstName()).append(" ").append(patient.getLastName()).append("\n");
-        prompt.append("Age: ").append(calculateAge(patient)).append(" years\n");
-        prompt.append("Allergies: ").append(patient.getAllergies() != null && !patient.getAllergies().isEmpty() 
-                ? String.join(", ", patient.getAllergies()) : "None").append("\n");
-        prompt.append("Chronic Conditions: ").append(patient.getChronicConditions() != null && !patient.getChronicConditions().isEmpty()
-                ? String.join(", ", patient.getChronicConditions()) : "None").append("\n\n");
-        
-        prompt.append("RECENT CONSULTATION HISTORY (").append(Math.min(5, history.size())).append(" most recent):\n\n");
-        
+        List<Consultation> recent = history.subList(0, Math.min(MAX_VISITS, history.size()));
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MMM dd, yyyy");
-        int count = 0;
-        for (Consultation c : history) {
-            if (count >= 5) break;
-            prompt.append("Visit ").append(count + 1).append(" (").append(c.getCreatedAt().format(formatter)).append("):\n");
+        List<String> headers = new ArrayList<>();
+        for (int i = 0; i < recent.size(); i++) {
+            Consultation c = recent.get(i);
+            StringBuilder header = new StringBuilder();
+            header.append("Visit ").append(i + 1).append(" (").append(c.getCreatedAt().format(formatter)).append("):\n");
             
             if (c.getVitalSigns() != null) {
-                prompt.append("Vitals: ");
+                header.append("Vitals: ");
                 if (c.getVitalSigns().getBloodPressure() != null) 
-                    prompt.append("BP ").append(c.getVitalSigns().getBloodPressure()).append(", ");
+                    header.append("BP ").append(c.getVitalSigns().getBloodPressure()).append(", ");
                 if (c.getVitalSigns().getHeartRate() != null)
-                    prompt.append("HR ").append(c.getVitalSigns().getHeartRate()).append(", ");
+                    header.append("HR ").append(c.getVitalSigns().getHeartRate()).append(", ");
                 if (c.getVitalSigns().getOxygenSaturation() != null)
-                    prompt.append("O2 ").append(c.getVitalSigns().getOxygenSaturation()).append("%");
-                prompt.append("\n");
+                    header.append("O2 ").append(c.getVitalSigns().getOxygenSaturation()).append("%");
+                header.append("\n");
             }
-            
-            String transcript = c.getRawTranscript();
-            if (transcript != null && transcript.length() > 200) {
-                transcript = transcript.substring(0, 200) + "...";
-            }
-            prompt.append("Notes: ").append(transcript).append("\n\n");
-            count++;
+            headers.add(header.append("Notes: ").toString());
         }
         
-        prompt.append("\nTASK: Provide a brief clinical summary (3-4 sentences) highlighting:\n");
-        prompt.append("1. Key medical issues and trends\n");
-        prompt.append("2. Important alerts (allergies, recent changes)\n");
-        prompt.append("3. Recommended focus areas for today's visit\n\n");
-        prompt.append("Keep it concise and actionable for the clinician.\n");
+        int room = tokenBudget.promptTokens(STAGE, MAX_TOKENS)
+                - TokenCounter.count(renderSummaryPrompt(patient, recent.size(), visits(headers, List.of())));
+        List<String> notes = new ArrayList<>();
+        for (int i = 0; i < recent.size(); i++) {
+            String note = trimNote(recent.get(i).getRawTranscript(), Math.max(0, room) / (recent.size() - i));
+            room -= TokenCounter.count(note);
+            notes.add(note);
+        }
         
-        return prompt.toString();
+        return renderSummaryPrompt(patient, recent.size(), visits(headers, notes));
+    }
+    
+    private static String visits(List<String> headers, List<String> notes) {
+        StringBuilder visits = new StringBuilder();
+        for (int i = 0; i < headers.size(); i++) {
+            visits.append(headers.get(i)).append(i < notes.size() ? notes.get(i) : "").append("\n\n");
+        }
+        return visits.toString();
+    }
+    
+    private static String trimNote(String transcript, int maxTokens) {
+        if (transcript == null) {
+            return "";
+        }
+        String trimmed = TokenCounter.truncate(transcript, Math.max(0, maxTokens - 1));
+        return trimmed.length() < transcript.length() ? trimmed + "..." : transcript;
+    }
+    
+    private String renderSummaryPrompt(Patient patient, int visitCount, String visits) {
+        return promptTemplates.render(PromptName.PATIENT_SUMMARY, Map.of(
+                "PATIENT_NAME", patient.getFirstName() + " " + patient.getLastName(),
+                "AGE", String.valueOf(calculateAge(patient)),
+                "ALLERGIES", patient.getAllergies() != null && !patient.getAllergies().isEmpty()
+                        ? String.join(", ", patient.getAllergies()) : "None",
+                "CHRONIC_CONDITIONS", patient.getChronicConditions() != null && !patient.getChronicConditions().isEmpty()
+                        ? String.join(", ", patient.getChronicConditions()) : "None",
+                "VISIT_COUNT", String.valueOf(visitCount),
+                "VISITS", visits));
     }
     
     private String generateFirstVisitSummary(Patient patient) {
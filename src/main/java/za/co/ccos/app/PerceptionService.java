@@ -4,69 +4,131 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
+import za.co.ccos.app.perception.PerceptionMerger;
+import za.co.ccos.app.perception.TranscriptChunker;
+import za.co.ccos.config.AsyncConfig;
 import za.co.ccos.domain.Patient;
+import za.co.ccos.infra.llm.JsonObjectExtractor;
 import za.co.ccos.infra.llm.LlamaAdapter;
 import za.co.ccos.infra.llm.LlamaException;
 import za.co.ccos.infra.llm.LlamaOptions;
 import za.co.ccos.infra.llm.LlamaResponse;
+import za.co.ccos.infra.llm.TokenBudget;
+import za.co.ccos.infra.llm.TokenCounter;
+import za.co.ccos.infra.prompt.PromptName;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.Period;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+/**
+ * Extracts structured facts from a transcript. A transcript that fits the stage's
+ * context is extracted in one prompt. A longer one is split into overlapping chunks of
+ * at most {@code perception.chunking.max-chunk-tokens}, extracted in parallel and
+ * merged, so every prompt fits and the stage takes about as long as its largest chunk.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class PerceptionService {
     
+    private static final String STAGE = "perception";
+    private static final int MAX_TOKENS = 1024;
+    
     private final LlamaAdapter llamaAdapter;
     private final ObjectMapper objectMapper;
+    private final PromptTemplateRegistry promptTemplates;
+    private final TokenBudget tokenBudget;
+    @Qualifier(AsyncConfig.PIPELINE_STAGE_EXECUTOR)
+    private final TaskExecutor stageExecutor;
+    
+    @Value("${perception.chunking.enabled:true}")
+    private boolean chunkingEnabled = true;
+    
+    @Value("${perception.chunking.max-chunk-tokens:400}")
+    private int maxChunkTokens = 400;
+    
+    @Value("${perception.chunking.overlap-tokens:40}")
+    private int overlapTokens = 40;
     
     public JsonNode extractStructuredFacts(String transcript, Patient patient) throws LlamaException {
+        List<String> chunks = List.of();
+        if (chunkingEnabled) {
+            // What the stage's context leaves for the transcript next to the rest of the prompt
+            int room = tokenBudget.promptTokens(STAGE, MAX_TOKENS) - TokenCounter.count(prompt("", patient));
+            if (TokenCounter.count(transcript) > room) {
+                int chunkTokens = Math.max(Math.min(maxChunkTokens, room), 2 * overlapTokens + 1);
+                chunks = new TranscriptChunker(chunkTokens, overlapTokens).split(transcript);
+            }
+        }
+        if (chunks.size() <= 1) {
+            log.info("Running perception agent for patient {}", patient.getId());
+            return extract(transcript, patient);
+        }
+        
+        log.info("Running perception agent for patient {} over {} transcript chunks", patient.getId(), chunks.size());
+        List<CompletableFuture<JsonNode>> extractions = new ArrayList<>();
+        for (String chunk : chunks) {
+            extractions.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return extract(chunk, patient);
+                } catch (LlamaException e) {
+                    throw new CompletionException(e);
+                }
+            }, stageExecutor));
+        }
+        List<JsonNode> results = new ArrayList<>();
+        try {
+            for (CompletableFuture<JsonNode> extraction : extractions) {
+                results.add(extraction.join());
+            }
+        } catch (CompletionException e) {
+            // A fact missed in one chunk could be the red flag, so a partial result is not used
+            extractions.forEach(extraction -> extraction.cancel(true));
+            throw e.getCause() instanceof LlamaException cause ? cause
+                    : new LlamaException("Failed to process perception", e.getCause());
+        }
+        return PerceptionMerger.merge(results);
+    }
+    
+    private String prompt(String transcript, Patient patient) {
+        int age = patient.getDob() != null ? 
+                Period.between(patient.getDob(), LocalDate.now()).getYears() : 0;
+        
+        return promptTemplates.render(PromptName.PERCEPTION, Map.of(
+                "TRANSCRIPT", transcript,
+                "PATIENT_NAME", patient.getFirstName() + " " + patient.getLastName(),
+                "AGE", String.valueOf(age),
+                "GENDER", "Unknown",
+                "ALLERGIES", String.join(", ", patient.getAllergies()),
+                "CHRONIC_CONDITIONS", String.join(", ", patient.getChronicConditions())));
+    }
+    
+    private JsonNode extract(String transcript, Patient patient) throws LlamaException {
         try {
-            String promptTemplate = loadPromptTemplate("prompts/perception.prompt.txt");
-            
-            int age = patient.getDob() != null ? 
-                    Period.between(patient.getDob(), LocalDate.now()).getYears() : 0;
-            
-            String prompt = promptTemplate
-                    .replace("<<TRANSCRIPT>>", transcript)
-                    .replace("<<PATIENT_NAME>>", patient.getFirstName() + " " + patient.getLastName())
-                    .replace("<<AGE>>", String.valueOf(age))
-                    .replace("<<GENDER>>", "Unknown")
-                    .replace("<<ALLERGIES>>", String.join(", ", patient.getAllergies()))
-                    .replace("<<CHRONIC_CONDITIONS>>", String.join(", ", patient.getChronicConditions()));
-            
             LlamaOptions options = LlamaOptions.builder()
                     .temperature(0.2)
-                    .maxTokens(1024)
+                    .maxTokens(MAX_TOKENS)
+                    .stage(STAGE)
+                    .jsonOutput(true)
                     .build();
             
-            log.info("Running perception agent for patient {}", patient.getId());
-            LlamaResponse response = llamaAdapter.runPrompt(prompt, options);
+            LlamaResponse response = llamaAdapter.runPrompt(prompt(transcript, patient), options);
             
-            String content = extractJsonFromResponse(response.getContent());
+            String content = JsonObjectExtractor.extract(response.getContent());
             return objectMapper.readTree(content);
             
         } catch (IOException e) {
             throw new LlamaException("Failed to process perception", e);
         }
     }
-    
-    private String loadPromptTemplate(String path) throws IOException {
-        ClassPathResource resource = new ClassPathResource(path);
-        return new String(resource.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-    }
-    
-    private String extractJsonFromResponse(String response) {
-        response = response.trim();
-        int start = response.indexOf('{');
-        int end = response.lastIndexOf('}');
-        if (start >= 0 && end > start) {
-            return response.substring(start, end + 1);
-        }
-        return response;
-    }
 }
@@ -0,0 +1,90 @@
+package za.co.ccos.app;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import za.co.ccos.domain.StageCheckpoint;
+import za.co.ccos.infra.persistence.StageCheckpointRepository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Persists what each pipeline stage produced so a later attempt can start from the
+ * first stage that has not completed, instead of paying for every LLM call again.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StageCheckpointService {
+    
+    private final StageCheckpointRepository checkpointRepository;
+    private final ObjectMapper objectMapper;
+    
+    /**
+     * Stores the stage's outputs, replacing an earlier checkpoint of the same stage. Two
+     * attempts saving the same stage at once both succeed, the later write winning.
+     */
+    public void save(UUID consultationId, String stage, Map<String, Object> outputs) throws JsonProcessingException {
+        ObjectNode json = objectMapper.createObjectNode();
+        for (Map.Entry<String, Object> output : outputs.entrySet()) {
+            json.set(output.getKey(), objectMapper.valueToTree(output.getValue()));
+        }
+        String serialized = objectMapper.writeValueAsString(json);
+        
+        if (checkpointRepository.updateOutputs(consultationId, stage, serialized, LocalDateTime.now()) == 1) {
+            return;
+        }
+        StageCheckpoint checkpoint = new StageCheckpoint();
+        checkpoint.setConsultationId(consultationId);
+        checkpoint.setStage(stage);
+        checkpoint.setOutputs(serialized);
+        try {
+            checkpointRepository.save(checkpoint);
+        } catch (DataIntegrityViolationException e) {
+            // Another attempt inserted the stage between our update and insert
+            checkpointRepository.updateOutputs(consultationId, stage, serialized, LocalDateTime.now());
+        }
+    }
+    
+    /**
+     * Loads every checkpointed value of the consultation
+     * @param types the type each pipeline value deserializes to; unknown keys are ignored
+     */
+    public Map<String, Object> restore(UUID consultationId, Map<String, Class<?>> types) {
+        Map<String, Object> values = new HashMap<>();
+        for (StageCheckpoint checkpoint : checkpointRepository.findByConsultationId(consultationId)) {
+            try {
+                JsonNode outputs = objectMapper.readTree(checkpoint.getOutputs());
+                Iterator<Map.Entry<String, JsonNode>> fields = outputs.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    Class<?> type = types.get(field.getKey());
+                    if (type != null) {
+                        values.put(field.getKey(), objectMapper.treeToValue(field.getValue(), type));
+                    }
+                }
+            } catch (JsonProcessingException e) {
+                // An unreadable checkpoint only means that stage runs again
+                log.warn("Ignoring unreadable {} checkpoint of consultation {}: {}",
+                        checkpoint.getStage(), consultationId, e.getMessage());
+            }
+        }
+        return values;
+    }
+    
+    public void discard(UUID consultationId, Collection<String> stages) {
+        if (!stages.isEmpty()) {
+            checkpointRepository.deleteStages(consultationId, stages);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package za.co.ccos.app.coding;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ICD-10 code table of {@code icd10.table}, loaded once at startup. The file uses
+ * the layout of the CMS release ({@code icd10cm_codes_YYYY.txt}): one code per line,
+ * then whitespace and the description. The bundled table only covers common primary
+ * care codes, so codes missing from it are kept but marked unverified unless
+ * {@code icd10.authoritative} says the table is complete.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class Icd10Catalog {
+    
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${icd10.table:classpath:icd10/icd10cm-codes.txt}")
+    private Resource table = new ClassPathResource("icd10/icd10cm-codes.txt");
+    
+    @Value("${icd10.authoritative:false}")
+    private boolean authoritative;
+    
+    private Icd10Index index;
+    
+    @PostConstruct
+    public void load() {
+        Map<String, String> codes = new HashMap<>();
+        int skipped = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(table.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+", 2);
+                if (parts[0].isEmpty() || parts[0].startsWith("#")) {
+                    continue;
+                }
+                if (parts.length < 2 || Icd10Index.normalize(parts[0]) == null) {
+                    skipped++;
+                    continue;
+                }
+                codes.put(parts[0], parts[1]);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot load ICD-10 table " + table, e);
+        }
+        index = new Icd10Index(codes);
+        log.info("Loaded {} ICD-10 codes from {}{}", index.size(), table.getDescription(),
+                skipped > 0 ? " (" + skipped + " malformed lines skipped)" : "");
+    }
+    
+    public Icd10Index.Entry lookup(String code) {
+        return index.lookup(code);
+    }
+    
+    public List<Icd10Index.Entry> search(String query, int limit) {
+        return index.search(query, limit);
+    }
+    
+    /**
+     * Checks the model's {@code icd10_suggestions} against the table. Known codes get
+     * their canonical form and description. An unknown or malformed code is replaced
+     * by the code its description matches, looking within the suggested category
+     * first; the model's code is kept in {@code submitted_code}. A well-formed code
+     * that still cannot be placed is kept with {@code verified: false} unless the
+     * table is authoritative, and anything else is dropped. Duplicates are dropped.
+     */
+    public ArrayNode reviewSuggestions(JsonNode suggestions) {
+        ArrayNode reviewed = objectMapper.createArrayNode();
+        Set<String> seen = new HashSet<>();
+        for (JsonNode suggestion : suggestions) {
+            if (!suggestion.isObject()) {
+                record("dropped");
+                continue;
+            }
+            String submitted = suggestion.path("code").asText("");
+            String code = Icd10Index.normalize(submitted);
+            String description = suggestion.path("desc").asText("");
+            
+            Icd10Index.Entry entry = code != null ? index.lookup(code) : null;
+            String outcome = "valid";
+            if (entry == null) {
+                entry = code != null ? index.bestMatch(description, code.substring(0, 3))
+                        : index.bestMatch(description, null);
+                outcome = "corrected";
+            }
+            
+            ObjectNode result = ((ObjectNode) suggestion).deepCopy();
+            if (entry != null) {
+                result.put("code", entry.code());
+                result.put("desc", entry.description());
+                if (!entry.code().equals(submitted)) {
+                    result.put("submitted_code", submitted);
+                }
+            } else if (code != null && !authoritative) {
+                result.put("code", code);
+                result.put("verified", false);
+                outcome = "unverified";
+            } else {
+                log.warn("Dropping ICD-10 suggestion '{}' ({}): not in the code table", submitted, description);
+                record("dropped");
+                continue;
+            }
+            if (seen.add(result.path("code").asText())) {
+                reviewed.add(result);
+                record(outcome);
+            } else {
+                record("duplicate");
+            }
+        }
+        return reviewed;
+    }
+    
+    private void record(String outcome) {
+        meterRegistry.counter("icd10.suggestions", "outcome", outcome).increment();
+    }
+}
@@ -0,0 +1,224 @@
+package za.co.ccos.app.coding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only ICD-10 lookup built from a code table. Codes are kept sorted without
+ * their dot, so every code prefix is a contiguous range found by binary search. The
+ * descriptions are indexed by word: a sorted token array with each token's codes in
+ * one flat posting array. Nothing is allocated per code after construction.
+ */
+public final class Icd10Index {
+    
+    public record Entry(String code, String description) {
+    }
+    
+    private static final Pattern CODE = Pattern.compile("[A-Z][0-9][0-9A-Z][0-9A-Z]{0,4}");
+    private static final Pattern CODE_PREFIX = Pattern.compile("[A-Z][0-9][0-9A-Z.]*");
+    private static final Pattern WORD_BREAK = Pattern.compile("[^\\p{L}\\p{N}]+");
+    
+    // Sorted dotless codes, and the description of each by position
+    private final String[] keys;
+    private final String[] descriptions;
+    private final int[] tokenCounts;
+    
+    // Sorted description tokens; the codes of tokens[t] are postings[postingStart[t]..postingStart[t + 1])
+    private final String[] tokens;
+    private final int[] postingStart;
+    private final int[] postings;
+    
+    /**
+     * @param table code, dotted or not, to its description; malformed codes are skipped
+     */
+    public Icd10Index(Map<String, String> table) {
+        TreeMap<String, String> sorted = new TreeMap<>();
+        table.forEach((code, description) -> {
+            String key = key(code);
+            if (key != null && description != null && !description.isBlank()) {
+                sorted.put(key, description.trim());
+            }
+        });
+        keys = sorted.keySet().toArray(String[]::new);
+        descriptions = sorted.values().toArray(String[]::new);
+        tokenCounts = new int[keys.length];
+        
+        TreeMap<String, List<Integer>> byToken = new TreeMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            Set<String> words = tokenize(descriptions[i]);
+            tokenCounts[i] = words.size();
+            for (String word : words) {
+                byToken.computeIfAbsent(word, w -> new ArrayList<>()).add(i);
+            }
+        }
+        tokens = byToken.keySet().toArray(String[]::new);
+        postingStart = new int[tokens.length + 1];
+        postings = new int[byToken.values().stream().mapToInt(List::size).sum()];
+        int t = 0;
+        int p = 0;
+        for (List<Integer> codes : byToken.values()) {
+            postingStart[t++] = p;
+            for (int code : codes) {
+                postings[p++] = code;
+            }
+        }
+        postingStart[t] = p;
+    }
+    
+    public int size() {
+        return keys.length;
+    }
+    
+    /**
+     * Canonical form of a code: upper case with the dot after the category,
+     * e.g. "e1165" becomes "E11.65"
+     *
+     * @return null when the text is not shaped like an ICD-10 code
+     */
+    public static String normalize(String code) {
+        String key = key(code);
+        return key == null ? null : display(key);
+    }
+    
+    public Entry lookup(String code) {
+        String key = key(code);
+        if (key == null) {
+            return null;
+        }
+        int i = Arrays.binarySearch(keys, key);
+        return i >= 0 ? entry(i) : null;
+    }
+    
+    /**
+     * Autocompletes a query: a code prefix ("E11", "j06.") lists the codes under it,
+     * anything else is matched against the descriptions, with the last word
+     * taken as a prefix of a description word
+     */
+    public List<Entry> search(String query, int limit) {
+        String trimmed = query == null ? "" : query.trim().toUpperCase(Locale.ROOT);
+        List<Entry> results = new ArrayList<>();
+        if (CODE_PREFIX.matcher(trimmed).matches()) {
+            int[] range = keyRange(trimmed.replace(".", ""));
+            for (int i = range[0]; i < range[1] && results.size() < limit; i++) {
+                results.add(entry(i));
+            }
+            return results;
+        }
+        
+        List<String> words = new ArrayList<>(tokenize(query));
+        if (words.isEmpty()) {
+            return results;
+        }
+        int[] hits = new int[keys.length];
+        for (int w = 0; w < words.size(); w++) {
+            int[] range = w == words.size() - 1 ? tokenPrefixRange(words.get(w)) : tokenRange(words.get(w));
+            for (int t = range[0]; t < range[1]; t++) {
+                for (int p = postingStart[t]; p < postingStart[t + 1]; p++) {
+                    // Counts each code once per query word, however many of its tokens match
+                    if (hits[postings[p]] == w) {
+                        hits[postings[p]] = w + 1;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < keys.length && results.size() < limit; i++) {
+            if (hits[i] == words.size()) {
+                results.add(entry(i));
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * The code whose description shares the most words with the given one,
+     * preferring the shorter description on a tie. At least two thirds of the words
+     * must match.
+     *
+     * @param codePrefix only consider codes under this prefix; null for all codes
+     * @return null when nothing matches well enough
+     */
+    public Entry bestMatch(String description, String codePrefix) {
+        Set<String> words = tokenize(description);
+        if (words.isEmpty()) {
+            return null;
+        }
+        int[] range = codePrefix == null ? new int[]{0, keys.length} : keyRange(key(codePrefix));
+        if (range[0] >= range[1]) {
+            return null;
+        }
+        int[] shared = new int[keys.length];
+        for (String word : words) {
+            int[] tokenRange = tokenRange(word);
+            for (int t = tokenRange[0]; t < tokenRange[1]; t++) {
+                for (int p = postingStart[t]; p < postingStart[t + 1]; p++) {
+                    shared[postings[p]]++;
+                }
+            }
+        }
+        int best = -1;
+        for (int i = range[0]; i < range[1]; i++) {
+            if (shared[i] > 0 && (best < 0 || shared[i] > shared[best]
+                    || (shared[i] == shared[best] && tokenCounts[i] < tokenCounts[best]))) {
+                best = i;
+            }
+        }
+        return best >= 0 && shared[best] * 3 >= words.size() * 2 ? entry(best) : null;
+    }
+    
+    private Entry entry(int i) {
+        return new Entry(display(keys[i]), descriptions[i]);
+    }
+    
+    private int[] keyRange(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return new int[]{0, 0};
+        }
+        return new int[]{lowerBound(keys, prefix), lowerBound(keys, prefix + Character.MAX_VALUE)};
+    }
+    
+    private int[] tokenRange(String token) {
+        int i = Arrays.binarySearch(tokens, token);
+        return i >= 0 ? new int[]{i, i + 1} : new int[]{0, 0};
+    }
+    
+    private int[] tokenPrefixRange(String prefix) {
+        return new int[]{lowerBound(tokens, prefix), lowerBound(tokens, prefix + Character.MAX_VALUE)};
+    }
+    
+    private static int lowerBound(String[] sorted, String value) {
+        int i = Arrays.binarySearch(sorted, value, Comparator.naturalOrder());
+        return i >= 0 ? i : -i - 1;
+    }
+    
+    private static String key(String code) {
+        if (code == null) {
+            return null;
+        }
+        String key = code.replaceAll("[\\s.]", "").toUpperCase(Locale.ROOT);
+        return CODE.matcher(key).matches() ? key : null;
+    }
+    
+    private static String display(String key) {
+        return key.length() > 3 ? key.substring(0, 3) + "." + key.substring(3) : key;
+    }
+    
+    private static Set<String> tokenize(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        if (text != null) {
+            for (String word : WORD_BREAK.split(text.toLowerCase(Locale.ROOT))) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+        }
+        return words;
+    }
+}
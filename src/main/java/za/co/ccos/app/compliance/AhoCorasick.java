@@ -0,0 +1,92 @@
+package za.co.ccos.app.compliance;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Finds every occurrence of a fixed set of terms in one pass over the text,
+ * whatever the number of terms. Matching ignores case and only reports whole words,
+ * so "aspirin" does not match inside "paraspirinol".
+ *
+ * @param <T> what each term stands for, e.g. its drug class
+ */
+public final class AhoCorasick<T> {
+    
+    public record Match<T>(int start, int end, String term, T value) {
+    }
+    
+    private static final class Node<T> {
+        final Map<Character, Node<T>> next = new HashMap<>();
+        Node<T> fail;
+        // Longest term ending here, and the nearest shorter term via the failure chain
+        String term;
+        T value;
+        Node<T> output;
+    }
+    
+    private final Node<T> root = new Node<>();
+    
+    public AhoCorasick(Map<String, T> terms) {
+        terms.forEach((term, value) -> {
+            Node<T> node = root;
+            for (char c : term.toLowerCase(Locale.ROOT).toCharArray()) {
+                node = node.next.computeIfAbsent(c, key -> new Node<>());
+            }
+            node.term = term.toLowerCase(Locale.ROOT);
+            node.value = value;
+        });
+        link();
+    }
+    
+    /**
+     * @return whole-word matches in order of their end position
+     */
+    public List<Match<T>> scan(CharSequence text) {
+        List<Match<T>> matches = new ArrayList<>();
+        Node<T> node = root;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            while (node != root && !node.next.containsKey(c)) {
+                node = node.fail;
+            }
+            node = node.next.getOrDefault(c, root);
+            for (Node<T> hit = node.term != null ? node : node.output; hit != null; hit = hit.output) {
+                int start = i + 1 - hit.term.length();
+                if (isBoundary(text, start - 1) && isBoundary(text, i + 1)) {
+                    matches.add(new Match<>(start, i + 1, hit.term, hit.value));
+                }
+            }
+        }
+        return matches;
+    }
+    
+    private void link() {
+        Queue<Node<T>> queue = new ArrayDeque<>();
+        for (Node<T> child : root.next.values()) {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node<T> node = queue.remove();
+            node.next.forEach((c, child) -> {
+                Node<T> fail = node.fail;
+                while (fail != root && !fail.next.containsKey(c)) {
+                    fail = fail.fail;
+                }
+                Node<T> target = fail.next.get(c);
+                child.fail = target != null && target != child ? target : root;
+                child.output = child.fail.term != null ? child.fail : child.fail.output;
+                queue.add(child);
+            });
+        }
+    }
+    
+    private static boolean isBoundary(CharSequence text, int index) {
+        return index < 0 || index >= text.length() || !Character.isLetterOrDigit(text.charAt(index));
+    }
+}
@@ -0,0 +1,249 @@
+package za.co.ccos.app.compliance;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks prescribed drugs against the patient's allergies without a model call. The
+ * drug and allergen names of {@code compliance/drug-classes.json} are compiled into
+ * two automatons at startup; a note is then checked in a single pass over its text.
+ * A drug mention is not counted as a prescription when a negation governs it directly:
+ * the cue comes right before the drug, with nothing but the verb it negates and filler
+ * words between them ("avoid ibuprofen", "do not give ibuprofen"), or the drug is
+ * listed with one that is ("avoid aspirin or ibuprofen"). A comma or a later verb
+ * ends the negation; other words between cue and drug leave the mention unclear, and
+ * the note undecided.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DrugAllergyRules {
+    
+    public record Issue(String type, String detail) {
+    }
+    
+    public record SuggestedEdit(String field, String suggestion) {
+    }
+    
+    /**
+     * @param unrecognizedAllergies allergies the dictionary does not know, so the note
+     *                              could not be checked against them
+     * @param unclearMentions       conflicting drugs the note mentions near a negation
+     *                              that may or may not refer to them
+     */
+    public record Verdict(List<Issue> issues, List<SuggestedEdit> suggestedEdits, List<String> unrecognizedAllergies,
+                          List<String> unclearMentions) {
+        
+        public boolean decided() {
+            return unrecognizedAllergies.isEmpty() && unclearMentions.isEmpty();
+        }
+    }
+    
+    private enum Reading {
+        PRESCRIBED, NEGATED, UNCLEAR
+    }
+    
+    private record DrugClass(String name, List<String> allergens, List<String> drugs, String alternative) {
+    }
+    
+    private record CrossReaction(String allergy, String drugs, String detail) {
+    }
+    
+    private record Dictionary(List<String> noAllergyTerms, List<String> nonDrugAllergens, List<String> negationCues,
+                              List<String> prescribingVerbs, List<String> negationFillers, List<DrugClass> classes,
+                              List<CrossReaction> crossReactions) {
+    }
+    
+    private static final String DICTIONARY = "compliance/drug-classes.json";
+    
+    // A negation never reaches past these, so "No fever, start ibuprofen" prescribes it
+    private static final String CLAUSE_BREAKS = ".,;:!?\n\"()[]{}";
+    private static final Set<String> CONJUNCTIONS = Set.of("and", "or", "nor");
+    
+    private final ObjectMapper objectMapper;
+    
+    private Set<String> noAllergyTerms;
+    private Map<String, DrugClass> classes;
+    private Map<String, List<CrossReaction>> crossReactions;
+    private AhoCorasick<Set<String>> allergens;
+    private AhoCorasick<Set<String>> drugs;
+    private AhoCorasick<Boolean> negations;
+    private Set<String> prescribingVerbs;
+    private Set<String> negationFillers;
+    
+    @PostConstruct
+    public void load() {
+        Dictionary dictionary;
+        try (InputStream in = new ClassPathResource(DICTIONARY).getInputStream()) {
+            dictionary = objectMapper.readValue(in, Dictionary.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot load " + DICTIONARY, e);
+        }
+        
+        // Food and environmental allergies cannot conflict with a prescription
+        noAllergyTerms = new HashSet<>();
+        dictionary.noAllergyTerms().forEach(term -> noAllergyTerms.add(term.toLowerCase(Locale.ROOT)));
+        dictionary.nonDrugAllergens().forEach(term -> noAllergyTerms.add(term.toLowerCase(Locale.ROOT)));
+        classes = new LinkedHashMap<>();
+        Map<String, Set<String>> allergenTerms = new HashMap<>();
+        Map<String, Set<String>> drugTerms = new HashMap<>();
+        for (DrugClass drugClass : dictionary.classes()) {
+            classes.put(drugClass.name(), drugClass);
+            drugClass.allergens().forEach(term -> allergenTerms
+                    .computeIfAbsent(term.toLowerCase(Locale.ROOT), key -> new LinkedHashSet<>()).add(drugClass.name()));
+            drugClass.drugs().forEach(term -> drugTerms
+                    .computeIfAbsent(term.toLowerCase(Locale.ROOT), key -> new LinkedHashSet<>()).add(drugClass.name()));
+        }
+        crossReactions = new HashMap<>();
+        dictionary.crossReactions().forEach(reaction ->
+                crossReactions.computeIfAbsent(reaction.allergy(), key -> new ArrayList<>()).add(reaction));
+        Map<String, Boolean> cues = new HashMap<>();
+        dictionary.negationCues().forEach(cue -> cues.put(cue, true));
+        
+        allergens = new AhoCorasick<>(allergenTerms);
+        drugs = new AhoCorasick<>(drugTerms);
+        negations = new AhoCorasick<>(cues);
+        prescribingVerbs = new HashSet<>(dictionary.prescribingVerbs());
+        negationFillers = new HashSet<>(dictionary.negationFillers());
+        log.info("Loaded {} drug classes ({} drug names, {} allergen names) for allergy checks",
+                classes.size(), drugTerms.size(), allergenTerms.size());
+    }
+    
+    /**
+     * @param allergies the patient's recorded allergies
+     * @param texts     note field name to its text, e.g. "plan" to the SOAP plan
+     */
+    public Verdict evaluate(List<String> allergies, Map<String, String> texts) {
+        // Allergy class to the allergy as the patient record words it
+        Map<String, String> allergicTo = new LinkedHashMap<>();
+        List<String> unrecognized = new ArrayList<>();
+        for (String allergy : allergies) {
+            String normalized = allergy.trim().toLowerCase(Locale.ROOT);
+            if (normalized.isEmpty() || noAllergyTerms.contains(normalized)) {
+                continue;
+            }
+            List<AhoCorasick.Match<Set<String>>> matches = allergens.scan(normalized);
+            if (matches.isEmpty()) {
+                unrecognized.add(allergy.trim());
+            }
+            matches.forEach(match -> match.value().forEach(name -> allergicTo.putIfAbsent(name, allergy.trim())));
+        }
+        
+        List<Issue> issues = new ArrayList<>();
+        List<SuggestedEdit> edits = new ArrayList<>();
+        if (allergicTo.isEmpty()) {
+            return new Verdict(issues, edits, unrecognized, List.of());
+        }
+        Set<String> reported = new HashSet<>();
+        Set<String> unclear = new LinkedHashSet<>();
+        texts.forEach((field, text) -> {
+            if (text == null) {
+                return;
+            }
+            AhoCorasick.Match<Set<String>> previous = null;
+            Reading previousReading = Reading.PRESCRIBED;
+            for (AhoCorasick.Match<Set<String>> mention : drugs.scan(text)) {
+                Reading reading = read(text, mention, previous, previousReading);
+                previous = mention;
+                previousReading = reading;
+                if (reading == Reading.NEGATED || !conflicts(mention, allergicTo.keySet())) {
+                    continue;
+                }
+                String drug = text.substring(mention.start(), mention.end());
+                if (reading == Reading.UNCLEAR) {
+                    unclear.add(drug);
+                    continue;
+                }
+                if (!reported.add(mention.term())) {
+                    continue;
+                }
+                for (String drugClass : mention.value()) {
+                    String allergy = allergicTo.get(drugClass);
+                    if (allergy != null) {
+                        issues.add(new Issue("ALLERGY_CONFLICT",
+                                "Patient allergic to " + allergy + " but " + drug + " prescribed."));
+                        edits.add(new SuggestedEdit(field, "Replace " + drug + " with "
+                                + classes.get(drugClass).alternative()));
+                    }
+                    for (String allergyClass : allergicTo.keySet()) {
+                        crossReactions.getOrDefault(allergyClass, List.of()).stream()
+                                .filter(reaction -> reaction.drugs().equals(drugClass))
+                                .forEach(reaction -> issues.add(new Issue("ALLERGY_CROSS_REACTIVITY",
+                                        String.format(reaction.detail(), drug))));
+                    }
+                }
+            }
+        });
+        // A drug already reported from a clear mention needs no second opinion
+        unclear.removeIf(drug -> reported.contains(drug.toLowerCase(Locale.ROOT)));
+        return new Verdict(issues, edits, unrecognized, new ArrayList<>(unclear));
+    }
+    
+    private boolean conflicts(AhoCorasick.Match<Set<String>> mention, Set<String> allergyClasses) {
+        return mention.value().stream().anyMatch(drugClass -> allergyClasses.contains(drugClass)
+                || allergyClasses.stream().anyMatch(allergyClass -> crossReactions
+                .getOrDefault(allergyClass, List.of()).stream().anyMatch(r -> r.drugs().equals(drugClass))));
+    }
+    
+    /**
+     * Whether a negation governs the mention. Only the words since the clause began or
+     * the previous drug was named are looked at, so a cue about something else ("stop
+     * paracetamol and start ibuprofen") does not carry over.
+     */
+    private Reading read(String text, AhoCorasick.Match<Set<String>> mention,
+                         AhoCorasick.Match<Set<String>> previous, Reading previousReading) {
+        int from = mention.start();
+        while (from > 0 && CLAUSE_BREAKS.indexOf(text.charAt(from - 1)) < 0) {
+            from--;
+        }
+        if (previous != null && previous.end() > from) {
+            if (previous.end() > mention.start()) {
+                // Overlapping names of the same drug
+                return previousReading;
+            }
+            // "avoid aspirin or ibuprofen" negates both
+            List<String> between = words(text, previous.end(), mention.start());
+            if (previousReading != Reading.PRESCRIBED && CONJUNCTIONS.containsAll(between)) {
+                return previousReading;
+            }
+            from = previous.end();
+        }
+        List<AhoCorasick.Match<Boolean>> cues = negations.scan(text.subSequence(from, mention.start()));
+        if (cues.isEmpty()) {
+            return Reading.PRESCRIBED;
+        }
+        int cueEnd = from + cues.stream().mapToInt(AhoCorasick.Match::end).max().getAsInt();
+        boolean governed = true;
+        for (String word : words(text, cueEnd, mention.start())) {
+            if (prescribingVerbs.contains(word) && !governed) {
+                // A verb after other words starts a new instruction: "stop paracetamol and start ibuprofen"
+                return Reading.PRESCRIBED;
+            }
+            governed &= prescribingVerbs.contains(word) || negationFillers.contains(word);
+        }
+        return governed ? Reading.NEGATED : Reading.UNCLEAR;
+    }
+    
+    private static List<String> words(String text, int from, int to) {
+        return Arrays.stream(text.substring(from, to).toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(word -> !word.isEmpty())
+                .toList();
+    }
+}
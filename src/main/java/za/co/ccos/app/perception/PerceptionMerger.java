@@ -0,0 +1,102 @@
+package za.co.ccos.app.perception;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Combines the perception results of a transcript's chunks into one result of the same
+ * schema. Chunks are folded in transcript order, so the outcome only depends on the
+ * chunk results, not on which call finished first:
+ * <ul>
+ *   <li>text and numbers: the first chunk that states them wins</li>
+ *   <li>lists of text: union, ignoring case and surrounding whitespace</li>
+ *   <li>lists of objects, e.g. symptoms: one entry per name (or test), with fields
+ *       missing from the first mention filled in from later ones</li>
+ *   <li>objects, e.g. hpi and vitals: merged field by field</li>
+ * </ul>
+ */
+public final class PerceptionMerger {
+    
+    // Fields identifying the same item across chunks in lists of objects
+    private static final List<String> IDENTITY_FIELDS = List.of("name", "test");
+    
+    private PerceptionMerger() {
+    }
+    
+    public static ObjectNode merge(List<JsonNode> chunkResults) {
+        ObjectNode merged = JsonNodeFactory.instance.objectNode();
+        for (JsonNode result : chunkResults) {
+            if (result != null && result.isObject()) {
+                mergeObject(merged, (ObjectNode) result);
+            }
+        }
+        return merged;
+    }
+    
+    private static void mergeObject(ObjectNode target, ObjectNode source) {
+        source.fields().forEachRemaining(field -> {
+            JsonNode existing = target.get(field.getKey());
+            JsonNode incoming = field.getValue();
+            if (isEmpty(existing) && incoming.isArray()) {
+                mergeArray(target.putArray(field.getKey()), (ArrayNode) incoming);
+            } else if (isEmpty(existing) && incoming.isObject()) {
+                mergeObject(target.putObject(field.getKey()), (ObjectNode) incoming);
+            } else if (isEmpty(existing)) {
+                if (!isEmpty(incoming) || existing == null) {
+                    target.set(field.getKey(), incoming.deepCopy());
+                }
+            } else if (existing.isObject() && incoming.isObject()) {
+                mergeObject((ObjectNode) existing, (ObjectNode) incoming);
+            } else if (existing.isArray() && incoming.isArray()) {
+                mergeArray((ArrayNode) existing, (ArrayNode) incoming);
+            }
+        });
+    }
+    
+    private static void mergeArray(ArrayNode target, ArrayNode source) {
+        Map<String, JsonNode> byKey = new HashMap<>();
+        target.forEach(item -> byKey.putIfAbsent(key(item), item));
+        for (JsonNode item : source) {
+            if (isEmpty(item)) {
+                continue;
+            }
+            JsonNode existing = byKey.get(key(item));
+            if (existing == null) {
+                JsonNode copy = item.deepCopy();
+                target.add(copy);
+                byKey.put(key(copy), copy);
+            } else if (existing.isObject() && item.isObject()) {
+                mergeObject((ObjectNode) existing, (ObjectNode) item);
+            }
+        }
+    }
+    
+    private static String key(JsonNode item) {
+        if (item.isObject()) {
+            for (String field : IDENTITY_FIELDS) {
+                if (item.hasNonNull(field)) {
+                    return field + ":" + normalize(item.get(field).asText());
+                }
+            }
+            return item.toString();
+        }
+        return item.isTextual() ? normalize(item.asText()) : item.toString();
+    }
+    
+    private static String normalize(String text) {
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+    
+    private static boolean isEmpty(JsonNode node) {
+        return node == null || node.isNull() || node.isMissingNode()
+                || (node.isTextual() && node.asText().isBlank())
+                || (node.isContainerNode() && node.isEmpty());
+    }
+}
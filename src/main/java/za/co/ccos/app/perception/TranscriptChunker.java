@@ -0,0 +1,161 @@
+package za.co.ccos.app.perception;
+
+import za.co.ccos.infra.llm.TokenCounter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a transcript into chunks that each fit a token budget. Chunks break between
+ * speaker turns where possible, then between sentences, and only cut inside a
+ * sentence that alone exceeds the budget. Each chunk repeats the last turns or
+ * sentences of the one before it, up to the overlap, so a fact stated across a break
+ * is still seen whole by one chunk. The same transcript always gives the same chunks.
+ */
+public final class TranscriptChunker {
+    
+    /**
+     * A turn, or one sentence or piece of a long turn, with its speaker label
+     */
+    private record Unit(String label, String text, int tokens) {
+    }
+    
+    // "Doctor:", "Dr. Naidoo:", "PATIENT:" at the start of a line
+    private static final Pattern SPEAKER = Pattern.compile("(?m)^\\s*([A-Za-z][A-Za-z .'-]{0,30}):");
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?])\\s+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    
+    private final int maxTokens;
+    private final int overlapTokens;
+    
+    public TranscriptChunker(int maxTokens, int overlapTokens) {
+        if (maxTokens < 1 || overlapTokens < 0 || overlapTokens >= maxTokens) {
+            throw new IllegalArgumentException("Overlap must be smaller than the chunk size");
+        }
+        this.maxTokens = maxTokens;
+        this.overlapTokens = overlapTokens;
+    }
+    
+    public List<String> split(String transcript) {
+        if (transcript == null || transcript.isBlank()) {
+            return List.of();
+        }
+        if (tokens(transcript) <= maxTokens) {
+            return List.of(transcript);
+        }
+        
+        List<Unit> units = new ArrayList<>();
+        for (String turn : turns(transcript)) {
+            addUnits(turn, units);
+        }
+        
+        List<String> chunks = new ArrayList<>();
+        List<Unit> current = new ArrayList<>();
+        int size = 0;
+        for (Unit unit : units) {
+            if (size + unit.tokens() > maxTokens && !current.isEmpty()) {
+                chunks.add(render(current));
+                current = overlap(current, unit.tokens());
+                size = current.stream().mapToInt(Unit::tokens).sum();
+            }
+            current.add(unit);
+            size += unit.tokens();
+        }
+        if (!current.isEmpty()) {
+            chunks.add(render(current));
+        }
+        return chunks;
+    }
+    
+    /**
+     * The trailing units of a finished chunk that fit the overlap and still leave
+     * room for the next unit
+     */
+    private List<Unit> overlap(List<Unit> chunk, int nextTokens) {
+        List<Unit> kept = new ArrayList<>();
+        int size = 0;
+        for (int i = chunk.size() - 1; i >= 0; i--) {
+            int unitTokens = chunk.get(i).tokens();
+            if (size + unitTokens > overlapTokens || size + unitTokens + nextTokens > maxTokens) {
+                break;
+            }
+            kept.add(0, chunk.get(i));
+            size += unitTokens;
+        }
+        return kept;
+    }
+    
+    /**
+     * One line per turn; a chunk starting mid-turn still names the speaker
+     */
+    private static String render(List<Unit> units) {
+        StringBuilder chunk = new StringBuilder();
+        String speaker = null;
+        for (Unit unit : units) {
+            if (unit.label().equals(speaker)) {
+                chunk.append(' ');
+            } else {
+                if (speaker != null) {
+                    chunk.append('\n');
+                }
+                chunk.append(unit.label());
+                speaker = unit.label();
+            }
+            chunk.append(unit.text());
+        }
+        return chunk.toString();
+    }
+    
+    private static List<String> turns(String transcript) {
+        List<String> turns = new ArrayList<>();
+        Matcher matcher = SPEAKER.matcher(transcript);
+        int start = 0;
+        while (matcher.find()) {
+            if (matcher.start() > start) {
+                turns.add(transcript.substring(start, matcher.start()));
+            }
+            start = matcher.start();
+        }
+        turns.add(transcript.substring(start));
+        return turns.stream().map(String::trim).filter(turn -> !turn.isEmpty()).toList();
+    }
+    
+    /**
+     * A turn as one unit, or split into sentences, and words for a sentence that
+     * alone exceeds the budget
+     */
+    private void addUnits(String turn, List<Unit> units) {
+        Matcher speaker = SPEAKER.matcher(turn);
+        String label = speaker.lookingAt() ? speaker.group(1).trim() + ": " : "";
+        String body = turn.substring(label.isEmpty() ? 0 : speaker.end()).trim();
+        int labelTokens = tokens(label);
+        int budget = maxTokens - labelTokens - 1;
+        if (tokens(body) <= budget) {
+            units.add(new Unit(label, body, labelTokens + tokens(body) + 1));
+            return;
+        }
+        for (String sentence : SENTENCE_END.split(body)) {
+            if (tokens(sentence) <= budget) {
+                units.add(new Unit(label, sentence, labelTokens + tokens(sentence) + 1));
+                continue;
+            }
+            StringBuilder window = new StringBuilder();
+            for (String word : WHITESPACE.split(sentence)) {
+                if (window.length() > 0 && tokens(window + " " + word) > budget) {
+                    units.add(new Unit(label, window.toString(), labelTokens + tokens(window.toString()) + 1));
+                    window.setLength(0);
+                }
+                window.append(window.length() > 0 ? " " : "").append(word);
+            }
+            if (window.length() > 0) {
+                units.add(new Unit(label, window.toString(), labelTokens + tokens(window.toString()) + 1));
+            }
+        }
+    }
+    
+    private static int tokens(String text) {
+        return TokenCounter.count(text);
+    }
+}
@@ -0,0 +1,33 @@
+package za.co.ccos.app.pipeline;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Values flowing between pipeline stages. Stages running in parallel write disjoint keys,
+ * so a concurrent map is all the coordination needed.
+ */
+public class PipelineContext {
+    
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    
+    public PipelineContext put(String key, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Pipeline value '" + key + "' must not be null");
+        }
+        values.put(key, value);
+        return this;
+    }
+    
+    public boolean has(String key) {
+        return values.containsKey(key);
+    }
+    
+    public <T> T get(String key, Class<T> type) {
+        Object value = values.get(key);
+        if (value == null) {
+            throw new IllegalStateException("Pipeline value '" + key + "' has not been produced");
+        }
+        return type.cast(value);
+    }
+}
@@ -0,0 +1,288 @@
+package za.co.ccos.app.pipeline;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Small dependency-graph executor for the consultation pipeline. Each stage starts as
+ * soon as every value it reads has been produced, so stages with disjoint inputs run
+ * concurrently. The first stage failure or timeout fails the whole run and interrupts
+ * the stages still running.
+ */
+public class PipelineGraph {
+    
+    private final List<PipelineStage> stages;
+    private final Map<String, PipelineStage> producers;
+    
+    private PipelineGraph(List<PipelineStage> stages, Map<String, PipelineStage> producers) {
+        this.stages = stages;
+        this.producers = producers;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    public List<String> getStageNames() {
+        return stages.stream().map(PipelineStage::getName).toList();
+    }
+    
+    /**
+     * The named stage and every stage that transitively consumes its outputs, in run order
+     *
+     * @throws IllegalArgumentException if there is no such stage
+     */
+    public List<String> downstreamOf(String stageName) {
+        if (stages.stream().noneMatch(stage -> stage.getName().equals(stageName))) {
+            throw new IllegalArgumentException("Unknown stage " + stageName);
+        }
+        Set<String> affected = new HashSet<>();
+        List<String> ordered = new ArrayList<>();
+        for (PipelineStage stage : stages) {
+            boolean consumesAffected = stage.getInputs().stream()
+                    .map(producers::get)
+                    .anyMatch(producer -> producer != null && affected.contains(producer.getName()));
+            if (stage.getName().equals(stageName) || consumesAffected) {
+                affected.add(stage.getName());
+                ordered.add(stage.getName());
+            }
+        }
+        return ordered;
+    }
+    
+    /**
+     * Runs every stage on the given executor. The returned future completes with the
+     * populated context, or exceptionally with the {@link PipelineStageException} of the
+     * first stage that failed. Stages of a failed run that are still going are
+     * interrupted, and stages that had not started yet never start.
+     */
+    public CompletableFuture<PipelineContext> run(PipelineContext context, Executor executor, StageListener listener) {
+        CompletableFuture<PipelineContext> result = new CompletableFuture<>();
+        Map<String, CompletableFuture<Void>> running = new HashMap<>();
+        Set<StageTask> inFlight = ConcurrentHashMap.newKeySet();
+        
+        for (PipelineStage stage : stages) {
+            CompletableFuture<?>[] upstream = stage.getInputs().stream()
+                    .map(producers::get)
+                    .filter(p -> p != null)
+                    .distinct()
+                    .map(p -> running.get(p.getName()))
+                    .toArray(CompletableFuture[]::new);
+            
+            CompletableFuture<Void> future = CompletableFuture.allOf(upstream)
+                    .thenCompose(ignored -> execute(stage, context, executor, listener, result, inFlight));
+            future.whenComplete((ignored, error) -> {
+                if (error != null && result.completeExceptionally(unwrap(stage, error))) {
+                    CancellationException cancelled = new CancellationException("cancelled after stage " + stage.getName() + " failed");
+                    inFlight.forEach(task -> task.cancel(cancelled));
+                }
+            });
+            running.put(stage.getName(), future);
+        }
+        
+        CompletableFuture.allOf(running.values().toArray(CompletableFuture[]::new))
+                .thenRun(() -> result.complete(context));
+        return result;
+    }
+    
+    private CompletableFuture<Void> execute(PipelineStage stage, PipelineContext context, Executor executor,
+                                            StageListener listener, CompletableFuture<PipelineContext> result,
+                                            Set<StageTask> inFlight) {
+        if (result.isDone()) {
+            return CompletableFuture.failedFuture(new CancellationException("run already failed"));
+        }
+        if (alreadyProduced(stage, context)) {
+            listener.onStageSkipped(stage.getName());
+            return CompletableFuture.completedFuture(null);
+        }
+        for (String input : stage.getInputs()) {
+            if (!context.has(input)) {
+                return CompletableFuture.failedFuture(new PipelineStageException(
+                        stage.getName(), "missing input '" + input + "'", null));
+            }
+        }
+        
+        StageTask task = new StageTask(() -> {
+            listener.onStageStarted(stage.getName());
+            long start = System.nanoTime();
+            Map<String, Object> outputs = stage.getAction().run(context);
+            for (String output : stage.getOutputs()) {
+                Object value = outputs != null ? outputs.get(output) : null;
+                if (value == null) {
+                    throw new IllegalStateException("did not produce '" + output + "'");
+                }
+                context.put(output, value);
+            }
+            return Duration.ofNanos(System.nanoTime() - start);
+        });
+        inFlight.add(task);
+        task.result.whenComplete((elapsed, error) -> inFlight.remove(task));
+        if (result.isDone()) {
+            task.cancel(new CancellationException("run already failed"));
+        }
+        
+        // Armed before handing the task over: a saturated executor runs it on this thread,
+        // and the timeout has to reach it there too
+        CompletableFuture.delayedExecutor(stage.getTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .execute(() -> task.cancel(new TimeoutException()));
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            task.cancel(e);
+        }
+        
+        return task.result
+                .handle((elapsed, error) -> {
+                    if (error != null) {
+                        PipelineStageException failure = unwrap(stage, error);
+                        listener.onStageFailed(stage.getName(), failure.getCause() != null ? failure.getCause() : failure);
+                        throw failure;
+                    }
+                    listener.onStageCompleted(stage.getName(), elapsed);
+                    return null;
+                });
+    }
+    
+    /**
+     * A stage whose outputs are all present before it starts has nothing left to do.
+     */
+    private boolean alreadyProduced(PipelineStage stage, PipelineContext context) {
+        return stage.getOutputs().stream().allMatch(context::has);
+    }
+    
+    private PipelineStageException unwrap(PipelineStage stage, Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof PipelineStageException stageException) {
+            return stageException;
+        }
+        if (cause instanceof TimeoutException) {
+            return new PipelineStageException(stage.getName(), "timed out after " + stage.getTimeout(), cause);
+        }
+        return new PipelineStageException(stage.getName(), String.valueOf(cause.getMessage()), cause);
+    }
+    
+    /**
+     * One stage attempt. Unlike a future from {@code supplyAsync}, cancelling it reaches
+     * the thread running the action, whichever thread that turned out to be.
+     */
+    private static final class StageTask implements Runnable {
+        
+        private final Callable<Duration> work;
+        private final CompletableFuture<Duration> result = new CompletableFuture<>();
+        private Thread runner;
+        private boolean interrupted;
+        
+        StageTask(Callable<Duration> work) {
+            this.work = work;
+        }
+        
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                result.complete(work.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // The runner may be the caller's own thread, which must not keep our interrupt
+                    if (interrupted) {
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Fails the stage with the given cause and interrupts the action if it is running.
+         * An action that ignores interrupts keeps its thread until it returns, but the
+         * stage and the run fail on time regardless.
+         */
+        synchronized void cancel(Throwable cause) {
+            if (result.completeExceptionally(cause) && runner != null) {
+                interrupted = true;
+                runner.interrupt();
+            }
+        }
+    }
+    
+    public static class Builder {
+        
+        private final Map<String, PipelineStage> stages = new LinkedHashMap<>();
+        
+        public Builder stage(PipelineStage stage) {
+            if (stages.putIfAbsent(stage.getName(), stage) != null) {
+                throw new IllegalArgumentException("Duplicate stage " + stage.getName());
+            }
+            return this;
+        }
+        
+        /**
+         * Validates that every output has a single producer and that the graph is acyclic,
+         * and orders the stages so each one is registered after its producers.
+         */
+        public PipelineGraph build() {
+            Map<String, PipelineStage> producers = new HashMap<>();
+            for (PipelineStage stage : stages.values()) {
+                for (String output : stage.getOutputs()) {
+                    PipelineStage previous = producers.putIfAbsent(output, stage);
+                    if (previous != null) {
+                        throw new IllegalArgumentException("'" + output + "' is produced by both "
+                                + previous.getName() + " and " + stage.getName());
+                    }
+                }
+            }
+            
+            List<PipelineStage> ordered = new ArrayList<>();
+            Set<String> visited = new HashSet<>();
+            Set<String> visiting = new HashSet<>();
+            for (PipelineStage stage : stages.values()) {
+                visit(stage, producers, visited, visiting, ordered);
+            }
+            return new PipelineGraph(Collections.unmodifiableList(ordered), Map.copyOf(producers));
+        }
+        
+        private void visit(PipelineStage stage, Map<String, PipelineStage> producers,
+                           Set<String> visited, Set<String> visiting, List<PipelineStage> ordered) {
+            if (visited.contains(stage.getName())) {
+                return;
+            }
+            if (!visiting.add(stage.getName())) {
+                throw new IllegalArgumentException("Pipeline has a cycle through stage " + stage.getName());
+            }
+            for (String input : stage.getInputs()) {
+                PipelineStage producer = producers.get(input);
+                if (producer != null) {
+                    visit(producer, producers, visited, visiting, ordered);
+                }
+            }
+            visiting.remove(stage.getName());
+            visited.add(stage.getName());
+            ordered.add(stage);
+        }
+    }
+}
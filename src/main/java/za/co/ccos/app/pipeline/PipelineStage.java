@@ -0,0 +1,42 @@
+package za.co.ccos.app.pipeline;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A single node in the consultation pipeline: declares which context values it reads,
+ * which it writes, and how long it may run before the whole run is failed.
+ */
+@Getter
+public class PipelineStage {
+    
+    /**
+     * Work performed by a stage. Receives the shared context and returns the values it
+     * produces, keyed by the names declared in {@link PipelineStage#getOutputs()}.
+     */
+    @FunctionalInterface
+    public interface Action {
+        Map<String, Object> run(PipelineContext context) throws Exception;
+    }
+    
+    private final String name;
+    private final Set<String> inputs;
+    private final Set<String> outputs;
+    private final Duration timeout;
+    private final Action action;
+    
+    public PipelineStage(String name, Set<String> inputs, Set<String> outputs, Duration timeout, Action action) {
+        this.name = Objects.requireNonNull(name);
+        this.inputs = Set.copyOf(inputs);
+        this.outputs = Set.copyOf(outputs);
+        this.timeout = Objects.requireNonNull(timeout);
+        this.action = Objects.requireNonNull(action);
+        if (this.outputs.isEmpty()) {
+            throw new IllegalArgumentException("Stage " + name + " must declare at least one output");
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package za.co.ccos.app.pipeline;
+
+import lombok.Getter;
+
+/**
+ * Raised when a pipeline stage fails or exceeds its timeout. Dependent stages are not
+ * started and the run completes with this exception.
+ */
+@Getter
+public class PipelineStageException extends RuntimeException {
+    
+    private final String stage;
+    
+    public PipelineStageException(String stage, String message, Throwable cause) {
+        super("Stage '" + stage + "' failed: " + message, cause);
+        this.stage = stage;
+    }
+}
@@ -0,0 +1,24 @@
+package za.co.ccos.app.pipeline;
+
+import java.time.Duration;
+
+/**
+ * Callbacks for stage lifecycle events. Invoked from pipeline worker threads, so
+ * implementations must be thread-safe.
+ */
+public interface StageListener {
+    
+    StageListener NONE = new StageListener() {};
+    
+    default void onStageStarted(String stage) {
+    }
+    
+    default void onStageCompleted(String stage, Duration elapsed) {
+    }
+    
+    default void onStageSkipped(String stage) {
+    }
+    
+    default void onStageFailed(String stage, Throwable cause) {
+    }
+}
@@ -1,9 +1,168 @@
 package za.co.ccos.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableAsync
+@EnableScheduling
+@Slf4j
 public class AsyncConfig {
+    
+    public static final String CONSULTATION_EXECUTOR = "consultationExecutor";
+    public static final String PIPELINE_STAGE_EXECUTOR = "pipelineStageExecutor";
+    public static final String SUMMARY_EXECUTOR = "summaryExecutor";
+    public static final String APPROVAL_EXECUTOR = "approvalExecutor";
+    public static final String EVENT_EXECUTOR = "consultationEventExecutor";
+    
+    /**
+     * Dedicated executor for the consultation pipeline. The job worker only claims as
+     * many jobs as it has free slots, so the backlog waits in the job queue rather than
+     * here; the bounded queue and abort policy only guard against a worker that misjudges
+     * its slots, which gets a TaskRejectedException and releases the job.
+     */
+    @Bean(name = CONSULTATION_EXECUTOR)
+    public ThreadPoolTaskExecutor consultationExecutor(
+            @Value("${pipeline.executor.threads:platform}") String threads,
+            @Value("${pipeline.executor.pool-size:8}") int poolSize,
+            @Value("${pipeline.executor.queue-capacity:100}") int queueCapacity,
+            MeterRegistry meterRegistry) {
+        
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("consultation-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        
+        if ("virtual".equalsIgnoreCase(threads)) {
+            ThreadFactory virtualFactory = virtualThreadFactory("consultation-vt-");
+            if (virtualFactory != null) {
+                executor.setThreadFactory(virtualFactory);
+            }
+        }
+        
+        // Waiting jobs are measured by ConsultationJobQueue
+        Gauge.builder("pipeline.executor.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Pipeline workers currently processing a consultation")
+                .register(meterRegistry);
+        
+        log.info("Consultation executor: {} threads, pool size {}, queue capacity {}", threads, poolSize, queueCapacity);
+        return executor;
+    }
+    
+    /**
+     * Runs individual pipeline stages so independent stages of one consultation can
+     * overlap. Kept separate from the consultation executor, whose workers block waiting
+     * for their stages; when saturated the waiting worker runs the stage itself.
+     */
+    @Bean(name = PIPELINE_STAGE_EXECUTOR)
+    public ThreadPoolTaskExecutor pipelineStageExecutor(
+            @Value("${pipeline.executor.threads:platform}") String threads,
+            @Value("${pipeline.executor.stage-pool-size:16}") int poolSize) {
+        
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(0);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("pipeline-stage-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        
+        if ("virtual".equalsIgnoreCase(threads)) {
+            ThreadFactory virtualFactory = virtualThreadFactory("pipeline-stage-vt-");
+            if (virtualFactory != null) {
+                executor.setThreadFactory(virtualFactory);
+            }
+        }
+        return executor;
+    }
+    
+    /**
+     * Regenerates materialized patient summaries off the request path. Small on purpose:
+     * summaries compete with consultations for the same LLM budget. A full queue makes
+     * the submitter generate the summary itself rather than drop it.
+     */
+    @Bean(name = SUMMARY_EXECUTOR)
+    public ThreadPoolTaskExecutor summaryExecutor(
+            @Value("${patient-summary.executor.pool-size:2}") int poolSize,
+            @Value("${patient-summary.executor.queue-capacity:1000}") int queueCapacity) {
+        
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("patient-summary-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+    
+    /**
+     * Precomputes approval artifacts of READY notes. Unlike summaries, a full queue drops
+     * the task: approving the note then generates them itself, and the pipeline worker
+     * that published READY is not held up.
+     */
+    @Bean(name = APPROVAL_EXECUTOR)
+    public ThreadPoolTaskExecutor approvalExecutor(
+            @Value("${approval.precompute.pool-size:2}") int poolSize,
+            @Value("${approval.precompute.queue-capacity:200}") int queueCapacity) {
+        
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("approval-");
+        executor.setRejectedExecutionHandler((task, pool) ->
+                log.warn("Approval precompute queue full, the note will be prepared on approval instead"));
+        return executor;
+    }
+    
+    /**
+     * Writes progress events to SSE clients, so a slow or stalled client holds up one of
+     * these threads rather than the pipeline stage that published the event. Each
+     * consultation's events are sent by at most one task at a time, so the queue never
+     * holds more than one task per watched consultation.
+     */
+    @Bean(name = EVENT_EXECUTOR)
+    public ThreadPoolTaskExecutor consultationEventExecutor(
+            @Value("${consultation.events.send-pool-size:2}") int poolSize) {
+        
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("consultation-events-");
+        return executor;
+    }
+    
+    /**
+     * Virtual threads only exist from Java 21 onwards while the build still targets 17,
+     * so the factory is looked up reflectively and we fall back to platform threads.
+     */
+    private ThreadFactory virtualThreadFactory(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not available on this JVM, using platform threads");
+            return null;
+        }
+    }
 }
@@ -0,0 +1,47 @@
+package za.co.ccos.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Context sizes and completion-length learning of {@link za.co.ccos.infra.llm.TokenBudget},
+ * bound from {@code llm.budget}
+ */
+@Data
+@ConfigurationProperties(prefix = "llm.budget")
+public class LlmBudgetProperties {
+    
+    // Context window of stages not listed in stageContextTokens
+    private int contextTokens = 8192;
+    
+    // Stage name to its context window, e.g. stages served by a small local model
+    private Map<String, Integer> stageContextTokens = new HashMap<>();
+    
+    // Share of each context left unused, for models whose tokenizer counts more tokens than ours
+    private double margin = 0.1;
+    
+    private Adaptive adaptive = new Adaptive();
+    
+    @Data
+    public static class Adaptive {
+        
+        // Lower max_tokens to what the stage's completions actually need
+        private boolean enabled = true;
+        
+        private double percentile = 0.99;
+        
+        // Multiplier on the percentile, so a slightly longer completion still fits
+        private double headroom = 1.25;
+        
+        // Completions observed before a stage's max_tokens is lowered
+        private int minSamples = 50;
+        
+        // Most recent completions per stage the percentile is taken over
+        private int window = 500;
+        
+        private int minTokens = 64;
+    }
+}
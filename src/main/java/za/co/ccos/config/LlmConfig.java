@@ -0,0 +1,109 @@
+package za.co.ccos.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import za.co.ccos.infra.llm.BudgetedLlamaAdapter;
+import za.co.ccos.infra.llm.CachingLlamaAdapter;
+import za.co.ccos.infra.llm.GroqLlamaAdapter;
+import za.co.ccos.infra.llm.HttpLlamaAdapter;
+import za.co.ccos.infra.llm.JsonOutputLlamaAdapter;
+import za.co.ccos.infra.llm.LlamaAdapter;
+import za.co.ccos.infra.llm.LlmRateGovernor;
+import za.co.ccos.infra.llm.LlmResilience;
+import za.co.ccos.infra.llm.LlmResponseCache;
+import za.co.ccos.infra.llm.MockLlamaAdapter;
+import za.co.ccos.infra.llm.RateLimitedLlamaAdapter;
+import za.co.ccos.infra.llm.RateLimits;
+import za.co.ccos.infra.llm.ResilientLlamaAdapter;
+import za.co.ccos.infra.llm.RoutingLlamaAdapter;
+import za.co.ccos.infra.llm.TokenBudget;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Configuration
+@EnableConfigurationProperties({LlmRoutingProperties.class, LlmBudgetProperties.class})
+@Slf4j
+public class LlmConfig {
+    
+    /**
+     * The adapter services inject. Wraps whichever provider adapter is active for
+     * {@code llama.provider}, or with {@code llm.routing.enabled} a router over the
+     * configured backends, so cross-cutting behaviour stays out of the providers.
+     */
+    @Bean
+    @Primary
+    public LlamaAdapter llamaAdapter(List<LlamaAdapter> providers, LlmRoutingProperties routing,
+                                    LlmResponseCache cache, LlmResilience resilience,
+                                    LlmRateGovernor rateGovernor, TokenBudget tokenBudget,
+                                    MeterRegistry meterRegistry) {
+        LlamaAdapter provider;
+        if (routing.isEnabled()) {
+            provider = router(routing, resilience, rateGovernor, meterRegistry);
+        } else {
+            if (providers.size() != 1) {
+                throw new IllegalStateException("Expected exactly one LLM provider adapter but found " + providers.size());
+            }
+            log.info("Using LLM provider {} ({})", providers.get(0).getClass().getSimpleName(), providers.get(0).getModel());
+            provider = new ResilientLlamaAdapter(new RateLimitedLlamaAdapter(providers.get(0), rateGovernor), resilience);
+        }
+        // Cache hits never reach the provider, so they neither wait on nor count against its
+        // circuit breaker; every retry takes its own rate limit budget. The budget sits outside
+        // the JSON check so a JSON answer cut off by a learned max_tokens can be run again.
+        return new BudgetedLlamaAdapter(new JsonOutputLlamaAdapter(new CachingLlamaAdapter(provider, cache),
+                meterRegistry), tokenBudget, meterRegistry);
+    }
+    
+    @Bean
+    public TokenBudget tokenBudget(LlmBudgetProperties budget, MeterRegistry meterRegistry) {
+        LlmBudgetProperties.Adaptive adaptive = budget.getAdaptive();
+        return new TokenBudget(budget.getStageContextTokens(), budget.getContextTokens(), budget.getMargin(),
+                new TokenBudget.Adaptation(adaptive.isEnabled(), adaptive.getPercentile(), adaptive.getHeadroom(),
+                        adaptive.getMinSamples(), adaptive.getWindow(), adaptive.getMinTokens()),
+                meterRegistry);
+    }
+    
+    /**
+     * Each backend retries and trips its own circuit breaker; an open breaker fails the
+     * call at once, so the router moves on to the next backend.
+     */
+    private RoutingLlamaAdapter router(LlmRoutingProperties routing, LlmResilience resilience,
+                                       LlmRateGovernor rateGovernor, MeterRegistry meterRegistry) {
+        Map<String, LlamaAdapter> backends = new LinkedHashMap<>();
+        for (LlmRoutingProperties.Backend backend : routing.getBackends()) {
+            if (backend.getName() == null || backend.getType() == null) {
+                throw new IllegalStateException("Every llm.routing backend needs a name and a type");
+            }
+            LlamaAdapter adapter = new ResilientLlamaAdapter(
+                    new RateLimitedLlamaAdapter(backendAdapter(backend), rateGovernor), resilience, backend.getName());
+            if (backends.put(backend.getName(), adapter) != null) {
+                throw new IllegalStateException("Duplicate llm.routing backend " + backend.getName());
+            }
+        }
+        Map<String, Set<String>> stageBackends = new LinkedHashMap<>();
+        routing.getStages().forEach((stage, names) -> stageBackends.put(stage, Set.copyOf(names)));
+        
+        return new RoutingLlamaAdapter(backends, stageBackends, routing.getEwmaAlpha(), routing.getMaxErrorRate(),
+                routing.getEjectDuration(), routing.getProbeInterval(), meterRegistry);
+    }
+    
+    private LlamaAdapter backendAdapter(LlmRoutingProperties.Backend backend) {
+        RateLimits limits = new RateLimits(backend.getRequestsPerMinute(), backend.getTokensPerMinute());
+        return switch (backend.getType()) {
+            case GROQ -> new GroqLlamaAdapter(backend.getName(),
+                    backend.getUrl() != null ? backend.getUrl() : GroqLlamaAdapter.API_URL,
+                    backend.getModel() != null ? backend.getModel() : GroqLlamaAdapter.MODEL,
+                    backend.getApiKey(), limits);
+            case OPENAI -> new GroqLlamaAdapter(backend.getName(), backend.getUrl(), backend.getModel(),
+                    backend.getApiKey(), limits);
+            case LLAMA_CPP -> new HttpLlamaAdapter(backend.getUrl());
+            case MOCK -> new MockLlamaAdapter();
+        };
+    }
+}
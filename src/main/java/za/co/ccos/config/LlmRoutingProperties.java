@@ -0,0 +1,51 @@
+package za.co.ccos.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backends of the LLM router, bound from {@code llm.routing}
+ */
+@Data
+@ConfigurationProperties(prefix = "llm.routing")
+public class LlmRoutingProperties {
+    
+    private boolean enabled;
+    
+    // Weight of the newest call in each backend's moving latency and error averages
+    private double ewmaAlpha = 0.2;
+    
+    // Error rate at which a backend is taken out of rotation for ejectDuration
+    private double maxErrorRate = 0.5;
+    private Duration ejectDuration = Duration.ofSeconds(30);
+    
+    // A backend left unused this long gets the next call, so its latency stays current
+    private Duration probeInterval = Duration.ofMinutes(2);
+    
+    private List<Backend> backends = new ArrayList<>();
+    
+    // Stage name to the backends allowed to serve it; stages not listed may use any
+    private Map<String, List<String>> stages = new HashMap<>();
+    
+    @Data
+    public static class Backend {
+        
+        public enum Type { GROQ, OPENAI, LLAMA_CPP, MOCK }
+        
+        private String name;
+        private Type type;
+        
+        // Chat completions endpoint for GROQ/OPENAI, server base URL for LLAMA_CPP
+        private String url;
+        private String model;
+        private String apiKey;
+        private int requestsPerMinute;
+        private int tokensPerMinute;
+    }
+}
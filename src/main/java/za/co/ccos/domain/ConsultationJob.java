@@ -0,0 +1,60 @@
+package za.co.ccos.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Queue entry driving a consultation through the pipeline. A worker owns a RUNNING
+ * job until lockedUntil; past that the lease is considered abandoned.
+ */
+@Data
+@Entity
+@Table(name = "consultation_jobs")
+@NoArgsConstructor
+public class ConsultationJob {
+    @Id
+    private UUID consultationId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private JobStatus status;
+    
+    @Column(nullable = false)
+    private int attempts;
+    
+    @Column(nullable = false)
+    private int maxAttempts;
+    
+    @Column(nullable = false)
+    private LocalDateTime availableAt;
+    
+    private String lockedBy;
+    
+    private LocalDateTime lockedUntil;
+    
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+    
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+    
+    @PrePersist
+    @PreUpdate
+    protected void touch() {
+        this.updatedAt = LocalDateTime.now();
+        if (this.createdAt == null) {
+            this.createdAt = this.updatedAt;
+        }
+    }
+    
+    public boolean hasAttemptsLeft() {
+        return attempts < maxAttempts;
+    }
+}
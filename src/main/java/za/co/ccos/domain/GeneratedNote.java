@@ -37,6 +37,16 @@ public class GeneratedNote {
     @Column(columnDefinition = "TEXT")
     private String patientSummary;
     
+    // Precomputed when the note reaches READY; only valid while artifactsSourceHash matches the note
+    @Column(columnDefinition = "TEXT")
+    private String appointmentRecommendation;
+    
+    @Column(columnDefinition = "TEXT")
+    private String patientExplanation;
+    
+    @Column(length = 64)
+    private String artifactsSourceHash;
+    
     private Double confidence;
     
     @Column(nullable = false)
@@ -0,0 +1,11 @@
+package za.co.ccos.domain;
+
+/**
+ * Lifecycle of a consultation job in the work queue, and of an outbox message
+ */
+public enum JobStatus {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    DEAD
+}
@@ -0,0 +1,41 @@
+package za.co.ccos.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Persisted LLM completion, shared across restarts and application instances
+ */
+@Data
+@Entity
+@Table(name = "llm_response_cache")
+@NoArgsConstructor
+public class LlmCacheEntry {
+    @Id
+    @Column(length = 64)
+    private String cacheKey;
+    
+    private String stage;
+    
+    private String model;
+    
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String content;
+    
+    private Integer promptTokens;
+    
+    private Integer completionTokens;
+    
+    private Integer totalTokens;
+    
+    private String finishReason;
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(nullable = false)
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,74 @@
+package za.co.ccos.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A side effect to deliver after the transaction that recorded it commits. The
+ * idempotency key goes to the downstream system with every attempt, so a retry after
+ * an unacknowledged delivery is not applied twice.
+ */
+@Data
+@Entity
+@Table(name = "outbox_messages")
+@NoArgsConstructor
+public class OutboxMessage {
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+    
+    @Column(nullable = false)
+    private UUID consultationId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private OutboxMessageType type;
+    
+    @Column(nullable = false, unique = true)
+    private String idempotencyKey;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private JobStatus status;
+    
+    @Column(nullable = false)
+    private int attempts;
+    
+    @Column(nullable = false)
+    private int maxAttempts;
+    
+    @Column(nullable = false)
+    private LocalDateTime availableAt;
+    
+    private String lockedBy;
+    
+    private LocalDateTime lockedUntil;
+    
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+    
+    private LocalDateTime deliveredAt;
+    
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+    
+    @PrePersist
+    @PreUpdate
+    protected void touch() {
+        this.updatedAt = LocalDateTime.now();
+        if (this.createdAt == null) {
+            this.createdAt = this.updatedAt;
+        }
+    }
+    
+    public boolean hasAttemptsLeft() {
+        return attempts < maxAttempts;
+    }
+}
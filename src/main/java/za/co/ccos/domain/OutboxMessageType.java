@@ -0,0 +1,11 @@
+package za.co.ccos.domain;
+
+/**
+ * Side effects of approving a consultation that the outbox delivers
+ */
+public enum OutboxMessageType {
+    /** Patient-friendly explanation of the visit, by email */
+    PATIENT_EMAIL,
+    /** FHIR sync to the EHR; its delivery marks the consultation SYNCED */
+    EHR_SYNC
+}
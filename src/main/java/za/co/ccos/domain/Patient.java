@@ -1,9 +1,15 @@
 package za.co.ccos.domain;
 
 import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.BatchSize;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -34,7 +40,17 @@ public class Patient {
     
     private String allergies;
     
+    // Parsed form of allergies, kept because every pipeline stage and check reads it;
+    // only reached through getAllergies, and derived, so not part of equality
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient List<String> allergyList;
+    
+    // Loading many patients fetches their conditions in batches instead of one query each
     @ElementCollection(fetch = FetchType.EAGER)
+    @BatchSize(size = 50)
     @CollectionTable(name = "patient_chronic_conditions", joinColumns = @JoinColumn(name = "patient_id"))
     @Column(name = "condition")
     private List<String> chronicConditions = new ArrayList<>();
@@ -47,6 +63,23 @@ public class Patient {
     }
     
     public List<String> getAllergies() {
+        List<String> parsed = allergyList;
+        if (parsed == null) {
+            parsed = List.copyOf(splitAllergies(allergies));
+            allergyList = parsed;
+        }
+        return parsed;
+    }
+    
+    public void setAllergies(String allergies) {
+        this.allergies = allergies;
+        this.allergyList = null;
+    }
+    
+    /**
+     * Allergies are stored as one comma-separated column
+     */
+    public static List<String> splitAllergies(String allergies) {
         if (allergies == null || allergies.isEmpty()) {
             return new ArrayList<>();
         }
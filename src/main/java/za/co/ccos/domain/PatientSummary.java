@@ -0,0 +1,36 @@
+package za.co.ccos.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Last generated chart summary of a patient
+ */
+@Data
+@Entity
+@Table(name = "patient_summaries")
+@NoArgsConstructor
+public class PatientSummary {
+    
+    public enum Source { LLM, FALLBACK, FIRST_VISIT }
+    
+    @Id
+    private UUID patientId;
+    
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String summary;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Source source;
+    
+    @Column(nullable = false)
+    private int consultationCount;
+    
+    @Column(nullable = false)
+    private LocalDateTime generatedAt;
+}
@@ -0,0 +1,43 @@
+package za.co.ccos.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Saved outputs of one pipeline stage for one consultation, as a JSON object keyed
+ * by pipeline value name
+ */
+@Data
+@Entity
+@Table(name = "stage_checkpoints")
+@NoArgsConstructor
+public class StageCheckpoint {
+    @Id
+    private UUID id;
+    
+    @Column(nullable = false)
+    private UUID consultationId;
+    
+    @Column(nullable = false)
+    private String stage;
+    
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String outputs;
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+    
+    @PrePersist
+    protected void onCreate() {
+        if (this.id == null) {
+            this.id = UUID.randomUUID();
+        }
+        if (this.createdAt == null) {
+            this.createdAt = LocalDateTime.now();
+        }
+    }
+}
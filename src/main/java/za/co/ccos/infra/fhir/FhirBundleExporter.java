@@ -0,0 +1,163 @@
+package za.co.ccos.infra.fhir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sends approved consultations to the FHIR server at {@code fhir.base-url} as transaction
+ * Bundles of up to {@code fhir.bundle-size} encounters. Up to {@code fhir.max-in-flight}
+ * bundles are on the wire at once, and the next bundle is written while earlier ones
+ * wait for their response, so an end-of-day backlog costs a few round trips rather than
+ * one per consultation.
+ * <p>
+ * A transaction succeeds or fails as a whole. A bundle the server rejects outright
+ * (4xx other than 408 and 429) is sent again one encounter per bundle, so one invalid
+ * consultation does not hold back the others it was batched with.
+ */
+@Component
+@Slf4j
+public class FhirBundleExporter {
+    
+    private static final String FHIR_JSON = "application/fhir+json";
+    
+    private final String baseUrl;
+    private final int bundleSize;
+    private final int maxInFlight;
+    private final Duration timeout;
+    private final FhirBundleWriter writer;
+    private final HttpClient httpClient;
+    private final MeterRegistry meterRegistry;
+    
+    public FhirBundleExporter(@Value("${fhir.base-url:}") String baseUrl,
+                              @Value("${fhir.bundle-size:50}") int bundleSize,
+                              @Value("${fhir.max-in-flight:4}") int maxInFlight,
+                              @Value("${fhir.timeout:60s}") Duration timeout,
+                              ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.baseUrl = baseUrl != null ? baseUrl.replaceAll("/+$", "") : "";
+        this.bundleSize = Math.max(1, bundleSize);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.timeout = timeout;
+        this.writer = new FhirBundleWriter(objectMapper);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.meterRegistry = meterRegistry;
+    }
+    
+    /**
+     * False while no FHIR server is configured
+     */
+    public boolean isEnabled() {
+        return !baseUrl.isEmpty();
+    }
+    
+    /**
+     * Exports the encounters and waits until every bundle has been answered.
+     *
+     * @return the failure of each encounter the server did not accept, keyed by idempotency key
+     */
+    public Map<String, FhirException> export(List<FhirEncounter> encounters) {
+        Map<String, FhirException> failures = new ConcurrentHashMap<>();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        List<CompletableFuture<Void>> bundles = new ArrayList<>();
+        try {
+            for (int from = 0; from < encounters.size(); from += bundleSize) {
+                List<FhirEncounter> bundle = encounters.subList(from, Math.min(from + bundleSize, encounters.size()));
+                inFlight.acquire();
+                bundles.add(send(bundle, failures).whenComplete((ignored, e) -> inFlight.release()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        CompletableFuture.allOf(bundles.toArray(CompletableFuture[]::new)).join();
+        // Interrupted before every bundle was sent: the rest count as failed and are retried
+        for (FhirEncounter encounter : encounters.subList(Math.min(bundles.size() * bundleSize, encounters.size()),
+                encounters.size())) {
+            failures.put(encounter.idempotencyKey(), new FhirException("Export interrupted", null));
+        }
+        return failures;
+    }
+    
+    private CompletableFuture<Void> send(List<FhirEncounter> bundle, Map<String, FhirException> failures) {
+        HttpRequest request;
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(bundle.size() * 4096);
+            writer.write(bundle, body);
+            request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl))
+                    .header("Content-Type", FHIR_JSON)
+                    .header("Accept", FHIR_JSON)
+                    .timeout(timeout)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                    .build();
+        } catch (IOException e) {
+            fail(bundle, new FhirException("Could not write FHIR bundle: " + e.getMessage(), e), failures);
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, error) -> {
+                    sample.stop(meterRegistry.timer("fhir.export.duration"));
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        record("failed", bundle.size());
+                        fail(bundle, new FhirException("FHIR server error: " + cause.getMessage(), cause), failures);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    if (response.statusCode() / 100 == 2) {
+                        record("accepted", bundle.size());
+                        log.info("FHIR server accepted a bundle of {} encounters", bundle.size());
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    FhirException rejected = new FhirException(
+                            "FHIR server returned status: " + response.statusCode(), null, response.statusCode());
+                    if (bundle.size() > 1 && !rejected.isTransient()) {
+                        meterRegistry.counter("fhir.export.bundles", "outcome", "split").increment();
+                        log.warn("FHIR server rejected a bundle of {} encounters ({}), sending them one by one",
+                                bundle.size(), response.statusCode());
+                        // One after another, within the permit the rejected bundle held
+                        CompletableFuture<Void> singles = CompletableFuture.completedFuture(null);
+                        for (FhirEncounter encounter : bundle) {
+                            singles = singles.thenCompose(ignored -> send(List.of(encounter), failures));
+                        }
+                        return singles;
+                    }
+                    record(rejected.isTransient() ? "failed" : "rejected", bundle.size());
+                    fail(bundle, rejected, failures);
+                    return CompletableFuture.<Void>completedFuture(null);
+                })
+                .thenCompose(next -> next);
+    }
+    
+    private static void fail(List<FhirEncounter> bundle, FhirException error, Map<String, FhirException> failures) {
+        for (FhirEncounter encounter : bundle) {
+            failures.put(encounter.idempotencyKey(), error);
+        }
+    }
+    
+    private void record(String outcome, int encounters) {
+        meterRegistry.counter("fhir.export.bundles", "outcome", outcome).increment();
+        meterRegistry.counter("fhir.export.encounters", "outcome", outcome).increment(encounters);
+    }
+}
@@ -0,0 +1,371 @@
+package za.co.ccos.infra.fhir;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.GeneratedNote;
+import za.co.ccos.domain.Patient;
+import za.co.ccos.domain.VitalSigns;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Writes approved consultations as one FHIR R4 transaction Bundle: per consultation an
+ * Encounter, an Observation per recorded vital sign, a Condition per ICD-10 code and a
+ * DocumentReference holding the SOAP note, plus one Patient per distinct patient.
+ * Resources are written field by field to a {@link JsonGenerator}, so a bundle of
+ * hundreds of encounters never exists as an object graph.
+ * <p>
+ * Every resource is created conditionally on an identifier derived from the consultation
+ * and its idempotency key, and patients are conditionally updated, so sending the same
+ * bundle again leaves the server as it was.
+ */
+@Slf4j
+public class FhirBundleWriter {
+    
+    static final String CONSULTATION_SYSTEM = "urn:ccos:consultation";
+    static final String EXPORT_SYSTEM = "urn:ccos:export";
+    static final String PATIENT_SYSTEM = "urn:ccos:patient";
+    
+    private static final String LOINC = "http://loinc.org";
+    private static final String UCUM = "http://unitsofmeasure.org";
+    private static final String ICD10 = "http://hl7.org/fhir/sid/icd-10-cm";
+    
+    private final ObjectMapper objectMapper;
+    
+    public FhirBundleWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+    
+    public void write(List<FhirEncounter> encounters, OutputStream out) throws IOException {
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeStringField("resourceType", "Bundle");
+            json.writeStringField("type", "transaction");
+            json.writeArrayFieldStart("entry");
+            Set<UUID> patients = new HashSet<>();
+            for (FhirEncounter encounter : encounters) {
+                if (patients.add(encounter.patient().getId())) {
+                    writePatient(json, encounter.patient());
+                }
+                writeEncounter(json, encounter);
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+    
+    private void writePatient(JsonGenerator json, Patient patient) throws IOException {
+        String id = patient.getId().toString();
+        json.writeStartObject();
+        json.writeStringField("fullUrl", "urn:uuid:" + id);
+        json.writeObjectFieldStart("resource");
+        json.writeStringField("resourceType", "Patient");
+        json.writeArrayFieldStart("identifier");
+        writeIdentifier(json, PATIENT_SYSTEM, id);
+        if (patient.getMedicalRecordNumber() != null) {
+            json.writeStartObject();
+            writeCode(json, "type", "http://terminology.hl7.org/CodeSystem/v2-0203", "MR", null);
+            json.writeStringField("value", patient.getMedicalRecordNumber());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeArrayFieldStart("name");
+        json.writeStartObject();
+        json.writeStringField("family", patient.getLastName());
+        json.writeArrayFieldStart("given");
+        json.writeString(patient.getFirstName());
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeEndArray();
+        if (patient.getDob() != null) {
+            json.writeStringField("birthDate", patient.getDob().toString());
+        }
+        json.writeEndObject();
+        json.writeObjectFieldStart("request");
+        json.writeStringField("method", "PUT");
+        json.writeStringField("url", "Patient?identifier=" + PATIENT_SYSTEM + "|" + id);
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+    
+    private void writeEncounter(JsonGenerator json, FhirEncounter encounter) throws IOException {
+        Consultation consultation = encounter.consultation();
+        String consultationId = consultation.getId().toString();
+        String encounterUrl = fullUrl(encounter, "encounter");
+        String patientUrl = "urn:uuid:" + encounter.patient().getId();
+        
+        startEntry(json, encounterUrl, "Encounter");
+        json.writeArrayFieldStart("identifier");
+        writeIdentifier(json, CONSULTATION_SYSTEM, consultationId);
+        json.writeEndArray();
+        json.writeStringField("status", "finished");
+        json.writeObjectFieldStart("class");
+        json.writeStringField("system", "http://terminology.hl7.org/CodeSystem/v3-ActCode");
+        json.writeStringField("code", "AMB");
+        json.writeEndObject();
+        writeReference(json, "subject", patientUrl);
+        json.writeObjectFieldStart("period");
+        json.writeStringField("start", dateTime(consultation.getCreatedAt()));
+        if (consultation.getCompletedAt() != null) {
+            json.writeStringField("end", dateTime(consultation.getCompletedAt()));
+        }
+        json.writeEndObject();
+        endEntry(json, "Encounter", CONSULTATION_SYSTEM, consultationId);
+        
+        VitalSigns vitals = consultation.getVitalSigns();
+        if (vitals != null) {
+            writeBloodPressure(json, encounter, encounterUrl, patientUrl, vitals.getBloodPressure());
+            writeVital(json, encounter, encounterUrl, patientUrl, "8867-4", "Heart rate", vitals.getHeartRate(), "/min");
+            writeVital(json, encounter, encounterUrl, patientUrl, "8310-5", "Body temperature", vitals.getTemperature(), "Cel");
+            writeVital(json, encounter, encounterUrl, patientUrl, "59408-5", "Oxygen saturation", vitals.getOxygenSaturation(), "%");
+            writeVital(json, encounter, encounterUrl, patientUrl, "9279-1", "Respiratory rate", vitals.getRespiratoryRate(), "/min");
+            writeVital(json, encounter, encounterUrl, patientUrl, "29463-7", "Body weight", vitals.getWeight(), "kg");
+            writeVital(json, encounter, encounterUrl, patientUrl, "8302-2", "Body height", vitals.getHeight(), "cm");
+        }
+        
+        GeneratedNote note = encounter.note();
+        if (note != null) {
+            writeConditions(json, encounter, encounterUrl, patientUrl, note.getIcd10Codes());
+            writeDocument(json, encounter, encounterUrl, patientUrl, note);
+        }
+    }
+    
+    private void writeBloodPressure(JsonGenerator json, FhirEncounter encounter, String encounterUrl,
+                                    String patientUrl, String bloodPressure) throws IOException {
+        String[] parts = bloodPressure != null ? bloodPressure.trim().split("\\s*/\\s*") : new String[0];
+        if (parts.length != 2) {
+            return;
+        }
+        int systolic;
+        int diastolic;
+        try {
+            systolic = Integer.parseInt(parts[0]);
+            diastolic = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            log.debug("Skipping unreadable blood pressure '{}' of consultation {}", bloodPressure,
+                    encounter.consultation().getId());
+            return;
+        }
+        startObservation(json, encounter, encounterUrl, patientUrl, "85354-9", "Blood pressure panel");
+        json.writeArrayFieldStart("component");
+        json.writeStartObject();
+        writeCode(json, "code", LOINC, "8480-6", "Systolic blood pressure");
+        writeQuantity(json, systolic, "mm[Hg]");
+        json.writeEndObject();
+        json.writeStartObject();
+        writeCode(json, "code", LOINC, "8462-4", "Diastolic blood pressure");
+        writeQuantity(json, diastolic, "mm[Hg]");
+        json.writeEndObject();
+        json.writeEndArray();
+        endEntry(json, "Observation", EXPORT_SYSTEM, identifier(encounter, "85354-9"));
+    }
+    
+    private void writeVital(JsonGenerator json, FhirEncounter encounter, String encounterUrl, String patientUrl,
+                            String loinc, String display, Number value, String unit) throws IOException {
+        if (value == null) {
+            return;
+        }
+        startObservation(json, encounter, encounterUrl, patientUrl, loinc, display);
+        writeQuantity(json, value, unit);
+        endEntry(json, "Observation", EXPORT_SYSTEM, identifier(encounter, loinc));
+    }
+    
+    private void startObservation(JsonGenerator json, FhirEncounter encounter, String encounterUrl,
+                                  String patientUrl, String loinc, String display) throws IOException {
+        startEntry(json, fullUrl(encounter, loinc), "Observation");
+        json.writeArrayFieldStart("identifier");
+        writeIdentifier(json, EXPORT_SYSTEM, identifier(encounter, loinc));
+        json.writeEndArray();
+        json.writeStringField("status", "final");
+        json.writeArrayFieldStart("category");
+        json.writeStartObject();
+        json.writeArrayFieldStart("coding");
+        json.writeStartObject();
+        json.writeStringField("system", "http://terminology.hl7.org/CodeSystem/observation-category");
+        json.writeStringField("code", "vital-signs");
+        json.writeEndObject();
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeEndArray();
+        writeCode(json, "code", LOINC, loinc, display);
+        writeReference(json, "subject", patientUrl);
+        writeReference(json, "encounter", encounterUrl);
+        json.writeStringField("effectiveDateTime", dateTime(encounter.consultation().getCreatedAt()));
+    }
+    
+    private void writeConditions(JsonGenerator json, FhirEncounter encounter, String encounterUrl,
+                                 String patientUrl, String icd10Codes) throws IOException {
+        if (icd10Codes == null || icd10Codes.isBlank()) {
+            return;
+        }
+        JsonNode codes;
+        try {
+            codes = objectMapper.readTree(icd10Codes);
+        } catch (IOException e) {
+            log.warn("Skipping unreadable ICD-10 codes of consultation {}", encounter.consultation().getId());
+            return;
+        }
+        for (JsonNode code : codes) {
+            String value = code.path("code").asText("");
+            if (value.isEmpty()) {
+                continue;
+            }
+            String suffix = "condition-" + value;
+            startEntry(json, fullUrl(encounter, suffix), "Condition");
+            json.writeArrayFieldStart("identifier");
+            writeIdentifier(json, EXPORT_SYSTEM, identifier(encounter, suffix));
+            json.writeEndArray();
+            json.writeObjectFieldStart("clinicalStatus");
+            json.writeArrayFieldStart("coding");
+            json.writeStartObject();
+            json.writeStringField("system", "http://terminology.hl7.org/CodeSystem/condition-clinical");
+            json.writeStringField("code", "active");
+            json.writeEndObject();
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeArrayFieldStart("category");
+            json.writeStartObject();
+            json.writeArrayFieldStart("coding");
+            json.writeStartObject();
+            json.writeStringField("system", "http://terminology.hl7.org/CodeSystem/condition-category");
+            json.writeStringField("code", "encounter-diagnosis");
+            json.writeEndObject();
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeEndArray();
+            writeCode(json, "code", ICD10, value, code.path("desc").asText(null));
+            writeReference(json, "subject", patientUrl);
+            writeReference(json, "encounter", encounterUrl);
+            endEntry(json, "Condition", EXPORT_SYSTEM, identifier(encounter, suffix));
+        }
+    }
+    
+    private void writeDocument(JsonGenerator json, FhirEncounter encounter, String encounterUrl,
+                               String patientUrl, GeneratedNote note) throws IOException {
+        startEntry(json, fullUrl(encounter, "note"), "DocumentReference");
+        json.writeArrayFieldStart("identifier");
+        writeIdentifier(json, EXPORT_SYSTEM, identifier(encounter, "note"));
+        json.writeEndArray();
+        json.writeStringField("status", "current");
+        writeCode(json, "type", LOINC, "11506-3", "Progress note");
+        writeReference(json, "subject", patientUrl);
+        json.writeStringField("date", dateTime(note.getCreatedAt()));
+        json.writeObjectFieldStart("context");
+        json.writeArrayFieldStart("encounter");
+        json.writeStartObject();
+        json.writeStringField("reference", encounterUrl);
+        json.writeEndObject();
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeArrayFieldStart("content");
+        json.writeStartObject();
+        json.writeObjectFieldStart("attachment");
+        json.writeStringField("contentType", "text/plain; charset=utf-8");
+        json.writeStringField("title", "SOAP note");
+        json.writeFieldName("data");
+        json.writeBinary(soapText(note).getBytes(StandardCharsets.UTF_8));
+        json.writeEndObject();
+        json.writeEndObject();
+        json.writeEndArray();
+        endEntry(json, "DocumentReference", EXPORT_SYSTEM, identifier(encounter, "note"));
+    }
+    
+    private static String soapText(GeneratedNote note) {
+        return "SUBJECTIVE:\n" + nullToEmpty(note.getSoapSubjective())
+                + "\n\nOBJECTIVE:\n" + nullToEmpty(note.getSoapObjective())
+                + "\n\nASSESSMENT:\n" + nullToEmpty(note.getSoapAssessment())
+                + "\n\nPLAN:\n" + nullToEmpty(note.getSoapPlan());
+    }
+    
+    private static void startEntry(JsonGenerator json, String fullUrl, String resourceType) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("fullUrl", fullUrl);
+        json.writeObjectFieldStart("resource");
+        json.writeStringField("resourceType", resourceType);
+    }
+    
+    private static void endEntry(JsonGenerator json, String resourceType, String system, String value)
+            throws IOException {
+        json.writeEndObject();
+        json.writeObjectFieldStart("request");
+        json.writeStringField("method", "POST");
+        json.writeStringField("url", resourceType);
+        json.writeStringField("ifNoneExist", "identifier=" + system + "|" + value);
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+    
+    private static void writeIdentifier(JsonGenerator json, String system, String value) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("system", system);
+        json.writeStringField("value", value);
+        json.writeEndObject();
+    }
+    
+    private static void writeReference(JsonGenerator json, String field, String url) throws IOException {
+        json.writeObjectFieldStart(field);
+        json.writeStringField("reference", url);
+        json.writeEndObject();
+    }
+    
+    private static void writeCode(JsonGenerator json, String field, String system, String code, String display)
+            throws IOException {
+        json.writeObjectFieldStart(field);
+        json.writeArrayFieldStart("coding");
+        json.writeStartObject();
+        json.writeStringField("system", system);
+        json.writeStringField("code", code);
+        if (display != null) {
+            json.writeStringField("display", display);
+        }
+        json.writeEndObject();
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+    
+    private static void writeQuantity(JsonGenerator json, Number value, String unit) throws IOException {
+        json.writeObjectFieldStart("valueQuantity");
+        if (value instanceof Double d) {
+            json.writeNumberField("value", d);
+        } else {
+            json.writeNumberField("value", value.intValue());
+        }
+        json.writeStringField("unit", unit);
+        json.writeStringField("system", UCUM);
+        json.writeStringField("code", unit);
+        json.writeEndObject();
+    }
+    
+    // Identifies one resource of one export; the same export always produces the same values
+    private static String identifier(FhirEncounter encounter, String suffix) {
+        return encounter.idempotencyKey() + ":" + suffix;
+    }
+    
+    private static String fullUrl(FhirEncounter encounter, String suffix) {
+        return "urn:uuid:" + UUID.nameUUIDFromBytes(identifier(encounter, suffix).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static String dateTime(LocalDateTime value) {
+        // FHIR dateTime with a time needs seconds and an offset
+        return value.truncatedTo(ChronoUnit.SECONDS).atZone(ZoneId.systemDefault())
+                .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    }
+    
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
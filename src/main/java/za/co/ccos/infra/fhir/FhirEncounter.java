@@ -0,0 +1,14 @@
+package za.co.ccos.infra.fhir;
+
+import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.GeneratedNote;
+import za.co.ccos.domain.Patient;
+
+/**
+ * One approved consultation to export. The idempotency key identifies the export, so
+ * a bundle sent again after a lost response creates nothing twice.
+ *
+ * @param note the approved note, or null for a consultation without one
+ */
+public record FhirEncounter(Consultation consultation, Patient patient, GeneratedNote note, String idempotencyKey) {
+}
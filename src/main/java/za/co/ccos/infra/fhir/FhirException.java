@@ -0,0 +1,36 @@
+package za.co.ccos.infra.fhir;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when the FHIR server does not accept a bundle
+ */
+public class FhirException extends Exception {
+    
+    // HTTP status the server answered with, 0 when the call never got a response
+    private final int statusCode;
+    
+    public FhirException(String message, Throwable cause) {
+        this(message, cause, 0);
+    }
+    
+    public FhirException(String message, Throwable cause, int statusCode) {
+        super(message, cause);
+        this.statusCode = statusCode;
+    }
+    
+    public int getStatusCode() {
+        return statusCode;
+    }
+    
+    /**
+     * Throttling, server-side errors and I/O failures may succeed when tried again; a
+     * rejected resource will not
+     */
+    public boolean isTransient() {
+        if (statusCode == 408 || statusCode == 429 || statusCode >= 500) {
+            return true;
+        }
+        return statusCode == 0 && getCause() instanceof IOException;
+    }
+}
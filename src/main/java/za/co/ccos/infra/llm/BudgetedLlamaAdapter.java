@@ -0,0 +1,95 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decorator that sets {@code max_tokens} from the {@link TokenBudget} and teaches it
+ * each completion's length. A completion cut short by a learned limit is run once
+ * more with the stage's declared limit, so learning never costs a stage its answer.
+ * Token usage per stage is published as {@code llm.tokens}.
+ */
+@RequiredArgsConstructor
+@Slf4j
+public class BudgetedLlamaAdapter implements LlamaAdapter {
+    
+    private final LlamaAdapter delegate;
+    private final TokenBudget budget;
+    private final MeterRegistry meterRegistry;
+    
+    @Override
+    public LlamaResponse runPrompt(String prompt, LlamaOptions options) throws LlamaException {
+        String stage = options.getStage();
+        if (stage == null) {
+            return delegate.runPrompt(prompt, options);
+        }
+        int promptTokens = TokenCounter.count(prompt) + TokenCounter.count(options.getSystemPrompt());
+        int ceiling = budget.fit(stage, options.getMaxTokens(), promptTokens);
+        int limit = budget.maxTokens(stage, ceiling);
+        
+        try {
+            LlamaResponse response = delegate.runPrompt(prompt, options.toBuilder().maxTokens(limit).build());
+            boolean truncated = "length".equals(response.getFinishReason());
+            recordUsage(stage, promptTokens, response);
+            budget.record(stage, completionTokens(response), truncated, options.getMaxTokens());
+            if (!truncated || limit >= ceiling) {
+                return response;
+            }
+        } catch (CompletionTruncatedException e) {
+            budget.record(stage, limit, true, options.getMaxTokens());
+            if (limit >= ceiling) {
+                throw e;
+            }
+        }
+        
+        log.info("Stage {} completion reached its learned limit of {} tokens, running again with {}",
+                stage, limit, ceiling);
+        meterRegistry.counter("llm.budget.retries", "stage", stage).increment();
+        LlamaResponse response = delegate.runPrompt(prompt, options.toBuilder().maxTokens(ceiling).build());
+        recordUsage(stage, promptTokens, response);
+        budget.record(stage, completionTokens(response), "length".equals(response.getFinishReason()),
+                options.getMaxTokens());
+        return response;
+    }
+    
+    /**
+     * Streamed tokens cannot be taken back, so a stream is never run again; its
+     * length still teaches the budget
+     */
+    @Override
+    public LlamaResponse streamPrompt(String prompt, LlamaOptions options, TokenListener listener) throws LlamaException {
+        String stage = options.getStage();
+        if (stage == null) {
+            return delegate.streamPrompt(prompt, options, listener);
+        }
+        int promptTokens = TokenCounter.count(prompt) + TokenCounter.count(options.getSystemPrompt());
+        int limit = budget.maxTokens(stage, budget.fit(stage, options.getMaxTokens(), promptTokens));
+        LlamaResponse response = delegate.streamPrompt(prompt, options.toBuilder().maxTokens(limit).build(), listener);
+        recordUsage(stage, promptTokens, response);
+        budget.record(stage, completionTokens(response), "length".equals(response.getFinishReason()),
+                options.getMaxTokens());
+        return response;
+    }
+    
+    @Override
+    public String getModel() {
+        return delegate.getModel();
+    }
+    
+    /**
+     * Provider-reported usage where available, otherwise our own counts
+     */
+    private void recordUsage(String stage, int promptTokens, LlamaResponse response) {
+        int prompt = response.getPromptTokens() != null && response.getPromptTokens() > 0
+                ? response.getPromptTokens() : promptTokens;
+        meterRegistry.summary("llm.tokens", "stage", stage, "type", "prompt").record(prompt);
+        meterRegistry.summary("llm.tokens", "stage", stage, "type", "completion").record(completionTokens(response));
+    }
+    
+    private static int completionTokens(LlamaResponse response) {
+        return response.getCompletionTokens() != null && response.getCompletionTokens() > 0
+                ? response.getCompletionTokens()
+                : TokenCounter.count(response.getContent());
+    }
+}
@@ -0,0 +1,67 @@
+package za.co.ccos.infra.llm;
+
+import lombok.RequiredArgsConstructor;
+
+import java.util.Optional;
+
+/**
+ * Decorator that answers repeated prompts from {@link LlmResponseCache} before
+ * delegating to the provider adapter. Calls that are not cacheable pass straight through.
+ */
+@RequiredArgsConstructor
+public class CachingLlamaAdapter implements LlamaAdapter {
+    
+    private final LlamaAdapter delegate;
+    private final LlmResponseCache cache;
+    
+    @Override
+    public LlamaResponse runPrompt(String prompt, LlamaOptions options) throws LlamaException {
+        if (!cache.isCacheable(options)) {
+            return delegate.runPrompt(prompt, options);
+        }
+        
+        String key = cache.key(delegate.getModel(), prompt, options);
+        Optional<LlamaResponse> cached = cache.get(key, options.getStage());
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        
+        LlamaResponse response = delegate.runPrompt(prompt, options);
+        // A truncated completion is not worth replaying
+        if (response.getContent() != null && !"length".equals(response.getFinishReason())) {
+            cache.put(key, options.getStage(), delegate.getModel(), response);
+        }
+        return response;
+    }
+    
+    /**
+     * A hit is replayed as a single chunk. A miss streams from the provider and is
+     * cached once complete. A generation the listener stopped early is cached only
+     * if the listener reports a complete answer, not when it gave up on malformed output.
+     */
+    @Override
+    public LlamaResponse streamPrompt(String prompt, LlamaOptions options, TokenListener listener) throws LlamaException {
+        if (!cache.isCacheable(options)) {
+            return delegate.streamPrompt(prompt, options, listener);
+        }
+        
+        String key = cache.key(delegate.getModel(), prompt, options);
+        Optional<LlamaResponse> cached = cache.get(key, options.getStage());
+        if (cached.isPresent()) {
+            listener.onToken(cached.get().getContent());
+            return cached.get();
+        }
+        
+        LlamaResponse response = delegate.streamPrompt(prompt, options, listener);
+        boolean abandoned = LlamaResponse.STOPPED_BY_CLIENT.equals(response.getFinishReason()) && !listener.isComplete();
+        if (response.getContent() != null && !"length".equals(response.getFinishReason()) && !abandoned) {
+            cache.put(key, options.getStage(), delegate.getModel(), response);
+        }
+        return response;
+    }
+    
+    @Override
+    public String getModel() {
+        return delegate.getModel();
+    }
+}
@@ -0,0 +1,12 @@
+package za.co.ccos.infra.llm;
+
+/**
+ * The completion ran into {@code max_tokens} before the answer was complete, e.g.
+ * before its JSON object closed. Retrying with a larger limit can succeed.
+ */
+public class CompletionTruncatedException extends LlamaException {
+    
+    public CompletionTruncatedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
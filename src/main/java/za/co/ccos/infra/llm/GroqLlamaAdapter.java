@@ -3,6 +3,7 @@ package za.co.ccos.infra.llm;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
@@ -12,30 +13,66 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.stream.Stream;
 
+/**
+ * Client for Groq's OpenAI-compatible chat completions API. The router also uses it,
+ * through the second constructor, for other providers speaking the same protocol
+ * such as OpenRouter.
+ */
 @Component
 @ConditionalOnProperty(name = "llama.provider", havingValue = "api")
 @Slf4j
 public class GroqLlamaAdapter implements LlamaAdapter {
     
+    public static final String MODEL = "llama-3.3-70b-versatile";
+    public static final String API_URL = "https://api.groq.com/openai/v1/chat/completions";
+    
+    private final String name;
+    private final String apiUrl;
+    private final String model;
     private final String apiKey;
+    private final RateLimits rateLimits;
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
     
-    public GroqLlamaAdapter(@Value("${llama.groq.api-key}") String apiKey) {
+    @Autowired
+    public GroqLlamaAdapter(
+            @Value("${llama.groq.api-key}") String apiKey,
+            @Value("${llama.groq.requests-per-minute:30}") int requestsPerMinute,
+            @Value("${llama.groq.tokens-per-minute:6000}") int tokensPerMinute) {
+        this("Groq API", API_URL, MODEL, apiKey, new RateLimits(requestsPerMinute, tokensPerMinute));
+    }
+    
+    public GroqLlamaAdapter(String name, String apiUrl, String model, String apiKey, RateLimits rateLimits) {
+        this.name = name;
+        this.apiUrl = apiUrl;
+        this.model = model;
         this.apiKey = apiKey;
+        this.rateLimits = rateLimits;
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
         this.objectMapper = new ObjectMapper();
     }
     
+    @Override
+    public String getModel() {
+        return model;
+    }
+    
+    @Override
+    public RateLimits getRateLimits() {
+        return rateLimits;
+    }
+    
     @Override
     public LlamaResponse runPrompt(String prompt, LlamaOptions options) throws LlamaException {
         try {
             String requestBody = objectMapper.writeValueAsString(Map.of(
-                "model", "llama-3.3-70b-versatile",
+                "model", model,
                 "messages", new Object[]{
                     Map.of("role", "user", "content", prompt)
                 },
@@ -44,22 +81,22 @@ public class GroqLlamaAdapter implements LlamaAdapter {
             ));
             
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://api.groq.com/openai/v1/chat/completions"))
+                    .uri(URI.create(apiUrl))
                     .header("Content-Type", "application/json")
                     .header("Authorization", "Bearer " + apiKey)
                     .timeout(Duration.ofSeconds(60))
                     .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                     .build();
             
-            log.info("Sending request to Groq API");
+            log.info("Sending request to {}", name);
             long startTime = System.currentTimeMillis();
             
             HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
             long processingTime = System.currentTimeMillis() - startTime;
             
             if (response.statusCode() != 200) {
-                log.error("Groq API error: {}", response.body());
-                throw new LlamaException("Groq API returned status: " + response.statusCode());
+                log.error("{} error: {}", name, response.body());
+                throw LlamaException.forResponse(name, response);
             }
             
             JsonNode root = objectMapper.readTree(response.body());
@@ -68,14 +105,14 @@ public class GroqLlamaAdapter implements LlamaAdapter {
             
             String content = choice.path("message").path("content").asText();
             String finishReason = choice.path("finish_reason").asText();
-            String model = root.path("model").asText();
+            String responseModel = root.path("model").asText(model);
             
             Integer promptTokens = usage.path("prompt_tokens").asInt();
             Integer completionTokens = usage.path("completion_tokens").asInt();
             Integer totalTokens = usage.path("total_tokens").asInt();
             
-            log.info("Groq response: {}ms, {} tokens (prompt: {}, completion: {})", 
-                    processingTime, totalTokens, promptTokens, completionTokens);
+            log.info("{} response: {}ms, {} tokens (prompt: {}, completion: {})", 
+                    name, processingTime, totalTokens, promptTokens, completionTokens);
             
             return LlamaResponse.builder()
                     .content(content)
@@ -83,13 +120,125 @@ public class GroqLlamaAdapter implements LlamaAdapter {
                     .promptTokens(promptTokens)
                     .completionTokens(completionTokens)
                     .totalTokens(totalTokens)
-                    .model(model)
+                    .model(responseModel)
+                    .finishReason(finishReason)
+                    .rateLimit(RateLimitStatus.fromHeaders(response.headers()))
+                    .build();
+            
+        } catch (LlamaException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to communicate with {}", name, e);
+            throw new LlamaException(name + " error: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Streams the completion with {@code stream: true}. Groq answers with server-sent
+     * events, one {@code data:} line per delta, and reports usage on the final chunk.
+     */
+    @Override
+    public LlamaResponse streamPrompt(String prompt, LlamaOptions options, TokenListener listener) throws LlamaException {
+        try {
+            String requestBody = objectMapper.writeValueAsString(Map.of(
+                "model", model,
+                "messages", new Object[]{
+                    Map.of("role", "user", "content", prompt)
+                },
+                "temperature", options.getTemperature(),
+                "max_tokens", options.getMaxTokens(),
+                "stream", true
+            ));
+            
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(apiUrl))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "text/event-stream")
+                    .header("Authorization", "Bearer " + apiKey)
+                    .timeout(Duration.ofSeconds(60))
+                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                    .build();
+            
+            log.info("Sending streaming request to {}", name);
+            long startTime = System.currentTimeMillis();
+            
+            HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+            
+            StringBuilder content = new StringBuilder();
+            Integer timeToFirstToken = null;
+            String finishReason = null;
+            String responseModel = model;
+            JsonNode usage = null;
+            
+            // Closing the line stream cancels the exchange, which is how an early stop frees the connection
+            try (Stream<String> lines = response.body()) {
+                if (response.statusCode() != 200) {
+                    String error = String.join("\n", (Iterable<String>) lines::iterator);
+                    log.error("{} error: {}", name, error);
+                    throw LlamaException.forResponse(name, response);
+                }
+                
+                Iterator<String> events = lines.iterator();
+                while (events.hasNext()) {
+                    String line = events.next();
+                    if (!line.startsWith("data:")) {
+                        continue;
+                    }
+                    String data = line.substring(5).trim();
+                    if ("[DONE]".equals(data)) {
+                        break;
+                    }
+                    
+                    JsonNode chunk = objectMapper.readTree(data);
+                    responseModel = chunk.path("model").asText(responseModel);
+                    JsonNode chunkUsage = chunk.path("x_groq").path("usage");
+                    if (chunkUsage.isMissingNode()) {
+                        chunkUsage = chunk.path("usage");
+                    }
+                    if (chunkUsage.isObject()) {
+                        usage = chunkUsage;
+                    }
+                    
+                    JsonNode choice = chunk.path("choices").path(0);
+                    if (choice.hasNonNull("finish_reason")) {
+                        finishReason = choice.path("finish_reason").asText();
+                    }
+                    String token = choice.path("delta").path("content").asText("");
+                    if (token.isEmpty()) {
+                        continue;
+                    }
+                    if (timeToFirstToken == null) {
+                        timeToFirstToken = (int) (System.currentTimeMillis() - startTime);
+                    }
+                    content.append(token);
+                    if (!listener.onToken(token)) {
+                        finishReason = LlamaResponse.STOPPED_BY_CLIENT;
+                        break;
+                    }
+                }
+            }
+            
+            long processingTime = System.currentTimeMillis() - startTime;
+            log.info("{} stream: first token {}ms, complete {}ms, finish reason {}",
+                    name, timeToFirstToken, processingTime, finishReason);
+            
+            return LlamaResponse.builder()
+                    .content(content.toString())
+                    .processingTime((int) processingTime)
+                    .timeToFirstToken(timeToFirstToken)
+                    .promptTokens(usage == null ? null : usage.path("prompt_tokens").asInt())
+                    .completionTokens(usage == null ? null : usage.path("completion_tokens").asInt())
+                    .totalTokens(usage == null ? null : usage.path("total_tokens").asInt())
+                    .model(responseModel)
                     .finishReason(finishReason)
+                    .rateLimit(RateLimitStatus.fromHeaders(response.headers()))
                     .build();
             
+        } catch (LlamaException e) {
+            throw e;
         } catch (Exception e) {
-            log.error("Failed to communicate with Groq API", e);
-            throw new LlamaException("Groq API error: " + e.getMessage(), e);
+            log.error("Failed to stream from {}", name, e);
+            throw new LlamaException(name + " error: " + e.getMessage(), e);
         }
     }
 }
@@ -17,22 +17,52 @@ import java.util.Map;
 @Slf4j
 public class GroqVisionAdapter {
     
+    private static final String PROVIDER = "openrouter-vision";
+    private static final int MAX_TOKENS = 1024;
+    
     private final String apiKey;
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
+    private final LlmResilience resilience;
+    private final LlmRateGovernor rateGovernor;
+    private final RateLimits rateLimits;
     
     public GroqVisionAdapter(
             @Value("${llama.openrouter.api-key:}") String openRouterKey,
-            @Value("${llama.groq.api-key}") String groqKey) {
+            @Value("${llama.groq.api-key}") String groqKey,
+            @Value("${llama.openrouter.requests-per-minute:20}") int requestsPerMinute,
+            LlmResilience resilience,
+            LlmRateGovernor rateGovernor) {
         // Use OpenRouter key if available, fallback to Groq key
         this.apiKey = (openRouterKey != null && !openRouterKey.isEmpty()) ? openRouterKey : groqKey;
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
         this.objectMapper = new ObjectMapper();
+        this.resilience = resilience;
+        this.rateGovernor = rateGovernor;
+        this.rateLimits = new RateLimits(requestsPerMinute, 0);
     }
     
+    /**
+     * Image payloads are large and billed per call, so vision requests are retried
+     * and circuit-broken but never hedged
+     */
     public String analyzeImage(String base64Image, String prompt) throws LlamaException {
+        return resilience.call(PROVIDER, "image-analysis", false, () -> {
+            LlmRateGovernor.Reservation reservation = rateGovernor.acquire(PROVIDER, rateLimits, prompt, MAX_TOKENS);
+            try {
+                LlamaResponse response = sendImage(base64Image, prompt);
+                rateGovernor.complete(reservation, response);
+                return response.getContent();
+            } catch (LlamaException e) {
+                rateGovernor.failed(reservation, e);
+                throw e;
+            }
+        });
+    }
+    
+    private LlamaResponse sendImage(String base64Image, String prompt) throws LlamaException {
         try {
             String requestBody = objectMapper.writeValueAsString(Map.of(
                 "model", "meta-llama/llama-3.2-11b-vision-instruct",
@@ -49,7 +79,7 @@ public class GroqVisionAdapter {
                     )
                 },
                 "temperature", 0.2,
-                "max_tokens", 1024
+                "max_tokens", MAX_TOKENS
             ));
             
             HttpRequest request = HttpRequest.newBuilder()
@@ -70,15 +100,23 @@ public class GroqVisionAdapter {
             
             if (response.statusCode() != 200) {
                 log.error("OpenRouter Vision API error: {}", response.body());
-                throw new LlamaException("OpenRouter Vision API returned status: " + response.statusCode());
+                throw LlamaException.forResponse("OpenRouter Vision API", response);
             }
             
             JsonNode root = objectMapper.readTree(response.body());
             String content = root.path("choices").get(0).path("message").path("content").asText();
+            JsonNode usage = root.path("usage");
             
             log.info("OpenRouter Vision response received in {}ms", processingTime);
-            return content;
+            return LlamaResponse.builder()
+                    .content(content)
+                    .processingTime((int) processingTime)
+                    .totalTokens(usage.has("total_tokens") ? usage.path("total_tokens").asInt() : null)
+                    .rateLimit(RateLimitStatus.fromHeaders(response.headers()))
+                    .build();
             
+        } catch (LlamaException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Failed to communicate with OpenRouter Vision API", e);
             throw new LlamaException("OpenRouter Vision API error: " + e.getMessage(), e);
@@ -12,6 +12,8 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 @Component
 @ConditionalOnProperty(name = "llama.provider", havingValue = "never")
@@ -30,10 +32,15 @@ public class HttpLlamaAdapter implements LlamaAdapter {
         this.objectMapper = new ObjectMapper();
     }
     
+    @Override
+    public String getModel() {
+        return "llama.cpp@" + llamaServerUrl;
+    }
+    
     @Override
     public LlamaResponse runPrompt(String prompt, LlamaOptions options) throws LlamaException {
         try {
-            String requestBody = buildRequestBody(prompt, options);
+            String requestBody = buildRequestBody(prompt, options, false);
             
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(llamaServerUrl + "/completion"))
@@ -50,7 +57,7 @@ public class HttpLlamaAdapter implements LlamaAdapter {
             long processingTime = (int) (System.currentTimeMillis() - startTime);
             
             if (response.statusCode() != 200) {
-                throw new LlamaException("LLAMA server returned status: " + response.statusCode());
+                throw LlamaException.forResponse("LLAMA server", response);
             }
             
             String content = parseResponse(response.body());
@@ -58,20 +65,91 @@ public class HttpLlamaAdapter implements LlamaAdapter {
             
             return new LlamaResponse(content, (int) processingTime);
             
+        } catch (LlamaException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Failed to communicate with LLAMA server", e);
             throw new LlamaException("LLAMA server error: " + e.getMessage(), e);
         }
     }
     
-    private String buildRequestBody(String prompt, LlamaOptions options) throws Exception {
+    /**
+     * Streams from llama.cpp with {@code stream: true}; each {@code data:} line carries
+     * the next piece of text and the last one has {@code stop: true} plus token counts.
+     */
+    @Override
+    public LlamaResponse streamPrompt(String prompt, LlamaOptions options, TokenListener listener) throws LlamaException {
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(llamaServerUrl + "/completion"))
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(120))
+                    .POST(HttpRequest.BodyPublishers.ofString(buildRequestBody(prompt, options, true)))
+                    .build();
+            
+            log.info("Sending streaming request to LLAMA server: {}", llamaServerUrl);
+            long startTime = System.currentTimeMillis();
+            
+            HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+            
+            LlamaResponse result = new LlamaResponse();
+            StringBuilder content = new StringBuilder();
+            try (Stream<String> lines = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw LlamaException.forResponse("LLAMA server", response);
+                }
+                
+                Iterator<String> events = lines.iterator();
+                while (events.hasNext()) {
+                    String line = events.next();
+                    if (!line.startsWith("data:")) {
+                        continue;
+                    }
+                    JsonNode chunk = objectMapper.readTree(line.substring(5).trim());
+                    String token = chunk.path("content").asText("");
+                    if (!token.isEmpty()) {
+                        if (result.getTimeToFirstToken() == null) {
+                            result.setTimeToFirstToken((int) (System.currentTimeMillis() - startTime));
+                        }
+                        content.append(token);
+                        if (!listener.onToken(token)) {
+                            result.setFinishReason(LlamaResponse.STOPPED_BY_CLIENT);
+                            break;
+                        }
+                    }
+                    if (chunk.path("stop").asBoolean(false)) {
+                        result.setPromptTokens(chunk.path("tokens_evaluated").asInt());
+                        result.setCompletionTokens(chunk.path("tokens_predicted").asInt());
+                        result.setTotalTokens(result.getPromptTokens() + result.getCompletionTokens());
+                        result.setModel(chunk.path("model").asText(null));
+                        result.setFinishReason(chunk.path("stopped_limit").asBoolean(false) ? "length" : "stop");
+                        break;
+                    }
+                }
+            }
+            
+            result.setContent(content.toString());
+            result.setProcessingTime((int) (System.currentTimeMillis() - startTime));
+            log.info("LLAMA stream: first token {}ms, complete {}ms",
+                    result.getTimeToFirstToken(), result.getProcessingTime());
+            return result;
+            
+        } catch (LlamaException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to stream from LLAMA server", e);
+            throw new LlamaException("LLAMA server error: " + e.getMessage(), e);
+        }
+    }
+    
+    private String buildRequestBody(String prompt, LlamaOptions options, boolean stream) throws Exception {
         return objectMapper.writeValueAsString(new RequestPayload(
                 prompt,
                 options.getTemperature(),
                 options.getMaxTokens(),
                 0.9,
                 40,
-                false
+                stream
         ));
     }
     
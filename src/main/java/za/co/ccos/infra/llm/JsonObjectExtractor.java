@@ -0,0 +1,111 @@
+package za.co.ccos.infra.llm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pulls the first top-level JSON object out of model output as it streams in. Prose
+ * before the opening brace is skipped, the object is checked token by token with
+ * Jackson's non-blocking parser, and {@link #onToken} returns false as soon as the
+ * object closes or turns out to be malformed, so the generation can be cut short.
+ * <p>
+ * Not thread-safe; use one instance per completion.
+ */
+public class JsonObjectExtractor implements TokenListener {
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    
+    private final StringBuilder json = new StringBuilder();
+    private JsonParser parser;
+    private long bytesFed;
+    private int depth;
+    private boolean complete;
+    private IOException error;
+    
+    /**
+     * Extracts the first JSON object from a complete response
+     * @throws LlamaException if the text holds no complete, well-formed object
+     */
+    public static String extract(String response) throws LlamaException {
+        JsonObjectExtractor extractor = new JsonObjectExtractor();
+        if (response != null) {
+            extractor.onToken(response);
+        }
+        return extractor.getJson();
+    }
+    
+    @Override
+    public boolean onToken(String token) {
+        if (complete || error != null) {
+            return false;
+        }
+        
+        int offset = 0;
+        if (parser == null) {
+            offset = token.indexOf('{');
+            if (offset < 0) {
+                return true;
+            }
+            try {
+                parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+            } catch (IOException e) {
+                error = e;
+                return false;
+            }
+        }
+        
+        String chunk = token.substring(offset);
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        try {
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+            JsonToken next;
+            while ((next = parser.nextToken()) != null && next != JsonToken.NOT_AVAILABLE) {
+                if (next.isStructStart()) {
+                    depth++;
+                } else if (next.isStructEnd() && --depth == 0) {
+                    complete = true;
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+            return false;
+        }
+        
+        if (complete) {
+            // Keep only up to the closing brace; anything after it is trailing chatter
+            int consumed = (int) (parser.currentLocation().getByteOffset() - bytesFed);
+            json.append(new String(bytes, 0, consumed, StandardCharsets.UTF_8));
+            return false;
+        }
+        json.append(chunk);
+        bytesFed += bytes.length;
+        return true;
+    }
+    
+    @Override
+    public boolean isComplete() {
+        return complete;
+    }
+    
+    /**
+     * @return the JSON text of the object
+     * @throws LlamaException if the object was malformed or never closed
+     */
+    public String getJson() throws LlamaException {
+        if (error != null) {
+            throw new LlamaException("Model returned malformed JSON: " + error.getMessage(), error);
+        }
+        if (!complete) {
+            throw new LlamaException(parser == null
+                    ? "Model response contained no JSON object"
+                    : "Model response ended before the JSON object was closed");
+        }
+        return json.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decorator for prompts that must answer with a single JSON object. Such calls are
+ * streamed through a {@link JsonObjectExtractor}: generation stops as soon as the
+ * object closes, and output that stops being valid JSON fails without waiting for
+ * the rest of the completion.
+ */
+@RequiredArgsConstructor
+@Slf4j
+public class JsonOutputLlamaAdapter implements LlamaAdapter {
+    
+    private final LlamaAdapter delegate;
+    private final MeterRegistry meterRegistry;
+    
+    @Override
+    public LlamaResponse runPrompt(String prompt, LlamaOptions options) throws LlamaException {
+        if (!options.isJsonOutput()) {
+            return delegate.runPrompt(prompt, options);
+        }
+        
+        JsonObjectExtractor extractor = new JsonObjectExtractor();
+        LlamaResponse response = delegate.streamPrompt(prompt, options, extractor);
+        String json;
+        try {
+            json = extractor.getJson();
+        } catch (LlamaException e) {
+            if ("length".equals(response.getFinishReason())) {
+                count(options, "truncated");
+                throw new CompletionTruncatedException("Completion reached max_tokens (" + options.getMaxTokens()
+                        + ") before the JSON object was closed", e);
+            }
+            count(options, "invalid");
+            throw e;
+        }
+        
+        count(options, LlamaResponse.STOPPED_BY_CLIENT.equals(response.getFinishReason()) ? "stopped_early" : "complete");
+        log.debug("Stage {} JSON ready after {}ms", options.getStage(), response.getProcessingTime());
+        return response.toBuilder().content(json).build();
+    }
+    
+    @Override
+    public LlamaResponse streamPrompt(String prompt, LlamaOptions options, TokenListener listener) throws LlamaException {
+        return delegate.streamPrompt(prompt, options, listener);
+    }
+    
+    @Override
+    public String getModel() {
+        return delegate.getModel();
+    }
+    
+    private void count(LlamaOptions options, String outcome) {
+        meterRegistry.counter("llm.json.responses",
+                "stage", options.getStage() != null ? options.getStage() : "unknown",
+                "outcome", outcome).increment();
+    }
+}
@@ -12,4 +12,38 @@ public interface LlamaAdapter {
      * @throws LlamaException if the operation fails
      */
     LlamaResponse runPrompt(String prompt, LlamaOptions options) throws LlamaException;
+    
+    /**
+     * Execute a prompt and hand the completion to the listener as it is generated.
+     * Adapters without native streaming deliver the whole completion as one chunk.
+     * @param prompt the prompt to execute
+     * @param options configuration options
+     * @param listener receives each chunk and may stop the generation early
+     * @return the full (or early-stopped) response, with time-to-first-token set
+     * @throws LlamaException if the operation fails
+     */
+    default LlamaResponse streamPrompt(String prompt, LlamaOptions options, TokenListener listener) throws LlamaException {
+        LlamaResponse response = runPrompt(prompt, options);
+        response.setTimeToFirstToken(response.getProcessingTime());
+        listener.onToken(response.getContent());
+        return response;
+    }
+    
+    /**
+     * Identifies the model behind this adapter, so cached completions from one model
+     * are never served for another
+     * @return the model name
+     */
+    default String getModel() {
+        return getClass().getSimpleName();
+    }
+    
+    /**
+     * The provider account's per-minute limits, which {@link LlmRateGovernor} keeps
+     * calls within
+     * @return the limits, or {@link RateLimits#NONE} for providers without any
+     */
+    default RateLimits getRateLimits() {
+        return RateLimits.NONE;
+    }
 }
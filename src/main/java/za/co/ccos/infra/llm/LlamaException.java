@@ -1,14 +1,79 @@
 package za.co.ccos.infra.llm;
 
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
 /**
  * Exception thrown when LLAMA operations fail
  */
 public class LlamaException extends Exception {
+    
+    // HTTP status the provider answered with, 0 when the call never got a response
+    private final int statusCode;
+    
+    // How long the provider asked us to wait before trying again, if it said
+    private final Duration retryAfter;
+    
     public LlamaException(String message) {
-        super(message);
+        this(message, null, 0, null);
     }
-
+    
     public LlamaException(String message, Throwable cause) {
+        this(message, cause, 0, null);
+    }
+    
+    public LlamaException(String message, Throwable cause, int statusCode, Duration retryAfter) {
         super(message, cause);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+    
+    /**
+     * Builds the exception for a non-200 provider response, keeping its status and
+     * any {@code Retry-After} hint (delta-seconds or HTTP-date)
+     */
+    public static LlamaException forResponse(String provider, HttpResponse<?> response) {
+        Duration retryAfter = response.headers().firstValue("Retry-After")
+                .map(LlamaException::parseRetryAfter)
+                .orElse(null);
+        return new LlamaException(provider + " returned status: " + response.statusCode(), null,
+                response.statusCode(), retryAfter);
+    }
+    
+    public int getStatusCode() {
+        return statusCode;
+    }
+    
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+    
+    /**
+     * Throttling, provider-side errors and I/O failures may succeed when tried again;
+     * anything else (bad request, auth, unparseable output) will not
+     */
+    public boolean isTransient() {
+        if (statusCode == 429 || statusCode >= 500) {
+            return true;
+        }
+        return statusCode == 0 && getCause() instanceof IOException;
+    }
+    
+    private static Duration parseRetryAfter(String value) {
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Duration until = Duration.between(ZonedDateTime.now(),
+                        ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return until.isNegative() ? Duration.ZERO : until;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
     }
 }
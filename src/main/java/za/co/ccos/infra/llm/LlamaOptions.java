@@ -7,9 +7,15 @@ import lombok.Data;
  * Configuration options for LLAMA API calls
  */
 @Data
-@Builder
+@Builder(toBuilder = true)
 public class LlamaOptions {
     private double temperature;
     private int maxTokens;
     private String systemPrompt;
+    
+    // Pipeline stage issuing the call, used for per-stage caching and metrics
+    private String stage;
+    
+    // The answer is a single JSON object; generation may stop as soon as it closes
+    private boolean jsonOutput;
 }
@@ -9,13 +9,20 @@ import lombok.NoArgsConstructor;
  * Response object from LLAMA API
  */
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class LlamaResponse {
+    
+    // finishReason when a TokenListener ended the generation
+    public static final String STOPPED_BY_CLIENT = "client_stop";
+    
     private String content;
     private int processingTime;
     
+    // Milliseconds until the first streamed chunk arrived; equals processingTime when not streamed
+    private Integer timeToFirstToken;
+    
     // Token usage metrics
     private Integer promptTokens;
     private Integer completionTokens;
@@ -25,6 +32,9 @@ public class LlamaResponse {
     private String model;
     private String finishReason;
     
+    // Budget the provider reported in its rate limit headers, if any
+    private RateLimitStatus rateLimit;
+    
     // Constructor for backward compatibility
     public LlamaResponse(String content) {
         this.content = content;
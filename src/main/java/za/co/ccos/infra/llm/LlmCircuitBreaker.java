@@ -0,0 +1,137 @@
+package za.co.ccos.infra.llm;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Count-based circuit breaker for one LLM provider. While CLOSED it tracks the outcome
+ * of the last {@code windowSize} calls and opens once the failure rate crosses the
+ * threshold. OPEN rejects calls outright until {@code openDuration} has passed, then
+ * HALF_OPEN lets a few probes through: all of them succeeding closes the circuit,
+ * any of them failing opens it again.
+ */
+class LlmCircuitBreaker {
+    
+    // Ordinal doubles as the value of the state gauge
+    enum State { CLOSED, HALF_OPEN, OPEN }
+    
+    @FunctionalInterface
+    interface TransitionListener {
+        void onTransition(State from, State to);
+    }
+    
+    private final boolean[] window;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final LongSupplier clock;
+    private final TransitionListener listener;
+    
+    private State state = State.CLOSED;
+    private int windowNext;
+    private int windowCount;
+    private int windowFailures;
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+    
+    LlmCircuitBreaker(int windowSize, int minCalls, double failureRateThreshold, Duration openDuration,
+                      int halfOpenProbes, LongSupplier clock, TransitionListener listener) {
+        this.window = new boolean[windowSize];
+        this.minCalls = Math.min(minCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.clock = clock;
+        this.listener = listener;
+    }
+    
+    synchronized State getState() {
+        return state;
+    }
+    
+    /**
+     * @return whether a call may go to the provider now; every permitted call must be
+     * followed by exactly one of {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored}
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < openNanos) {
+                return false;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight >= halfOpenProbes) {
+                return false;
+            }
+            probesInFlight++;
+        }
+        return true;
+    }
+    
+    synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+            if (++probeSuccesses >= halfOpenProbes) {
+                transition(State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+    
+    synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transition(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (windowCount >= minCalls && (double) windowFailures / windowCount >= failureRateThreshold) {
+                transition(State.OPEN);
+            }
+        }
+    }
+    
+    /**
+     * Releases a permit without judging the provider, e.g. after a client error
+     */
+    synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+        }
+    }
+    
+    private void record(boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowNext]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowNext] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowNext = (windowNext + 1) % window.length;
+    }
+    
+    private void transition(State to) {
+        State from = state;
+        state = to;
+        switch (to) {
+            case OPEN -> openedAt = clock.getAsLong();
+            case HALF_OPEN -> {
+                probesInFlight = 0;
+                probeSuccesses = 0;
+            }
+            case CLOSED -> {
+                windowNext = 0;
+                windowCount = 0;
+                windowFailures = 0;
+            }
+        }
+        listener.onTransition(from, to);
+    }
+}
@@ -0,0 +1,288 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps calls within each provider's requests-per-minute and tokens-per-minute
+ * limits on our side, so a burst queues here instead of every in-flight consultation
+ * getting a 429 at once.
+ * <p>
+ * Each provider has a request bucket and a token bucket that refill continuously at
+ * their per-minute rate. A call reserves one request plus its estimated prompt
+ * tokens and {@code maxTokens}, which is what the provider counts against the limit
+ * up front. Once the call returns, the reservation is settled against the actual
+ * usage and the provider's {@code x-ratelimit-*} headers, which also teach us the
+ * account's real token limit. Callers that cannot be served yet wait in FIFO order.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LlmRateGovernor {
+    
+    /**
+     * Budget taken for one call, handed back to {@link #complete} or {@link #failed}
+     */
+    public record Reservation(String provider, long tokens, int promptTokens) {
+    }
+    
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+    
+    // Longest single sleep while waiting for budget, so refunds from finishing calls are noticed
+    private static final long MAX_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${llm.rate-limit.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${llm.rate-limit.max-wait:60s}")
+    private Duration maxWait;
+    
+    // Fraction of the advertised limits we plan against, leaving room for estimation error
+    @Value("${llm.rate-limit.headroom:0.95}")
+    private double headroom;
+    
+    private final Map<String, Budget> budgets = new ConcurrentHashMap<>();
+    
+    /**
+     * Prompt size for budgeting, counted with the local tokenizer
+     */
+    public static int estimateTokens(String text) {
+        return TokenCounter.count(text);
+    }
+    
+    /**
+     * Waits, in arrival order, until the provider's budget covers the call and takes it
+     * @throws LlamaException if the budget does not free up within {@code llm.rate-limit.max-wait}
+     */
+    public Reservation acquire(String provider, RateLimits limits, String prompt, int maxTokens) throws LlamaException {
+        int promptTokens = estimateTokens(prompt);
+        if (!enabled || !limits.isLimited()) {
+            return new Reservation(provider, 0, promptTokens);
+        }
+        Budget budget = budget(provider, limits);
+        long tokens = Math.min(promptTokens + (long) maxTokens, budget.maxReservation());
+        
+        long start = System.nanoTime();
+        long deadline = start + maxWait.toNanos();
+        budget.waiting.incrementAndGet();
+        try {
+            if (!budget.turn.tryLock(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw exhausted(provider);
+            }
+            try {
+                long wait;
+                while ((wait = budget.tryTake(tokens)) > 0) {
+                    // Keep polling even when the refill alone is too slow: settling in-flight calls refunds tokens
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw exhausted(provider);
+                    }
+                    TimeUnit.NANOSECONDS.sleep(Math.min(wait, Math.min(remaining, MAX_POLL_NANOS)));
+                }
+            } finally {
+                budget.turn.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlamaException("Interrupted waiting for " + provider + " rate limit budget", e);
+        } finally {
+            budget.waiting.decrementAndGet();
+            budget.waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return new Reservation(provider, tokens, promptTokens);
+    }
+    
+    /**
+     * Settles a reservation against what the call actually used
+     */
+    public void complete(Reservation reservation, LlamaResponse response) {
+        Budget budget = budgets.get(reservation.provider());
+        if (budget == null || reservation.tokens() == 0) {
+            return;
+        }
+        long used = response.getTotalTokens() != null && response.getTotalTokens() > 0
+                ? response.getTotalTokens()
+                : reservation.promptTokens() + estimateTokens(response.getContent());
+        budget.settle(reservation.tokens() - used, response.getRateLimit());
+    }
+    
+    /**
+     * Returns the tokens of a failed call. A 429 means our view of the budget was too
+     * optimistic, so the provider's buckets are drained until it lets us back in.
+     */
+    public void failed(Reservation reservation, LlamaException error) {
+        Budget budget = budgets.get(reservation.provider());
+        if (budget == null || reservation.tokens() == 0) {
+            return;
+        }
+        if (error.getStatusCode() == 429) {
+            meterRegistry.counter("llm.ratelimit.throttled", "provider", reservation.provider()).increment();
+            Duration retryAfter = error.getRetryAfter() != null ? error.getRetryAfter() : Duration.ofSeconds(1);
+            budget.drain(retryAfter);
+            log.warn("{} throttled us despite the rate governor; pausing {}ms", reservation.provider(), retryAfter.toMillis());
+        } else {
+            budget.settle(reservation.tokens(), null);
+        }
+    }
+    
+    private LlamaException exhausted(String provider) {
+        meterRegistry.counter("llm.ratelimit.rejected", "provider", provider).increment();
+        return new LlamaException("No " + provider + " rate limit budget within " + maxWait.toSeconds() + "s");
+    }
+    
+    private Budget budget(String provider, RateLimits limits) {
+        return budgets.computeIfAbsent(provider, key -> {
+            Budget budget = new Budget(
+                    Math.max(1, Math.round(limits.requestsPerMinute() * headroom)),
+                    Math.max(1, Math.round(limits.tokensPerMinute() * headroom)),
+                    limits.requestsPerMinute() > 0,
+                    limits.tokensPerMinute() > 0,
+                    Timer.builder("llm.ratelimit.wait")
+                            .description("Time calls waited for provider rate limit budget")
+                            .tag("provider", key)
+                            .publishPercentiles(0.5, 0.95, 0.99)
+                            .register(meterRegistry));
+            Gauge.builder("llm.ratelimit.tokens.available", budget, Budget::availableTokens)
+                    .tag("provider", key).register(meterRegistry);
+            Gauge.builder("llm.ratelimit.tokens.utilisation", budget, Budget::tokenUtilisation)
+                    .description("Share of the per-minute token budget currently spent")
+                    .tag("provider", key).register(meterRegistry);
+            Gauge.builder("llm.ratelimit.requests.available", budget, Budget::availableRequests)
+                    .tag("provider", key).register(meterRegistry);
+            Gauge.builder("llm.ratelimit.queued", budget, b -> b.waiting.get())
+                    .description("Calls waiting for provider rate limit budget")
+                    .tag("provider", key).register(meterRegistry);
+            log.info("Rate governor for {}: {} requests/min, {} tokens/min (at {}% headroom)",
+                    key, limits.requestsPerMinute(), limits.tokensPerMinute(), Math.round(headroom * 100));
+            return budget;
+        });
+    }
+    
+    /**
+     * Request and token buckets of one provider. Token balance may go negative when a
+     * call used more than it reserved; later callers then wait for the refill.
+     */
+    private final class Budget {
+        
+        final ReentrantLock turn = new ReentrantLock(true);
+        final AtomicInteger waiting = new AtomicInteger();
+        final Timer waitTimer;
+        
+        private final boolean limitRequests;
+        private final boolean limitTokens;
+        private double requestCapacity;
+        private double tokenCapacity;
+        private double requests;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private long pausedUntil;
+        
+        Budget(long requestCapacity, long tokenCapacity, boolean limitRequests, boolean limitTokens, Timer waitTimer) {
+            this.requestCapacity = requestCapacity;
+            this.tokenCapacity = tokenCapacity;
+            this.requests = requestCapacity;
+            this.tokens = tokenCapacity;
+            this.limitRequests = limitRequests;
+            this.limitTokens = limitTokens;
+            this.waitTimer = waitTimer;
+        }
+        
+        // A call larger than the whole bucket still goes through once the bucket is full
+        synchronized long maxReservation() {
+            return limitTokens ? (long) tokenCapacity : Long.MAX_VALUE;
+        }
+        
+        /**
+         * @return 0 if the call's budget was taken, otherwise roughly how long to wait
+         */
+        synchronized long tryTake(long cost) {
+            long now = refill();
+            if (now < pausedUntil) {
+                return pausedUntil - now;
+            }
+            long wait = 0;
+            if (limitRequests && requests < 1) {
+                wait = Math.max(wait, (long) ((1 - requests) / requestCapacity * NANOS_PER_MINUTE));
+            }
+            if (limitTokens && tokens < cost) {
+                wait = Math.max(wait, (long) ((cost - tokens) / tokenCapacity * NANOS_PER_MINUTE));
+            }
+            if (wait > 0) {
+                return wait;
+            }
+            requests -= 1;
+            tokens -= cost;
+            return 0;
+        }
+        
+        synchronized void settle(long refund, RateLimitStatus status) {
+            refill();
+            tokens = Math.min(tokenCapacity, tokens + refund);
+            if (status == null) {
+                return;
+            }
+            // The provider's view wins: it also counts calls made with this key from elsewhere
+            if (status.limitTokens() != null && status.limitTokens() > 0) {
+                tokenCapacity = Math.max(1, Math.round(status.limitTokens() * headroom));
+            }
+            if (status.remainingTokens() != null) {
+                tokens = Math.min(tokens, status.remainingTokens());
+            }
+            if (status.remainingRequests() != null) {
+                requests = Math.min(requests, status.remainingRequests());
+                if (status.remainingRequests() == 0 && status.resetRequests() != null) {
+                    pause(status.resetRequests());
+                }
+            }
+        }
+        
+        synchronized void drain(Duration retryAfter) {
+            refill();
+            requests = Math.min(requests, 0);
+            tokens = Math.min(tokens, 0);
+            pause(retryAfter);
+        }
+        
+        synchronized double availableTokens() {
+            refill();
+            return tokens;
+        }
+        
+        synchronized double availableRequests() {
+            refill();
+            return requests;
+        }
+        
+        synchronized double tokenUtilisation() {
+            refill();
+            return Math.max(0, Math.min(1, 1 - tokens / tokenCapacity));
+        }
+        
+        private void pause(Duration duration) {
+            pausedUntil = Math.max(pausedUntil, System.nanoTime() + duration.toNanos());
+        }
+        
+        private long refill() {
+            long now = System.nanoTime();
+            double minutes = (double) (now - refilledAt) / NANOS_PER_MINUTE;
+            refilledAt = now;
+            requests = Math.min(requestCapacity, requests + minutes * requestCapacity);
+            tokens = Math.min(tokenCapacity, tokens + minutes * tokenCapacity);
+            return now;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntFunction;
+
+/**
+ * Guards calls to LLM providers. Transient failures (429, 5xx, I/O) are retried with
+ * full-jitter exponential backoff, waiting at least as long as the provider's
+ * {@code Retry-After}. Each provider has its own {@link LlmCircuitBreaker}, so while
+ * a provider is down calls fail immediately and callers drop to their fallbacks
+ * instead of every consultation waiting out the timeout.
+ * <p>
+ * With {@code llm.resilience.hedge.enabled}, a call still running after the
+ * provider's observed p95 latency gets a second, identical request and the first
+ * answer wins. Streams are hedged on time to first token; whichever request emits a
+ * token first owns the listener and the other stops at its first token.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LlmResilience {
+    
+    @FunctionalInterface
+    public interface LlmCall<T> {
+        T call() throws LlamaException;
+    }
+    
+    @FunctionalInterface
+    public interface StreamCall {
+        LlamaResponse stream(TokenListener listener) throws LlamaException;
+    }
+    
+    private static final int PRIMARY = 0;
+    private static final int HEDGE = 1;
+    private static final int NO_OWNER = -1;
+    
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${llm.resilience.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${llm.resilience.max-attempts:3}")
+    private int maxAttempts;
+    
+    @Value("${llm.resilience.base-backoff:500ms}")
+    private Duration baseBackoff;
+    
+    @Value("${llm.resilience.max-backoff:10s}")
+    private Duration maxBackoff;
+    
+    @Value("${llm.resilience.max-retry-after:30s}")
+    private Duration maxRetryAfter;
+    
+    @Value("${llm.resilience.circuit.window-size:20}")
+    private int windowSize;
+    
+    @Value("${llm.resilience.circuit.min-calls:10}")
+    private int minCalls;
+    
+    @Value("${llm.resilience.circuit.failure-rate-threshold:0.5}")
+    private double failureRateThreshold;
+    
+    @Value("${llm.resilience.circuit.open-duration:30s}")
+    private Duration openDuration;
+    
+    @Value("${llm.resilience.circuit.half-open-probes:2}")
+    private int halfOpenProbes;
+    
+    @Value("${llm.resilience.hedge.enabled:false}")
+    private boolean hedgeEnabled;
+    
+    @Value("${llm.resilience.hedge.min-samples:50}")
+    private int hedgeMinSamples;
+    
+    @Value("${llm.resilience.hedge.min-delay:1s}")
+    private Duration hedgeMinDelay;
+    
+    @Value("${llm.resilience.hedge.latency-window:200}")
+    private int latencyWindow;
+    
+    private final Map<String, Provider> providers = new ConcurrentHashMap<>();
+    private ExecutorService hedgeExecutor;
+    
+    @PostConstruct
+    public void init() {
+        if (hedgeEnabled) {
+            AtomicInteger threads = new AtomicInteger();
+            hedgeExecutor = Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "llm-hedge-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        log.info("LLM resilience {} (max attempts {}, circuit opens at {}% of {} calls, hedging {})",
+                enabled ? "enabled" : "disabled", maxAttempts, Math.round(failureRateThreshold * 100),
+                windowSize, hedgeEnabled ? "enabled" : "disabled");
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Runs a request/response call under the provider's retry, circuit breaker and
+     * hedging policy
+     * @param hedge whether a slow call may be duplicated; false for calls whose cost
+     *              rules that out
+     */
+    public <T> T call(String provider, String stage, boolean hedge, LlmCall<T> call) throws LlamaException {
+        if (!enabled) {
+            return call.call();
+        }
+        Provider state = provider(provider);
+        return guarded(provider, stage, state, () -> true, () -> {
+            long start = System.nanoTime();
+            T result = hedge && hedgeExecutor != null
+                    ? race(provider, state.latency.p95(), new AtomicInteger(NO_OWNER), attempt -> call)
+                    : call.call();
+            state.latency.record(System.nanoTime() - start);
+            return result;
+        });
+    }
+    
+    /**
+     * Runs a streaming call. A failed stream is only retried while nothing has reached
+     * the listener, since tokens already handed out cannot be taken back.
+     */
+    public LlamaResponse stream(String provider, String stage, TokenListener listener, StreamCall call)
+            throws LlamaException {
+        if (!enabled) {
+            return call.stream(listener);
+        }
+        Provider state = provider(provider);
+        AtomicBoolean delivered = new AtomicBoolean();
+        return guarded(provider, stage, state, () -> !delivered.get(), () -> {
+            long start = System.nanoTime();
+            AtomicInteger owner = new AtomicInteger(NO_OWNER);
+            IntFunction<LlmCall<LlamaResponse>> attempt = id -> () -> call.stream(token -> {
+                if (owner.get() != id && !owner.compareAndSet(NO_OWNER, id)) {
+                    // The other request is already answering
+                    return false;
+                }
+                if (delivered.compareAndSet(false, true)) {
+                    state.firstToken.record(System.nanoTime() - start);
+                }
+                return listener.onToken(token);
+            });
+            return hedgeExecutor != null
+                    ? race(provider, state.firstToken.p95(), owner, attempt)
+                    : attempt.apply(PRIMARY).call();
+        });
+    }
+    
+    private <T> T guarded(String provider, String stage, Provider state, BooleanSupplier retryAllowed,
+                          LlmCall<T> call) throws LlamaException {
+        for (int attempt = 1; ; attempt++) {
+            if (!state.breaker.tryAcquire()) {
+                counter("llm.circuit.rejected", "provider", provider, "stage", stageTag(stage)).increment();
+                throw new LlamaException("Circuit breaker for " + provider + " is open");
+            }
+            try {
+                T result = call.call();
+                state.breaker.onSuccess();
+                return result;
+            } catch (LlamaException e) {
+                if (!e.isTransient()) {
+                    state.breaker.onIgnored();
+                    throw e;
+                }
+                state.breaker.onFailure();
+                if (attempt >= maxAttempts || !retryAllowed.getAsBoolean()) {
+                    throw e;
+                }
+                Duration delay = backoff(attempt, e.getRetryAfter());
+                if (delay == null) {
+                    log.warn("{} asked to retry after {}s, more than we wait; giving up", provider,
+                            e.getRetryAfter().toSeconds());
+                    throw e;
+                }
+                counter("llm.retries", "provider", provider, "stage", stageTag(stage), "reason", reason(e)).increment();
+                log.warn("{} call for {} failed ({}), retry {}/{} in {}ms", provider, stageTag(stage),
+                        e.getMessage(), attempt, maxAttempts - 1, delay.toMillis());
+                sleep(delay);
+            } catch (RuntimeException e) {
+                state.breaker.onIgnored();
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Starts the primary request and, if it has not finished after {@code threshold},
+     * a hedge. The owner is the request whose answer is returned: for plain calls the
+     * first to succeed, for streams the first to emit a token (the stream listener
+     * claims it). The call fails once the owner fails or both requests have.
+     */
+    private <T> T race(String provider, Duration threshold, AtomicInteger owner,
+                       IntFunction<LlmCall<T>> attempt) throws LlamaException {
+        if (threshold == null) {
+            return attempt.apply(PRIMARY).call();
+        }
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger launched = new AtomicInteger(1);
+        submit(attempt.apply(PRIMARY), PRIMARY, owner, winner, failures, launched);
+        
+        try {
+            return winner.get(threshold.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            if (owner.get() == NO_OWNER) {
+                launched.incrementAndGet();
+                submit(attempt.apply(HEDGE), HEDGE, owner, winner, failures, launched);
+                counter("llm.hedges", "provider", provider, "result", "fired").increment();
+            }
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlamaException("Interrupted waiting for " + provider, e);
+        }
+        
+        try {
+            T result = winner.get();
+            if (launched.get() > 1) {
+                counter("llm.hedges", "provider", provider, "result",
+                        owner.get() == HEDGE ? "hedge_won" : "primary_won").increment();
+            }
+            return result;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlamaException("Interrupted waiting for " + provider, e);
+        }
+    }
+    
+    private <T> void submit(LlmCall<T> call, int id, AtomicInteger owner, CompletableFuture<T> winner,
+                            AtomicInteger failures, AtomicInteger launched) {
+        hedgeExecutor.execute(() -> {
+            try {
+                T result = call.call();
+                if (owner.compareAndSet(NO_OWNER, id) || owner.get() == id) {
+                    winner.complete(result);
+                }
+            } catch (Throwable t) {
+                if (owner.get() == id || failures.incrementAndGet() == launched.get()) {
+                    winner.completeExceptionally(t);
+                }
+            }
+        });
+    }
+    
+    private Duration backoff(int attempt, Duration retryAfter) {
+        long ceiling = Math.min(maxBackoff.toMillis(), baseBackoff.toMillis() << Math.min(attempt - 1, 20));
+        Duration jittered = Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        if (retryAfter == null) {
+            return jittered;
+        }
+        if (retryAfter.compareTo(maxRetryAfter) > 0) {
+            return null;
+        }
+        return retryAfter.compareTo(jittered) > 0 ? retryAfter : jittered;
+    }
+    
+    private void sleep(Duration delay) throws LlamaException {
+        try {
+            Thread.sleep(delay.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlamaException("Interrupted while backing off", e);
+        }
+    }
+    
+    private static LlamaException unwrap(ExecutionException e) {
+        return e.getCause() instanceof LlamaException cause
+                ? cause
+                : new LlamaException("LLM call failed: " + e.getCause().getMessage(), e.getCause());
+    }
+    
+    private static String reason(LlamaException e) {
+        if (e.getStatusCode() == 429) {
+            return "throttled";
+        }
+        return e.getStatusCode() >= 500 ? "server_error" : "io_error";
+    }
+    
+    private static String stageTag(String stage) {
+        return stage != null ? stage : "unknown";
+    }
+    
+    private Counter counter(String name, String... tags) {
+        return meterRegistry.counter(name, tags);
+    }
+    
+    private Provider provider(String name) {
+        return providers.computeIfAbsent(name, key -> {
+            Provider provider = new Provider(
+                    new LlmCircuitBreaker(windowSize, minCalls, failureRateThreshold, openDuration, halfOpenProbes,
+                            System::nanoTime, (from, to) -> {
+                                log.warn("Circuit breaker for {} {} -> {}", key, from, to);
+                                counter("llm.circuit.transitions", "provider", key,
+                                        "from", from.name().toLowerCase(), "to", to.name().toLowerCase()).increment();
+                            }),
+                    new LatencyWindow(latencyWindow, hedgeMinSamples, hedgeMinDelay),
+                    new LatencyWindow(latencyWindow, hedgeMinSamples, hedgeMinDelay));
+            Gauge.builder("llm.circuit.state", provider.breaker, breaker -> breaker.getState().ordinal())
+                    .description("Circuit breaker state per LLM provider: 0 closed, 1 half-open, 2 open")
+                    .tag("provider", key)
+                    .register(meterRegistry);
+            return provider;
+        });
+    }
+    
+    private record Provider(LlmCircuitBreaker breaker, LatencyWindow latency, LatencyWindow firstToken) {
+    }
+    
+    /**
+     * Recent latencies of one provider, from which the hedging delay is taken
+     */
+    private static final class LatencyWindow {
+        
+        private final long[] samples;
+        private final int minSamples;
+        private final long floorNanos;
+        private int next;
+        private int count;
+        
+        LatencyWindow(int size, int minSamples, Duration floor) {
+            this.samples = new long[Math.max(1, size)];
+            this.minSamples = minSamples;
+            this.floorNanos = floor.toNanos();
+        }
+        
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+        
+        /**
+         * @return the p95, never below the floor, or null until enough calls were seen
+         */
+        synchronized Duration p95() {
+            if (count < Math.max(1, minSamples)) {
+                return null;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            long p95 = sorted[Math.min(count - 1, (int) Math.ceil(count * 0.95) - 1)];
+            return Duration.ofNanos(Math.max(p95, floorNanos));
+        }
+    }
+}
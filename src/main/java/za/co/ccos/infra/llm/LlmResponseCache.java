@@ -0,0 +1,198 @@
+package za.co.ccos.infra.llm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import za.co.ccos.domain.LlmCacheEntry;
+import za.co.ccos.infra.persistence.LlmCacheEntryRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Content-addressed store for LLM completions. Entries are keyed by a SHA-256 of the
+ * model, the sampling options and the rendered prompt, so a retry, a reprocess after
+ * an error or an unchanged patient summary is answered without another provider call.
+ * {@code max_tokens} is not part of the key: {@link TokenBudget} keeps moving it, and
+ * only completions that finished on their own are stored, so it never shaped one.
+ * <p>
+ * The in-memory tier is a Caffeine cache (W-TinyLFU eviction, so one-off prompts do
+ * not push out the ones that keep coming back). With {@code llm.cache.persistent}
+ * set, misses fall through to the {@code llm_response_cache} table, which survives
+ * restarts and is shared between instances.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LlmResponseCache {
+    
+    private final LlmCacheEntryRepository repository;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${llm.cache.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${llm.cache.max-entries:2000}")
+    private long maxEntries;
+    
+    @Value("${llm.cache.ttl:24h}")
+    private Duration ttl;
+    
+    @Value("${llm.cache.persistent:false}")
+    private boolean persistent;
+    
+    @Value("${llm.cache.max-temperature:0.3}")
+    private double maxTemperature;
+    
+    @Value("${llm.cache.stages:perception,documentation,coordination,compliance,patient-summary,scheduling}")
+    private Set<String> stages;
+    
+    private Cache<String, LlamaResponse> memory;
+    
+    @PostConstruct
+    public void init() {
+        memory = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .removalListener((String key, LlamaResponse value, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        evictionCounter(cause.name().toLowerCase()).increment();
+                    }
+                })
+                .build();
+        log.info("LLM response cache {} (max {} entries, ttl {}, persistent {}, stages {})",
+                enabled ? "enabled" : "disabled", maxEntries, ttl, persistent, stages);
+    }
+    
+    /**
+     * Only deterministic-enough calls from whitelisted stages are cached; a sampled
+     * completion at high temperature is meant to vary between calls.
+     */
+    public boolean isCacheable(LlamaOptions options) {
+        return enabled
+                && options.getStage() != null
+                && stages.contains(options.getStage())
+                && options.getTemperature() <= maxTemperature;
+    }
+    
+    public String key(String model, String prompt, LlamaOptions options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, model);
+            update(digest, Double.toString(options.getTemperature()));
+            update(digest, options.getSystemPrompt());
+            update(digest, prompt);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    public Optional<LlamaResponse> get(String key, String stage) {
+        LlamaResponse cached = memory.getIfPresent(key);
+        if (cached != null) {
+            requestCounter("hit", "memory", stage).increment();
+            return Optional.of(cached);
+        }
+        
+        if (persistent) {
+            Optional<LlamaResponse> stored = repository.findById(key)
+                    .filter(entry -> entry.getExpiresAt().isAfter(LocalDateTime.now()))
+                    .map(this::toResponse);
+            if (stored.isPresent()) {
+                memory.put(key, stored.get());
+                requestCounter("hit", "database", stage).increment();
+                return stored;
+            }
+        }
+        
+        requestCounter("miss", "none", stage).increment();
+        return Optional.empty();
+    }
+    
+    public void put(String key, String stage, String model, LlamaResponse response) {
+        memory.put(key, response);
+        if (!persistent) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            LlmCacheEntry entry = new LlmCacheEntry();
+            entry.setCacheKey(key);
+            entry.setStage(stage);
+            entry.setModel(model);
+            entry.setContent(response.getContent());
+            entry.setPromptTokens(response.getPromptTokens());
+            entry.setCompletionTokens(response.getCompletionTokens());
+            entry.setTotalTokens(response.getTotalTokens());
+            entry.setFinishReason(response.getFinishReason());
+            entry.setCreatedAt(now);
+            entry.setExpiresAt(now.plus(ttl));
+            repository.save(entry);
+        } catch (Exception e) {
+            // The completion is still served from memory; losing the write only costs a future call
+            log.warn("Failed to persist LLM cache entry for stage {}: {}", stage, e.getMessage());
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${llm.cache.purge-interval-ms:3600000}")
+    public void purgeExpired() {
+        if (!persistent) {
+            return;
+        }
+        int removed = repository.deleteExpired(LocalDateTime.now());
+        if (removed > 0) {
+            evictionCounter("expired_persistent").increment(removed);
+            log.info("Purged {} expired LLM cache entries", removed);
+        }
+    }
+    
+    private LlamaResponse toResponse(LlmCacheEntry entry) {
+        return LlamaResponse.builder()
+                .content(entry.getContent())
+                .promptTokens(entry.getPromptTokens())
+                .completionTokens(entry.getCompletionTokens())
+                .totalTokens(entry.getTotalTokens())
+                .model(entry.getModel())
+                .finishReason(entry.getFinishReason())
+                .build();
+    }
+    
+    private Counter requestCounter(String result, String tier, String stage) {
+        return Counter.builder("llm.cache.requests")
+                .description("LLM cache lookups by outcome")
+                .tag("result", result)
+                .tag("tier", tier)
+                .tag("stage", stage)
+                .register(meterRegistry);
+    }
+    
+    private Counter evictionCounter(String cause) {
+        return Counter.builder("llm.cache.evictions")
+                .description("LLM cache entries removed by size or age")
+                .tag("cause", cause)
+                .register(meterRegistry);
+    }
+    
+    private static void update(MessageDigest digest, String value) {
+        // Length prefix keeps ("ab", "c") and ("a", "bc") from hashing to the same key
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+}
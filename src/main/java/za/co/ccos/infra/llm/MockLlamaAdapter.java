@@ -1,31 +1,85 @@
 package za.co.ccos.infra.llm;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 @Component
 @ConditionalOnProperty(name = "llama.provider", havingValue = "mock", matchIfMissing = true)
 @Slf4j
 public class MockLlamaAdapter implements LlamaAdapter {
     
+    // Roughly how a BPE tokenizer splits text: a word with its leading space, or a single symbol
+    private static final Pattern TOKEN = Pattern.compile("\\s*[\\p{L}\\p{N}]+|\\s*[^\\p{L}\\p{N}\\s]|\\s+");
+    
+    @Value("${llama.mock.tokens-per-second:50}")
+    private int tokensPerSecond;
+    
     @Override
     public LlamaResponse runPrompt(String prompt, LlamaOptions options) throws LlamaException {
         log.info("Mock LLAMA processing prompt (length: {})", prompt.length());
         
-        try {
-            Thread.sleep(1500);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        sleep(1500);
+        
+        return generate(prompt);
+    }
+    
+    /**
+     * Emits the canned completion token by token at {@code llama.mock.tokens-per-second}
+     * after a short prefill delay, so streaming consumers can be exercised without a model.
+     */
+    @Override
+    public LlamaResponse streamPrompt(String prompt, LlamaOptions options, TokenListener listener) throws LlamaException {
+        log.info("Mock LLAMA streaming prompt (length: {})", prompt.length());
+        long startTime = System.currentTimeMillis();
+        sleep(300);
+        
+        String completion = generate(prompt).getContent();
+        long delayMs = tokensPerSecond > 0 ? 1000L / tokensPerSecond : 0;
+        Integer timeToFirstToken = null;
+        String finishReason = "stop";
+        StringBuilder content = new StringBuilder();
+        
+        Matcher matcher = TOKEN.matcher(completion);
+        while (matcher.find()) {
+            if (timeToFirstToken == null) {
+                timeToFirstToken = (int) (System.currentTimeMillis() - startTime);
+            } else {
+                sleep(delayMs);
+            }
+            content.append(matcher.group());
+            if (!listener.onToken(matcher.group())) {
+                finishReason = LlamaResponse.STOPPED_BY_CLIENT;
+                break;
+            }
         }
         
-        if (prompt.contains("SYSTEM: You are a clinical information extractor")) {
+        return LlamaResponse.builder()
+                .content(content.toString())
+                .processingTime((int) (System.currentTimeMillis() - startTime))
+                .timeToFirstToken(timeToFirstToken)
+                .model(getModel())
+                .finishReason(finishReason)
+                .build();
+    }
+    
+    // Agents are told apart by the role their prompt opens with; words like "compliance"
+    // also appear inside other prompts and the JSON they carry
+    private LlamaResponse generate(String prompt) {
+        String role = prompt.lines().findFirst().orElse("");
+        if (role.contains("clinical information extractor") || role.contains("clinical data extractor")) {
             return new LlamaResponse(generatePerceptionResponse(prompt), 250);
-        } else if (prompt.contains("SYSTEM: You are a clinical document generator")) {
+        } else if (role.contains("clinical document generator") || role.contains("clinical documentation specialist")) {
             return new LlamaResponse(generateDocumentationResponse(prompt), 450);
-        } else if (prompt.contains("coordination")) {
+        } else if (role.contains("care coordinator and compliance checker")) {
+            return new LlamaResponse(generateCoordinationAndComplianceResponse(prompt), 300);
+        } else if (role.contains("care coordinator")) {
             return new LlamaResponse(generateCoordinationResponse(prompt), 200);
-        } else if (prompt.contains("compliance")) {
+        } else if (role.contains("compliance")) {
             return new LlamaResponse(generateComplianceResponse(prompt), 150);
         }
         
@@ -140,6 +194,15 @@ public class MockLlamaAdapter implements LlamaAdapter {
         return String.format("{\"actions\": %s, \"notes\": \"Patient counseled on warning signs\"}", actions);
     }
     
+    private String generateCoordinationAndComplianceResponse(String prompt) {
+        return String.format("""
+            {
+              "coordination": %s,
+              "compliance": {"issues": [], "suggested_edits": [], "compliance_ok": true}
+            }
+            """, generateCoordinationResponse(prompt));
+    }
+    
     private String generateComplianceResponse(String prompt) {
         return """
             {
@@ -152,6 +215,17 @@ public class MockLlamaAdapter implements LlamaAdapter {
             """;
     }
     
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
     private String extractBetween(String text, String start, String end) {
         int startIdx = text.indexOf(start);
         int endIdx = text.indexOf(end);
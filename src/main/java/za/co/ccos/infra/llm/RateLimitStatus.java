@@ -0,0 +1,58 @@
+package za.co.ccos.infra.llm;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What the provider reported about our remaining budget in its
+ * {@code x-ratelimit-*} response headers. Fields the provider did not send are null.
+ */
+public record RateLimitStatus(Long limitTokens, Long remainingTokens, Duration resetTokens,
+                              Long remainingRequests, Duration resetRequests) {
+    
+    // Groq and OpenAI style reset values such as "7.66s", "2m59.56s" or "150ms"
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+    
+    public static RateLimitStatus fromHeaders(HttpHeaders headers) {
+        RateLimitStatus status = new RateLimitStatus(
+                number(headers, "x-ratelimit-limit-tokens"),
+                number(headers, "x-ratelimit-remaining-tokens"),
+                duration(headers, "x-ratelimit-reset-tokens"),
+                number(headers, "x-ratelimit-remaining-requests"),
+                duration(headers, "x-ratelimit-reset-requests"));
+        return status.isEmpty() ? null : status;
+    }
+    
+    private boolean isEmpty() {
+        return limitTokens == null && remainingTokens == null && remainingRequests == null;
+    }
+    
+    private static Long number(HttpHeaders headers, String name) {
+        OptionalLong value = headers.firstValueAsLong(name);
+        return value.isPresent() ? value.getAsLong() : null;
+    }
+    
+    private static Duration duration(HttpHeaders headers, String name) {
+        return headers.firstValue(name).map(RateLimitStatus::parseDuration).orElse(null);
+    }
+    
+    static Duration parseDuration(String value) {
+        Matcher matcher = DURATION_PART.matcher(value.trim());
+        double millis = 0;
+        boolean matched = false;
+        while (matcher.find()) {
+            matched = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            millis += switch (matcher.group(2)) {
+                case "h" -> amount * 3_600_000;
+                case "m" -> amount * 60_000;
+                case "s" -> amount * 1_000;
+                default -> amount;
+            };
+        }
+        return matched ? Duration.ofMillis(Math.round(millis)) : null;
+    }
+}
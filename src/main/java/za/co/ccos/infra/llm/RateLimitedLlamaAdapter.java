@@ -0,0 +1,55 @@
+package za.co.ccos.infra.llm;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Decorator that takes each call's budget from {@link LlmRateGovernor} before it
+ * reaches the provider and settles it with the usage the provider reports.
+ */
+@RequiredArgsConstructor
+public class RateLimitedLlamaAdapter implements LlamaAdapter {
+    
+    private final LlamaAdapter delegate;
+    private final LlmRateGovernor governor;
+    
+    @Override
+    public LlamaResponse runPrompt(String prompt, LlamaOptions options) throws LlamaException {
+        LlmRateGovernor.Reservation reservation = reserve(prompt, options);
+        try {
+            LlamaResponse response = delegate.runPrompt(prompt, options);
+            governor.complete(reservation, response);
+            return response;
+        } catch (LlamaException e) {
+            governor.failed(reservation, e);
+            throw e;
+        }
+    }
+    
+    @Override
+    public LlamaResponse streamPrompt(String prompt, LlamaOptions options, TokenListener listener) throws LlamaException {
+        LlmRateGovernor.Reservation reservation = reserve(prompt, options);
+        try {
+            LlamaResponse response = delegate.streamPrompt(prompt, options, listener);
+            governor.complete(reservation, response);
+            return response;
+        } catch (LlamaException e) {
+            governor.failed(reservation, e);
+            throw e;
+        }
+    }
+    
+    @Override
+    public String getModel() {
+        return delegate.getModel();
+    }
+    
+    @Override
+    public RateLimits getRateLimits() {
+        return delegate.getRateLimits();
+    }
+    
+    private LlmRateGovernor.Reservation reserve(String prompt, LlamaOptions options) throws LlamaException {
+        String fullPrompt = options.getSystemPrompt() != null ? options.getSystemPrompt() + prompt : prompt;
+        return governor.acquire(delegate.getModel(), delegate.getRateLimits(), fullPrompt, options.getMaxTokens());
+    }
+}
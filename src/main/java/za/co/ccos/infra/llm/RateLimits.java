@@ -0,0 +1,13 @@
+package za.co.ccos.infra.llm;
+
+/**
+ * Per-minute request and token budget of a provider account; zero means unlimited
+ */
+public record RateLimits(int requestsPerMinute, int tokensPerMinute) {
+    
+    public static final RateLimits NONE = new RateLimits(0, 0);
+    
+    public boolean isLimited() {
+        return requestsPerMinute > 0 || tokensPerMinute > 0;
+    }
+}
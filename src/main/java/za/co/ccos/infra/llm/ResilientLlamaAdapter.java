@@ -0,0 +1,42 @@
+package za.co.ccos.infra.llm;
+
+/**
+ * Decorator that sends every call to the provider through {@link LlmResilience}:
+ * retries, the provider's circuit breaker and, when enabled, hedging.
+ */
+public class ResilientLlamaAdapter implements LlamaAdapter {
+    
+    private final LlamaAdapter delegate;
+    private final LlmResilience resilience;
+    private final String provider;
+    
+    public ResilientLlamaAdapter(LlamaAdapter delegate, LlmResilience resilience) {
+        this(delegate, resilience, delegate.getModel());
+    }
+    
+    /**
+     * @param provider names the circuit breaker and metrics, e.g. a router backend
+     */
+    public ResilientLlamaAdapter(LlamaAdapter delegate, LlmResilience resilience, String provider) {
+        this.delegate = delegate;
+        this.resilience = resilience;
+        this.provider = provider;
+    }
+    
+    @Override
+    public LlamaResponse runPrompt(String prompt, LlamaOptions options) throws LlamaException {
+        return resilience.call(provider, options.getStage(), true,
+                () -> delegate.runPrompt(prompt, options));
+    }
+    
+    @Override
+    public LlamaResponse streamPrompt(String prompt, LlamaOptions options, TokenListener listener) throws LlamaException {
+        return resilience.stream(provider, options.getStage(), listener,
+                tokens -> delegate.streamPrompt(prompt, options, tokens));
+    }
+    
+    @Override
+    public String getModel() {
+        return delegate.getModel();
+    }
+}
@@ -0,0 +1,224 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads calls over several LLM backends. Each backend keeps a moving average
+ * (EWMA) of its latency and error rate; a call goes to the fastest backend that is
+ * allowed for its stage and not ejected, and fails over to the next one when that
+ * backend errors. A backend whose error rate reaches the limit is ejected for a
+ * while, and one that has not been used for {@code probeInterval} gets the next call
+ * so a recovered or sped-up backend is noticed.
+ */
+@Slf4j
+public class RoutingLlamaAdapter implements LlamaAdapter {
+    
+    @FunctionalInterface
+    private interface BackendCall {
+        LlamaResponse call(LlamaAdapter adapter) throws LlamaException;
+    }
+    
+    private final Map<String, Backend> backends = new LinkedHashMap<>();
+    private final Map<String, Set<String>> stageBackends;
+    private final double alpha;
+    private final double maxErrorRate;
+    private final long ejectNanos;
+    private final long probeNanos;
+    private final MeterRegistry meterRegistry;
+    
+    /**
+     * @param adapters backend name to adapter, in preference order for ties
+     * @param stageBackends stage to the names of the backends allowed to serve it
+     */
+    public RoutingLlamaAdapter(Map<String, LlamaAdapter> adapters, Map<String, Set<String>> stageBackends,
+                               double alpha, double maxErrorRate, Duration ejectDuration, Duration probeInterval,
+                               MeterRegistry meterRegistry) {
+        if (adapters.isEmpty()) {
+            throw new IllegalArgumentException("The LLM router needs at least one backend");
+        }
+        stageBackends.forEach((stage, names) -> names.stream()
+                .filter(name -> !adapters.containsKey(name))
+                .findAny()
+                .ifPresent(name -> {
+                    throw new IllegalArgumentException("Stage " + stage + " allows unknown backend " + name);
+                }));
+        
+        this.stageBackends = Map.copyOf(stageBackends);
+        this.alpha = alpha;
+        this.maxErrorRate = maxErrorRate;
+        this.ejectNanos = ejectDuration.toNanos();
+        this.probeNanos = probeInterval.toNanos();
+        this.meterRegistry = meterRegistry;
+        
+        adapters.forEach((name, adapter) -> {
+            Backend backend = new Backend(name, adapter);
+            backends.put(name, backend);
+            Gauge.builder("llm.router.latency", backend, Backend::latencyMs)
+                    .description("Moving average latency per LLM backend, in milliseconds")
+                    .tag("backend", name).register(meterRegistry);
+            Gauge.builder("llm.router.error.rate", backend, Backend::errorRate)
+                    .description("Moving average error rate per LLM backend")
+                    .tag("backend", name).register(meterRegistry);
+            Gauge.builder("llm.router.ejected", backend, b -> b.isEjected(System.nanoTime()) ? 1 : 0)
+                    .tag("backend", name).register(meterRegistry);
+        });
+        log.info("LLM router backends: {}", backends.values().stream()
+                .map(b -> b.name + " (" + b.adapter.getModel() + ")")
+                .collect(Collectors.joining(", ")));
+    }
+    
+    @Override
+    public LlamaResponse runPrompt(String prompt, LlamaOptions options) throws LlamaException {
+        return route(options.getStage(), () -> true, adapter -> adapter.runPrompt(prompt, options));
+    }
+    
+    /**
+     * Fails over only until the first token reached the listener; after that a
+     * different backend would produce a different completion.
+     */
+    @Override
+    public LlamaResponse streamPrompt(String prompt, LlamaOptions options, TokenListener listener) throws LlamaException {
+        AtomicBoolean delivered = new AtomicBoolean();
+        TokenListener tracking = token -> {
+            delivered.set(true);
+            return listener.onToken(token);
+        };
+        return route(options.getStage(), () -> !delivered.get(), adapter -> adapter.streamPrompt(prompt, options, tracking));
+    }
+    
+    /**
+     * Stable across calls, so cached completions survive a change of the serving backend
+     */
+    @Override
+    public String getModel() {
+        return "router[" + String.join(",", backends.keySet()) + "]";
+    }
+    
+    private LlamaResponse route(String stage, BooleanSupplier canFailOver, BackendCall call)
+            throws LlamaException {
+        String stageTag = stage != null ? stage : "unknown";
+        LlamaException lastError = null;
+        Backend previous = null;
+        for (Backend backend : candidates(stage)) {
+            if (previous != null) {
+                meterRegistry.counter("llm.router.failovers", "stage", stageTag,
+                        "from", previous.name, "to", backend.name).increment();
+                log.warn("Failing over {} call from {} to {}: {}", stageTag, previous.name, backend.name,
+                        lastError.getMessage());
+            }
+            long start = System.nanoTime();
+            try {
+                LlamaResponse response = call.call(backend.adapter);
+                backend.onSuccess(System.nanoTime() - start);
+                meterRegistry.counter("llm.router.calls", "backend", backend.name, "stage", stageTag,
+                        "outcome", "success").increment();
+                return response;
+            } catch (LlamaException e) {
+                boolean ejected = backend.onFailure(System.nanoTime());
+                meterRegistry.counter("llm.router.calls", "backend", backend.name, "stage", stageTag,
+                        "outcome", "failure").increment();
+                if (ejected) {
+                    log.warn("Ejecting LLM backend {} for {}s, error rate {}", backend.name,
+                            Duration.ofNanos(ejectNanos).toSeconds(), String.format("%.2f", backend.errorRate()));
+                }
+                lastError = e;
+                previous = backend;
+                if (!canFailOver.getAsBoolean()) {
+                    break;
+                }
+            }
+        }
+        throw lastError;
+    }
+    
+    /**
+     * Allowed backends in the order to try them: overdue probes, then healthy backends
+     * by latency, then ejected ones as a last resort
+     */
+    private List<Backend> candidates(String stage) throws LlamaException {
+        Set<String> allowed = stage != null ? stageBackends.get(stage) : null;
+        long now = System.nanoTime();
+        // Rank on a snapshot; the stats keep changing under concurrent calls
+        List<Ranked> ranked = new ArrayList<>();
+        for (Backend backend : backends.values()) {
+            if (allowed == null || allowed.contains(backend.name)) {
+                ranked.add(new Ranked(backend, backend.isEjected(now), !backend.isProbeDue(now), backend.latencyMs()));
+            }
+        }
+        if (ranked.isEmpty()) {
+            throw new LlamaException("No LLM backend is allowed for stage " + stage);
+        }
+        ranked.sort(Comparator.comparing(Ranked::ejected)
+                .thenComparing(Ranked::recentlyUsed)
+                .thenComparingDouble(Ranked::latencyMs));
+        return ranked.stream().map(Ranked::backend).toList();
+    }
+    
+    private record Ranked(Backend backend, boolean ejected, boolean recentlyUsed, double latencyMs) {
+    }
+    
+    private final class Backend {
+        
+        final String name;
+        final LlamaAdapter adapter;
+        private double latencyMs = Double.NaN;
+        private double errorRate;
+        private long lastUsed = Long.MIN_VALUE;
+        private long ejectedUntil = Long.MIN_VALUE;
+        
+        Backend(String name, LlamaAdapter adapter) {
+            this.name = name;
+            this.adapter = adapter;
+        }
+        
+        synchronized double latencyMs() {
+            // Unmeasured backends sort first, so each gets tried
+            return Double.isNaN(latencyMs) ? 0 : latencyMs;
+        }
+        
+        synchronized double errorRate() {
+            return errorRate;
+        }
+        
+        synchronized boolean isEjected(long now) {
+            return ejectedUntil != Long.MIN_VALUE && now - ejectedUntil < 0;
+        }
+        
+        synchronized boolean isProbeDue(long now) {
+            return lastUsed == Long.MIN_VALUE || now - lastUsed > probeNanos;
+        }
+        
+        synchronized void onSuccess(long elapsedNanos) {
+            double elapsedMs = elapsedNanos / 1_000_000.0;
+            latencyMs = Double.isNaN(latencyMs) ? elapsedMs : alpha * elapsedMs + (1 - alpha) * latencyMs;
+            errorRate = (1 - alpha) * errorRate;
+            lastUsed = System.nanoTime();
+        }
+        
+        /**
+         * @return whether this failure got the backend ejected
+         */
+        synchronized boolean onFailure(long now) {
+            errorRate = alpha + (1 - alpha) * errorRate;
+            lastUsed = now;
+            if (errorRate >= maxErrorRate && !isEjected(now)) {
+                ejectedUntil = now + ejectNanos;
+                return true;
+            }
+            return false;
+        }
+    }
+}
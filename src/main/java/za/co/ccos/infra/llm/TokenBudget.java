@@ -0,0 +1,150 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sizes prompts and completions per pipeline stage. Each stage has a context window;
+ * prompts are trimmed to what it leaves after the completion, and {@code max_tokens}
+ * never asks for more than the context has room for.
+ * <p>
+ * The {@code maxTokens} a service declares is a ceiling. Once a stage has enough
+ * completions on record, its limit drops to a percentile of their lengths plus
+ * headroom, which bounds how long a runaway generation can hold a local server.
+ * A completion cut off by a learned limit is recorded at the ceiling, so the limit
+ * grows back when the stage starts needing longer answers.
+ */
+@Slf4j
+public class TokenBudget {
+    
+    /**
+     * @param minSamples completions on record before a stage's limit is lowered
+     * @param window     most recent completions per stage the percentile is taken over
+     */
+    public record Adaptation(boolean enabled, double percentile, double headroom, int minSamples, int window,
+                             int minTokens) {
+    }
+    
+    // Learned limits are rounded up to this, so they, and the cache keys they are part of, rarely change
+    private static final int ROUNDING = 64;
+    
+    private final Map<String, Integer> stageContextTokens;
+    private final int contextTokens;
+    private final double margin;
+    private final Adaptation adaptation;
+    private final MeterRegistry meterRegistry;
+    
+    private final Map<String, CompletionLengths> stages = new ConcurrentHashMap<>();
+    
+    public TokenBudget(Map<String, Integer> stageContextTokens, int contextTokens, double margin,
+                       Adaptation adaptation, MeterRegistry meterRegistry) {
+        this.stageContextTokens = Map.copyOf(stageContextTokens);
+        this.contextTokens = contextTokens;
+        this.margin = margin;
+        this.adaptation = adaptation;
+        this.meterRegistry = meterRegistry;
+    }
+    
+    /**
+     * Tokens the stage's prompt may take when its completion is allowed {@code maxTokens}
+     */
+    public int promptTokens(String stage, int maxTokens) {
+        return Math.max(0, usableContext(stage) - maxTokens);
+    }
+    
+    /**
+     * The declared ceiling, only capped by what the context leaves after the prompt
+     */
+    public int fit(String stage, int maxTokens, int promptTokens) {
+        int room = usableContext(stage) - promptTokens;
+        if (room >= maxTokens) {
+            return maxTokens;
+        }
+        log.warn("Stage {} prompt of {} tokens leaves {} of its context for the completion", stage, promptTokens, room);
+        meterRegistry.counter("llm.budget.overflow", "stage", stage != null ? stage : "unknown").increment();
+        return Math.max(room, Math.min(adaptation.minTokens(), maxTokens));
+    }
+    
+    /**
+     * {@code max_tokens} for the next call of the stage: its learned limit, if any,
+     * below the ceiling {@link #fit} gave
+     */
+    public int maxTokens(String stage, int ceiling) {
+        if (adaptation.enabled() && stage != null) {
+            int learned = lengths(stage).limit();
+            if (learned > 0) {
+                return Math.min(ceiling, learned);
+            }
+        }
+        return ceiling;
+    }
+    
+    /**
+     * @param truncated the completion ended at its limit rather than on its own
+     * @param declared  the stage's ceiling, recorded for truncated completions
+     */
+    public void record(String stage, int completionTokens, boolean truncated, int declared) {
+        if (stage != null && completionTokens > 0) {
+            lengths(stage).add(truncated ? Math.max(declared, completionTokens) : completionTokens);
+        }
+    }
+    
+    private int usableContext(String stage) {
+        int context = stage != null ? stageContextTokens.getOrDefault(stage, contextTokens) : contextTokens;
+        return (int) (context * (1 - margin));
+    }
+    
+    private CompletionLengths lengths(String stage) {
+        return stages.computeIfAbsent(stage, name -> {
+            CompletionLengths lengths = new CompletionLengths(adaptation.window());
+            Gauge.builder("llm.budget.max-tokens", lengths, CompletionLengths::limit)
+                    .description("Learned max_tokens of the stage; 0 while still collecting completions")
+                    .tag("stage", name)
+                    .register(meterRegistry);
+            return lengths;
+        });
+    }
+    
+    /**
+     * The latest completion lengths of one stage in a ring buffer
+     */
+    private final class CompletionLengths {
+        
+        private final int[] samples;
+        private int count;
+        private int next;
+        private int limit;
+        private boolean stale;
+        
+        CompletionLengths(int window) {
+            samples = new int[window];
+        }
+        
+        synchronized void add(int tokens) {
+            samples[next] = tokens;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            stale = true;
+        }
+        
+        synchronized int limit() {
+            if (count < adaptation.minSamples()) {
+                return 0;
+            }
+            if (stale) {
+                int[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                int percentile = sorted[Math.max(0, (int) Math.ceil(adaptation.percentile() * count) - 1)];
+                int padded = (int) Math.ceil(percentile * adaptation.headroom());
+                limit = Math.max(adaptation.minTokens(), (padded + ROUNDING - 1) / ROUNDING * ROUNDING);
+                stale = false;
+            }
+            return limit;
+        }
+    }
+}
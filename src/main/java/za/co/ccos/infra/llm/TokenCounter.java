@@ -0,0 +1,42 @@
+package za.co.ccos.infra.llm;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+
+/**
+ * Counts prompt tokens locally with the cl100k_base BPE vocabulary, which is the base of
+ * the Llama 3 tokenizer (Llama 3 adds 28k tokens on top of its 100k), so counts for the
+ * Groq models come out within a few percent. Llama 2 family models such as the local
+ * TinyLlama use a smaller SentencePiece vocabulary and produce somewhat more tokens,
+ * which {@code llm.budget.margin} leaves room for. The vocabulary ships in the
+ * tokenizer jar; nothing is downloaded.
+ */
+public final class TokenCounter {
+    
+    // Loaded on first use; about 1.7 MB of merges
+    private static final class Holder {
+        static final Encoding ENCODING = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+    }
+    
+    private TokenCounter() {
+    }
+    
+    public static int count(String text) {
+        // Ordinary encoding treats text like "<|endoftext|>" in a transcript as plain text
+        return text == null || text.isEmpty() ? 0 : Holder.ENCODING.countTokensOrdinary(text);
+    }
+    
+    /**
+     * @return the longest prefix of the text that fits in {@code maxTokens}, ending on a
+     *         token boundary, or the text itself if it already fits
+     */
+    public static String truncate(String text, int maxTokens) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        EncodingResult result = Holder.ENCODING.encodeOrdinary(text, Math.max(0, maxTokens));
+        return result.isTruncated() ? Holder.ENCODING.decode(result.getTokens()) : text;
+    }
+}
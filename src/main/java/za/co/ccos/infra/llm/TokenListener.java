@@ -0,0 +1,25 @@
+package za.co.ccos.infra.llm;
+
+/**
+ * Receives completion text incrementally while a streamed prompt is generating
+ */
+@FunctionalInterface
+public interface TokenListener {
+    
+    TokenListener NONE = token -> true;
+    
+    /**
+     * Called once per streamed chunk, on the thread that issued the prompt
+     * @param token the next piece of generated text
+     * @return false to stop the generation; the text received so far becomes the response
+     */
+    boolean onToken(String token);
+    
+    /**
+     * Whether the text received when this listener stopped the generation is a whole
+     * answer, rather than output it gave up on
+     */
+    default boolean isComplete() {
+        return true;
+    }
+}
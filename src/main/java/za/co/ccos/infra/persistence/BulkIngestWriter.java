@@ -0,0 +1,80 @@
+package za.co.ccos.infra.persistence;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.Patient;
+import za.co.ccos.domain.VitalSigns;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Inserts bulk-loaded patients and consultations with JDBC batches, one round trip per
+ * table and batch instead of one per row and a select before each, as saving entities
+ * with assigned ids through JPA would need.
+ */
+@Repository
+@RequiredArgsConstructor
+public class BulkIngestWriter {
+    
+    private final NamedParameterJdbcTemplate jdbc;
+    
+    public Set<UUID> existingPatientIds(Collection<UUID> ids) {
+        return existing("SELECT id FROM patients WHERE id IN (:ids)", ids);
+    }
+    
+    public Set<UUID> existingConsultationIds(Collection<UUID> ids) {
+        return existing("SELECT id FROM consultations WHERE id IN (:ids)", ids);
+    }
+    
+    /**
+     * Inserts the patients and their chronic conditions; must run in a transaction so a
+     * failed batch leaves neither
+     */
+    public void insertPatients(List<Patient> patients) {
+        List<Object[]> rows = new ArrayList<>(patients.size());
+        List<Object[]> conditions = new ArrayList<>();
+        for (Patient patient : patients) {
+            rows.add(new Object[]{patient.getId(), patient.getFirstName(), patient.getLastName(), patient.getDob(),
+                    patient.getMedicalRecordNumber(),
+                    patient.getAllergies().isEmpty() ? null : String.join(", ", patient.getAllergies())});
+            for (String condition : patient.getChronicConditions()) {
+                conditions.add(new Object[]{patient.getId(), condition});
+            }
+        }
+        jdbc.getJdbcTemplate().batchUpdate("INSERT INTO patients (id, first_name, last_name, dob, "
+                + "medical_record_number, allergies) VALUES (?, ?, ?, ?, ?, ?)", rows);
+        if (!conditions.isEmpty()) {
+            jdbc.getJdbcTemplate().batchUpdate(
+                    "INSERT INTO patient_chronic_conditions (patient_id, condition) VALUES (?, ?)", conditions);
+        }
+    }
+    
+    public void insertConsultations(List<Consultation> consultations) {
+        List<Object[]> rows = new ArrayList<>(consultations.size());
+        for (Consultation c : consultations) {
+            VitalSigns vitals = c.getVitalSigns() != null ? c.getVitalSigns() : new VitalSigns();
+            rows.add(new Object[]{c.getId(), c.getPatientId(), c.getClinicianId(), c.getRawTranscript(),
+                    c.getAudioUrl(), c.getState().name(), c.getCreatedAt(), vitals.getBloodPressure(),
+                    vitals.getHeartRate(), vitals.getTemperature(), vitals.getOxygenSaturation(),
+                    vitals.getRespiratoryRate(), vitals.getWeight(), vitals.getHeight()});
+        }
+        jdbc.getJdbcTemplate().batchUpdate("INSERT INTO consultations (id, patient_id, clinician_id, raw_transcript, "
+                + "audio_url, state, created_at, blood_pressure, heart_rate, temperature, oxygen_saturation, "
+                + "respiratory_rate, weight, height) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", rows);
+    }
+    
+    private Set<UUID> existing(String sql, Collection<UUID> ids) {
+        if (ids.isEmpty()) {
+            return Set.of();
+        }
+        return new HashSet<>(jdbc.queryForList(sql, new MapSqlParameterSource("ids", ids), UUID.class));
+    }
+}
@@ -0,0 +1,16 @@
+package za.co.ccos.infra.persistence;
+
+import za.co.ccos.domain.ConsultationState;
+import za.co.ccos.domain.VitalSigns;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * The columns of a consultation shown in a patient's history, without the large
+ * transcript and structured data columns the history never displays
+ */
+public record ConsultationHistoryRow(UUID id, UUID patientId, UUID clinicianId, LocalDateTime createdAt,
+                                     String rawTranscript, ConsultationState state, VitalSigns vitalSigns,
+                                     UUID generatedNoteId) {
+}
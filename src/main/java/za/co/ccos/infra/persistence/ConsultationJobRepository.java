@@ -0,0 +1,111 @@
+package za.co.ccos.infra.persistence;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import za.co.ccos.domain.ConsultationJob;
+import za.co.ccos.domain.JobStatus;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface ConsultationJobRepository extends JpaRepository<ConsultationJob, UUID> {
+    
+    @Query("select j.consultationId from ConsultationJob j where j.status = :status and j.availableAt <= :now order by j.availableAt")
+    List<UUID> findAvailable(@Param("status") JobStatus status, @Param("now") LocalDateTime now, Pageable page);
+    
+    /**
+     * Row-locks claimable jobs, skipping rows another node already holds. PostgreSQL
+     * only; must run inside the transaction that marks them RUNNING.
+     */
+    @Query(value = "SELECT consultation_id FROM consultation_jobs WHERE status = 'PENDING' AND available_at <= :now "
+            + "ORDER BY available_at LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<UUID> lockAvailable(@Param("now") LocalDateTime now, @Param("limit") int limit);
+    
+    /**
+     * Compare-and-set claim: only succeeds if the job is still PENDING, so two nodes
+     * racing for the same row cannot both win.
+     */
+    @Modifying
+    @Transactional
+    @Query("update ConsultationJob j set j.status = :running, j.lockedBy = :node, j.lockedUntil = :until, "
+            + "j.attempts = j.attempts + 1, j.updatedAt = :now where j.consultationId = :id and j.status = :pending")
+    int claim(@Param("id") UUID id, @Param("node") String node, @Param("until") LocalDateTime until,
+              @Param("now") LocalDateTime now, @Param("running") JobStatus running, @Param("pending") JobStatus pending);
+    
+    @Modifying
+    @Transactional
+    @Query("update ConsultationJob j set j.lockedUntil = :until, j.updatedAt = :now "
+            + "where j.consultationId in :ids and j.lockedBy = :node and j.status = :running")
+    int extendLeases(@Param("ids") Collection<UUID> ids, @Param("node") String node, @Param("until") LocalDateTime until,
+                     @Param("now") LocalDateTime now, @Param("running") JobStatus running);
+    
+    /**
+     * Ends a claim with the given status. Like the claim itself a compare-and-set: it
+     * only applies while {@code node} still holds the job, so a worker whose lease was
+     * reaped and handed to another node cannot overwrite that node's outcome.
+     */
+    @Modifying
+    @Transactional
+    @Query("update ConsultationJob j set j.status = :status, j.availableAt = :availableAt, j.lastError = :error, "
+            + "j.lockedBy = null, j.lockedUntil = null, j.updatedAt = :now "
+            + "where j.consultationId = :id and j.lockedBy = :node and j.status = :running")
+    int finish(@Param("id") UUID id, @Param("node") String node, @Param("status") JobStatus status,
+               @Param("availableAt") LocalDateTime availableAt, @Param("error") String error,
+               @Param("now") LocalDateTime now, @Param("running") JobStatus running);
+    
+    /**
+     * Returns a claimed job to the queue without counting the attempt
+     */
+    @Modifying
+    @Transactional
+    @Query("update ConsultationJob j set j.status = :pending, j.attempts = case when j.attempts > 0 "
+            + "then j.attempts - 1 else 0 end, j.lockedBy = null, j.lockedUntil = null, j.updatedAt = :now "
+            + "where j.consultationId = :id and j.lockedBy = :node and j.status = :running")
+    int release(@Param("id") UUID id, @Param("node") String node, @Param("now") LocalDateTime now,
+                @Param("pending") JobStatus pending, @Param("running") JobStatus running);
+    
+    /**
+     * Moves an expired claim from its node to the reaper, unless the node extended
+     * the lease in the meantime
+     */
+    @Modifying
+    @Transactional
+    @Query("update ConsultationJob j set j.lockedBy = :reaper, j.updatedAt = :now where j.consultationId = :id "
+            + "and j.lockedBy = :node and j.status = :running and j.lockedUntil < :now")
+    int takeOver(@Param("id") UUID id, @Param("node") String node, @Param("reaper") String reaper,
+                 @Param("now") LocalDateTime now, @Param("running") JobStatus running);
+    
+    /**
+     * Plain insert, so a job that already exists fails on the primary key instead of
+     * being overwritten, whatever state it is in
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO consultation_jobs (consultation_id, status, attempts, max_attempts, available_at, "
+            + "created_at, updated_at) VALUES (:id, 'PENDING', 0, :maxAttempts, :now, :now, :now)", nativeQuery = true)
+    int insertPending(@Param("id") UUID id, @Param("maxAttempts") int maxAttempts, @Param("now") LocalDateTime now);
+    
+    /**
+     * Gives up to {@code limit} QUEUED consultations that have no job yet one, oldest first.
+     * A single statement, so two nodes feeding at once fail on the primary key rather than
+     * queueing a consultation twice.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO consultation_jobs (consultation_id, status, attempts, max_attempts, available_at, "
+            + "created_at, updated_at) SELECT c.id, 'PENDING', 0, :maxAttempts, :now, :now, :now FROM consultations c "
+            + "WHERE c.state = 'QUEUED' AND NOT EXISTS (SELECT 1 FROM consultation_jobs j WHERE j.consultation_id = c.id) "
+            + "ORDER BY c.created_at FETCH FIRST :limit ROWS ONLY", nativeQuery = true)
+    int enqueueWaiting(@Param("maxAttempts") int maxAttempts, @Param("now") LocalDateTime now, @Param("limit") int limit);
+    
+    List<ConsultationJob> findByStatusAndLockedUntilBefore(JobStatus status, LocalDateTime cutoff);
+    
+    long countByStatus(JobStatus status);
+}
@@ -1,12 +1,57 @@
 package za.co.ccos.infra.persistence;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import za.co.ccos.domain.Consultation;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
 @Repository
 public interface ConsultationRepository extends JpaRepository<Consultation, UUID> {
     List<Consultation> findByPatientIdOrderByCreatedAtDesc(UUID patientId);
+    
+    /**
+     * Newest page of a patient's history; continue with {@link #findHistoryBefore}
+     */
+    @Query("""
+            select new za.co.ccos.infra.persistence.ConsultationHistoryRow(c.id, c.patientId, c.clinicianId,
+                    c.createdAt, c.rawTranscript, c.state, c.vitalSigns, c.generatedNoteId)
+            from Consultation c
+            where c.patientId = :patientId
+            order by c.createdAt desc, c.id desc""")
+    List<ConsultationHistoryRow> findHistory(@Param("patientId") UUID patientId, Pageable page);
+    
+    /**
+     * Keyset page: the consultations ordered after ({@code createdAt}, {@code id}), so
+     * deep pages cost the same as the first and rows inserted meanwhile don't shift them
+     */
+    @Query("""
+            select new za.co.ccos.infra.persistence.ConsultationHistoryRow(c.id, c.patientId, c.clinicianId,
+                    c.createdAt, c.rawTranscript, c.state, c.vitalSigns, c.generatedNoteId)
+            from Consultation c
+            where c.patientId = :patientId
+              and (c.createdAt < :createdAt or (c.createdAt = :createdAt and c.id < :id))
+            order by c.createdAt desc, c.id desc""")
+    List<ConsultationHistoryRow> findHistoryBefore(@Param("patientId") UUID patientId,
+                                                   @Param("createdAt") LocalDateTime createdAt,
+                                                   @Param("id") UUID id,
+                                                   Pageable page);
+    
+    @Query("""
+            select new za.co.ccos.infra.persistence.ConsultationStateRow(c.id, c.state, c.errorMessage)
+            from Consultation c
+            where c.id in :ids""")
+    List<ConsultationStateRow> findStates(@Param("ids") Collection<UUID> ids);
+    
+    @Modifying
+    @Transactional
+    @Query("update Consultation c set c.structuredData = :structuredData where c.id = :id")
+    int updateStructuredData(@Param("id") UUID id, @Param("structuredData") String structuredData);
 }
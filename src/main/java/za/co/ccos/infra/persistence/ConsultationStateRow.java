@@ -0,0 +1,11 @@
+package za.co.ccos.infra.persistence;
+
+import za.co.ccos.domain.ConsultationState;
+
+import java.util.UUID;
+
+/**
+ * A consultation's progress columns, for watching it without loading the transcript
+ */
+public record ConsultationStateRow(UUID id, ConsultationState state, String errorMessage) {
+}
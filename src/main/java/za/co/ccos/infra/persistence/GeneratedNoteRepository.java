@@ -1,10 +1,25 @@
 package za.co.ccos.infra.persistence;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import za.co.ccos.domain.GeneratedNote;
 import java.util.UUID;
 
 @Repository
 public interface GeneratedNoteRepository extends JpaRepository<GeneratedNote, UUID> {
+    
+    /**
+     * Stores the approval artifacts without touching the rest of the note, which may
+     * have been edited while they were generated
+     */
+    @Modifying
+    @Transactional
+    @Query("update GeneratedNote n set n.appointmentRecommendation = :appointment, "
+            + "n.patientExplanation = :explanation, n.artifactsSourceHash = :sourceHash where n.id = :id")
+    int updateApprovalArtifacts(@Param("id") UUID id, @Param("appointment") String appointment,
+                                @Param("explanation") String explanation, @Param("sourceHash") String sourceHash);
 }
@@ -0,0 +1,19 @@
+package za.co.ccos.infra.persistence;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import za.co.ccos.domain.LlmCacheEntry;
+import java.time.LocalDateTime;
+
+@Repository
+public interface LlmCacheEntryRepository extends JpaRepository<LlmCacheEntry, String> {
+    
+    @Modifying
+    @Transactional
+    @Query("delete from LlmCacheEntry e where e.expiresAt < :now")
+    int deleteExpired(@Param("now") LocalDateTime now);
+}
@@ -0,0 +1,44 @@
+package za.co.ccos.infra.persistence;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import za.co.ccos.domain.JobStatus;
+import za.co.ccos.domain.OutboxMessage;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface OutboxMessageRepository extends JpaRepository<OutboxMessage, UUID> {
+    
+    boolean existsByIdempotencyKey(String idempotencyKey);
+    
+    /**
+     * Due messages, and messages whose dispatcher lost its lease
+     */
+    @Query("select m.id from OutboxMessage m where (m.status = :pending and m.availableAt <= :now) "
+            + "or (m.status = :running and m.lockedUntil < :now) order by m.availableAt")
+    List<UUID> findClaimable(@Param("pending") JobStatus pending, @Param("running") JobStatus running,
+                             @Param("now") LocalDateTime now, Pageable page);
+    
+    /**
+     * Compare-and-set claim: only succeeds if the message is still claimable, so two
+     * dispatchers racing for the same row cannot both win.
+     */
+    @Modifying
+    @Transactional
+    @Query("update OutboxMessage m set m.status = :running, m.lockedBy = :node, m.lockedUntil = :until, "
+            + "m.attempts = m.attempts + 1, m.updatedAt = :now where m.id = :id "
+            + "and ((m.status = :pending and m.availableAt <= :now) or (m.status = :running and m.lockedUntil < :now))")
+    int claim(@Param("id") UUID id, @Param("node") String node, @Param("until") LocalDateTime until,
+              @Param("now") LocalDateTime now, @Param("running") JobStatus running, @Param("pending") JobStatus pending);
+    
+    List<OutboxMessage> findByConsultationId(UUID consultationId);
+    
+    long countByStatus(JobStatus status);
+}
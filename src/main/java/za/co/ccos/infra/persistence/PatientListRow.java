@@ -0,0 +1,12 @@
+package za.co.ccos.infra.persistence;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * A patient's own columns for list screens; chronic conditions are loaded separately
+ * for the whole page
+ */
+public record PatientListRow(UUID id, String firstName, String lastName, LocalDate dob,
+                             String medicalRecordNumber, String allergies) {
+}
@@ -1,10 +1,40 @@
 package za.co.ccos.infra.persistence;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import za.co.ccos.domain.Patient;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 @Repository
 public interface PatientRepository extends JpaRepository<Patient, UUID> {
+    
+    /**
+     * @param search lower-case LIKE pattern matched against name and MRN, or null for all patients
+     */
+    @Query(value = """
+            select new za.co.ccos.infra.persistence.PatientListRow(p.id, p.firstName, p.lastName, p.dob,
+                    p.medicalRecordNumber, p.allergies)
+            from Patient p
+            where p.id <> :excludedId
+              and (:search is null or lower(p.lastName) like :search or lower(p.firstName) like :search
+                   or lower(p.medicalRecordNumber) like :search)""",
+            countQuery = """
+            select count(p) from Patient p
+            where p.id <> :excludedId
+              and (:search is null or lower(p.lastName) like :search or lower(p.firstName) like :search
+                   or lower(p.medicalRecordNumber) like :search)""")
+    Page<PatientListRow> findListing(@Param("search") String search, @Param("excludedId") UUID excludedId,
+                                     Pageable page);
+    
+    /**
+     * Chronic conditions of several patients in one query, as (patient id, condition) pairs
+     */
+    @Query("select p.id, c from Patient p join p.chronicConditions c where p.id in :ids")
+    List<Object[]> findChronicConditions(@Param("ids") Collection<UUID> ids);
 }
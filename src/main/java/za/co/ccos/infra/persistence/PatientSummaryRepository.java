@@ -0,0 +1,16 @@
+package za.co.ccos.infra.persistence;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import za.co.ccos.domain.PatientSummary;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface PatientSummaryRepository extends JpaRepository<PatientSummary, UUID> {
+    
+    @Query("select p.id from Patient p where not exists (select s from PatientSummary s where s.patientId = p.id)")
+    List<UUID> findPatientIdsWithoutSummary();
+}
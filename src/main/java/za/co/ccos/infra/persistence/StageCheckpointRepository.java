@@ -0,0 +1,41 @@
+package za.co.ccos.infra.persistence;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import za.co.ccos.domain.StageCheckpoint;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface StageCheckpointRepository extends JpaRepository<StageCheckpoint, UUID> {
+    
+    List<StageCheckpoint> findByConsultationId(UUID consultationId);
+    
+    /**
+     * @return 1 if the stage was already checkpointed and now holds the new outputs, else 0
+     */
+    @Modifying
+    @Transactional
+    @Query("update StageCheckpoint c set c.outputs = :outputs, c.createdAt = :now "
+            + "where c.consultationId = :consultationId and c.stage = :stage")
+    int updateOutputs(@Param("consultationId") UUID consultationId, @Param("stage") String stage,
+                      @Param("outputs") String outputs, @Param("now") LocalDateTime now);
+    
+    /**
+     * The checkpointed stages of the consultations, in the order they completed
+     */
+    @Query("select new za.co.ccos.infra.persistence.StageCheckpointRow(c.consultationId, c.stage) "
+            + "from StageCheckpoint c where c.consultationId in :ids order by c.createdAt")
+    List<StageCheckpointRow> findStages(@Param("ids") Collection<UUID> ids);
+    
+    @Modifying
+    @Transactional
+    @Query("delete from StageCheckpoint c where c.consultationId = :consultationId and c.stage in :stages")
+    int deleteStages(@Param("consultationId") UUID consultationId, @Param("stages") Collection<String> stages);
+}
@@ -0,0 +1,9 @@
+package za.co.ccos.infra.persistence;
+
+import java.util.UUID;
+
+/**
+ * Which stage of a consultation has a checkpoint, without its outputs
+ */
+public record StageCheckpointRow(UUID consultationId, String stage) {
+}
@@ -0,0 +1,37 @@
+package za.co.ccos.infra.prompt;
+
+import java.util.Set;
+
+/**
+ * Prompt templates bundled under {@code prompts/} together with the placeholders each
+ * one must declare. Checked once at startup so a broken template fails the boot
+ * instead of the first consultation.
+ */
+public enum PromptName {
+    PERCEPTION("perception", "TRANSCRIPT", "PATIENT_NAME", "AGE", "GENDER", "ALLERGIES", "CHRONIC_CONDITIONS"),
+    DOCUMENTATION("documentation", "STRUCTURED_JSON", "TRANSCRIPT"),
+    COORDINATION("coordination", "STRUCTURED_JSON", "SOAP_JSON"),
+    COMPLIANCE("compliance", "SOAP_JSON", "ICD10_JSON", "PATIENT_ALLERGIES"),
+    COORDINATION_COMPLIANCE("coordination-compliance", "STRUCTURED_JSON", "SOAP_JSON", "ICD10_JSON",
+            "PATIENT_ALLERGIES"),
+    PATIENT_SUMMARY("summary", "PATIENT_NAME", "AGE", "ALLERGIES", "CHRONIC_CONDITIONS", "VISIT_COUNT", "VISITS"),
+    SCHEDULING("scheduling", "ASSESSMENT", "PLAN"),
+    PATIENT_EMAIL("patient-email", "PATIENT_NAME", "ASSESSMENT", "PLAN"),
+    IMAGE_ANALYSIS("image-analysis", "CLINICAL_CONTEXT");
+    
+    private final String fileName;
+    private final Set<String> placeholders;
+    
+    PromptName(String baseName, String... placeholders) {
+        this.fileName = baseName + ".prompt.txt";
+        this.placeholders = Set.of(placeholders);
+    }
+    
+    public String getFileName() {
+        return fileName;
+    }
+    
+    public Set<String> getPlaceholders() {
+        return placeholders;
+    }
+}
@@ -0,0 +1,84 @@
+package za.co.ccos.infra.prompt;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A prompt parsed once into alternating literal and placeholder segments. Rendering
+ * sizes the buffer up front and copies every segment exactly once, instead of one full
+ * copy of the prompt per {@code String.replace}.
+ */
+public final class PromptTemplate {
+    
+    private static final Pattern PLACEHOLDER = Pattern.compile("<<([A-Z0-9_]+)>>");
+    
+    private final String name;
+    // literals[i] precedes slots[i]; the final literal has no slot after it
+    private final String[] literals;
+    private final String[] slots;
+    private final int literalLength;
+    private final Set<String> placeholders;
+    
+    private PromptTemplate(String name, String[] literals, String[] slots) {
+        this.name = name;
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+        this.placeholders = Set.copyOf(new LinkedHashSet<>(List.of(slots)));
+    }
+    
+    public static PromptTemplate compile(String name, String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(text);
+        int position = 0;
+        while (matcher.find()) {
+            literals.add(text.substring(position, matcher.start()));
+            slots.add(matcher.group(1));
+            position = matcher.end();
+        }
+        literals.add(text.substring(position));
+        return new PromptTemplate(name, literals.toArray(String[]::new), slots.toArray(String[]::new));
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public Set<String> getPlaceholders() {
+        return placeholders;
+    }
+    
+    /**
+     * Renders the template in a single pass.
+     *
+     * @throws IllegalArgumentException if a placeholder has no value
+     */
+    public String render(Map<String, ? extends CharSequence> values) {
+        CharSequence[] resolved = new CharSequence[slots.length];
+        int length = literalLength;
+        for (int i = 0; i < slots.length; i++) {
+            CharSequence value = values.get(slots[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("No value for <<" + slots[i] + ">> in prompt " + name);
+            }
+            resolved[i] = value;
+            length += value.length();
+        }
+        
+        StringBuilder prompt = new StringBuilder(length);
+        for (int i = 0; i < slots.length; i++) {
+            prompt.append(literals[i]).append(resolved[i]);
+        }
+        return prompt.append(literals[slots.length]).toString();
+    }
+}
@@ -0,0 +1,118 @@
+package za.co.ccos.infra.prompt;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads and compiles every {@link PromptName} template once at startup. When
+ * {@code prompts.reload-dir} is set, templates found there override the bundled ones
+ * and are recompiled whenever the file changes, so prompt wording can be tuned without
+ * a redeploy.
+ */
+@Component
+@Slf4j
+public class PromptTemplateRegistry {
+    
+    private final String reloadDir;
+    private final Map<PromptName, PromptTemplate> templates = new ConcurrentHashMap<>();
+    private final Map<PromptName, Long> lastModified = new EnumMap<>(PromptName.class);
+    
+    public PromptTemplateRegistry(@Value("${prompts.reload-dir:}") String reloadDir) {
+        this.reloadDir = reloadDir;
+    }
+    
+    @PostConstruct
+    public void loadTemplates() {
+        for (PromptName name : PromptName.values()) {
+            try {
+                templates.put(name, validate(name, PromptTemplate.compile(name.name(), readTemplate(name))));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot load prompt template " + name.getFileName(), e);
+            }
+        }
+        log.info("Loaded {} prompt templates{}", templates.size(),
+                reloadDir.isBlank() ? "" : " (hot reload from " + reloadDir + ")");
+    }
+    
+    public PromptTemplate get(PromptName name) {
+        return templates.get(name);
+    }
+    
+    public String render(PromptName name, Map<String, ? extends CharSequence> values) {
+        return templates.get(name).render(values);
+    }
+    
+    /**
+     * Recompiles templates whose override file changed. A template that no longer
+     * validates is logged and the previous version stays in service.
+     */
+    @Scheduled(fixedDelayString = "${prompts.reload-interval-ms:5000}")
+    public void reloadChangedTemplates() {
+        if (reloadDir.isBlank()) {
+            return;
+        }
+        for (PromptName name : PromptName.values()) {
+            Path file = Path.of(reloadDir, name.getFileName());
+            try {
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                Long previous;
+                synchronized (lastModified) {
+                    previous = lastModified.put(name, modified);
+                }
+                if (previous != null && previous == modified) {
+                    continue;
+                }
+                String text = Files.readString(file, StandardCharsets.UTF_8);
+                templates.put(name, validate(name, PromptTemplate.compile(name.name(), text)));
+                log.info("Reloaded prompt template {}", file);
+            } catch (IOException | IllegalStateException e) {
+                log.error("Keeping previous prompt template {}: {}", name.getFileName(), e.getMessage());
+            }
+        }
+    }
+    
+    private String readTemplate(PromptName name) throws IOException {
+        if (!reloadDir.isBlank()) {
+            Path override = Path.of(reloadDir, name.getFileName());
+            if (Files.isRegularFile(override)) {
+                synchronized (lastModified) {
+                    lastModified.put(name, Files.getLastModifiedTime(override).toMillis());
+                }
+                return Files.readString(override, StandardCharsets.UTF_8);
+            }
+        }
+        try (InputStream in = new ClassPathResource("prompts/" + name.getFileName()).getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+    
+    private PromptTemplate validate(PromptName name, PromptTemplate template) {
+        Set<String> missing = new HashSet<>(name.getPlaceholders());
+        missing.removeAll(template.getPlaceholders());
+        Set<String> unknown = new HashSet<>(template.getPlaceholders());
+        unknown.removeAll(name.getPlaceholders());
+        if (!missing.isEmpty() || !unknown.isEmpty()) {
+            throw new IllegalStateException("Prompt " + name.getFileName() + " is missing placeholders "
+                    + missing + " and has unknown placeholders " + unknown);
+        }
+        return template;
+    }
+}
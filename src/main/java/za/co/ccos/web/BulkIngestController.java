@@ -0,0 +1,51 @@
+package za.co.ccos.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import za.co.ccos.app.BulkIngestService;
+import za.co.ccos.web.dto.BulkIngestResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+@RestController
+@RequestMapping("/api/v1/bulk")
+@RequiredArgsConstructor
+@Slf4j
+public class BulkIngestController {
+    
+    private final BulkIngestService ingestService;
+    
+    /**
+     * Loads NDJSON patients and consultations, gzip-compressed when sent with
+     * {@code Content-Encoding: gzip} or as {@code application/gzip}. The body is read as
+     * it arrives; the response lists the lines that were not loaded.
+     */
+    @PostMapping("/ingest")
+    public ResponseEntity<BulkIngestResponse> ingest(HttpServletRequest request) throws IOException {
+        InputStream body = request.getInputStream();
+        String encoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        String contentType = request.getContentType();
+        if ("gzip".equalsIgnoreCase(encoding) || (contentType != null && contentType.startsWith("application/gzip"))) {
+            try {
+                body = new GZIPInputStream(body, 64 * 1024);
+            } catch (IOException e) {
+                log.warn("Rejecting bulk ingest: body is not gzip ({})", e.getMessage());
+                return ResponseEntity.badRequest().build();
+            }
+        }
+        
+        BulkIngestService.Result result = ingestService.ingest(body);
+        return ResponseEntity.ok(new BulkIngestResponse(result.lines(), result.patients(), result.consultations(),
+                result.failed(), result.errors().stream()
+                        .map(e -> new BulkIngestResponse.LineError(e.line(), e.error()))
+                        .toList()));
+    }
+}
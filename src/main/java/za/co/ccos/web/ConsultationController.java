@@ -2,11 +2,19 @@ package za.co.ccos.web;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import za.co.ccos.app.AppointmentSchedulingService;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import za.co.ccos.app.ConsultationApprovalService;
+import za.co.ccos.app.ConsultationJobQueue;
 import za.co.ccos.app.ConsultationOrchestrator;
-import za.co.ccos.app.PatientEmailService;
+import za.co.ccos.app.ConsultationProgressEvent;
 import za.co.ccos.domain.*;
 import za.co.ccos.infra.persistence.*;
 import za.co.ccos.web.dto.*;
@@ -18,12 +26,28 @@ import java.util.*;
 @Slf4j
 public class ConsultationController {
     
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    
     private final ConsultationRepository consultationRepository;
     private final PatientRepository patientRepository;
     private final GeneratedNoteRepository generatedNoteRepository;
+    private final ConsultationJobQueue jobQueue;
     private final ConsultationOrchestrator orchestrator;
-    private final AppointmentSchedulingService appointmentService;
-    private final PatientEmailService emailService;
+    private final ConsultationApprovalService approvalService;
+    private final ConsultationEventRegistry eventRegistry;
+    private final ApplicationEventPublisher eventPublisher;
+    
+    @Value("${pipeline.executor.retry-after-seconds:15}")
+    private int retryAfterSeconds;
+    
+    @Value("${pipeline.jobs.max-backlog:200}")
+    private long maxBacklog;
+    
+    @Value("${consultations.history.page-size:50}")
+    private int historyPageSize;
+    
+    @Value("${consultations.history.max-page-size:100}")
+    private int historyMaxPageSize;
     
     @PostMapping("/upload-audio")
     public ResponseEntity<UploadResponse> uploadAudio(@RequestBody UploadRequest request) {
@@ -32,6 +56,14 @@ public class ConsultationController {
         Patient patient = patientRepository.findById(request.getPatientId())
                 .orElseThrow(() -> new RuntimeException("Patient not found"));
         
+        // A full job queue means we shed load instead of accepting work nobody will reach soon
+        if (jobQueue.pendingCount() >= maxBacklog) {
+            log.warn("Pipeline backlog full, rejecting consultation for patient {}", patient.getId());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .build();
+        }
+        
         Consultation consultation = new Consultation();
         consultation.setPatientId(patient.getId());
         consultation.setClinicianId(request.getClinicianId());
@@ -40,41 +72,82 @@ public class ConsultationController {
         consultation.setVitalSigns(request.getVitalSigns());
         consultation.setState(ConsultationState.QUEUED);
         
-        Consultation saved = consultationRepository.save(consultation);
-        
-        // Trigger async processing
-        orchestrator.processConsultation(saved.getId());
+        // Durable hand-off: whichever node has a free pipeline slot picks it up, even after a restart
+        Consultation saved = jobQueue.submit(consultation);
         
         return ResponseEntity.ok(new UploadResponse(saved.getId(), saved.getState()));
     }
     
+    /**
+     * One page of a patient's consultations, newest first. The cursor for the next page
+     * comes back in the {@value #NEXT_CURSOR_HEADER} header, which is absent on the last page.
+     */
     @GetMapping("/patient/{patientId}/history")
-    public ResponseEntity<List<ConsultationDetailResponse>> getPatientHistory(@PathVariable UUID patientId) {
+    public ResponseEntity<List<ConsultationDetailResponse>> getPatientHistory(
+            @PathVariable UUID patientId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
         log.info("Fetching consultation history for patient {}", patientId);
         
-        List<Consultation> consultations = consultationRepository.findByPatientIdOrderByCreatedAtDesc(patientId);
+        int pageSize = limit != null ? limit : historyPageSize;
+        if (pageSize < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        pageSize = Math.min(pageSize, historyMaxPageSize);
+        
+        // One extra row tells us whether another page follows
+        PageRequest page = PageRequest.ofSize(pageSize + 1);
+        List<ConsultationHistoryRow> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = consultationRepository.findHistory(patientId, page);
+        } else {
+            HistoryCursor position;
+            try {
+                position = HistoryCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+            rows = consultationRepository.findHistoryBefore(patientId, position.createdAt(), position.id(), page);
+        }
+        
+        boolean hasMore = rows.size() > pageSize;
+        if (hasMore) {
+            rows = rows.subList(0, pageSize);
+        }
+        
+        // All notes of the page in one IN query instead of one lookup per consultation
+        List<UUID> noteIds = rows.stream()
+                .map(ConsultationHistoryRow::generatedNoteId)
+                .filter(Objects::nonNull)
+                .toList();
+        Map<UUID, GeneratedNote> notes = new HashMap<>();
+        if (!noteIds.isEmpty()) {
+            generatedNoteRepository.findAllById(noteIds).forEach(note -> notes.put(note.getId(), note));
+        }
         
-        List<ConsultationDetailResponse> responses = consultations.stream()
-                .map(c -> {
+        List<ConsultationDetailResponse> responses = rows.stream()
+                .map(row -> {
                     ConsultationDetailResponse response = new ConsultationDetailResponse();
-                    response.setId(c.getId());
-                    response.setPatientId(c.getPatientId());
-                    response.setClinicianId(c.getClinicianId());
-                    response.setTimestamp(c.getTimestamp());
-                    response.setRawTranscript(c.getRawTranscript());
-                    response.setState(c.getState());
-                    response.setVitalSigns(c.getVitalSigns());
-                    
-                    if (c.getGeneratedNoteId() != null) {
-                        generatedNoteRepository.findById(c.getGeneratedNoteId())
-                                .ifPresent(response::setGeneratedNote);
+                    response.setId(row.id());
+                    response.setPatientId(row.patientId());
+                    response.setClinicianId(row.clinicianId());
+                    response.setTimestamp(row.createdAt());
+                    response.setRawTranscript(row.rawTranscript());
+                    response.setState(row.state());
+                    response.setVitalSigns(row.vitalSigns());
+                    if (row.generatedNoteId() != null) {
+                        response.setGeneratedNote(notes.get(row.generatedNoteId()));
                     }
-                    
                     return response;
                 })
                 .toList();
         
-        return ResponseEntity.ok(responses);
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+        if (hasMore) {
+            ConsultationHistoryRow last = rows.get(rows.size() - 1);
+            ok.header(NEXT_CURSOR_HEADER, new HistoryCursor(last.createdAt(), last.id()).encode());
+        }
+        return ok.body(responses);
     }
     
     @GetMapping("/{id}/status")
@@ -88,6 +161,22 @@ public class ConsultationController {
                 consultation.getErrorMessage()));
     }
     
+    /**
+     * Pushes state transitions and per-stage progress as server-sent events. The
+     * current state is sent first, and the stream closes once the consultation is
+     * READY or ERROR.
+     */
+    @GetMapping(path = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEvents(@PathVariable UUID id) {
+        if (!consultationRepository.existsById(id)) {
+            throw new RuntimeException("Consultation not found");
+        }
+        
+        return eventRegistry.subscribe(id, () -> consultationRepository.findById(id)
+                .map(c -> ConsultationProgressEvent.stateChanged(c.getId(), c.getState(), c.getErrorMessage()))
+                .orElseThrow(() -> new RuntimeException("Consultation not found")));
+    }
+    
     @GetMapping("/{id}")
     public ResponseEntity<ConsultationDetailResponse> getConsultation(@PathVariable UUID id) {
         Consultation consultation = consultationRepository.findById(id)
@@ -110,51 +199,19 @@ public class ConsultationController {
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Approves the note and returns at once. The patient email and the EHR sync are
+     * delivered through the outbox, which sets SYNCED when the sync succeeds.
+     */
     @PostMapping("/{id}/approve")
     public ResponseEntity<ApprovalResponse> approveConsultation(
             @PathVariable UUID id,
             @RequestBody ApprovalRequest request) {
         
-        Consultation consultation = consultationRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Consultation not found"));
-        
         if (request.isApprove()) {
-            consultation.setState(ConsultationState.APPROVED);
-            consultationRepository.save(consultation);
-            
-            log.info("Consultation {} approved by clinician {}", id, request.getClinicianId());
-            
-            // Get generated note
-            GeneratedNote note = null;
-            if (consultation.getGeneratedNoteId() != null) {
-                note = generatedNoteRepository.findById(consultation.getGeneratedNoteId()).orElse(null);
-            }
-            
-            // Generate appointment recommendation
-            String appointmentRec = null;
-            if (note != null) {
-                appointmentRec = appointmentService.suggestNextAppointment(consultation, note);
-                log.info("Next appointment recommendation: {}", appointmentRec);
-            }
-            
-            // Generate and send patient-friendly email
-            if (note != null) {
-                Patient patient = patientRepository.findById(consultation.getPatientId()).orElse(null);
-                if (patient != null) {
-                    String patientExplanation = emailService.generatePatientFriendlyExplanation(patient, note);
-                    String patientEmail = patient.getFirstName().toLowerCase() + "." + patient.getLastName().toLowerCase() + "@email.com";
-                    emailService.sendEmail(patientEmail, "Your Visit Summary", patientExplanation);
-                }
-            }
+            String appointmentRec = approvalService.approve(id, request.getClinicianId());
             
-            // Simulate EHR sync
-            boolean syncSuccess = simulateEhrSync(consultation);
-            if (syncSuccess) {
-                consultation.setState(ConsultationState.SYNCED);
-                consultationRepository.save(consultation);
-            }
-            
-            String message = "Consultation approved and synced";
+            String message = "Consultation approved, EHR sync queued";
             if (appointmentRec != null) {
                 message += ". " + appointmentRec;
             }
@@ -165,9 +222,40 @@ public class ConsultationController {
         }
     }
     
-    private boolean simulateEhrSync(Consultation consultation) {
-        log.info("Simulating FHIR sync for consultation {}", consultation.getId());
-        // Simulate successful sync
-        return true;
+    /**
+     * Runs the pipeline again from {@code fromStage}, reusing the checkpointed output of
+     * every stage before it. Without {@code fromStage} only stages that never completed run.
+     * Only a READY or ERROR consultation can be reprocessed; an approved note is final.
+     */
+    @PostMapping("/{id}/reprocess")
+    public ResponseEntity<ReprocessResponse> reprocessConsultation(
+            @PathVariable UUID id,
+            @RequestParam(required = false) String fromStage) {
+        
+        Consultation consultation = consultationRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("Consultation not found"));
+        
+        if ((consultation.getState() != ConsultationState.READY && consultation.getState() != ConsultationState.ERROR)
+                || jobQueue.isActive(id)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        
+        List<String> rerunStages = List.of();
+        if (fromStage != null && !fromStage.isBlank()) {
+            try {
+                rerunStages = orchestrator.resetFromStage(id, fromStage);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
+        
+        consultation.setState(ConsultationState.QUEUED);
+        consultation.setErrorMessage(null);
+        consultationRepository.save(consultation);
+        eventPublisher.publishEvent(ConsultationProgressEvent.stateChanged(id, ConsultationState.QUEUED, null));
+        jobQueue.requeue(id);
+        
+        log.info("Consultation {} requeued, re-running {}", id, rerunStages.isEmpty() ? "incomplete stages" : rerunStages);
+        return ResponseEntity.ok(new ReprocessResponse(id, ConsultationState.QUEUED, rerunStages));
     }
 }
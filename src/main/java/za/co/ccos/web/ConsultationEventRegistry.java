@@ -0,0 +1,268 @@
+package za.co.ccos.web;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import za.co.ccos.app.ConsultationProgressEvent;
+import za.co.ccos.app.ConsultationProgressEvent.StageStatus;
+import za.co.ccos.config.AsyncConfig;
+import za.co.ccos.domain.ConsultationState;
+import za.co.ccos.infra.persistence.ConsultationRepository;
+import za.co.ccos.infra.persistence.ConsultationStateRow;
+import za.co.ccos.infra.persistence.StageCheckpointRepository;
+import za.co.ccos.infra.persistence.StageCheckpointRow;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Fan-out of {@link ConsultationProgressEvent}s to SSE subscribers, keyed by
+ * consultation. Replaces per-second status polling: a client opens one stream and
+ * the pipeline pushes each transition to it. Subscriptions are local to this
+ * instance, while a consultation's job may run on any node; progress made elsewhere
+ * is picked up from the database every {@code consultation.events.remote-poll-ms},
+ * as state changes and the stages that checkpointed. Only this node's own stages
+ * also report when they start.
+ * <p>
+ * Events are decided under the subscription lock but written to the clients by
+ * {@link AsyncConfig#EVENT_EXECUTOR}, one consultation's events in order, so a slow
+ * client never blocks the pipeline thread or anyone else waiting for the lock.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ConsultationEventRegistry {
+    
+    private final ConsultationRepository consultationRepository;
+    private final StageCheckpointRepository checkpointRepository;
+    @Qualifier(AsyncConfig.EVENT_EXECUTOR)
+    private final TaskExecutor eventExecutor;
+    
+    private final Map<UUID, Subscription> subscribers = new ConcurrentHashMap<>();
+    
+    @Value("${consultation.events.timeout-ms:300000}")
+    private long timeoutMs;
+    
+    /**
+     * Opens a stream for the consultation. The snapshot is read and queued while holding
+     * the subscription lock, so it can never overtake a transition published meanwhile.
+     */
+    public SseEmitter subscribe(UUID consultationId, Supplier<ConsultationProgressEvent> snapshot) {
+        SseEmitter emitter = createEmitter();
+        emitter.onCompletion(() -> remove(consultationId, emitter));
+        emitter.onTimeout(() -> remove(consultationId, emitter));
+        emitter.onError(e -> remove(consultationId, emitter));
+        
+        // Added inside compute so a concurrent remove cannot drop the subscription we are joining
+        Subscription subscription = subscribers.compute(consultationId, (id, existing) -> {
+            Subscription joined = existing != null ? existing : new Subscription();
+            joined.emitters.add(emitter);
+            return joined;
+        });
+        
+        synchronized (subscription) {
+            ConsultationProgressEvent current = snapshot.get();
+            subscription.state = current.state();
+            enqueue(consultationId, subscription, List.of(emitter), () -> frame(current), current.isTerminal());
+        }
+        return emitter;
+    }
+    
+    @EventListener
+    public void onProgress(ConsultationProgressEvent event) {
+        Subscription subscription = subscribers.get(event.consultationId());
+        if (subscription == null) {
+            return;
+        }
+        synchronized (subscription) {
+            subscription.lastLocalEvent = System.nanoTime();
+            deliver(event.consultationId(), subscription, event);
+        }
+    }
+    
+    /**
+     * Forwards progress another node made on a watched consultation. A subscription
+     * that got an event from this node while the poll ran is left alone, since the
+     * rows read may already be older than what it was sent.
+     */
+    @Scheduled(fixedDelayString = "${consultation.events.remote-poll-ms:2000}")
+    public void pollRemoteProgress() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        long started = System.nanoTime();
+        Set<UUID> ids = Set.copyOf(subscribers.keySet());
+        Map<UUID, List<String>> checkpointed = new HashMap<>();
+        for (StageCheckpointRow row : checkpointRepository.findStages(ids)) {
+            checkpointed.computeIfAbsent(row.consultationId(), id -> new ArrayList<>()).add(row.stage());
+        }
+        for (ConsultationStateRow row : consultationRepository.findStates(ids)) {
+            Subscription subscription = subscribers.get(row.id());
+            if (subscription == null) {
+                continue;
+            }
+            synchronized (subscription) {
+                if (subscription.lastLocalEvent - started > 0) {
+                    continue;
+                }
+                for (String stage : checkpointed.getOrDefault(row.id(), List.of())) {
+                    if (!subscription.completedStages.contains(stage)) {
+                        deliver(row.id(), subscription,
+                                ConsultationProgressEvent.stageChanged(row.id(), stage, StageStatus.COMPLETED));
+                    }
+                }
+                if (row.state() != subscription.state) {
+                    deliver(row.id(), subscription,
+                            ConsultationProgressEvent.stateChanged(row.id(), row.state(), row.errorMessage()));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Comment frames keep idle streams from being closed by proxies while a long
+     * stage is running.
+     */
+    @Scheduled(fixedDelayString = "${consultation.events.heartbeat-ms:15000}")
+    public void heartbeat() {
+        subscribers.forEach((consultationId, subscription) -> {
+            synchronized (subscription) {
+                enqueue(consultationId, subscription, List.copyOf(subscription.emitters),
+                        () -> SseEmitter.event().comment("keep-alive"), false);
+            }
+        });
+    }
+    
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(subscription -> subscription.emitters.size()).sum();
+    }
+    
+    SseEmitter createEmitter() {
+        return new SseEmitter(timeoutMs);
+    }
+    
+    // Callers hold the subscription lock
+    private void deliver(UUID consultationId, Subscription subscription, ConsultationProgressEvent event) {
+        if (event.isStageEvent()) {
+            if (event.stageStatus() == StageStatus.COMPLETED) {
+                subscription.completedStages.add(event.stage());
+            }
+        } else {
+            subscription.state = event.state();
+            // Requeued for another attempt or a reprocess; its stages will report again
+            if (event.state() == ConsultationState.QUEUED) {
+                subscription.completedStages.clear();
+            }
+        }
+        enqueue(consultationId, subscription, List.copyOf(subscription.emitters), () -> frame(event), event.isTerminal());
+    }
+    
+    // Callers hold the subscription lock; starts a sender unless one is already draining
+    private void enqueue(UUID consultationId, Subscription subscription, List<SseEmitter> targets,
+                         Supplier<SseEmitter.SseEventBuilder> frame, boolean complete) {
+        if (targets.isEmpty()) {
+            return;
+        }
+        subscription.outbox.add(new Outgoing(targets, frame, complete));
+        if (!subscription.sending) {
+            subscription.sending = true;
+            try {
+                eventExecutor.execute(() -> drain(consultationId, subscription));
+            } catch (TaskRejectedException e) {
+                // Shutting down; the streams are closed with the context anyway
+                subscription.sending = false;
+                subscription.outbox.clear();
+            }
+        }
+    }
+    
+    private void drain(UUID consultationId, Subscription subscription) {
+        while (true) {
+            Outgoing next;
+            synchronized (subscription) {
+                next = subscription.outbox.poll();
+                if (next == null) {
+                    subscription.sending = false;
+                    return;
+                }
+            }
+            for (SseEmitter emitter : next.targets()) {
+                if (send(consultationId, emitter, next.frame().get()) && next.complete()) {
+                    emitter.complete();
+                }
+            }
+        }
+    }
+    
+    private SseEmitter.SseEventBuilder frame(ConsultationProgressEvent event) {
+        return SseEmitter.event()
+                .name(event.isStageEvent() ? "stage" : "state")
+                .data(event, MediaType.APPLICATION_JSON);
+    }
+    
+    /**
+     * @return false if the stream is gone, in which case it has been dropped
+     */
+    private boolean send(UUID consultationId, SseEmitter emitter, SseEmitter.SseEventBuilder frame) {
+        if (!isSubscribed(consultationId, emitter)) {
+            return false;
+        }
+        try {
+            emitter.send(frame);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Dropping event stream for consultation {}: {}", consultationId, e.getMessage());
+            remove(consultationId, emitter);
+            return false;
+        }
+    }
+    
+    private boolean isSubscribed(UUID consultationId, SseEmitter emitter) {
+        Subscription subscription = subscribers.get(consultationId);
+        return subscription != null && subscription.emitters.contains(emitter);
+    }
+    
+    private void remove(UUID consultationId, SseEmitter emitter) {
+        subscribers.computeIfPresent(consultationId, (id, subscription) -> {
+            subscription.emitters.remove(emitter);
+            return subscription.emitters.isEmpty() ? null : subscription;
+        });
+    }
+    
+    /**
+     * The streams open for one consultation, what they have been told so far, so
+     * progress read from the database is not sent twice, and what is still to be sent
+     */
+    private static final class Subscription {
+        
+        final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        final Set<String> completedStages = new HashSet<>();
+        final Deque<Outgoing> outbox = new ArrayDeque<>();
+        ConsultationState state;
+        long lastLocalEvent = System.nanoTime();
+        boolean sending;
+    }
+    
+    // A frame is built per stream, since building one consumes it
+    private record Outgoing(List<SseEmitter> targets, Supplier<SseEmitter.SseEventBuilder> frame, boolean complete) {
+    }
+}
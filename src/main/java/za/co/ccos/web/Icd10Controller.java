@@ -0,0 +1,40 @@
+package za.co.ccos.web;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import za.co.ccos.app.coding.Icd10Catalog;
+import za.co.ccos.web.dto.Icd10CodeResponse;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/icd10")
+@RequiredArgsConstructor
+public class Icd10Controller {
+    
+    private final Icd10Catalog icd10Catalog;
+    
+    @Value("${icd10.search.max-results:50}")
+    private int maxResults;
+    
+    /**
+     * Autocompletes a code prefix ("E11.6") or description words ("type 2 diab")
+     */
+    @GetMapping
+    public ResponseEntity<List<Icd10CodeResponse>> search(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "20") int limit) {
+        if (q.isBlank() || limit < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<Icd10CodeResponse> results = icd10Catalog.search(q, Math.min(limit, maxResults)).stream()
+                .map(entry -> new Icd10CodeResponse(entry.code(), entry.description()))
+                .toList();
+        return ResponseEntity.ok(results);
+    }
+}
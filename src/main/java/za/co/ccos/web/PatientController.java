@@ -2,15 +2,26 @@ package za.co.ccos.web;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import za.co.ccos.app.PatientSummaryService;
 import za.co.ccos.domain.Patient;
+import za.co.ccos.domain.PatientSummary;
+import za.co.ccos.infra.persistence.PatientListRow;
 import za.co.ccos.infra.persistence.PatientRepository;
 import za.co.ccos.web.dto.PatientResponse;
 import za.co.ccos.web.dto.PatientSummaryResponse;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @RestController
@@ -19,27 +30,71 @@ import java.util.UUID;
 @Slf4j
 public class PatientController {
     
+    static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    
+    // Seeded clinician account stored alongside patients
+    private static final UUID CLINICIAN_ACCOUNT_ID = UUID.fromString("550e8400-e29b-41d4-a716-446655440099");
+    
+    private static final Set<String> SORTABLE = Set.of("lastName", "firstName", "dob", "medicalRecordNumber");
+    
     private final PatientRepository patientRepository;
     private final PatientSummaryService summaryService;
     
+    @Value("${patients.listing.page-size:50}")
+    private int listingPageSize;
+    
+    @Value("${patients.listing.max-page-size:200}")
+    private int listingMaxPageSize;
+    
+    /**
+     * One page of patients, filtered by a name or MRN fragment. The total number of
+     * matches comes back in the {@value #TOTAL_COUNT_HEADER} header.
+     */
     @GetMapping
-    public ResponseEntity<List<PatientResponse>> getAllPatients() {
-        log.info("Fetching all patients");
+    public ResponseEntity<List<PatientResponse>> getAllPatients(
+            @RequestParam(required = false) String q,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(defaultValue = "lastName") String sort,
+            @RequestParam(defaultValue = "asc") String direction) {
+        log.info("Fetching patients page {} matching '{}'", page, q);
         
-        List<PatientResponse> patients = patientRepository.findAll().stream()
-                .filter(p -> !p.getId().equals(UUID.fromString("550e8400-e29b-41d4-a716-446655440099"))) // Exclude clinician
+        int pageSize = size != null ? size : listingPageSize;
+        Sort.Direction sortDirection = Sort.Direction.fromOptionalString(direction).orElse(null);
+        if (page < 0 || pageSize < 1 || !SORTABLE.contains(sort) || sortDirection == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        pageSize = Math.min(pageSize, listingMaxPageSize);
+        
+        // Id breaks ties so rows don't move between pages
+        Sort order = Sort.by(sortDirection, sort).and(Sort.by("id"));
+        String search = q == null || q.isBlank() ? null : "%" + q.trim().toLowerCase(Locale.ROOT) + "%";
+        Page<PatientListRow> rows = patientRepository.findListing(search, CLINICIAN_ACCOUNT_ID,
+                PageRequest.of(page, pageSize, order));
+        
+        Map<UUID, List<String>> conditions = new HashMap<>();
+        if (rows.hasContent()) {
+            List<UUID> ids = rows.map(PatientListRow::id).getContent();
+            for (Object[] pair : patientRepository.findChronicConditions(ids)) {
+                conditions.computeIfAbsent((UUID) pair[0], id -> new ArrayList<>()).add((String) pair[1]);
+            }
+        }
+        
+        List<PatientResponse> patients = rows.stream()
                 .map(p -> PatientResponse.builder()
-                        .id(p.getId())
-                        .firstName(p.getFirstName())
-                        .lastName(p.getLastName())
-                        .dob(p.getDob())
-                        .medicalRecordNumber(p.getMedicalRecordNumber())
-                        .allergies(p.getAllergies())
-                        .chronicConditions(p.getChronicConditions())
+                        .id(p.id())
+                        .firstName(p.firstName())
+                        .lastName(p.lastName())
+                        .dob(p.dob())
+                        .medicalRecordNumber(p.medicalRecordNumber())
+                        .allergies(Patient.splitAllergies(p.allergies()))
+                        .chronicConditions(conditions.getOrDefault(p.id(), List.of()))
                         .build())
                 .toList();
         
-        return ResponseEntity.ok(patients);
+        return ResponseEntity.ok()
+                .header(TOTAL_COUNT_HEADER, String.valueOf(rows.getTotalElements()))
+                .body(patients);
     }
     
     @GetMapping("/{id}")
@@ -64,10 +119,20 @@ public class PatientController {
     
     @GetMapping("/{id}/summary")
     public ResponseEntity<PatientSummaryResponse> getPatientSummary(@PathVariable UUID id) {
-        log.info("Generating AI summary for patient {}", id);
+        log.info("Fetching AI summary for patient {}", id);
         
-        String summary = summaryService.generatePatientSummary(id);
+        PatientSummary summary = summaryService.getSummary(id);
         
-        return ResponseEntity.ok(new PatientSummaryResponse(id, summary));
+        return ResponseEntity.ok(new PatientSummaryResponse(id, summary.getSummary(), summary.getGeneratedAt()));
+    }
+    
+    /**
+     * Generates the summaries of the given patients ahead of time, typically the next
+     * day's appointment list, so opening their charts is a single read
+     */
+    @PostMapping("/summaries/prewarm")
+    public ResponseEntity<Map<String, Integer>> prewarmSummaries(@RequestBody List<UUID> patientIds) {
+        int queued = summaryService.prewarm(patientIds);
+        return ResponseEntity.accepted().body(Map.of("queued", queued));
     }
 }
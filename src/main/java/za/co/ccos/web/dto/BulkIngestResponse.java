@@ -0,0 +1,22 @@
+package za.co.ccos.web.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class BulkIngestResponse {
+    private long lines;
+    private int patientsCreated;
+    private int consultationsQueued;
+    private int failedLines;
+    private List<LineError> errors;
+    
+    @Data
+    @AllArgsConstructor
+    public static class LineError {
+        private long line;
+        private String error;
+    }
+}
@@ -0,0 +1,13 @@
+package za.co.ccos.web.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Icd10CodeResponse {
+    private String code;
+    private String description;
+}
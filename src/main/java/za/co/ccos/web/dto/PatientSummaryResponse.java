@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Data
@@ -12,4 +13,5 @@ import java.util.UUID;
 public class PatientSummaryResponse {
     private UUID patientId;
     private String summary;
+    private LocalDateTime generatedAt;
 }
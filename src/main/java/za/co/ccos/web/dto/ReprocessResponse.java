@@ -0,0 +1,15 @@
+package za.co.ccos.web.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import za.co.ccos.domain.ConsultationState;
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@AllArgsConstructor
+public class ReprocessResponse {
+    private UUID consultationId;
+    private ConsultationState status;
+    private List<String> rerunStages;
+}
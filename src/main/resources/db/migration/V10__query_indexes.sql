@@ -0,0 +1,16 @@
+-- Secondary indexes for the hot read paths; plain B-tree syntax shared by H2 and PostgreSQL
+
+-- Patient history and summaries: one patient's consultations, newest first, keyset on (created_at, id)
+CREATE INDEX idx_consultations_patient_created ON consultations (patient_id, created_at, id);
+
+-- Worklists and stranded-consultation sweeps filter by state, oldest first
+CREATE INDEX idx_consultations_state_created ON consultations (state, created_at);
+
+-- Note of a consultation
+CREATE INDEX idx_generated_notes_consultation ON generated_notes (consultation_id);
+
+-- Conditions of a page of patients; PostgreSQL does not index foreign keys by itself
+CREATE INDEX idx_patient_chronic_conditions_patient ON patient_chronic_conditions (patient_id);
+
+-- Default patient listing order
+CREATE INDEX idx_patients_last_name ON patients (last_name, id);
@@ -0,0 +1,5 @@
+-- Follow-up recommendation and patient explanation, generated once the note is READY so approval does not wait on the LLM
+ALTER TABLE generated_notes ADD COLUMN appointment_recommendation TEXT;
+ALTER TABLE generated_notes ADD COLUMN patient_explanation TEXT;
+-- Hash of the note and patient fields the two were generated from; a mismatch means the note changed since
+ALTER TABLE generated_notes ADD COLUMN artifacts_source_hash VARCHAR(64);
@@ -0,0 +1,21 @@
+-- Side effects of approving a consultation, written in the approval's transaction and delivered by the outbox dispatcher
+CREATE TABLE outbox_messages (
+    id UUID PRIMARY KEY,
+    consultation_id UUID NOT NULL,
+    type VARCHAR(30) NOT NULL,
+    idempotency_key VARCHAR(100) NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    attempts INTEGER NOT NULL,
+    max_attempts INTEGER NOT NULL,
+    available_at TIMESTAMP NOT NULL,
+    locked_by VARCHAR(100),
+    locked_until TIMESTAMP,
+    last_error TEXT,
+    delivered_at TIMESTAMP,
+    created_at TIMESTAMP NOT NULL,
+    updated_at TIMESTAMP NOT NULL,
+    CONSTRAINT uq_outbox_messages_idempotency_key UNIQUE (idempotency_key)
+);
+
+CREATE INDEX idx_outbox_messages_claim ON outbox_messages (status, available_at);
+CREATE INDEX idx_outbox_messages_lease ON outbox_messages (status, locked_until);
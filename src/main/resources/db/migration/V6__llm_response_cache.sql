@@ -0,0 +1,15 @@
+-- Persistent tier of the LLM response cache, keyed by a hash of prompt, options and model
+CREATE TABLE llm_response_cache (
+    cache_key VARCHAR(64) PRIMARY KEY,
+    stage VARCHAR(50),
+    model VARCHAR(100),
+    content TEXT NOT NULL,
+    prompt_tokens INTEGER,
+    completion_tokens INTEGER,
+    total_tokens INTEGER,
+    finish_reason VARCHAR(50),
+    created_at TIMESTAMP NOT NULL,
+    expires_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX idx_llm_response_cache_expires_at ON llm_response_cache (expires_at);
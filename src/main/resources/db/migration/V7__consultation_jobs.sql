@@ -0,0 +1,22 @@
+-- Durable work queue for the consultation pipeline, one job per consultation
+CREATE TABLE consultation_jobs (
+    consultation_id UUID PRIMARY KEY,
+    status VARCHAR(20) NOT NULL,
+    attempts INTEGER NOT NULL,
+    max_attempts INTEGER NOT NULL,
+    available_at TIMESTAMP NOT NULL,
+    locked_by VARCHAR(100),
+    locked_until TIMESTAMP,
+    last_error TEXT,
+    created_at TIMESTAMP NOT NULL,
+    updated_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX idx_consultation_jobs_claim ON consultation_jobs (status, available_at);
+CREATE INDEX idx_consultation_jobs_lease ON consultation_jobs (status, locked_until);
+
+-- Consultations stranded by earlier restarts get a job so a worker picks them up
+INSERT INTO consultation_jobs (consultation_id, status, attempts, max_attempts, available_at, created_at, updated_at)
+SELECT id, 'PENDING', 0, 3, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP
+FROM consultations
+WHERE state IN ('QUEUED', 'PROCESSING');
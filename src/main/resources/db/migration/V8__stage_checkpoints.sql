@@ -0,0 +1,9 @@
+-- Output of each completed pipeline stage, so a retry resumes where the last attempt stopped
+CREATE TABLE stage_checkpoints (
+    id UUID PRIMARY KEY,
+    consultation_id UUID NOT NULL,
+    stage VARCHAR(50) NOT NULL,
+    outputs TEXT NOT NULL,
+    created_at TIMESTAMP NOT NULL,
+    CONSTRAINT uk_stage_checkpoints UNIQUE (consultation_id, stage)
+);
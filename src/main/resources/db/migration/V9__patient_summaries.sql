@@ -0,0 +1,8 @@
+-- Materialized patient summaries, regenerated in the background when a consultation is approved
+CREATE TABLE patient_summaries (
+    patient_id UUID PRIMARY KEY,
+    summary TEXT NOT NULL,
+    source VARCHAR(20) NOT NULL,
+    consultation_count INT NOT NULL,
+    generated_at TIMESTAMP NOT NULL
+);
@@ -454,7 +454,10 @@ async function submitConsultation() {
     document.getElementById('approvalSection').style.display = 'none';
     document.getElementById('nextSteps').style.display = 'none';
     
-    animateProcessingSteps();
+    // With server-sent events the steps follow real pipeline progress instead of a timer
+    if (!window.EventSource) {
+        animateProcessingSteps();
+    }
 
     try {
         const payload = {
@@ -474,7 +477,7 @@ async function submitConsultation() {
         consultationId = data.consultationId || data.id;
         console.log('Consultation submitted with ID:', consultationId);
 
-        await pollConsultationStatus(consultationId);
+        watchConsultation(consultationId);
     } catch (error) {
         console.error('Error:', error);
         alert('Error submitting consultation: ' + error.message);
@@ -482,6 +485,64 @@ async function submitConsultation() {
     }
 }
 
+// Pipeline stage -> index of the matching processing step on the results screen
+const STAGE_STEPS = { perception: 1, documentation: 2, compliance: 3, 'coordination-compliance': 3 };
+
+function markProcessingStep(stage) {
+    const index = STAGE_STEPS[stage];
+    const step = document.querySelectorAll('.processing-step')[index];
+    if (step) {
+        step.style.opacity = '1';
+        step.innerHTML = step.innerHTML.replace('⟳', '✓');
+    }
+}
+
+// Follows the consultation over server-sent events, falling back to polling if the stream is unavailable
+function watchConsultation(id) {
+    if (!window.EventSource) {
+        pollConsultationStatus(id);
+        return;
+    }
+
+    const source = new EventSource(`${API_BASE_URL}/consultations/${id}/events`);
+    let finished = false;
+
+    source.addEventListener('stage', (e) => {
+        const data = JSON.parse(e.data);
+        console.log('Stage', data.stage, data.stageStatus);
+        if (data.stageStatus === 'COMPLETED' || data.stageStatus === 'SKIPPED') {
+            markProcessingStep(data.stage);
+        }
+    });
+
+    source.addEventListener('state', async (e) => {
+        const data = JSON.parse(e.data);
+        console.log('State:', data.state);
+
+        if (data.state === 'READY') {
+            finished = true;
+            source.close();
+            await loadConsultationDetails(id);
+        } else if (data.state === 'ERROR') {
+            finished = true;
+            source.close();
+            alert('Error: ' + (data.errorMessage || 'Consultation processing failed'));
+            backToConsultation();
+        }
+    });
+
+    source.onerror = () => {
+        if (finished) {
+            return;
+        }
+        // The server closes the stream after a terminal state; anything else means the stream broke
+        console.warn('Event stream interrupted, falling back to polling');
+        finished = true;
+        source.close();
+        pollConsultationStatus(id);
+    };
+}
+
 async function pollConsultationStatus(id) {
     const maxAttempts = 30;
     let attempts = 0;
@@ -0,0 +1,109 @@
+package za.co.ccos.app;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import za.co.ccos.app.ApprovalArtifactService.ApprovalArtifacts;
+import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.ConsultationState;
+import za.co.ccos.domain.GeneratedNote;
+import za.co.ccos.domain.Patient;
+import za.co.ccos.infra.llm.LlamaException;
+import za.co.ccos.infra.persistence.ConsultationRepository;
+import za.co.ccos.infra.persistence.GeneratedNoteRepository;
+import za.co.ccos.infra.persistence.PatientRepository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ApprovalArtifactServiceTest {
+    
+    private GeneratedNoteRepository noteRepository;
+    private AppointmentSchedulingService appointmentService;
+    private PatientEmailService emailService;
+    private ApprovalArtifactService service;
+    private Consultation consultation;
+    private GeneratedNote note;
+    private Patient patient;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        ConsultationRepository consultationRepository = mock(ConsultationRepository.class);
+        PatientRepository patientRepository = mock(PatientRepository.class);
+        noteRepository = mock(GeneratedNoteRepository.class);
+        appointmentService = mock(AppointmentSchedulingService.class);
+        emailService = mock(PatientEmailService.class);
+        service = new ApprovalArtifactService(consultationRepository, patientRepository, noteRepository,
+                appointmentService, emailService, new SimpleMeterRegistry(), Runnable::run);
+        
+        patient = new Patient();
+        patient.setId(UUID.randomUUID());
+        patient.setFirstName("Thandi");
+        patient.setLastName("Nkosi");
+        note = new GeneratedNote();
+        note.setId(UUID.randomUUID());
+        note.setSoapAssessment("Tension headache");
+        note.setSoapPlan("Paracetamol 1g QID for 3 days");
+        consultation = new Consultation();
+        consultation.setId(UUID.randomUUID());
+        consultation.setPatientId(patient.getId());
+        consultation.setGeneratedNoteId(note.getId());
+        
+        when(consultationRepository.findById(consultation.getId())).thenReturn(Optional.of(consultation));
+        when(patientRepository.findById(patient.getId())).thenReturn(Optional.of(patient));
+        when(noteRepository.findById(note.getId())).thenReturn(Optional.of(note));
+        when(appointmentService.generateRecommendation(any(), any())).thenReturn("TIMEFRAME: 2 weeks");
+        when(emailService.generateExplanation(any(), any())).thenReturn("Dear Thandi");
+    }
+    
+    @Test
+    void testReadyNoteIsPreparedAndApprovalReadsIt() throws Exception {
+        service.onConsultationProgress(
+                ConsultationProgressEvent.stateChanged(consultation.getId(), ConsultationState.READY, null));
+        
+        ArgumentCaptor<String> hash = ArgumentCaptor.forClass(String.class);
+        verify(noteRepository).updateApprovalArtifacts(eq(note.getId()), eq("TIMEFRAME: 2 weeks"), eq("Dear Thandi"),
+                hash.capture());
+        note.setAppointmentRecommendation("TIMEFRAME: 2 weeks");
+        note.setPatientExplanation("Dear Thandi");
+        note.setArtifactsSourceHash(hash.getValue());
+        
+        ApprovalArtifacts artifacts = service.artifactsFor(consultation, note, patient);
+        
+        assertEquals("TIMEFRAME: 2 weeks", artifacts.appointmentRecommendation());
+        assertEquals("Dear Thandi", artifacts.patientExplanation());
+        verify(appointmentService, never()).suggestNextAppointment(any(), any());
+        verify(emailService, never()).generatePatientFriendlyExplanation(any(), any());
+    }
+    
+    @Test
+    void testEditedNoteIsGeneratedAgainOnApproval() {
+        note.setAppointmentRecommendation("TIMEFRAME: 2 weeks");
+        note.setPatientExplanation("Dear Thandi");
+        note.setArtifactsSourceHash(ApprovalArtifactService.sourceHash(patient, note));
+        note.setSoapPlan("Refer to neurology");
+        when(appointmentService.suggestNextAppointment(any(), any())).thenReturn("TIMEFRAME: 1 week");
+        when(emailService.generatePatientFriendlyExplanation(any(), any())).thenReturn("Dear Thandi, referral");
+        
+        ApprovalArtifacts artifacts = service.artifactsFor(consultation, note, patient);
+        
+        assertEquals("TIMEFRAME: 1 week", artifacts.appointmentRecommendation());
+        assertEquals("Dear Thandi, referral", artifacts.patientExplanation());
+    }
+    
+    @Test
+    void testFailedGenerationStoresNothing() throws Exception {
+        when(emailService.generateExplanation(any(), any())).thenThrow(new LlamaException("Provider unavailable"));
+        
+        service.precompute(consultation.getId());
+        
+        verify(noteRepository, never()).updateApprovalArtifacts(any(), anyString(), anyString(), anyString());
+    }
+}
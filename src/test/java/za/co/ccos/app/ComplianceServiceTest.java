@@ -0,0 +1,154 @@
+package za.co.ccos.app;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import za.co.ccos.app.compliance.DrugAllergyRules;
+import za.co.ccos.infra.llm.LlamaAdapter;
+import za.co.ccos.infra.llm.LlamaResponse;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ComplianceServiceTest {
+    
+    private static final String ICD10 = "[{\"code\":\"M54.5\",\"desc\":\"Low back pain\"}]";
+    
+    private LlamaAdapter llamaAdapter;
+    private ObjectMapper objectMapper;
+    private ComplianceService complianceService;
+    
+    @BeforeEach
+    void setUp() {
+        llamaAdapter = mock(LlamaAdapter.class);
+        objectMapper = new ObjectMapper();
+        PromptTemplateRegistry promptTemplates = new PromptTemplateRegistry("");
+        promptTemplates.loadTemplates();
+        DrugAllergyRules rules = new DrugAllergyRules(objectMapper);
+        rules.load();
+        complianceService = new ComplianceService(llamaAdapter, promptTemplates, rules, objectMapper,
+                new SimpleMeterRegistry());
+    }
+    
+    @Test
+    void testAllergyConflictInActionsIsFoundWithoutModel() throws Exception {
+        String actions = "{\"actions\":[{\"id\":\"a1\",\"type\":\"PRESCRIPTION\",\"drug\":{\"name\":\"Ibuprofen\",\"dose\":\"400mg\"}}]}";
+        
+        JsonNode result = objectMapper.readTree(complianceService.validateCompliance(
+                soap("Analgesia and rest"), ICD10, List.of("NSAIDs", "Shellfish"), actions));
+        
+        assertFalse(result.get("compliance_ok").asBoolean());
+        assertEquals("ALLERGY_CONFLICT", result.get("issues").get(0).get("type").asText());
+        assertEquals("Patient allergic to NSAIDs but Ibuprofen prescribed.", result.get("issues").get(0).get("detail").asText());
+        assertEquals("suggested_actions", result.get("suggested_edits").get(0).get("field").asText());
+        verifyNoInteractions(llamaAdapter);
+    }
+    
+    @Test
+    void testNegatedMentionAndCleanNotePass() throws Exception {
+        JsonNode result = objectMapper.readTree(complianceService.validateCompliance(
+                soap("Avoid ibuprofen given allergy. Paracetamol 1g QID for 5 days."), ICD10,
+                List.of("Aspirin", "Penicillin"), "{\"actions\":[]}"));
+        
+        assertTrue(result.get("compliance_ok").asBoolean());
+        assertEquals(0, result.get("issues").size());
+        verifyNoInteractions(llamaAdapter);
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "No fever today, start ibuprofen 400mg TDS",
+            "Stop paracetamol and start ibuprofen 400mg",
+            "Without improvement, give ibuprofen 400mg"
+    })
+    void testNegationAboutSomethingElseDoesNotHideConflict(String plan) throws Exception {
+        JsonNode result = objectMapper.readTree(complianceService.validateCompliance(
+                soap(plan), ICD10, List.of("NSAIDs"), null));
+        
+        assertFalse(result.get("compliance_ok").asBoolean());
+        assertEquals("ALLERGY_CONFLICT", result.get("issues").get(0).get("type").asText());
+        verifyNoInteractions(llamaAdapter);
+    }
+    
+    @Test
+    void testNegationsThatGovernTheDrugPass() throws Exception {
+        JsonNode result = objectMapper.readTree(complianceService.validateCompliance(
+                soap("Do not give ibuprofen. Avoid aspirin or naproxen. Paracetamol 1g QID."), ICD10,
+                List.of("NSAIDs"), null));
+        
+        assertTrue(result.get("compliance_ok").asBoolean());
+        verifyNoInteractions(llamaAdapter);
+    }
+    
+    @Test
+    void testUnclearNegationFallsBackToModel() throws Exception {
+        when(llamaAdapter.runPrompt(any(), any())).thenReturn(new LlamaResponse(
+                "{\"issues\":[],\"suggested_edits\":[],\"compliance_ok\":true}"));
+        
+        JsonNode result = objectMapper.readTree(complianceService.validateCompliance(
+                soap("Avoid giving the patient ibuprofen"), ICD10, List.of("NSAIDs"), null));
+        
+        assertTrue(result.get("compliance_ok").asBoolean());
+        verify(llamaAdapter, times(1)).runPrompt(any(), any());
+    }
+    
+    @Test
+    void testActionsAreCheckedAfterTheNoteWithoutModel() throws Exception {
+        String noteResult = complianceService.validateCompliance(
+                soap("Ibuprofen 400mg TDS"), ICD10, List.of("NSAIDs"));
+        String actions = "{\"actions\":[{\"id\":\"a1\",\"type\":\"PRESCRIPTION\",\"drug\":{\"name\":\"Ibuprofen\"}},"
+                + "{\"id\":\"a2\",\"type\":\"PRESCRIPTION\",\"drug\":{\"name\":\"Diclofenac\"}}]}";
+        
+        JsonNode result = objectMapper.readTree(complianceService.checkActions(noteResult, List.of("NSAIDs"), actions));
+        
+        assertFalse(result.get("compliance_ok").asBoolean());
+        // Ibuprofen is in both the plan and the actions but reported once
+        assertEquals(2, result.get("issues").size());
+        assertEquals("Patient allergic to NSAIDs but Diclofenac prescribed.", result.get("issues").get(1).get("detail").asText());
+        verifyNoInteractions(llamaAdapter);
+    }
+    
+    @Test
+    void testUnknownAllergyFallsBackToModel() throws Exception {
+        when(llamaAdapter.runPrompt(any(), any())).thenReturn(new LlamaResponse(
+                "{\"issues\":[{\"type\":\"ALLERGY_CONFLICT\",\"detail\":\"Carbamazepine cross-reacts\"}],\"suggested_edits\":[],\"compliance_ok\":false}"));
+        
+        JsonNode result = objectMapper.readTree(complianceService.validateCompliance(
+                soap("Start carbamazepine 200mg BD"), ICD10, List.of("Oxcarbazepine"), null));
+        
+        assertFalse(result.get("compliance_ok").asBoolean());
+        assertEquals("Carbamazepine cross-reacts", result.get("issues").get(0).get("detail").asText());
+        verify(llamaAdapter, times(1)).runPrompt(any(), any());
+    }
+    
+    @Test
+    void testReviewFromFusedCallIsUsedInsteadOfModel() throws Exception {
+        assertTrue(complianceService.needsModel(List.of("Oxcarbazepine")));
+        assertFalse(complianceService.needsModel(List.of("Penicillin")));
+        
+        JsonNode review = objectMapper.readTree(
+                "{\"issues\":[{\"type\":\"ALLERGY_CONFLICT\",\"detail\":\"Carbamazepine cross-reacts\"}],\"suggested_edits\":[]}");
+        JsonNode result = objectMapper.readTree(complianceService.validateCompliance(
+                soap("Start carbamazepine 200mg BD"), ICD10, List.of("Oxcarbazepine"), null, review));
+        
+        assertFalse(result.get("compliance_ok").asBoolean());
+        assertEquals("Carbamazepine cross-reacts", result.get("issues").get(0).get("detail").asText());
+        verifyNoInteractions(llamaAdapter);
+    }
+    
+    private String soap(String plan) throws Exception {
+        return objectMapper.writeValueAsString(objectMapper.createObjectNode()
+                .put("subjective", "Lower back pain for 2 weeks")
+                .put("objective", "Paraspinal tenderness")
+                .put("assessment", "Mechanical low back pain")
+                .put("plan", plan));
+    }
+}
@@ -0,0 +1,67 @@
+package za.co.ccos.app;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.test.util.ReflectionTestUtils;
+import za.co.ccos.domain.ConsultationJob;
+import za.co.ccos.domain.ConsultationState;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ConsultationJobWorkerTest {
+    
+    private ConsultationJobQueue jobQueue;
+    private ConsultationOrchestrator orchestrator;
+    private ConsultationJobWorker worker;
+    private ConsultationJob job;
+    
+    @BeforeEach
+    void setUp() {
+        jobQueue = mock(ConsultationJobQueue.class);
+        orchestrator = mock(ConsultationOrchestrator.class);
+        worker = new ConsultationJobWorker(jobQueue, orchestrator);
+        ReflectionTestUtils.setField(worker, "nodeId", "node-a");
+        ReflectionTestUtils.setField(worker, "poolSize", 2);
+        
+        job = new ConsultationJob();
+        job.setConsultationId(UUID.randomUUID());
+        job.setAttempts(1);
+        job.setMaxAttempts(3);
+    }
+    
+    @Test
+    void testRejectedJobIsReleasedAndItsSlotFreed() {
+        when(jobQueue.claim("node-a", 2)).thenReturn(List.of(job)).thenReturn(List.of());
+        when(orchestrator.processConsultation(eq(job.getConsultationId()), anyBoolean()))
+                .thenThrow(new TaskRejectedException("Pipeline executor is full"));
+        
+        worker.poll();
+        worker.poll();
+        worker.heartbeat();
+        
+        verify(jobQueue).release(job.getConsultationId(), "node-a");
+        // The rejected job does not hold a slot or a lease
+        verify(jobQueue, times(2)).claim("node-a", 2);
+        verify(jobQueue).extendLeases("node-a", Set.of());
+    }
+    
+    @Test
+    void testOutcomeIsRecordedForThisNode() {
+        when(jobQueue.claim("node-a", 2)).thenReturn(List.of(job));
+        when(orchestrator.processConsultation(job.getConsultationId(), true))
+                .thenReturn(CompletableFuture.completedFuture(ConsultationState.READY));
+        
+        worker.poll();
+        
+        verify(jobQueue).complete(job.getConsultationId(), "node-a");
+        verify(jobQueue, never()).release(any(), any());
+    }
+}
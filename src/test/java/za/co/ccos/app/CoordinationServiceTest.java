@@ -6,7 +6,11 @@ import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import za.co.ccos.infra.llm.LlamaAdapter;
+import za.co.ccos.infra.llm.LlamaException;
 import za.co.ccos.infra.llm.LlamaResponse;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
+
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -24,7 +28,9 @@ class CoordinationServiceTest {
     void setUp() {
         MockitoAnnotations.openMocks(this);
         objectMapper = new ObjectMapper();
-        coordinationService = new CoordinationService(llamaAdapter, objectMapper);
+        PromptTemplateRegistry promptTemplates = new PromptTemplateRegistry("");
+        promptTemplates.loadTemplates();
+        coordinationService = new CoordinationService(llamaAdapter, objectMapper, promptTemplates);
     }
     
     @Test
@@ -42,4 +48,30 @@ class CoordinationServiceTest {
         assertNotNull(actions);
         assertTrue(actions.contains("actions"));
     }
+    
+    @Test
+    void testFusedResponseIsSplitIntoActionsAndReview() throws Exception {
+        when(llamaAdapter.runPrompt(any(), any())).thenReturn(new LlamaResponse("```json\n"
+                + "{\"coordination\":{\"actions\":[{\"id\":\"a1\",\"type\":\"PRESCRIPTION\",\"drug\":{\"name\":\"Ibuprofen\"}}],"
+                + "\"notes\":\"Rest\"},"
+                + "\"compliance\":{\"issues\":[{\"type\":\"ALLERGY_CONFLICT\",\"detail\":\"NSAID allergy\"}],"
+                + "\"compliance_ok\":false}}\n```"));
+        
+        CoordinationService.ActionsAndReview result = coordinationService.generateActionsAndReview(
+                "{}", "{\"assessment\":\"Back pain\"}", "[]", List.of("NSAIDs"));
+        
+        assertEquals("Ibuprofen", objectMapper.readTree(result.actionsJson()).at("/actions/0/drug/name").asText());
+        assertEquals("Rest", objectMapper.readTree(result.actionsJson()).get("notes").asText());
+        assertEquals("NSAID allergy", result.review().at("/issues/0/detail").asText());
+        assertTrue(result.review().get("suggested_edits").isArray());
+    }
+    
+    @Test
+    void testFusedResponseWithoutReviewIsRejected() throws Exception {
+        when(llamaAdapter.runPrompt(any(), any()))
+                .thenReturn(new LlamaResponse("{\"actions\":[],\"notes\":\"\"}"));
+        
+        assertThrows(LlamaException.class, () -> coordinationService.generateActionsAndReview(
+                "{}", "{}", "[]", List.of()));
+    }
 }
@@ -1,13 +1,17 @@
 package za.co.ccos.app;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import za.co.ccos.app.coding.Icd10Catalog;
 import za.co.ccos.domain.GeneratedNote;
 import za.co.ccos.infra.llm.LlamaAdapter;
 import za.co.ccos.infra.llm.LlamaResponse;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -26,7 +30,11 @@ class DocumentationServiceTest {
     void setUp() {
         MockitoAnnotations.openMocks(this);
         objectMapper = new ObjectMapper();
-        documentationService = new DocumentationService(llamaAdapter, objectMapper);
+        PromptTemplateRegistry promptTemplates = new PromptTemplateRegistry("");
+        promptTemplates.loadTemplates();
+        Icd10Catalog icd10Catalog = new Icd10Catalog(objectMapper, new SimpleMeterRegistry());
+        icd10Catalog.load();
+        documentationService = new DocumentationService(llamaAdapter, objectMapper, promptTemplates, icd10Catalog);
     }
     
     @Test
@@ -47,4 +55,33 @@ class DocumentationServiceTest {
         assertTrue(note.getSoapAssessment().contains("Migraine"));
         assertNotNull(note.getIcd10Codes());
     }
+    
+    @Test
+    void testIcd10SuggestionsAreValidatedAgainstCodeTable() throws Exception {
+        String mockResponse = "{\"soap\":{\"assessment\":\"Type 2 diabetes, poorly controlled\"},\"icd10_suggestions\":["
+                + "{\"code\":\"e1165\",\"desc\":\"Diabetes with high sugar\",\"confidence\":0.9,\"rationale\":\"Glucose 220\"},"
+                + "{\"code\":\"I10.9\",\"desc\":\"Essential hypertension\",\"confidence\":0.7},"
+                + "{\"code\":\"E11.65\",\"desc\":\"Duplicate\",\"confidence\":0.5},"
+                + "{\"code\":\"Q87.89\",\"desc\":\"Other specified congenital malformation syndromes\",\"confidence\":0.3},"
+                + "{\"code\":\"diabetes\",\"desc\":\"Not a code\",\"confidence\":0.2}]}";
+        
+        when(llamaAdapter.runPrompt(any(), any()))
+                .thenReturn(new LlamaResponse(mockResponse));
+        
+        GeneratedNote note = documentationService.generateDocumentation(
+                "{}", "Patient with diabetes", UUID.randomUUID(), UUID.randomUUID());
+        JsonNode codes = objectMapper.readTree(note.getIcd10Codes());
+        
+        assertEquals(3, codes.size());
+        // Normalised, with the table's description; the model's rationale is kept
+        assertEquals("E11.65", codes.get(0).get("code").asText());
+        assertEquals("Type 2 diabetes mellitus with hyperglycemia", codes.get(0).get("desc").asText());
+        assertEquals("Glucose 220", codes.get(0).get("rationale").asText());
+        // Invented subcode completed from its description
+        assertEquals("I10", codes.get(1).get("code").asText());
+        assertEquals("I10.9", codes.get(1).get("submitted_code").asText());
+        // Well-formed but outside the bundled table
+        assertEquals("Q87.89", codes.get(2).get("code").asText());
+        assertFalse(codes.get(2).get("verified").asBoolean());
+    }
 }
@@ -0,0 +1,170 @@
+package za.co.ccos.app;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.Patient;
+import za.co.ccos.domain.PatientSummary;
+import za.co.ccos.infra.llm.LlamaAdapter;
+import za.co.ccos.infra.llm.LlamaResponse;
+import za.co.ccos.infra.llm.TokenBudget;
+import za.co.ccos.infra.llm.TokenCounter;
+import za.co.ccos.infra.persistence.ConsultationRepository;
+import za.co.ccos.infra.persistence.PatientRepository;
+import za.co.ccos.infra.persistence.PatientSummaryRepository;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class PatientSummaryServiceTest {
+    
+    @Mock
+    private PatientRepository patientRepository;
+    
+    @Mock
+    private ConsultationRepository consultationRepository;
+    
+    @Mock
+    private PatientSummaryRepository summaryRepository;
+    
+    @Mock
+    private LlamaAdapter llamaAdapter;
+    
+    private PromptTemplateRegistry promptTemplates;
+    private PatientSummaryService summaryService;
+    private UUID patientId;
+    
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        promptTemplates = new PromptTemplateRegistry("");
+        promptTemplates.loadTemplates();
+        summaryService = new PatientSummaryService(patientRepository, consultationRepository, summaryRepository,
+                llamaAdapter, promptTemplates, budget(Map.of()), new SimpleAsyncTaskExecutor());
+        
+        patientId = UUID.randomUUID();
+        Patient patient = new Patient();
+        patient.setId(patientId);
+        patient.setFirstName("Thandi");
+        patient.setLastName("Nkosi");
+        patient.setDob(LocalDate.of(1970, 1, 1));
+        Consultation visit = new Consultation();
+        visit.setPatientId(patientId);
+        visit.setRawTranscript("Follow-up for hypertension");
+        visit.setCreatedAt(LocalDateTime.now());
+        
+        when(patientRepository.existsById(patientId)).thenReturn(true);
+        when(patientRepository.findById(patientId)).thenReturn(Optional.of(patient));
+        when(consultationRepository.findByPatientIdOrderByCreatedAtDesc(patientId)).thenReturn(List.of(visit));
+        // Like the real table, a saved summary is found by later reads
+        AtomicReference<PatientSummary> stored = new AtomicReference<>();
+        when(summaryRepository.findById(patientId)).thenAnswer(inv -> Optional.ofNullable(stored.get()));
+        when(summaryRepository.save(any())).thenAnswer(inv -> {
+            stored.set(inv.getArgument(0));
+            return stored.get();
+        });
+    }
+    
+    @Test
+    void testConcurrentRequestsShareOneGeneration() throws Exception {
+        when(llamaAdapter.runPrompt(any(), any())).thenAnswer(inv -> {
+            Thread.sleep(300);
+            return new LlamaResponse("Stable hypertensive patient");
+        });
+        
+        List<CompletableFuture<PatientSummary>> requests = List.of(
+                CompletableFuture.supplyAsync(() -> summaryService.getSummary(patientId)),
+                CompletableFuture.supplyAsync(() -> summaryService.getSummary(patientId)),
+                CompletableFuture.supplyAsync(() -> summaryService.getSummary(patientId)));
+        
+        for (CompletableFuture<PatientSummary> request : requests) {
+            PatientSummary summary = request.get(5, TimeUnit.SECONDS);
+            assertEquals("Stable hypertensive patient", summary.getSummary());
+            assertEquals(PatientSummary.Source.LLM, summary.getSource());
+        }
+        verify(llamaAdapter, times(1)).runPrompt(any(), any());
+    }
+    
+    @Test
+    void testHistoryChangeDuringGenerationRunsOnceMore() throws Exception {
+        CountDownLatch generating = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(llamaAdapter.runPrompt(any(), any())).thenAnswer(inv -> {
+            generating.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return new LlamaResponse("Stable hypertensive patient");
+        });
+        
+        CompletableFuture<PatientSummary> first = summaryService.refresh(patientId);
+        assertTrue(generating.await(5, TimeUnit.SECONDS));
+        // Joins the running generation, which may not have seen the new visit
+        assertSame(first, summaryService.refresh(patientId));
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        
+        verify(llamaAdapter, timeout(5000).times(2)).runPrompt(any(), any());
+    }
+    
+    @Test
+    void testStoredSummaryIsServedWithoutGeneration() throws Exception {
+        PatientSummary stored = new PatientSummary();
+        stored.setPatientId(patientId);
+        stored.setSummary("Stored summary");
+        stored.setSource(PatientSummary.Source.LLM);
+        when(summaryRepository.findById(patientId)).thenReturn(Optional.of(stored));
+        
+        assertEquals("Stored summary", summaryService.getSummary(patientId).getSummary());
+        verifyNoInteractions(llamaAdapter);
+        verify(consultationRepository, never()).findByPatientIdOrderByCreatedAtDesc(any());
+    }
+    
+    @Test
+    void testLongHistoryIsTrimmedToStageContext() throws Exception {
+        PatientSummaryService service = new PatientSummaryService(patientRepository, consultationRepository,
+                summaryRepository, llamaAdapter, promptTemplates, budget(Map.of("patient-summary", 1500)),
+                new SimpleAsyncTaskExecutor());
+        String longTranscript = "Doctor: How has the blood pressure been? Patient: Mostly fine, some headaches. ".repeat(100);
+        when(consultationRepository.findByPatientIdOrderByCreatedAtDesc(patientId)).thenReturn(
+                IntStream.range(0, 7).mapToObj(i -> {
+                    Consultation visit = new Consultation();
+                    visit.setPatientId(patientId);
+                    visit.setRawTranscript(longTranscript);
+                    visit.setCreatedAt(LocalDateTime.now().minusDays(i));
+                    return visit;
+                }).toList());
+        when(llamaAdapter.runPrompt(any(), any())).thenReturn(new LlamaResponse("Summary"));
+        
+        service.getSummary(patientId);
+        
+        ArgumentCaptor<String> prompt = ArgumentCaptor.forClass(String.class);
+        verify(llamaAdapter).runPrompt(prompt.capture(), any());
+        assertTrue(TokenCounter.count(prompt.getValue()) <= 1500 - 400);
+        assertTrue(prompt.getValue().contains("Visit 5"));
+        assertFalse(prompt.getValue().contains("Visit 6"));
+        assertTrue(prompt.getValue().contains("..."));
+    }
+    
+    private static TokenBudget budget(Map<String, Integer> stageContextTokens) {
+        return new TokenBudget(stageContextTokens, 8192, 0,
+                new TokenBudget.Adaptation(false, 0.99, 1.25, 50, 500, 64), new SimpleMeterRegistry());
+    }
+}
@@ -2,33 +2,52 @@ package za.co.ccos.app;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import za.co.ccos.app.perception.TranscriptChunker;
 import za.co.ccos.domain.Patient;
 import za.co.ccos.infra.llm.LlamaAdapter;
+import za.co.ccos.infra.llm.LlamaOptions;
 import za.co.ccos.infra.llm.LlamaResponse;
+import za.co.ccos.infra.llm.TokenBudget;
+import za.co.ccos.infra.llm.TokenCounter;
+import za.co.ccos.infra.prompt.PromptTemplateRegistry;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class PerceptionServiceTest {
     
+    private static final int MAX_CHUNK_TOKENS = 400;
+    private static final int OVERLAP_TOKENS = 40;
+    
     @Mock
     private LlamaAdapter llamaAdapter;
     
     private PerceptionService perceptionService;
     private ObjectMapper objectMapper;
+    private PromptTemplateRegistry promptTemplates;
     
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
         objectMapper = new ObjectMapper();
-        perceptionService = new PerceptionService(llamaAdapter, objectMapper);
+        promptTemplates = new PromptTemplateRegistry("");
+        promptTemplates.loadTemplates();
+        perceptionService = service(budget(8192));
     }
     
     @Test
@@ -51,4 +70,82 @@ class PerceptionServiceTest {
         assertTrue(result.has("chief_complaint"));
         assertEquals("headache", result.get("chief_complaint").asText());
     }
+    
+    @Test
+    void testTranscriptThatFitsTheContextIsNotChunked() throws Exception {
+        Patient patient = new Patient();
+        patient.setId(UUID.randomUUID());
+        patient.setFirstName("Thandi");
+        patient.setLastName("Mokoena");
+        when(llamaAdapter.runPrompt(any(), any())).thenReturn(new LlamaResponse("{\"chief_complaint\":\"Chest pain\"}"));
+        
+        String transcript = transcript(60);
+        assertTrue(TokenCounter.count(transcript) > MAX_CHUNK_TOKENS);
+        perceptionService.extractStructuredFacts(transcript, patient);
+        
+        verify(llamaAdapter, times(1)).runPrompt(any(), any(LlamaOptions.class));
+    }
+    
+    @Test
+    void testLongTranscriptIsExtractedInChunksAndMerged() throws Exception {
+        TokenBudget budget = budget(4096);
+        perceptionService = service(budget);
+        Patient patient = new Patient();
+        patient.setId(UUID.randomUUID());
+        patient.setFirstName("Thandi");
+        patient.setLastName("Mokoena");
+        
+        // Each chunk's answer depends on what it sees, whichever order the calls run in
+        when(llamaAdapter.runPrompt(any(), any())).thenAnswer(invocation -> {
+            String prompt = invocation.getArgument(0);
+            boolean start = prompt.contains("chest pain");
+            boolean end = prompt.contains("metformin");
+            return new LlamaResponse("{\"chief_complaint\":\"" + (start ? "Chest pain" : "Follow-up") + "\","
+                    + "\"symptoms\":[" + (start ? "{\"name\":\"Chest pain\",\"severity\":\"\"}," : "")
+                    + "{\"name\":\"chest pain \",\"severity\":\"severe\"}],"
+                    + "\"medications_current\":[" + (end ? "{\"name\":\"Metformin\",\"dose\":\"500mg\"}" : "") + "],"
+                    + "\"red_flags\":[\"Radiating pain\"" + (end ? ",\"radiating PAIN\",\"Diaphoresis\"" : "") + "]}");
+        });
+        
+        String transcript = transcript(150);
+        // Longer than the whole prompt may be, yet leaving more than a chunk next to the template
+        assertTrue(TokenCounter.count(transcript) > budget.promptTokens("perception", 1024));
+        JsonNode result = perceptionService.extractStructuredFacts(transcript, patient);
+        
+        int chunks = new TranscriptChunker(MAX_CHUNK_TOKENS, OVERLAP_TOKENS).split(transcript).size();
+        ArgumentCaptor<String> prompts = ArgumentCaptor.forClass(String.class);
+        verify(llamaAdapter, times(chunks)).runPrompt(prompts.capture(), any(LlamaOptions.class));
+        prompts.getAllValues().forEach(prompt -> assertTrue(prompt.length() < 2420 + MAX_CHUNK_TOKENS * 4 + 200));
+        
+        assertEquals("Chest pain", result.get("chief_complaint").asText());
+        assertEquals(1, result.get("symptoms").size());
+        assertEquals("severe", result.get("symptoms").get(0).get("severity").asText());
+        assertEquals("Metformin", result.get("medications_current").get(0).get("name").asText());
+        assertEquals(2, result.get("red_flags").size());
+    }
+    
+    private PerceptionService service(TokenBudget budget) {
+        PerceptionService service = new PerceptionService(llamaAdapter, objectMapper, promptTemplates, budget,
+                Runnable::run);
+        ReflectionTestUtils.setField(service, "maxChunkTokens", MAX_CHUNK_TOKENS);
+        ReflectionTestUtils.setField(service, "overlapTokens", OVERLAP_TOKENS);
+        return service;
+    }
+    
+    private static TokenBudget budget(int contextTokens) {
+        return new TokenBudget(Map.of(), contextTokens, 0.1,
+                new TokenBudget.Adaptation(false, 0.99, 1.25, 50, 500, 64), new SimpleMeterRegistry());
+    }
+    
+    private static String transcript(int exchanges) {
+        List<String> turns = new ArrayList<>();
+        turns.add("Doctor: What brings you in today?");
+        turns.add("Patient: I have had chest pain since this morning.");
+        for (int i = 0; i < exchanges; i++) {
+            turns.add("Doctor: Any change with position number " + i + "?");
+            turns.add("Patient: No, it stays the same when I move around or lie down flat.");
+        }
+        turns.add("Patient: I take metformin for my sugar.");
+        return String.join("\n", turns);
+    }
 }
@@ -0,0 +1,66 @@
+package za.co.ccos.app.coding;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Icd10IndexTest {
+    
+    private final Icd10Index index = new Icd10Index(Map.of(
+            "E119", "Type 2 diabetes mellitus without complications",
+            "E1165", "Type 2 diabetes mellitus with hyperglycemia",
+            "E109", "Type 1 diabetes mellitus without complications",
+            "I10", "Essential (primary) hypertension",
+            "J069", "Acute upper respiratory infection, unspecified",
+            "not-a-code", "Ignored"));
+    
+    @Test
+    void testNormalize() {
+        assertEquals("J06.9", Icd10Index.normalize("j069"));
+        assertEquals("E11.65", Icd10Index.normalize(" E11.65 "));
+        assertEquals("I10", Icd10Index.normalize("I10"));
+        assertNull(Icd10Index.normalize("headache"));
+        assertNull(Icd10Index.normalize("E1"));
+    }
+    
+    @Test
+    void testLookup() {
+        assertEquals(5, index.size());
+        assertEquals("Essential (primary) hypertension", index.lookup("i10").description());
+        assertEquals("E11.65", index.lookup("E1165").code());
+        assertNull(index.lookup("E11.6"));
+    }
+    
+    @Test
+    void testSearchByCodePrefix() {
+        List<Icd10Index.Entry> results = index.search("e11", 10);
+        
+        assertEquals(List.of("E11.65", "E11.9"), results.stream().map(Icd10Index.Entry::code).toList());
+        assertEquals(1, index.search("E11.", 1).size());
+    }
+    
+    @Test
+    void testSearchByDescriptionWords() {
+        // Every word must match; the last one may be unfinished
+        assertEquals(List.of("E10.9", "E11.65", "E11.9"), codes(index.search("diabetes mell", 10)));
+        assertEquals(List.of("E10.9", "E11.9"), codes(index.search("diabetes without", 10)));
+        assertEquals(List.of("I10"), codes(index.search("HYPERTENSION", 10)));
+        assertTrue(index.search("diabetes asthma", 10).isEmpty());
+    }
+    
+    @Test
+    void testBestMatch() {
+        assertEquals("E11.9", index.bestMatch("Type 2 diabetes without complications", "E11").code());
+        assertEquals("J06.9", index.bestMatch("Acute upper respiratory infection", null).code());
+        // Within the category only
+        assertNull(index.bestMatch("Essential hypertension", "E11"));
+        assertNull(index.bestMatch("Broken leg", null));
+    }
+    
+    private static List<String> codes(List<Icd10Index.Entry> entries) {
+        return entries.stream().map(Icd10Index.Entry::code).toList();
+    }
+}
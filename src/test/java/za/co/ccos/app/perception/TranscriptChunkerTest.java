@@ -0,0 +1,72 @@
+package za.co.ccos.app.perception;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import za.co.ccos.infra.llm.TokenCounter;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TranscriptChunkerTest {
+    
+    @Test
+    void testShortTranscriptIsOneChunk() {
+        String transcript = "Doctor: How are you?\nPatient: Fine.";
+        
+        assertEquals(List.of(transcript), new TranscriptChunker(100, 10).split(transcript));
+        assertTrue(new TranscriptChunker(100, 10).split("  ").isEmpty());
+    }
+    
+    @Test
+    void testChunksBreakBetweenTurnsAndOverlap() {
+        StringBuilder transcript = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            transcript.append("Doctor: Question ").append(i).append("?\n");
+            transcript.append("Patient: Answer ").append(i).append(".\n");
+        }
+        
+        List<String> chunks = new TranscriptChunker(40, 10).split(transcript.toString());
+        
+        assertTrue(chunks.size() > 1);
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunk = chunks.get(i);
+            assertTrue(TokenCounter.count(chunk) <= 40, chunk);
+            assertTrue(chunk.startsWith("Doctor: ") || chunk.startsWith("Patient: "), chunk);
+            if (i > 0) {
+                String[] previous = chunks.get(i - 1).split("\n");
+                assertTrue(chunk.startsWith(previous[previous.length - 1]), "no overlap: " + chunk);
+            }
+        }
+        assertTrue(chunks.get(chunks.size() - 1).endsWith("Patient: Answer 19."));
+        assertEquals(chunks, new TranscriptChunker(40, 10).split(transcript.toString()));
+    }
+    
+    @Test
+    void testLongTurnIsSplitIntoSentencesKeepingTheSpeaker() {
+        String monologue = "Patient: " + "The pain started on the left side. ".repeat(20)
+                + "Then it spread all the way down my arm.";
+        
+        List<String> chunks = new TranscriptChunker(50, 0).split(monologue);
+        
+        assertTrue(chunks.size() > 1);
+        chunks.forEach(chunk -> {
+            assertTrue(chunk.startsWith("Patient: The pain") || chunk.startsWith("Patient: Then"), chunk);
+            assertTrue(TokenCounter.count(chunk) <= 50, chunk);
+        });
+        assertTrue(chunks.get(chunks.size() - 1).endsWith("down my arm."));
+    }
+    
+    @Test
+    void testMergeKeepsFirstValuesAndDedupesLists() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode merged = PerceptionMerger.merge(List.of(
+                mapper.readTree("{\"vitals\":{\"bp\":\"140/90\",\"hr\":null},\"pertinent_negatives\":[\"Fever\"]}"),
+                mapper.readTree("{\"vitals\":{\"bp\":\"120/80\",\"hr\":88},\"pertinent_negatives\":[\"fever\",\"Cough\"]}")));
+        
+        assertEquals("140/90", merged.get("vitals").get("bp").asText());
+        assertEquals(88, merged.get("vitals").get("hr").asInt());
+        assertEquals("[\"Fever\",\"Cough\"]", merged.get("pertinent_negatives").toString());
+    }
+}
@@ -0,0 +1,195 @@
+package za.co.ccos.app.pipeline;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineGraphTest {
+    
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    @Test
+    void testIndependentStagesRunConcurrently() throws Exception {
+        // Both branches wait for each other, so this only completes if they overlap
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        
+        PipelineGraph graph = PipelineGraph.builder()
+                .stage(stage("root", Set.of("input"), "soap", ctx -> "note"))
+                .stage(stage("left", Set.of("soap"), "actions", ctx -> awaitPeer(bothStarted, "a")))
+                .stage(stage("right", Set.of("soap"), "compliance", ctx -> awaitPeer(bothStarted, "c")))
+                .build();
+        
+        PipelineContext context = graph.run(new PipelineContext().put("input", "x"), executor, StageListener.NONE)
+                .get(5, TimeUnit.SECONDS);
+        
+        assertEquals("a", context.get("actions", String.class));
+        assertEquals("c", context.get("compliance", String.class));
+    }
+    
+    @Test
+    void testFailurePreventsDependentStages() {
+        AtomicBoolean downstreamRan = new AtomicBoolean();
+        
+        PipelineGraph graph = PipelineGraph.builder()
+                .stage(stage("perception", Set.of("input"), "facts", ctx -> {
+                    throw new IllegalStateException("model unavailable");
+                }))
+                .stage(stage("documentation", Set.of("facts"), "note", ctx -> {
+                    downstreamRan.set(true);
+                    return "note";
+                }))
+                .build();
+        
+        ExecutionException e = assertThrows(ExecutionException.class, () ->
+                graph.run(new PipelineContext().put("input", "x"), executor, StageListener.NONE)
+                        .get(5, TimeUnit.SECONDS));
+        
+        PipelineStageException failure = assertInstanceOf(PipelineStageException.class, e.getCause());
+        assertEquals("perception", failure.getStage());
+        assertFalse(downstreamRan.get());
+    }
+    
+    @Test
+    void testStageTimeout() {
+        PipelineGraph graph = PipelineGraph.builder()
+                .stage(new PipelineStage("slow", Set.of(), Set.of("out"), Duration.ofMillis(50), ctx -> {
+                    Thread.sleep(2000);
+                    return Map.of("out", "late");
+                }))
+                .build();
+        
+        ExecutionException e = assertThrows(ExecutionException.class, () ->
+                graph.run(new PipelineContext(), executor, StageListener.NONE).get(5, TimeUnit.SECONDS));
+        
+        assertTrue(e.getCause().getMessage().contains("timed out"));
+    }
+    
+    @Test
+    void testTimeoutInterruptsTheStage() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        PipelineGraph graph = PipelineGraph.builder()
+                .stage(new PipelineStage("slow", Set.of(), Set.of("out"), Duration.ofMillis(50), ctx -> {
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                    return Map.of("out", "late");
+                }))
+                .build();
+        
+        assertThrows(ExecutionException.class, () ->
+                graph.run(new PipelineContext(), executor, StageListener.NONE).get(5, TimeUnit.SECONDS));
+        
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    void testTimeoutAppliesWhenTheCallerRunsTheStage() {
+        // What a saturated stage executor with CallerRunsPolicy does
+        Executor callerRuns = Runnable::run;
+        PipelineGraph graph = PipelineGraph.builder()
+                .stage(new PipelineStage("slow", Set.of(), Set.of("out"), Duration.ofMillis(50), ctx -> {
+                    Thread.sleep(5000);
+                    return Map.of("out", "late");
+                }))
+                .build();
+        
+        long start = System.nanoTime();
+        CompletableFuture<PipelineContext> run = graph.run(new PipelineContext(), callerRuns, StageListener.NONE);
+        
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(2)) < 0);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> run.get(1, TimeUnit.SECONDS));
+        assertTrue(e.getCause().getMessage().contains("timed out"));
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+    
+    @Test
+    void testFailureCancelsRunningSiblings() throws Exception {
+        CountDownLatch siblingStarted = new CountDownLatch(1);
+        CountDownLatch siblingInterrupted = new CountDownLatch(1);
+        PipelineGraph graph = PipelineGraph.builder()
+                .stage(stage("root", Set.of("input"), "soap", ctx -> "note"))
+                .stage(stage("left", Set.of("soap"), "actions", ctx -> {
+                    assertTrue(siblingStarted.await(2, TimeUnit.SECONDS));
+                    throw new IllegalStateException("model unavailable");
+                }))
+                .stage(stage("right", Set.of("soap"), "compliance", ctx -> {
+                    siblingStarted.countDown();
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException e) {
+                        siblingInterrupted.countDown();
+                        throw e;
+                    }
+                    return "c";
+                }))
+                .build();
+        
+        ExecutionException e = assertThrows(ExecutionException.class, () ->
+                graph.run(new PipelineContext().put("input", "x"), executor, StageListener.NONE)
+                        .get(5, TimeUnit.SECONDS));
+        
+        assertEquals("left", assertInstanceOf(PipelineStageException.class, e.getCause()).getStage());
+        assertTrue(siblingInterrupted.await(2, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    void testCycleIsRejected() {
+        PipelineGraph.Builder builder = PipelineGraph.builder()
+                .stage(stage("a", Set.of("b-out"), "a-out", ctx -> "a"))
+                .stage(stage("b", Set.of("a-out"), "b-out", ctx -> "b"));
+        
+        assertThrows(IllegalArgumentException.class, builder::build);
+    }
+    
+    @Test
+    void testDownstreamOfFollowsConsumers() {
+        PipelineGraph graph = PipelineGraph.builder()
+                .stage(stage("perception", Set.of("input"), "facts", ctx -> "f"))
+                .stage(stage("documentation", Set.of("facts"), "note", ctx -> "n"))
+                .stage(stage("coordination", Set.of("note"), "actions", ctx -> "a"))
+                .stage(stage("compliance", Set.of("note"), "compliance", ctx -> "c"))
+                .build();
+        
+        assertEquals(List.of("documentation", "coordination", "compliance"), graph.downstreamOf("documentation"));
+        assertEquals(List.of("compliance"), graph.downstreamOf("compliance"));
+        assertThrows(IllegalArgumentException.class, () -> graph.downstreamOf("billing"));
+    }
+    
+    private static PipelineStage stage(String name, Set<String> inputs, String output, ValueAction action) {
+        return new PipelineStage(name, inputs, Set.of(output), Duration.ofSeconds(5),
+                ctx -> Map.of(output, action.apply(ctx)));
+    }
+    
+    private static String awaitPeer(CountDownLatch latch, String result) throws InterruptedException {
+        latch.countDown();
+        assertTrue(latch.await(2, TimeUnit.SECONDS), "sibling stage did not run concurrently");
+        return result;
+    }
+    
+    @FunctionalInterface
+    private interface ValueAction {
+        Object apply(PipelineContext context) throws Exception;
+    }
+}
@@ -0,0 +1,141 @@
+package za.co.ccos.infra.fhir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.GeneratedNote;
+import za.co.ccos.domain.Patient;
+import za.co.ccos.domain.VitalSigns;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FhirBundleExporterTest {
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<JsonNode> received = Collections.synchronizedList(new ArrayList<>());
+    private volatile Predicate<JsonNode> rejects = bundle -> false;
+    private HttpServer server;
+    private FhirBundleExporter exporter;
+    private Patient patient;
+    
+    // Stands in for a FHIR server: records each bundle and rejects those matching `rejects`
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/fhir", exchange -> {
+            JsonNode bundle = objectMapper.readTree(exchange.getRequestBody());
+            received.add(bundle);
+            int status = rejects.test(bundle) ? 422 : 200;
+            byte[] body = "{\"resourceType\":\"Bundle\",\"type\":\"transaction-response\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        exporter = new FhirBundleExporter("http://localhost:" + server.getAddress().getPort() + "/fhir", 2, 2,
+                Duration.ofSeconds(10), objectMapper, new SimpleMeterRegistry());
+        
+        patient = new Patient();
+        patient.setId(UUID.randomUUID());
+        patient.setFirstName("Thandi");
+        patient.setLastName("Nkosi");
+    }
+    
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+    
+    @Test
+    void testEncountersAreSentAsTransactionBundles() {
+        List<FhirEncounter> encounters = List.of(encounter(), encounter(), encounter(), encounter(), encounter());
+        
+        Map<String, FhirException> failures = exporter.export(encounters);
+        
+        assertTrue(failures.isEmpty());
+        assertEquals(3, received.size());
+        JsonNode bundle = received.stream().filter(b -> b.path("entry").size() > 6).findFirst().orElseThrow();
+        assertEquals("transaction", bundle.path("type").asText());
+        List<String> types = StreamSupport.stream(bundle.path("entry").spliterator(), false)
+                .map(entry -> entry.path("resource").path("resourceType").asText())
+                .toList();
+        // One Patient for both encounters of the same patient
+        assertEquals(1, Collections.frequency(types, "Patient"));
+        assertEquals(2, Collections.frequency(types, "Encounter"));
+        assertEquals(4, Collections.frequency(types, "Observation"));
+        assertEquals(2, Collections.frequency(types, "Condition"));
+        assertEquals(2, Collections.frequency(types, "DocumentReference"));
+        
+        JsonNode condition = resource(bundle, "Condition");
+        assertEquals("R51.9", condition.path("code").path("coding").get(0).path("code").asText());
+        assertTrue(condition.path("encounter").path("reference").asText().startsWith("urn:uuid:"));
+        JsonNode pressure = StreamSupport.stream(bundle.path("entry").spliterator(), false)
+                .filter(entry -> "85354-9".equals(entry.path("resource").path("code").path("coding").path(0).path("code").asText()))
+                .findFirst().orElseThrow();
+        assertEquals(120, pressure.path("resource").path("component").get(0).path("valueQuantity").path("value").asInt());
+        assertTrue(pressure.path("request").path("ifNoneExist").asText().startsWith("identifier=urn:ccos:export|"));
+    }
+    
+    @Test
+    void testRejectedBundleIsSentAgainOneEncounterAtATime() {
+        FhirEncounter invalid = encounter();
+        String invalidId = invalid.consultation().getId().toString();
+        rejects = bundle -> bundle.toString().contains(invalidId);
+        List<FhirEncounter> encounters = List.of(encounter(), invalid);
+        
+        Map<String, FhirException> failures = exporter.export(encounters);
+        
+        assertEquals(1, failures.size());
+        assertEquals(422, failures.get(invalid.idempotencyKey()).getStatusCode());
+        assertFalse(failures.get(invalid.idempotencyKey()).isTransient());
+        assertEquals(3, received.size());
+    }
+    
+    @Test
+    void testUnreachableServerFailsEveryEncounterTransiently() {
+        server.stop(0);
+        List<FhirEncounter> encounters = List.of(encounter(), encounter(), encounter());
+        
+        Map<String, FhirException> failures = exporter.export(encounters);
+        
+        assertEquals(3, failures.size());
+        assertTrue(failures.values().stream().allMatch(FhirException::isTransient));
+    }
+    
+    private FhirEncounter encounter() {
+        Consultation consultation = new Consultation();
+        consultation.setId(UUID.randomUUID());
+        consultation.setPatientId(patient.getId());
+        consultation.setCreatedAt(LocalDateTime.of(2026, 10, 16, 9, 30));
+        consultation.setVitalSigns(VitalSigns.builder().bloodPressure("120/80").heartRate(72).build());
+        GeneratedNote note = new GeneratedNote();
+        note.setId(UUID.randomUUID());
+        note.setSoapAssessment("Tension headache");
+        note.setIcd10Codes("[{\"code\":\"R51.9\",\"desc\":\"Headache, unspecified\"}]");
+        return new FhirEncounter(consultation, patient, note, "EHR_SYNC:" + consultation.getId() + ":" + note.getId());
+    }
+    
+    private static JsonNode resource(JsonNode bundle, String type) {
+        return StreamSupport.stream(bundle.path("entry").spliterator(), false)
+                .map(entry -> entry.path("resource"))
+                .filter(resource -> type.equals(resource.path("resourceType").asText()))
+                .findFirst().orElseThrow();
+    }
+}
@@ -0,0 +1,89 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class BudgetedLlamaAdapterTest {
+    
+    private LlamaAdapter provider;
+    private SimpleMeterRegistry meterRegistry;
+    private BudgetedLlamaAdapter adapter;
+    
+    @BeforeEach
+    void setUp() {
+        provider = mock(LlamaAdapter.class);
+        meterRegistry = new SimpleMeterRegistry();
+        TokenBudget budget = new TokenBudget(Map.of("perception", 1000), 8192, 0,
+                new TokenBudget.Adaptation(true, 0.99, 1.25, 5, 100, 64), meterRegistry);
+        adapter = new BudgetedLlamaAdapter(provider, budget, meterRegistry);
+    }
+    
+    @Test
+    void testLimitDropsToObservedLengthsAfterMinSamples() throws Exception {
+        when(provider.runPrompt(anyString(), any())).thenReturn(completion(100, "stop"));
+        
+        for (int i = 0; i < 6; i++) {
+            adapter.runPrompt("prompt", options("documentation", 2048));
+        }
+        
+        List<Integer> limits = sentLimits(6);
+        assertEquals(2048, limits.get(4));
+        // p99 of 100 tokens with 25% headroom, rounded up to 64
+        assertEquals(128, limits.get(5));
+        assertEquals(128.0, meterRegistry.get("llm.budget.max-tokens").tag("stage", "documentation").gauge().value());
+    }
+    
+    @Test
+    void testCompletionCutOffByLearnedLimitRunsAgainWithDeclaredLimit() throws Exception {
+        when(provider.runPrompt(anyString(), any())).thenReturn(completion(100, "stop"));
+        for (int i = 0; i < 5; i++) {
+            adapter.runPrompt("prompt", options("documentation", 2048));
+        }
+        when(provider.runPrompt(anyString(), any()))
+                .thenReturn(completion(128, "length"))
+                .thenReturn(completion(900, "stop"));
+        
+        LlamaResponse response = adapter.runPrompt("prompt", options("documentation", 2048));
+        
+        assertEquals(900, response.getCompletionTokens());
+        List<Integer> limits = sentLimits(7);
+        assertEquals(List.of(128, 2048), limits.subList(5, 7));
+        assertEquals(1.0, meterRegistry.get("llm.budget.retries").tag("stage", "documentation").counter().count());
+    }
+    
+    @Test
+    void testMaxTokensIsCappedByStageContext() throws Exception {
+        when(provider.runPrompt(anyString(), any())).thenReturn(completion(10, "stop"));
+        String prompt = "word ".repeat(300);
+        
+        adapter.runPrompt(prompt, options("perception", 1024));
+        
+        int room = 1000 - TokenCounter.count(prompt);
+        assertEquals(List.of(room), sentLimits(1));
+        assertEquals(1.0, meterRegistry.get("llm.budget.overflow").tag("stage", "perception").counter().count());
+    }
+    
+    private List<Integer> sentLimits(int calls) throws Exception {
+        ArgumentCaptor<LlamaOptions> sent = ArgumentCaptor.forClass(LlamaOptions.class);
+        verify(provider, times(calls)).runPrompt(anyString(), sent.capture());
+        return sent.getAllValues().stream().map(LlamaOptions::getMaxTokens).toList();
+    }
+    
+    private static LlamaOptions options(String stage, int maxTokens) {
+        return LlamaOptions.builder().stage(stage).maxTokens(maxTokens).build();
+    }
+    
+    private static LlamaResponse completion(int tokens, String finishReason) {
+        return LlamaResponse.builder().content("ok").completionTokens(tokens).finishReason(finishReason).build();
+    }
+}
@@ -0,0 +1,119 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import za.co.ccos.infra.persistence.LlmCacheEntryRepository;
+
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class CachingLlamaAdapterTest {
+    
+    private LlamaAdapter provider;
+    private SimpleMeterRegistry meterRegistry;
+    private CachingLlamaAdapter adapter;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = mock(LlamaAdapter.class);
+        when(provider.getModel()).thenReturn("test-model");
+        when(provider.runPrompt(anyString(), any()))
+                .thenAnswer(inv -> new LlamaResponse("answer to " + inv.getArgument(0)));
+        
+        meterRegistry = new SimpleMeterRegistry();
+        LlmResponseCache cache = new LlmResponseCache(mock(LlmCacheEntryRepository.class), meterRegistry);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxEntries", 100L);
+        ReflectionTestUtils.setField(cache, "ttl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(cache, "maxTemperature", 0.3);
+        ReflectionTestUtils.setField(cache, "stages", Set.of("documentation"));
+        cache.init();
+        
+        adapter = new CachingLlamaAdapter(provider, cache);
+    }
+    
+    @Test
+    void testRepeatedPromptIsServedFromCache() throws Exception {
+        LlamaOptions options = options(0.1, "documentation");
+        
+        LlamaResponse first = adapter.runPrompt("prompt", options);
+        LlamaResponse second = adapter.runPrompt("prompt", options);
+        
+        assertEquals(first.getContent(), second.getContent());
+        verify(provider, times(1)).runPrompt(anyString(), any());
+        assertEquals(1.0, meterRegistry.get("llm.cache.requests").tag("result", "hit").counter().count());
+    }
+    
+    @Test
+    void testDifferentOptionsMiss() throws Exception {
+        adapter.runPrompt("prompt", options(0.1, "documentation"));
+        adapter.runPrompt("prompt", options(0.2, "documentation"));
+        
+        verify(provider, times(2)).runPrompt(anyString(), any());
+    }
+    
+    @Test
+    void testLearnedTokenLimitStillHits() throws Exception {
+        adapter.runPrompt("prompt", options(0.1, "documentation"));
+        adapter.runPrompt("prompt", options(0.1, "documentation").toBuilder().maxTokens(180).build());
+        
+        verify(provider, times(1)).runPrompt(anyString(), any());
+    }
+    
+    @Test
+    void testTruncatedCompletionIsNotCached() throws Exception {
+        when(provider.runPrompt(anyString(), any()))
+                .thenReturn(LlamaResponse.builder().content("{\"plan\":").finishReason("length").build());
+        
+        adapter.runPrompt("prompt", options(0.1, "documentation"));
+        adapter.runPrompt("prompt", options(0.1, "documentation"));
+        
+        verify(provider, times(2)).runPrompt(anyString(), any());
+    }
+    
+    @Test
+    void testHighTemperatureAndUnlistedStagesBypassCache() throws Exception {
+        adapter.runPrompt("prompt", options(0.7, "documentation"));
+        adapter.runPrompt("prompt", options(0.7, "documentation"));
+        adapter.runPrompt("prompt", options(0.1, "patient-email"));
+        adapter.runPrompt("prompt", options(0.1, "patient-email"));
+        
+        verify(provider, times(4)).runPrompt(anyString(), any());
+    }
+    
+    @Test
+    void testMalformedStreamIsNotCached() throws Exception {
+        when(provider.streamPrompt(anyString(), any(), any())).thenAnswer(inv -> {
+            TokenListener listener = inv.getArgument(2);
+            String content = "";
+            for (String token : new String[]{"{\"plan\": ", "]", " \"rest\"}"}) {
+                content += token;
+                if (!listener.onToken(token)) {
+                    return LlamaResponse.builder().content(content).finishReason(LlamaResponse.STOPPED_BY_CLIENT).build();
+                }
+            }
+            return LlamaResponse.builder().content(content).finishReason("stop").build();
+        });
+        LlamaOptions options = options(0.1, "documentation");
+        
+        JsonObjectExtractor first = new JsonObjectExtractor();
+        adapter.streamPrompt("prompt", options, first);
+        JsonObjectExtractor second = new JsonObjectExtractor();
+        adapter.streamPrompt("prompt", options, second);
+        
+        assertFalse(first.isComplete());
+        assertThrows(LlamaException.class, second::getJson);
+        verify(provider, times(2)).streamPrompt(anyString(), any(), any());
+    }
+    
+    private static LlamaOptions options(double temperature, String stage) {
+        return LlamaOptions.builder().temperature(temperature).maxTokens(256).stage(stage).build();
+    }
+}
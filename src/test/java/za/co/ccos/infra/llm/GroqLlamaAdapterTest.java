@@ -0,0 +1,139 @@
+package za.co.ccos.infra.llm;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroqLlamaAdapterTest {
+    
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile List<String> events = List.of();
+    private volatile int status = 200;
+    private HttpServer server;
+    private GroqLlamaAdapter adapter;
+    
+    // Stands in for the chat completions API: sends `events` as SSE lines and, at a null
+    // event, holds the connection open until the test releases it
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(status, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (String event : events) {
+                    if (event == null) {
+                        release.await(10, TimeUnit.SECONDS);
+                        continue;
+                    }
+                    body.write((event + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client went away
+            }
+        });
+        server.start();
+        adapter = new GroqLlamaAdapter("Test API", "http://localhost:" + server.getAddress().getPort()
+                + "/v1/chat/completions", "test-model", "key", new RateLimits(30, 6000));
+    }
+    
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+    
+    @Test
+    void testEventsAreParsedUntilDone() throws Exception {
+        events = List.of(
+                ": keep-alive",
+                chunk("\"delta\":{\"role\":\"assistant\",\"content\":\"\"},\"finish_reason\":null"),
+                chunk("\"delta\":{\"content\":\"{\\\"plan\\\":\"},\"finish_reason\":null"),
+                chunk("\"delta\":{\"content\":\" \\\"rest\\\"}\"},\"finish_reason\":null"),
+                "data: {\"model\":\"llama-served\",\"choices\":[{\"delta\":{},\"finish_reason\":\"stop\"}],"
+                        + "\"x_groq\":{\"usage\":{\"prompt_tokens\":42,\"completion_tokens\":7,\"total_tokens\":49}}}",
+                "data: [DONE]",
+                chunk("\"delta\":{\"content\":\"after done\"},\"finish_reason\":null"));
+        List<String> tokens = new ArrayList<>();
+        
+        LlamaResponse response = adapter.streamPrompt("prompt", options(), tokens::add);
+        
+        assertEquals(List.of("{\"plan\":", " \"rest\"}"), tokens);
+        assertEquals("{\"plan\": \"rest\"}", response.getContent());
+        assertEquals("stop", response.getFinishReason());
+        assertEquals("llama-served", response.getModel());
+        assertEquals(42, response.getPromptTokens());
+        assertEquals(7, response.getCompletionTokens());
+        assertEquals(49, response.getTotalTokens());
+        assertNotNull(response.getTimeToFirstToken());
+    }
+    
+    @Test
+    void testTruncatedCompletionReportsLength() throws Exception {
+        events = List.of(
+                chunk("\"delta\":{\"content\":\"{\\\"plan\\\":\"},\"finish_reason\":null"),
+                chunk("\"delta\":{},\"finish_reason\":\"length\""),
+                "data: [DONE]");
+        
+        LlamaResponse response = adapter.streamPrompt("prompt", options(), TokenListener.NONE);
+        
+        assertEquals("length", response.getFinishReason());
+        assertNull(response.getTotalTokens());
+    }
+    
+    @Test
+    void testListenerStopClosesStreamEarly() throws Exception {
+        // The server would only finish after ten seconds
+        events = Arrays.asList(
+                chunk("\"delta\":{\"content\":\"{}\"},\"finish_reason\":null"),
+                null,
+                chunk("\"delta\":{\"content\":\" trailing chatter\"},\"finish_reason\":null"),
+                "data: [DONE]");
+        List<String> tokens = new ArrayList<>();
+        long start = System.nanoTime();
+        
+        LlamaResponse response = adapter.streamPrompt("prompt", options(), token -> {
+            tokens.add(token);
+            return false;
+        });
+        
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertEquals(List.of("{}"), tokens);
+        assertEquals("{}", response.getContent());
+        assertEquals(LlamaResponse.STOPPED_BY_CLIENT, response.getFinishReason());
+    }
+    
+    @Test
+    void testErrorStatusFails() {
+        status = 429;
+        events = List.of("{\"error\":{\"message\":\"Rate limit reached\"}}");
+        
+        LlamaException error = assertThrows(LlamaException.class,
+                () -> adapter.streamPrompt("prompt", options(), TokenListener.NONE));
+        
+        assertEquals(429, error.getStatusCode());
+    }
+    
+    private static String chunk(String choice) {
+        return "data: {\"model\":\"llama-served\",\"choices\":[{\"index\":0," + choice + "}]}";
+    }
+    
+    private static LlamaOptions options() {
+        return LlamaOptions.builder().temperature(0.1).maxTokens(256).stage("documentation").build();
+    }
+}
@@ -0,0 +1,112 @@
+package za.co.ccos.infra.llm;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpLlamaAdapterTest {
+    
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile List<String> events = List.of();
+    private HttpServer server;
+    private HttpLlamaAdapter adapter;
+    
+    // Stands in for llama.cpp's /completion: sends `events` as SSE lines and, at a null
+    // event, holds the connection open until the test releases it
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/completion", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (String event : events) {
+                    if (event == null) {
+                        release.await(10, TimeUnit.SECONDS);
+                        continue;
+                    }
+                    body.write((event + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client went away
+            }
+        });
+        server.start();
+        adapter = new HttpLlamaAdapter("http://localhost:" + server.getAddress().getPort());
+    }
+    
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+    
+    @Test
+    void testChunksAreParsedUntilStop() throws Exception {
+        events = List.of(
+                "data: {\"content\":\"Rest \",\"stop\":false}",
+                "data: {\"content\":\"and fluids\",\"stop\":false}",
+                "data: {\"content\":\"\",\"stop\":true,\"model\":\"llama-3-8b\",\"tokens_evaluated\":30,"
+                        + "\"tokens_predicted\":4,\"stopped_limit\":false}");
+        List<String> tokens = new ArrayList<>();
+        
+        LlamaResponse response = adapter.streamPrompt("prompt", options(), tokens::add);
+        
+        assertEquals(List.of("Rest ", "and fluids"), tokens);
+        assertEquals("Rest and fluids", response.getContent());
+        assertEquals("stop", response.getFinishReason());
+        assertEquals("llama-3-8b", response.getModel());
+        assertEquals(30, response.getPromptTokens());
+        assertEquals(4, response.getCompletionTokens());
+        assertEquals(34, response.getTotalTokens());
+    }
+    
+    @Test
+    void testTokenLimitReportsLength() throws Exception {
+        events = List.of(
+                "data: {\"content\":\"{\\\"plan\\\":\",\"stop\":false}",
+                "data: {\"content\":\"\",\"stop\":true,\"tokens_evaluated\":30,\"tokens_predicted\":256,"
+                        + "\"stopped_limit\":true}");
+        
+        LlamaResponse response = adapter.streamPrompt("prompt", options(), TokenListener.NONE);
+        
+        assertEquals("length", response.getFinishReason());
+        assertEquals("{\"plan\":", response.getContent());
+    }
+    
+    @Test
+    void testListenerStopClosesStreamEarly() throws Exception {
+        // The server would only finish after ten seconds
+        events = Arrays.asList(
+                "data: {\"content\":\"{}\",\"stop\":false}",
+                null,
+                "data: {\"content\":\"\",\"stop\":true,\"tokens_evaluated\":30,\"tokens_predicted\":2}");
+        long start = System.nanoTime();
+        
+        LlamaResponse response = adapter.streamPrompt("prompt", options(), token -> false);
+        
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertEquals("{}", response.getContent());
+        assertEquals(LlamaResponse.STOPPED_BY_CLIENT, response.getFinishReason());
+        assertNull(response.getTotalTokens());
+    }
+    
+    private static LlamaOptions options() {
+        return LlamaOptions.builder().temperature(0.1).maxTokens(256).stage("documentation").build();
+    }
+}
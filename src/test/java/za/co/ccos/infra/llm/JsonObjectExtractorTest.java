@@ -0,0 +1,39 @@
+package za.co.ccos.infra.llm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonObjectExtractorTest {
+    
+    @Test
+    void testSkipsProseAndStopsWhenObjectCloses() throws Exception {
+        JsonObjectExtractor extractor = new JsonObjectExtractor();
+        
+        assertTrue(extractor.onToken("Here is the JSON you asked for:\n```json\n{\"soap\": {\"plan\""));
+        assertTrue(extractor.onToken(": \"Rest, {not a brace} é\"}, \"confidence\""));
+        assertFalse(extractor.onToken(": 0.8}\n```\nLet me know if"));
+        
+        assertTrue(extractor.isComplete());
+        assertEquals("{\"soap\": {\"plan\": \"Rest, {not a brace} é\"}, \"confidence\": 0.8}", extractor.getJson());
+        assertFalse(extractor.onToken(" you need anything else"));
+    }
+    
+    @Test
+    void testMalformedOutputFailsFast() {
+        JsonObjectExtractor extractor = new JsonObjectExtractor();
+        
+        assertTrue(extractor.onToken("{\"actions\": ["));
+        assertFalse(extractor.onToken("oops]"));
+        
+        LlamaException e = assertThrows(LlamaException.class, extractor::getJson);
+        assertTrue(e.getMessage().startsWith("Model returned malformed JSON"));
+    }
+    
+    @Test
+    void testExtractRejectsMissingOrUnclosedObject() throws Exception {
+        assertEquals("{\"a\":1}", JsonObjectExtractor.extract("  {\"a\":1} trailing } text"));
+        assertThrows(LlamaException.class, () -> JsonObjectExtractor.extract("No JSON here"));
+        assertThrows(LlamaException.class, () -> JsonObjectExtractor.extract("{\"a\": {\"b\": 1}"));
+    }
+}
@@ -0,0 +1,60 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmRateGovernorTest {
+    
+    private static final RateLimits LIMITS = new RateLimits(0, 600);
+    
+    private SimpleMeterRegistry meterRegistry;
+    private LlmRateGovernor governor;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        governor = new LlmRateGovernor(meterRegistry);
+        ReflectionTestUtils.setField(governor, "enabled", true);
+        ReflectionTestUtils.setField(governor, "maxWait", Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(governor, "headroom", 1.0);
+    }
+    
+    @Test
+    void testWaitingCallerProceedsOnceUnusedTokensAreRefunded() throws Exception {
+        LlmRateGovernor.Reservation first = governor.acquire("groq", LIMITS, "prompt", 500);
+        assertTrue(meterRegistry.get("llm.ratelimit.tokens.utilisation").gauge().value() > 0.8);
+        
+        CompletableFuture<LlmRateGovernor.Reservation> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return governor.acquire("groq", LIMITS, "prompt", 500);
+            } catch (LlamaException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(second.isDone());
+        assertEquals(1.0, meterRegistry.get("llm.ratelimit.queued").gauge().value());
+        
+        governor.complete(first, LlamaResponse.builder().content("short").totalTokens(20).build());
+        assertNotNull(second.get(2, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    void testThrottlingPausesTheProviderUntilRetryAfter() throws Exception {
+        ReflectionTestUtils.setField(governor, "maxWait", Duration.ofMillis(200));
+        LlmRateGovernor.Reservation reservation = governor.acquire("groq", LIMITS, "prompt", 10);
+        governor.failed(reservation, new LlamaException("throttled", null, 429, Duration.ofSeconds(30)));
+        
+        assertThrows(LlamaException.class, () -> governor.acquire("groq", LIMITS, "prompt", 10));
+        assertEquals(1.0, meterRegistry.counter("llm.ratelimit.throttled", "provider", "groq").count());
+        assertEquals(1.0, meterRegistry.counter("llm.ratelimit.rejected", "provider", "groq").count());
+    }
+}
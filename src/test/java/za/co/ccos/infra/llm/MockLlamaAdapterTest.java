@@ -0,0 +1,57 @@
+package za.co.ccos.infra.llm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MockLlamaAdapterTest {
+    
+    private static final String PROMPT = "SYSTEM: You are a clinical information extractor\nINPUT: headache and fever\nCONTEXT:";
+    
+    @Test
+    void testStreamDeliversCompletionIncrementally() throws Exception {
+        MockLlamaAdapter adapter = new MockLlamaAdapter();
+        ReflectionTestUtils.setField(adapter, "tokensPerSecond", 0);
+        List<String> tokens = new ArrayList<>();
+        
+        LlamaResponse response = adapter.streamPrompt(PROMPT, LlamaOptions.builder().build(), tokens::add);
+        
+        assertTrue(tokens.size() > 10);
+        assertEquals(String.join("", tokens), response.getContent());
+        assertTrue(response.getContent().contains("\"chief_complaint\": \"headache\""));
+        assertNotNull(response.getTimeToFirstToken());
+        assertEquals("stop", response.getFinishReason());
+    }
+    
+    @Test
+    void testListenerCanStopGeneration() throws Exception {
+        MockLlamaAdapter adapter = new MockLlamaAdapter();
+        ReflectionTestUtils.setField(adapter, "tokensPerSecond", 0);
+        List<String> tokens = new ArrayList<>();
+        
+        LlamaResponse response = adapter.streamPrompt(PROMPT, LlamaOptions.builder().build(),
+                token -> tokens.add(token) && tokens.size() < 5);
+        
+        assertEquals(5, tokens.size());
+        assertEquals(LlamaResponse.STOPPED_BY_CLIENT, response.getFinishReason());
+    }
+    
+    @Test
+    void testFusedPromptGetsActionsAndReview() throws Exception {
+        MockLlamaAdapter adapter = new MockLlamaAdapter();
+        ReflectionTestUtils.setField(adapter, "tokensPerSecond", 0);
+        String prompt = "SYSTEM: You are a clinical care coordinator and compliance checker.\nINPUT:\n{\"plan\":\"headache\"}";
+        
+        JsonNode answer = new ObjectMapper().readTree(adapter.streamPrompt(prompt, LlamaOptions.builder().build(),
+                TokenListener.NONE).getContent());
+        
+        assertTrue(answer.path("coordination").path("actions").isArray());
+        assertTrue(answer.path("compliance").isObject());
+    }
+}
@@ -0,0 +1,167 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ResilientLlamaAdapterTest {
+    
+    private LlamaAdapter provider;
+    private SimpleMeterRegistry meterRegistry;
+    private LlmResilience resilience;
+    private ResilientLlamaAdapter adapter;
+    
+    @BeforeEach
+    void setUp() {
+        provider = mock(LlamaAdapter.class);
+        when(provider.getModel()).thenReturn("test-model");
+        
+        meterRegistry = new SimpleMeterRegistry();
+        resilience = new LlmResilience(meterRegistry);
+        ReflectionTestUtils.setField(resilience, "enabled", true);
+        ReflectionTestUtils.setField(resilience, "maxAttempts", 3);
+        ReflectionTestUtils.setField(resilience, "baseBackoff", Duration.ofMillis(1));
+        ReflectionTestUtils.setField(resilience, "maxBackoff", Duration.ofMillis(5));
+        ReflectionTestUtils.setField(resilience, "maxRetryAfter", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(resilience, "windowSize", 4);
+        ReflectionTestUtils.setField(resilience, "minCalls", 4);
+        ReflectionTestUtils.setField(resilience, "failureRateThreshold", 0.5);
+        ReflectionTestUtils.setField(resilience, "openDuration", Duration.ofMillis(100));
+        ReflectionTestUtils.setField(resilience, "halfOpenProbes", 1);
+        ReflectionTestUtils.setField(resilience, "hedgeMinSamples", 1);
+        ReflectionTestUtils.setField(resilience, "hedgeMinDelay", Duration.ofMillis(20));
+        ReflectionTestUtils.setField(resilience, "latencyWindow", 10);
+        
+        adapter = new ResilientLlamaAdapter(provider, resilience);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        resilience.shutdown();
+    }
+    
+    @Test
+    void testTransientFailuresAreRetriedButClientErrorsAreNot() throws Exception {
+        resilience.init();
+        when(provider.runPrompt(anyString(), any()))
+                .thenThrow(new LlamaException("throttled", null, 429, Duration.ZERO))
+                .thenReturn(new LlamaResponse("ok"));
+        
+        assertEquals("ok", adapter.runPrompt("prompt", options()).getContent());
+        assertEquals(1.0, meterRegistry.counter("llm.retries",
+                "provider", "test-model", "stage", "documentation", "reason", "throttled").count());
+        
+        reset(provider);
+        when(provider.getModel()).thenReturn("test-model");
+        when(provider.runPrompt(anyString(), any())).thenThrow(new LlamaException("bad request", null, 400, null));
+        
+        assertThrows(LlamaException.class, () -> adapter.runPrompt("prompt", options()));
+        verify(provider, times(1)).runPrompt(anyString(), any());
+    }
+    
+    @Test
+    void testCircuitOpensThenRecoversThroughHalfOpenProbe() throws Exception {
+        ReflectionTestUtils.setField(resilience, "maxAttempts", 1);
+        resilience.init();
+        when(provider.runPrompt(anyString(), any())).thenThrow(new LlamaException("unavailable", null, 503, null));
+        
+        for (int i = 0; i < 4; i++) {
+            assertThrows(LlamaException.class, () -> adapter.runPrompt("prompt", options()));
+        }
+        LlamaException rejected = assertThrows(LlamaException.class, () -> adapter.runPrompt("prompt", options()));
+        assertTrue(rejected.getMessage().contains("open"));
+        verify(provider, times(4)).runPrompt(anyString(), any());
+        assertEquals(2.0, meterRegistry.get("llm.circuit.state").gauge().value());
+        
+        Thread.sleep(150);
+        reset(provider);
+        when(provider.getModel()).thenReturn("test-model");
+        when(provider.runPrompt(anyString(), any())).thenReturn(new LlamaResponse("recovered"));
+        
+        assertEquals("recovered", adapter.runPrompt("prompt", options()).getContent());
+        assertEquals(0.0, meterRegistry.get("llm.circuit.state").gauge().value());
+        assertEquals(1.0, meterRegistry.counter("llm.circuit.transitions",
+                "provider", "test-model", "from", "half_open", "to", "closed").count());
+    }
+    
+    @Test
+    void testRoutedBackendsTripTheirOwnBreakers() throws Exception {
+        ReflectionTestUtils.setField(resilience, "maxAttempts", 1);
+        resilience.init();
+        when(provider.runPrompt(anyString(), any())).thenThrow(new LlamaException("unavailable", null, 503, null));
+        LlamaAdapter local = mock(LlamaAdapter.class);
+        when(local.getModel()).thenReturn("test-model");
+        when(local.runPrompt(anyString(), any())).thenReturn(new LlamaResponse("from local"));
+        Map<String, LlamaAdapter> backends = new LinkedHashMap<>();
+        backends.put("groq", new ResilientLlamaAdapter(provider, resilience, "groq"));
+        backends.put("local", new ResilientLlamaAdapter(local, resilience, "local"));
+        RoutingLlamaAdapter router = new RoutingLlamaAdapter(backends, Map.of(), 0.5, 1.1,
+                Duration.ofMinutes(1), Duration.ofMinutes(1), meterRegistry);
+        
+        for (int i = 0; i < 6; i++) {
+            assertEquals("from local", router.runPrompt("prompt", options()).getContent());
+        }
+        
+        // The same model on both backends, but only the failing one's breaker opened
+        verify(provider, times(4)).runPrompt(anyString(), any());
+        assertEquals(2.0, meterRegistry.get("llm.circuit.state").tag("provider", "groq").gauge().value());
+        assertEquals(0.0, meterRegistry.get("llm.circuit.state").tag("provider", "local").gauge().value());
+    }
+    
+    @Test
+    void testStreamIsNotRetriedOnceTokensWereDelivered() throws Exception {
+        resilience.init();
+        when(provider.streamPrompt(anyString(), any(), any())).thenAnswer(inv -> {
+            TokenListener listener = inv.getArgument(2);
+            listener.onToken("partial");
+            throw new LlamaException("connection reset", new IOException("reset"));
+        });
+        
+        StringBuilder received = new StringBuilder();
+        assertThrows(LlamaException.class, () -> adapter.streamPrompt("prompt", options(), token -> {
+            received.append(token);
+            return true;
+        }));
+        assertEquals("partial", received.toString());
+        verify(provider, times(1)).streamPrompt(anyString(), any(), any());
+    }
+    
+    @Test
+    void testSlowCallIsHedgedAndFasterAnswerWins() throws Exception {
+        ReflectionTestUtils.setField(resilience, "hedgeEnabled", true);
+        resilience.init();
+        AtomicInteger calls = new AtomicInteger();
+        when(provider.runPrompt(anyString(), any())).thenAnswer(inv -> {
+            int call = calls.incrementAndGet();
+            // The first call only primes the latency window; the second is the slow primary
+            if (call == 2) {
+                Thread.sleep(2000);
+                return new LlamaResponse("slow");
+            }
+            return new LlamaResponse(call == 1 ? "warm-up" : "fast");
+        });
+        
+        adapter.runPrompt("prompt", options());
+        long start = System.nanoTime();
+        assertEquals("fast", adapter.runPrompt("prompt", options()).getContent());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1500);
+        assertEquals(1.0, meterRegistry.counter("llm.hedges", "provider", "test-model", "result", "hedge_won").count());
+    }
+    
+    private LlamaOptions options() {
+        return LlamaOptions.builder().temperature(0.1).maxTokens(100).stage("documentation").build();
+    }
+}
@@ -0,0 +1,75 @@
+package za.co.ccos.infra.llm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class RoutingLlamaAdapterTest {
+    
+    private LlamaAdapter groq;
+    private LlamaAdapter local;
+    private SimpleMeterRegistry meterRegistry;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        groq = mock(LlamaAdapter.class);
+        local = mock(LlamaAdapter.class);
+        when(groq.runPrompt(anyString(), any())).thenReturn(new LlamaResponse("from groq"));
+        when(local.runPrompt(anyString(), any())).thenAnswer(inv -> {
+            Thread.sleep(30);
+            return new LlamaResponse("from local");
+        });
+        meterRegistry = new SimpleMeterRegistry();
+    }
+    
+    @Test
+    void testFailsOverAndEjectsBackendThatKeepsFailing() throws Exception {
+        when(groq.runPrompt(anyString(), any())).thenThrow(new LlamaException("unavailable", null, 503, null));
+        RoutingLlamaAdapter router = router(Map.of(), 0.7);
+        
+        assertEquals("from local", router.runPrompt("prompt", options("documentation")).getContent());
+        assertEquals("from local", router.runPrompt("prompt", options("documentation")).getContent());
+        assertEquals(1.0, meterRegistry.get("llm.router.ejected").tag("backend", "groq").gauge().value());
+        
+        // Ejected backends are only tried after the healthy ones
+        router.runPrompt("prompt", options("documentation"));
+        verify(groq, times(2)).runPrompt(anyString(), any());
+        assertEquals(2.0, meterRegistry.counter("llm.router.failovers",
+                "stage", "documentation", "from", "groq", "to", "local").count());
+    }
+    
+    @Test
+    void testPrefersFastestBackendWithinStageAllowList() throws Exception {
+        RoutingLlamaAdapter router = router(Map.of("patient-email", Set.of("local")), 0.5);
+        
+        // Both backends get measured once, then the faster one takes the traffic
+        router.runPrompt("prompt", options("documentation"));
+        router.runPrompt("prompt", options("documentation"));
+        for (int i = 0; i < 3; i++) {
+            assertEquals("from groq", router.runPrompt("prompt", options("documentation")).getContent());
+        }
+        assertEquals("from local", router.runPrompt("prompt", options("patient-email")).getContent());
+    }
+    
+    private RoutingLlamaAdapter router(Map<String, Set<String>> stages, double maxErrorRate) {
+        Map<String, LlamaAdapter> backends = new LinkedHashMap<>();
+        backends.put("groq", groq);
+        backends.put("local", local);
+        return new RoutingLlamaAdapter(backends, stages, 0.5, maxErrorRate, Duration.ofMinutes(1),
+                Duration.ofMinutes(10), meterRegistry);
+    }
+    
+    private LlamaOptions options(String stage) {
+        return LlamaOptions.builder().temperature(0.1).maxTokens(100).stage(stage).build();
+    }
+}
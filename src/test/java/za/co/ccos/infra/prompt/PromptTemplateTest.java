@@ -0,0 +1,63 @@
+package za.co.ccos.infra.prompt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptTemplateTest {
+    
+    @TempDir
+    Path promptDir;
+    
+    @Test
+    void testRenderFillsEverySlot() {
+        PromptTemplate template = PromptTemplate.compile("test", "A <<X>> and <<Y>>, again <<X>>.");
+        
+        assertEquals(Set.of("X", "Y"), template.getPlaceholders());
+        assertEquals("A 1 and 2, again 1.", template.render(Map.of("X", "1", "Y", "2")));
+    }
+    
+    @Test
+    void testRenderRejectsMissingValue() {
+        PromptTemplate template = PromptTemplate.compile("test", "<<TRANSCRIPT>> for <<PATIENT_NAME>>");
+        
+        assertThrows(IllegalArgumentException.class, () -> template.render(Map.of("TRANSCRIPT", "t")));
+    }
+    
+    @Test
+    void testBundledTemplatesValidate() {
+        PromptTemplateRegistry registry = new PromptTemplateRegistry("");
+        registry.loadTemplates();
+        
+        for (PromptName name : PromptName.values()) {
+            assertEquals(name.getPlaceholders(), registry.get(name).getPlaceholders());
+        }
+    }
+    
+    @Test
+    void testHotReloadKeepsPreviousTemplateWhenInvalid() throws Exception {
+        Path override = promptDir.resolve(PromptName.SCHEDULING.getFileName());
+        Files.writeString(override, "v1 <<ASSESSMENT>> <<PLAN>>");
+        PromptTemplateRegistry registry = new PromptTemplateRegistry(promptDir.toString());
+        registry.loadTemplates();
+        Map<String, String> values = Map.of("ASSESSMENT", "a", "PLAN", "p");
+        assertEquals("v1 a p", registry.render(PromptName.SCHEDULING, values));
+        
+        Files.writeString(override, "v2 <<ASSESSMENT>> <<PLAN>>");
+        Files.setLastModifiedTime(override, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        registry.reloadChangedTemplates();
+        assertEquals("v2 a p", registry.render(PromptName.SCHEDULING, values));
+        
+        Files.writeString(override, "v3 missing the plan <<ASSESSMENT>>");
+        Files.setLastModifiedTime(override, FileTime.fromMillis(System.currentTimeMillis() + 20_000));
+        registry.reloadChangedTemplates();
+        assertEquals("v2 a p", registry.render(PromptName.SCHEDULING, values));
+    }
+}
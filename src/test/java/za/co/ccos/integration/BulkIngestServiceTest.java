@@ -0,0 +1,101 @@
+package za.co.ccos.integration;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import za.co.ccos.app.BulkIngestService;
+import za.co.ccos.app.ConsultationJobQueue;
+import za.co.ccos.domain.*;
+import za.co.ccos.infra.persistence.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Own database, no worker or feeder, and small batches so one input spans several
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:bulkingest",
+        "pipeline.jobs.worker-enabled=false",
+        "bulk.ingest.batch-size=2"
+})
+class BulkIngestServiceTest {
+    
+    private static final String CLINICIAN = "550e8400-e29b-41d4-a716-446655440099";
+    
+    @Autowired
+    private BulkIngestService ingestService;
+    
+    @Autowired
+    private ConsultationJobQueue jobQueue;
+    
+    @Autowired
+    private PatientRepository patientRepository;
+    
+    @Autowired
+    private ConsultationRepository consultationRepository;
+    
+    @Autowired
+    private ConsultationJobRepository jobRepository;
+    
+    @Test
+    void testValidLinesLoadAndInvalidLinesAreReported() {
+        UUID patientId = UUID.randomUUID();
+        UUID consultationId = UUID.randomUUID();
+        String ndjson = String.join("\n",
+                "{\"type\":\"patient\",\"id\":\"" + patientId + "\",\"firstName\":\"Thandi\",\"lastName\":\"Nkosi\","
+                        + "\"dob\":\"1984-03-12\",\"allergies\":[\"Penicillin\",\"Sulfa\"],\"chronicConditions\":[\"Hypertension\"]}",
+                "{\"type\":\"patient\",\"lastName\":\"Dlamini\"}",
+                "not json",
+                "",
+                "{\"type\":\"consultation\",\"id\":\"" + consultationId + "\",\"patientId\":\"" + patientId + "\","
+                        + "\"clinicianId\":\"" + CLINICIAN + "\",\"rawTranscript\":\"Headache for two days\","
+                        + "\"vitalSigns\":{\"bloodPressure\":\"138/88\",\"heartRate\":76},\"createdAt\":\"2024-11-02T09:30:00\"}",
+                "{\"type\":\"consultation\",\"patientId\":\"" + UUID.randomUUID() + "\",\"clinicianId\":\"" + CLINICIAN + "\","
+                        + "\"rawTranscript\":\"Cough\"}",
+                "{\"type\":\"consultation\",\"id\":\"" + consultationId + "\",\"patientId\":\"" + patientId + "\","
+                        + "\"clinicianId\":\"" + CLINICIAN + "\",\"rawTranscript\":\"Duplicate\"}",
+                "{\"type\":\"patient\",\"id\":\"" + patientId + "\",\"firstName\":\"Thandi\",\"lastName\":\"Nkosi\"}");
+        
+        BulkIngestService.Result result = ingestService.ingest(
+                new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+        
+        assertEquals(8, result.lines());
+        assertEquals(1, result.patients());
+        assertEquals(1, result.consultations());
+        assertEquals(5, result.failed());
+        assertEquals(List.of(2L, 3L, 6L, 7L, 8L), result.errors().stream().map(BulkIngestService.LineError::line).toList());
+        assertEquals("firstName is required", result.errors().get(0).error());
+        
+        Patient patient = patientRepository.findById(patientId).orElseThrow();
+        assertEquals(List.of("Penicillin", "Sulfa"), patient.getAllergies());
+        assertEquals(List.of("Hypertension"), patient.getChronicConditions());
+        Consultation consultation = consultationRepository.findById(consultationId).orElseThrow();
+        assertEquals(ConsultationState.QUEUED, consultation.getState());
+        assertEquals("138/88", consultation.getVitalSigns().getBloodPressure());
+        assertTrue(jobRepository.findById(consultationId).isEmpty());
+    }
+    
+    @Test
+    void testWaitingConsultationsAreQueuedInSmallBatches() {
+        // Consultations other tests left waiting
+        jobQueue.enqueueWaiting(1000);
+        UUID patientId = UUID.randomUUID();
+        StringBuilder ndjson = new StringBuilder("{\"type\":\"patient\",\"id\":\"" + patientId
+                + "\",\"firstName\":\"Sipho\",\"lastName\":\"Mokoena\"}\n");
+        for (int i = 0; i < 5; i++) {
+            ndjson.append("{\"type\":\"consultation\",\"patientId\":\"").append(patientId)
+                    .append("\",\"clinicianId\":\"").append(CLINICIAN)
+                    .append("\",\"rawTranscript\":\"Visit ").append(i).append("\"}\n");
+        }
+        ingestService.ingest(new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8)));
+        long pending = jobQueue.pendingCount();
+        
+        assertEquals(3, jobQueue.enqueueWaiting(3));
+        assertEquals(pending + 3, jobQueue.pendingCount());
+        assertEquals(2, jobQueue.enqueueWaiting(3));
+        assertEquals(0, jobQueue.enqueueWaiting(3));
+    }
+}
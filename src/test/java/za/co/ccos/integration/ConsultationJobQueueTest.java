@@ -0,0 +1,164 @@
+package za.co.ccos.integration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import za.co.ccos.app.ConsultationJobQueue;
+import za.co.ccos.domain.*;
+import za.co.ccos.infra.persistence.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Own database and no worker, so nothing else claims the jobs under test
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:jobqueue",
+        "pipeline.jobs.worker-enabled=false"
+})
+class ConsultationJobQueueTest {
+    
+    @Autowired
+    private ConsultationJobQueue jobQueue;
+    
+    @Autowired
+    private ConsultationJobRepository jobRepository;
+    
+    @Autowired
+    private ConsultationRepository consultationRepository;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Test
+    void testJobIsClaimedByOneNodeOnly() {
+        UUID id = UUID.randomUUID();
+        jobQueue.enqueue(id);
+        
+        List<ConsultationJob> first = jobQueue.claim("node-a", 10);
+        List<ConsultationJob> second = jobQueue.claim("node-b", 10);
+        
+        assertTrue(first.stream().anyMatch(job -> job.getConsultationId().equals(id)));
+        assertTrue(second.stream().noneMatch(job -> job.getConsultationId().equals(id)));
+        ConsultationJob job = jobRepository.findById(id).orElseThrow();
+        assertEquals(JobStatus.RUNNING, job.getStatus());
+        assertEquals("node-a", job.getLockedBy());
+        assertEquals(1, job.getAttempts());
+    }
+    
+    @Test
+    void testEnqueueDoesNotOverwriteExistingJob() {
+        UUID id = UUID.randomUUID();
+        jobQueue.enqueue(id);
+        jobQueue.claim("node-a", 10);
+        
+        assertThrows(DataIntegrityViolationException.class, () -> jobQueue.enqueue(id));
+        
+        ConsultationJob job = jobRepository.findById(id).orElseThrow();
+        assertEquals(JobStatus.RUNNING, job.getStatus());
+        assertEquals("node-a", job.getLockedBy());
+    }
+    
+    @Test
+    void testSubmittedConsultationIsNotFedAgain() {
+        jobQueue.enqueueWaiting(1000);
+        Consultation consultation = new Consultation();
+        consultation.setPatientId(UUID.randomUUID());
+        consultation.setClinicianId(UUID.randomUUID());
+        consultation.setState(ConsultationState.QUEUED);
+        
+        UUID id = jobQueue.submit(consultation).getId();
+        
+        assertEquals(JobStatus.PENDING, jobRepository.findById(id).orElseThrow().getStatus());
+        assertEquals(0, jobQueue.enqueueWaiting(1000));
+    }
+    
+    @Test
+    void testRetryBacksOffThenDeadLetters() {
+        UUID id = UUID.randomUUID();
+        jobQueue.enqueue(id);
+        jobQueue.claim("node-a", 10);
+        
+        jobQueue.retryLater(id, "node-a", "compliance timed out");
+        
+        ConsultationJob job = jobRepository.findById(id).orElseThrow();
+        assertEquals(JobStatus.PENDING, job.getStatus());
+        assertTrue(job.getAvailableAt().isAfter(LocalDateTime.now()));
+        assertTrue(jobQueue.claim("node-a", 10).stream().noneMatch(j -> j.getConsultationId().equals(id)));
+        
+        job.setAvailableAt(LocalDateTime.now().minusSeconds(1));
+        jobRepository.save(job);
+        jobQueue.claim("node-a", 10);
+        jobQueue.deadLetter(id, "node-a", "gave up");
+        assertEquals(JobStatus.DEAD, jobRepository.findById(id).orElseThrow().getStatus());
+    }
+    
+    @Test
+    void testWorkerThatLostItsLeaseCannotRecordAnOutcome() {
+        UUID id = UUID.randomUUID();
+        jobQueue.enqueue(id);
+        jobQueue.claim("node-a", 10);
+        ConsultationJob job = jobRepository.findById(id).orElseThrow();
+        job.setLockedUntil(LocalDateTime.now().minusMinutes(1));
+        jobRepository.save(job);
+        jobQueue.reapExpiredLeases();
+        job = jobRepository.findById(id).orElseThrow();
+        job.setAvailableAt(LocalDateTime.now().minusSeconds(1));
+        jobRepository.save(job);
+        assertTrue(jobQueue.claim("node-b", 10).stream().anyMatch(j -> j.getConsultationId().equals(id)));
+        
+        assertFalse(jobQueue.complete(id, "node-a"));
+        assertFalse(jobQueue.release(id, "node-a"));
+        
+        job = jobRepository.findById(id).orElseThrow();
+        assertEquals(JobStatus.RUNNING, job.getStatus());
+        assertEquals("node-b", job.getLockedBy());
+        assertTrue(jobQueue.complete(id, "node-b"));
+        assertEquals(JobStatus.COMPLETED, jobRepository.findById(id).orElseThrow().getStatus());
+    }
+    
+    @Test
+    void testReaperRequeuesExpiredLease() {
+        Consultation consultation = new Consultation();
+        consultation.setPatientId(UUID.randomUUID());
+        consultation.setClinicianId(UUID.randomUUID());
+        consultation.setState(ConsultationState.PROCESSING);
+        UUID id = consultationRepository.save(consultation).getId();
+        jobQueue.enqueue(id);
+        jobQueue.claim("node-a", 10);
+        
+        ConsultationJob job = jobRepository.findById(id).orElseThrow();
+        job.setLockedUntil(LocalDateTime.now().minusMinutes(1));
+        jobRepository.save(job);
+        
+        jobQueue.reapExpiredLeases();
+        
+        assertEquals(JobStatus.PENDING, jobRepository.findById(id).orElseThrow().getStatus());
+        assertEquals(ConsultationState.QUEUED, consultationRepository.findById(id).orElseThrow().getState());
+    }
+    
+    @Test
+    void testPendingGaugeFollowsQueueAndClaimWaitIsTimed() {
+        jobQueue.refreshPendingCount();
+        long pending = jobQueue.pendingCount();
+        Timer claimWait = meterRegistry.get("pipeline.jobs.claim.wait").timer();
+        long waits = claimWait.count();
+        
+        jobQueue.enqueue(UUID.randomUUID());
+        jobQueue.enqueue(UUID.randomUUID());
+        assertEquals(pending + 2, jobQueue.pendingCount());
+        assertEquals(pending + 2, meterRegistry.get("pipeline.jobs.pending").gauge().value());
+        
+        int claimed = jobQueue.claim("node-a", 1000).size();
+        
+        assertEquals(pending + 2 - claimed, jobQueue.pendingCount());
+        assertEquals(waits + claimed, claimWait.count());
+        jobQueue.refreshPendingCount();
+        assertEquals(jobRepository.countByStatus(JobStatus.PENDING), jobQueue.pendingCount());
+    }
+}
@@ -0,0 +1,259 @@
+package za.co.ccos.integration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import za.co.ccos.app.ConsultationJobQueue;
+import za.co.ccos.app.ConsultationOrchestrator;
+import za.co.ccos.app.StageCheckpointService;
+import za.co.ccos.domain.*;
+import za.co.ccos.infra.llm.LlamaAdapter;
+import za.co.ccos.infra.llm.LlamaException;
+import za.co.ccos.infra.llm.LlamaResponse;
+import za.co.ccos.infra.persistence.*;
+import za.co.ccos.web.ConsultationController;
+import za.co.ccos.web.dto.ReprocessResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+// Own database and no worker, so jobs only move when the test moves them
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:reprocess",
+        "pipeline.jobs.worker-enabled=false"
+})
+class ConsultationReprocessTest {
+    
+    private static final String PERCEPTION = "{\"chief_complaint\":\"headache\",\"symptoms\":[],\"duration\":\"3 days\","
+            + "\"vitals\":{},\"medications_reported\":[],\"possible_differentials\":[],\"red_flags\":[],\"missing_questions\":[]}";
+    private static final String DOCUMENTATION = "{\"soap\":{\"subjective\":\"Headache for 3 days\",\"objective\":\"BP 120/80\","
+            + "\"assessment\":\"Tension headache\",\"plan\":\"Rest and fluids\"},\"patient_summary\":\"Headache\","
+            + "\"icd10_suggestions\":[{\"code\":\"G44.2\",\"desc\":\"Tension-type headache\",\"confidence\":0.9}],\"confidence\":0.85}";
+    private static final String COORDINATION = "{\"actions\":[],\"notes\":\"Follow up if worse\"}";
+    
+    @Autowired
+    private ConsultationController controller;
+    
+    @Autowired
+    private ConsultationOrchestrator orchestrator;
+    
+    @Autowired
+    private ConsultationJobQueue jobQueue;
+    
+    @Autowired
+    private ConsultationRepository consultationRepository;
+    
+    @Autowired
+    private PatientRepository patientRepository;
+    
+    @Autowired
+    private StageCheckpointRepository checkpointRepository;
+    
+    @Autowired
+    private GeneratedNoteRepository generatedNoteRepository;
+    
+    @Autowired
+    private StageCheckpointService checkpointService;
+    
+    @MockBean
+    private LlamaAdapter llamaAdapter;
+    
+    // Model calls per agent, and whether coordination currently fails
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final AtomicBoolean coordinationFails = new AtomicBoolean();
+    
+    private UUID consultationId;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        when(llamaAdapter.runPrompt(any(), any())).thenAnswer(invocation -> {
+            String prompt = invocation.getArgument(0);
+            if (prompt.contains("clinical data extractor")) {
+                return answer("perception", PERCEPTION);
+            } else if (prompt.contains("clinical documentation specialist")) {
+                return answer("documentation", DOCUMENTATION);
+            } else if (prompt.contains("care coordinator")) {
+                if (coordinationFails.get()) {
+                    calls.computeIfAbsent("coordination", key -> new AtomicInteger()).incrementAndGet();
+                    throw new LlamaException("Provider unavailable");
+                }
+                return answer("coordination", COORDINATION);
+            }
+            return answer("compliance", "{\"issues\":[],\"suggested_edits\":[],\"compliance_ok\":true}");
+        });
+        
+        Patient patient = new Patient();
+        patient.setFirstName("Lerato");
+        patient.setLastName("Molefe");
+        patient = patientRepository.save(patient);
+        Consultation consultation = new Consultation();
+        consultation.setPatientId(patient.getId());
+        consultation.setClinicianId(UUID.randomUUID());
+        consultation.setRawTranscript("Headache for three days, worse in the evening");
+        consultation.setState(ConsultationState.QUEUED);
+        consultationId = consultationRepository.save(consultation).getId();
+    }
+    
+    @Test
+    void testFailedAttemptResumesFromFirstStageWithoutCheckpoint() throws Exception {
+        coordinationFails.set(true);
+        
+        assertEquals(ConsultationState.ERROR, orchestrator.processConsultation(consultationId, false).get());
+        // Compliance runs alongside coordination, so whether it finished before the failure varies
+        assertTrue(checkpointedStages().containsAll(Set.of("perception", "documentation")));
+        assertFalse(checkpointedStages().contains("coordination"));
+        
+        coordinationFails.set(false);
+        assertEquals(ConsultationState.READY, orchestrator.processConsultation(consultationId, false).get());
+        
+        assertEquals(1, calls.get("perception").get());
+        assertEquals(1, calls.get("documentation").get());
+        assertEquals(2, calls.get("coordination").get());
+        assertEquals(Set.of("perception", "documentation", "coordination", "compliance", "action-compliance"),
+                checkpointedStages());
+        // The resumed attempt finished the note the first one saved
+        assertEquals(Set.of(consultationRepository.findById(consultationId).orElseThrow().getGeneratedNoteId()),
+                noteIds());
+    }
+    
+    @Test
+    void testNoteIsReplacedOnlyWhenDocumentationRunsAgain() throws Exception {
+        assertEquals(ConsultationState.READY, orchestrator.processConsultation(consultationId, false).get());
+        UUID firstNote = consultationRepository.findById(consultationId).orElseThrow().getGeneratedNoteId();
+        
+        checkpointRepository.deleteStages(consultationId, Set.of("coordination", "action-compliance"));
+        assertEquals(ConsultationState.READY, orchestrator.processConsultation(consultationId, false).get());
+        assertEquals(Set.of(firstNote), noteIds());
+        
+        orchestrator.resetFromStage(consultationId, "documentation");
+        assertEquals(ConsultationState.READY, orchestrator.processConsultation(consultationId, false).get());
+        UUID secondNote = consultationRepository.findById(consultationId).orElseThrow().getGeneratedNoteId();
+        assertNotEquals(firstNote, secondNote);
+        assertEquals(2, calls.get("documentation").get());
+    }
+    
+    @Test
+    void testFromStageClearsThatStageAndEverythingDownstream() throws Exception {
+        assertEquals(ConsultationState.READY, orchestrator.processConsultation(consultationId, false).get());
+        
+        ResponseEntity<ReprocessResponse> response = controller.reprocessConsultation(consultationId, "documentation");
+        
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(Set.of("documentation", "coordination", "compliance", "action-compliance"),
+                Set.copyOf(response.getBody().getRerunStages()));
+        assertEquals(Set.of("perception"), checkpointedStages());
+        assertEquals(ConsultationState.QUEUED, consultationRepository.findById(consultationId).orElseThrow().getState());
+        assertTrue(jobQueue.isActive(consultationId));
+    }
+    
+    @Test
+    void testUnknownStageIsRejected() throws Exception {
+        assertEquals(ConsultationState.READY, orchestrator.processConsultation(consultationId, false).get());
+        
+        ResponseEntity<ReprocessResponse> response = controller.reprocessConsultation(consultationId, "billing");
+        
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(5, checkpointedStages().size());
+        assertFalse(jobQueue.isActive(consultationId));
+    }
+    
+    @Test
+    void testApprovedConsultationIsNotReprocessed() throws Exception {
+        assertEquals(ConsultationState.READY, orchestrator.processConsultation(consultationId, false).get());
+        Consultation consultation = consultationRepository.findById(consultationId).orElseThrow();
+        consultation.setState(ConsultationState.APPROVED);
+        consultationRepository.save(consultation);
+        
+        ResponseEntity<ReprocessResponse> response = controller.reprocessConsultation(consultationId, "documentation");
+        
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertEquals(ConsultationState.APPROVED, consultationRepository.findById(consultationId).orElseThrow().getState());
+        assertEquals(5, checkpointedStages().size());
+        assertFalse(jobQueue.isActive(consultationId));
+    }
+    
+    @Test
+    void testActiveJobIsNotReprocessed() {
+        // Failed, but a retry is already waiting in the queue
+        Consultation consultation = consultationRepository.findById(consultationId).orElseThrow();
+        consultation.setState(ConsultationState.ERROR);
+        consultationRepository.save(consultation);
+        jobQueue.enqueue(consultationId);
+        
+        ResponseEntity<ReprocessResponse> response = controller.reprocessConsultation(consultationId, null);
+        
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertEquals(ConsultationState.ERROR, consultationRepository.findById(consultationId).orElseThrow().getState());
+    }
+    
+    @Test
+    void testConcurrentCheckpointsOfOneStageKeepOneRow() throws Exception {
+        // Two attempts racing on the same stage, e.g. a reaped worker that is still running
+        int attempts = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(attempts);
+        try {
+            List<Callable<Void>> saves = new ArrayList<>();
+            for (int i = 0; i < attempts; i++) {
+                String value = "attempt-" + i;
+                saves.add(() -> {
+                    start.await();
+                    checkpointService.save(consultationId, "billing", Map.of("invoice", value));
+                    return null;
+                });
+            }
+            List<Future<Void>> results = saves.stream().map(executor::submit).toList();
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        List<StageCheckpoint> billing = checkpointRepository.findByConsultationId(consultationId).stream()
+                .filter(checkpoint -> checkpoint.getStage().equals("billing"))
+                .toList();
+        assertEquals(1, billing.size());
+        assertTrue(billing.get(0).getOutputs().contains("attempt-"));
+    }
+    
+    private LlamaResponse answer(String agent, String content) {
+        calls.computeIfAbsent(agent, key -> new AtomicInteger()).incrementAndGet();
+        return new LlamaResponse(content);
+    }
+    
+    private Set<UUID> noteIds() {
+        return generatedNoteRepository.findAll().stream()
+                .filter(note -> note.getConsultationId().equals(consultationId))
+                .map(GeneratedNote::getId)
+                .collect(Collectors.toSet());
+    }
+    
+    private Set<String> checkpointedStages() {
+        return checkpointRepository.findByConsultationId(consultationId).stream()
+                .map(StageCheckpoint::getStage)
+                .collect(Collectors.toSet());
+    }
+}
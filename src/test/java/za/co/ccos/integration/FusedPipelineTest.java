@@ -0,0 +1,69 @@
+package za.co.ccos.integration;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import za.co.ccos.app.ConsultationOrchestrator;
+import za.co.ccos.domain.*;
+import za.co.ccos.infra.persistence.*;
+
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Fused mode on the default mock provider, with the compliance model always asked
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:fused",
+        "pipeline.jobs.worker-enabled=false",
+        "pipeline.mode=fused",
+        "compliance.llm-mode=always",
+        "approval.precompute.enabled=false",
+        "llama.provider=mock"
+})
+class FusedPipelineTest {
+    
+    @Autowired
+    private ConsultationOrchestrator orchestrator;
+    
+    @Autowired
+    private ConsultationRepository consultationRepository;
+    
+    @Autowired
+    private PatientRepository patientRepository;
+    
+    @Autowired
+    private GeneratedNoteRepository generatedNoteRepository;
+    
+    @Autowired
+    private StageCheckpointRepository checkpointRepository;
+    
+    @Test
+    void testFusedModeRunsEndToEndOnMockProvider() throws Exception {
+        Patient patient = new Patient();
+        patient.setFirstName("Sipho");
+        patient.setLastName("Dlamini");
+        patient.setDob(LocalDate.of(1975, 6, 1));
+        patient.setAllergies("Sulfa");
+        patient = patientRepository.save(patient);
+        
+        Consultation consultation = new Consultation();
+        consultation.setPatientId(patient.getId());
+        consultation.setClinicianId(UUID.randomUUID());
+        consultation.setRawTranscript("Patient reports a throbbing headache for three days, worse with light");
+        consultation.setState(ConsultationState.QUEUED);
+        UUID consultationId = consultationRepository.save(consultation).getId();
+        
+        assertEquals(ConsultationState.READY, orchestrator.processConsultation(consultationId, false).get());
+        
+        Consultation processed = consultationRepository.findById(consultationId).orElseThrow();
+        GeneratedNote note = generatedNoteRepository.findById(processed.getGeneratedNoteId()).orElseThrow();
+        assertTrue(note.getSuggestedActions().contains("\"actions\""));
+        Set<String> stages = checkpointRepository.findByConsultationId(consultationId).stream()
+                .map(StageCheckpoint::getStage)
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("perception", "documentation", "coordination-compliance"), stages);
+    }
+}
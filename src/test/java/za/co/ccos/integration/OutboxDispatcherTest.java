@@ -0,0 +1,162 @@
+package za.co.ccos.integration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.util.ReflectionTestUtils;
+import za.co.ccos.app.ApprovalArtifactService;
+import za.co.ccos.app.ApprovalArtifactService.ApprovalArtifacts;
+import za.co.ccos.app.ConsultationApprovalService;
+import za.co.ccos.app.EhrSyncService;
+import za.co.ccos.app.OutboxDispatcher;
+import za.co.ccos.app.PatientEmailService;
+import za.co.ccos.app.PatientSummaryService;
+import za.co.ccos.domain.*;
+import za.co.ccos.infra.llm.LlamaAdapter;
+import za.co.ccos.infra.persistence.*;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+// Own database, no pipeline worker, and a dispatcher that only runs when the test calls it
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:outbox",
+        "pipeline.jobs.worker-enabled=false",
+        "approval.precompute.enabled=false",
+        "outbox.poll-interval-ms=3600000"
+})
+class OutboxDispatcherTest {
+    
+    @Autowired
+    private ConsultationApprovalService approvalService;
+    
+    @Autowired
+    private OutboxDispatcher dispatcher;
+    
+    @Autowired
+    private OutboxMessageRepository outboxRepository;
+    
+    @Autowired
+    private ConsultationRepository consultationRepository;
+    
+    @Autowired
+    private PatientRepository patientRepository;
+    
+    @Autowired
+    private GeneratedNoteRepository generatedNoteRepository;
+    
+    @MockBean
+    private ApprovalArtifactService approvalArtifacts;
+    
+    @MockBean
+    private PatientEmailService emailService;
+    
+    @MockBean
+    private EhrSyncService ehrSyncService;
+    
+    // Approval events would otherwise refresh the patient summary through the real provider
+    @MockBean
+    private PatientSummaryService patientSummaryService;
+    
+    @MockBean
+    private LlamaAdapter llamaAdapter;
+    
+    private UUID consultationId;
+    
+    @BeforeEach
+    void setUp() {
+        Patient patient = patientRepository.findAll().get(0);
+        Consultation consultation = new Consultation();
+        consultation.setPatientId(patient.getId());
+        consultation.setClinicianId(UUID.randomUUID());
+        consultation.setState(ConsultationState.READY);
+        consultationId = consultationRepository.save(consultation).getId();
+        
+        GeneratedNote note = new GeneratedNote();
+        note.setConsultationId(consultationId);
+        note.setCreatedBy(consultation.getClinicianId());
+        note.setSoapAssessment("Tension headache");
+        note.setSoapPlan("Paracetamol 1g QID");
+        consultation.setGeneratedNoteId(generatedNoteRepository.save(note).getId());
+        consultationRepository.save(consultation);
+        
+        when(approvalArtifacts.precomputed(any(), any())).thenReturn(Optional.empty());
+        when(approvalArtifacts.artifactsFor(any(), any(), any()))
+                .thenReturn(new ApprovalArtifacts("TIMEFRAME: 2 weeks", "Dear patient"));
+    }
+    
+    @Test
+    void testApprovalQueuesSideEffectsOnce() {
+        approvalService.approve(consultationId, UUID.randomUUID());
+        approvalService.approve(consultationId, UUID.randomUUID());
+        
+        assertEquals(ConsultationState.APPROVED, consultationRepository.findById(consultationId).orElseThrow().getState());
+        List<OutboxMessage> messages = outboxRepository.findByConsultationId(consultationId);
+        assertEquals(2, messages.size());
+        assertTrue(messages.stream().allMatch(m -> m.getStatus() == JobStatus.PENDING));
+        verifyNoInteractions(emailService, ehrSyncService);
+    }
+    
+    @Test
+    void testDeliveryMarksConsultationSynced() {
+        approvalService.approve(consultationId, UUID.randomUUID());
+        
+        dispatcher.dispatch();
+        
+        assertEquals(ConsultationState.SYNCED, consultationRepository.findById(consultationId).orElseThrow().getState());
+        List<OutboxMessage> messages = outboxRepository.findByConsultationId(consultationId);
+        assertTrue(messages.stream().allMatch(m -> m.getStatus() == JobStatus.COMPLETED && m.getDeliveredAt() != null));
+        String emailKey = messages.stream().filter(m -> m.getType() == OutboxMessageType.PATIENT_EMAIL)
+                .findFirst().orElseThrow().getIdempotencyKey();
+        verify(emailService).sendEmail(anyString(), anyString(), eq("Dear patient"), eq(emailKey));
+    }
+    
+    @Test
+    void testFailedSyncIsRetriedLater() {
+        when(ehrSyncService.sync(anyList())).thenThrow(new RuntimeException("EHR unavailable"));
+        approvalService.approve(consultationId, UUID.randomUUID());
+        
+        dispatcher.dispatch();
+        
+        OutboxMessage sync = outboxRepository.findByConsultationId(consultationId).stream()
+                .filter(m -> m.getType() == OutboxMessageType.EHR_SYNC).findFirst().orElseThrow();
+        assertEquals(JobStatus.PENDING, sync.getStatus());
+        assertEquals(1, sync.getAttempts());
+        assertEquals("EHR unavailable", sync.getLastError());
+        assertTrue(sync.getAvailableAt().isAfter(LocalDateTime.now()));
+        assertEquals(ConsultationState.APPROVED, consultationRepository.findById(consultationId).orElseThrow().getState());
+    }
+    
+    @Test
+    void testEmailsLeftWhenTheBatchRunsOutOfTimeArePostponed() {
+        approvalService.approve(consultationId, UUID.randomUUID());
+        Duration maxBatchDuration = (Duration) ReflectionTestUtils.getField(dispatcher, "maxBatchDuration");
+        ReflectionTestUtils.setField(dispatcher, "maxBatchDuration", Duration.ZERO);
+        try {
+            dispatcher.dispatch();
+        } finally {
+            ReflectionTestUtils.setField(dispatcher, "maxBatchDuration", maxBatchDuration);
+        }
+        
+        OutboxMessage email = outboxRepository.findByConsultationId(consultationId).stream()
+                .filter(m -> m.getType() == OutboxMessageType.PATIENT_EMAIL).findFirst().orElseThrow();
+        assertEquals(JobStatus.PENDING, email.getStatus());
+        assertEquals(0, email.getAttempts());
+        assertNull(email.getLockedBy());
+        verifyNoInteractions(emailService);
+        // The EHR sync goes out before any email and is not held back
+        assertEquals(ConsultationState.SYNCED, consultationRepository.findById(consultationId).orElseThrow().getState());
+    }
+}
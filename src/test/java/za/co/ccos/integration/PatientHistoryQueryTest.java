@@ -0,0 +1,114 @@
+package za.co.ccos.integration;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import za.co.ccos.domain.*;
+import za.co.ccos.infra.persistence.*;
+import za.co.ccos.web.ConsultationController;
+import za.co.ccos.web.dto.ConsultationDetailResponse;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:history",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "pipeline.jobs.worker-enabled=false"
+})
+class PatientHistoryQueryTest {
+    
+    @Autowired
+    private ConsultationController controller;
+    
+    @Autowired
+    private ConsultationRepository consultationRepository;
+    
+    @Autowired
+    private GeneratedNoteRepository generatedNoteRepository;
+    
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    
+    @Test
+    void testQueryCountStaysConstantAsHistoryGrows() {
+        UUID patientId = UUID.randomUUID();
+        LocalDateTime start = LocalDateTime.now().minusYears(1);
+        seed(patientId, start, 0, 5);
+        long shortHistory = statementsFor(patientId);
+        
+        seed(patientId, start, 5, 80);
+        long longHistory = statementsFor(patientId);
+        
+        // One keyset query for the consultations plus one IN query for their notes
+        assertEquals(2, shortHistory);
+        assertEquals(shortHistory, longHistory);
+    }
+    
+    @Test
+    void testCursorWalksWholeHistoryNewestFirst() {
+        UUID patientId = UUID.randomUUID();
+        // Shared timestamps make the id tie-breaker matter
+        LocalDateTime sameInstant = LocalDateTime.now().withNano(0);
+        for (int i = 0; i < 7; i++) {
+            consultation(patientId, sameInstant, null);
+        }
+        seed(patientId, sameInstant.minusDays(30), 0, 6);
+        
+        List<UUID> seen = new ArrayList<>();
+        LocalDateTime previous = null;
+        String cursor = null;
+        int pages = 0;
+        do {
+            ResponseEntity<List<ConsultationDetailResponse>> page = controller.getPatientHistory(patientId, cursor, 4);
+            for (ConsultationDetailResponse consultation : page.getBody()) {
+                assertTrue(previous == null || !consultation.getTimestamp().isAfter(previous));
+                previous = consultation.getTimestamp();
+                seen.add(consultation.getId());
+            }
+            cursor = page.getHeaders().getFirst("X-Next-Cursor");
+            pages++;
+        } while (cursor != null);
+        
+        assertEquals(4, pages);
+        assertEquals(13, seen.size());
+        assertEquals(13, new HashSet<>(seen).size());
+        assertEquals(400, controller.getPatientHistory(patientId, "not-a-cursor", 4).getStatusCode().value());
+    }
+    
+    private long statementsFor(UUID patientId) {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        List<ConsultationDetailResponse> page = controller.getPatientHistory(patientId, null, 50).getBody();
+        assertTrue(page.stream().allMatch(c -> c.getGeneratedNote() != null));
+        return statistics.getPrepareStatementCount();
+    }
+    
+    private void seed(UUID patientId, LocalDateTime start, int from, int to) {
+        for (int i = from; i < to; i++) {
+            GeneratedNote note = new GeneratedNote();
+            note.setConsultationId(UUID.randomUUID());
+            note.setSoapAssessment("Visit " + i);
+            note.setCreatedBy(UUID.randomUUID());
+            note = generatedNoteRepository.save(note);
+            consultation(patientId, start.plusDays(i), note.getId());
+        }
+    }
+    
+    private void consultation(UUID patientId, LocalDateTime createdAt, UUID noteId) {
+        Consultation consultation = new Consultation();
+        consultation.setPatientId(patientId);
+        consultation.setClinicianId(UUID.randomUUID());
+        consultation.setState(ConsultationState.APPROVED);
+        consultation.setRawTranscript("Follow-up");
+        consultation.setCreatedAt(createdAt);
+        consultation.setGeneratedNoteId(noteId);
+        consultationRepository.save(consultation);
+    }
+}
@@ -0,0 +1,67 @@
+package za.co.ccos.integration;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import za.co.ccos.domain.Patient;
+import za.co.ccos.infra.persistence.PatientRepository;
+import za.co.ccos.web.PatientController;
+import za.co.ccos.web.dto.PatientResponse;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:patientlisting",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "pipeline.jobs.worker-enabled=false"
+})
+class PatientListingQueryTest {
+    
+    @Autowired
+    private PatientController controller;
+    
+    @Autowired
+    private PatientRepository patientRepository;
+    
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    
+    @Test
+    void testPageIsFilteredSortedAndLoadsConditionsInOneQuery() {
+        for (int i = 0; i < 30; i++) {
+            Patient patient = new Patient();
+            patient.setFirstName("Listing" + i);
+            patient.setLastName(String.format("Qxlist-%02d", i));
+            patient.setDob(LocalDate.of(1970, 1, 1).plusYears(i));
+            patient.setMedicalRecordNumber("LST-" + i);
+            patient.setAllergies("Penicillin, Sulfa");
+            patient.setChronicConditions(List.of("Hypertension", "Asthma"));
+            patientRepository.save(patient);
+        }
+        
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        ResponseEntity<List<PatientResponse>> page = controller.getAllPatients("qxlist", 1, 10, "lastName", "desc");
+        
+        // Page, count and the page's conditions; no per-patient collection loads
+        assertEquals(3, statistics.getPrepareStatementCount());
+        assertEquals("30", page.getHeaders().getFirst("X-Total-Count"));
+        List<PatientResponse> patients = page.getBody();
+        assertEquals(10, patients.size());
+        assertEquals("Qxlist-19", patients.get(0).getLastName());
+        assertEquals("Qxlist-10", patients.get(9).getLastName());
+        assertEquals(List.of("Hypertension", "Asthma"), patients.get(0).getChronicConditions());
+        assertEquals(List.of("Penicillin", "Sulfa"), patients.get(0).getAllergies());
+        
+        assertEquals(400, controller.getAllPatients(null, 0, 10, "allergies", "asc").getStatusCode().value());
+        assertTrue(controller.getAllPatients(null, 0, 500, "lastName", "asc").getBody().stream()
+                .noneMatch(p -> p.getId().toString().equals("550e8400-e29b-41d4-a716-446655440099")));
+    }
+}
@@ -0,0 +1,204 @@
+package za.co.ccos.integration;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import za.co.ccos.infra.persistence.ConsultationHistoryRow;
+import za.co.ccos.infra.persistence.ConsultationRepository;
+import za.co.ccos.web.ConsultationController;
+import za.co.ccos.web.PatientController;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Latency ceilings for the hot queries against a production-sized dataset. Only runs
+ * with {@code mvn test -Pperf}. The data lives in an H2 file under {@code target/},
+ * keyed by the dataset size, so it is seeded once and reused by later runs.
+ * Scale and ceilings can be overridden with {@code -Dperf.patients},
+ * {@code -Dperf.consultations} and {@code -Dperf.ceiling.<query>-ms}.
+ */
+@Tag("perf")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = "pipeline.jobs.worker-enabled=false")
+class QueryPerformanceTest {
+    
+    private static final int PATIENTS = Integer.getInteger("perf.patients", 200_000);
+    private static final int CONSULTATIONS = Integer.getInteger("perf.consultations", 2_000_000);
+    
+    // Long-term chronic patient whose history is paged through
+    private static final int HOT_PATIENT_VISITS = 1_000;
+    private static final int BATCH = 10_000;
+    private static final int WARM_UP = 20;
+    private static final int SAMPLES = 200;
+    
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url",
+                () -> "jdbc:h2:file:./target/perf-db/ccos-" + PATIENTS + "-" + CONSULTATIONS);
+    }
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ConsultationRepository consultationRepository;
+    
+    @Autowired
+    private ConsultationController consultationController;
+    
+    @Autowired
+    private PatientController patientController;
+    
+    private UUID hotPatient;
+    private ConsultationHistoryRow deepRow;
+    
+    @BeforeAll
+    void seed() {
+        hotPatient = patientId(0);
+        Integer seeded = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM patients WHERE medical_record_number LIKE 'PERF-%'", Integer.class);
+        if (seeded == null || seeded < PATIENTS) {
+            long start = System.nanoTime();
+            insertPatients();
+            insertConsultations();
+            System.out.printf("Seeded %d patients and %d consultations in %ds%n", PATIENTS, CONSULTATIONS,
+                    Duration.ofNanos(System.nanoTime() - start).toSeconds());
+        }
+        List<ConsultationHistoryRow> history = consultationRepository.findHistory(hotPatient,
+                PageRequest.ofSize(HOT_PATIENT_VISITS));
+        deepRow = history.get(history.size() * 9 / 10);
+    }
+    
+    @Test
+    void testHistoryFirstPage() {
+        assertCeiling("history-first-page", 20,
+                () -> consultationRepository.findHistory(hotPatient, PageRequest.ofSize(51)));
+    }
+    
+    @Test
+    void testHistoryDeepPage() {
+        assertCeiling("history-deep-page", 20, () -> consultationRepository.findHistoryBefore(
+                hotPatient, deepRow.createdAt(), deepRow.id(), PageRequest.ofSize(51)));
+    }
+    
+    @Test
+    void testFullHistoryForSummary() {
+        assertCeiling("full-history", 150,
+                () -> consultationRepository.findByPatientIdOrderByCreatedAtDesc(hotPatient));
+    }
+    
+    @Test
+    void testHistoryEndpoint() {
+        assertCeiling("history-endpoint", 40,
+                () -> consultationController.getPatientHistory(hotPatient, null, 50));
+    }
+    
+    @Test
+    void testStateWorklist() {
+        assertCeiling("state-worklist", 20, () -> jdbcTemplate.queryForList(
+                "SELECT id FROM consultations WHERE state = 'QUEUED' ORDER BY created_at LIMIT 50"));
+    }
+    
+    @Test
+    void testNoteByConsultation() {
+        assertCeiling("note-by-consultation", 10, () -> jdbcTemplate.queryForList(
+                "SELECT id FROM generated_notes WHERE consultation_id = ?", deepRow.id()));
+    }
+    
+    @Test
+    void testPatientListing() {
+        // The unfiltered page still counts every patient for X-Total-Count
+        assertCeiling("patient-listing", 250,
+                () -> patientController.getAllPatients(null, 100, 50, "lastName", "asc"));
+    }
+    
+    @Test
+    void testPatientSearch() {
+        // Substring search cannot use an index; this guards against it getting much worse
+        assertCeiling("patient-search", 1_500,
+                () -> patientController.getAllPatients("perf-1234", 0, 50, "lastName", "asc"));
+    }
+    
+    private void assertCeiling(String query, long defaultCeilingMs, Runnable call) {
+        long ceilingMs = Long.getLong("perf.ceiling." + query + "-ms", defaultCeilingMs);
+        for (int i = 0; i < WARM_UP; i++) {
+            call.run();
+        }
+        long[] samples = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            call.run();
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        double p95Ms = samples[(int) (SAMPLES * 0.95) - 1] / 1_000_000.0;
+        System.out.printf("%-22s p50 %7.2fms  p95 %7.2fms  (ceiling %dms)%n", query,
+                samples[SAMPLES / 2] / 1_000_000.0, p95Ms, ceilingMs);
+        assertTrue(p95Ms <= ceilingMs, query + " p95 " + p95Ms + "ms exceeds " + ceilingMs + "ms");
+    }
+    
+    private void insertPatients() {
+        List<Object[]> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < PATIENTS; i++) {
+            batch.add(new Object[]{patientId(i), "Perf" + i, "Patient" + (i % 5_000),
+                    java.sql.Date.valueOf(LocalDateTime.now().toLocalDate().minusDays(7_000 + i % 20_000)),
+                    "PERF-" + i, i % 4 == 0 ? "Penicillin" : null});
+            if (batch.size() == BATCH || i == PATIENTS - 1) {
+                jdbcTemplate.batchUpdate("INSERT INTO patients (id, first_name, last_name, dob, medical_record_number, "
+                        + "allergies) VALUES (?, ?, ?, ?, ?, ?)", batch);
+                jdbcTemplate.batchUpdate("INSERT INTO patient_chronic_conditions (patient_id, condition) VALUES (?, ?)",
+                        batch.stream().filter(row -> row[5] != null)
+                                .map(row -> new Object[]{row[0], "Hypertension"}).toList());
+                batch.clear();
+            }
+        }
+    }
+    
+    private void insertConsultations() {
+        Random random = new Random(42);
+        String[] states = {"APPROVED", "APPROVED", "APPROVED", "SYNCED", "READY", "QUEUED", "ERROR"};
+        LocalDateTime origin = LocalDateTime.now().minusYears(5);
+        List<Object[]> consultations = new ArrayList<>(BATCH);
+        List<Object[]> notes = new ArrayList<>();
+        for (int i = 0; i < CONSULTATIONS; i++) {
+            boolean hot = i < HOT_PATIENT_VISITS;
+            UUID id = UUID.randomUUID();
+            UUID noteId = hot ? UUID.randomUUID() : null;
+            UUID patientId = hot ? hotPatient : patientId(1 + random.nextInt(PATIENTS - 1));
+            Timestamp createdAt = Timestamp.valueOf(origin.plusMinutes(random.nextInt(5 * 365 * 24 * 60)));
+            consultations.add(new Object[]{id, patientId, hotPatient, createdAt, "Follow-up visit",
+                    states[random.nextInt(states.length)], noteId});
+            if (hot) {
+                notes.add(new Object[]{noteId, id, "Stable", createdAt, hotPatient});
+            }
+            if (consultations.size() == BATCH || i == CONSULTATIONS - 1) {
+                jdbcTemplate.batchUpdate("INSERT INTO consultations (id, patient_id, clinician_id, created_at, "
+                        + "raw_transcript, state, generated_note_id) VALUES (?, ?, ?, ?, ?, ?, ?)", consultations);
+                jdbcTemplate.batchUpdate("INSERT INTO generated_notes (id, consultation_id, soap_assessment, "
+                        + "created_at, created_by) VALUES (?, ?, ?, ?, ?)", notes);
+                consultations.clear();
+                notes.clear();
+            }
+        }
+    }
+    
+    private static UUID patientId(int index) {
+        return new UUID(0x5EED_0000_0000_0000L, index);
+    }
+}
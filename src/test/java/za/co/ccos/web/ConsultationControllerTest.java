@@ -0,0 +1,82 @@
+package za.co.ccos.web;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import za.co.ccos.app.ConsultationApprovalService;
+import za.co.ccos.app.ConsultationJobQueue;
+import za.co.ccos.app.ConsultationOrchestrator;
+import za.co.ccos.domain.Consultation;
+import za.co.ccos.domain.ConsultationState;
+import za.co.ccos.domain.Patient;
+import za.co.ccos.infra.persistence.ConsultationRepository;
+import za.co.ccos.infra.persistence.GeneratedNoteRepository;
+import za.co.ccos.infra.persistence.PatientRepository;
+import za.co.ccos.web.dto.UploadRequest;
+import za.co.ccos.web.dto.UploadResponse;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ConsultationControllerTest {
+    
+    private ConsultationJobQueue jobQueue;
+    private ConsultationController controller;
+    private UploadRequest request;
+    
+    @BeforeEach
+    void setUp() {
+        jobQueue = mock(ConsultationJobQueue.class);
+        PatientRepository patientRepository = mock(PatientRepository.class);
+        controller = new ConsultationController(mock(ConsultationRepository.class), patientRepository,
+                mock(GeneratedNoteRepository.class), jobQueue, mock(ConsultationOrchestrator.class),
+                mock(ConsultationApprovalService.class), mock(ConsultationEventRegistry.class),
+                mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(controller, "maxBacklog", 200L);
+        ReflectionTestUtils.setField(controller, "retryAfterSeconds", 15);
+        
+        Patient patient = new Patient();
+        patient.setId(UUID.randomUUID());
+        when(patientRepository.findById(patient.getId())).thenReturn(Optional.of(patient));
+        request = new UploadRequest();
+        request.setPatientId(patient.getId());
+        request.setClinicianId(UUID.randomUUID());
+        request.setRawTranscript("Cough for a week");
+    }
+    
+    @Test
+    void testFullBacklogIsRejectedWithRetryAfter() {
+        when(jobQueue.pendingCount()).thenReturn(200L);
+        
+        ResponseEntity<UploadResponse> response = controller.uploadAudio(request);
+        
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+        assertEquals("15", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        verify(jobQueue, never()).submit(any());
+    }
+    
+    @Test
+    void testUploadBelowBacklogIsQueued() {
+        when(jobQueue.pendingCount()).thenReturn(199L);
+        when(jobQueue.submit(any())).thenAnswer(invocation -> {
+            Consultation consultation = invocation.getArgument(0);
+            consultation.setId(UUID.randomUUID());
+            return consultation;
+        });
+        
+        ResponseEntity<UploadResponse> response = controller.uploadAudio(request);
+        
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(ConsultationState.QUEUED, response.getBody().getStatus());
+        assertNotNull(response.getBody().getConsultationId());
+        verify(jobQueue).submit(any());
+    }
+}
@@ -0,0 +1,244 @@
+package za.co.ccos.web;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import za.co.ccos.app.ConsultationProgressEvent;
+import za.co.ccos.app.ConsultationProgressEvent.StageStatus;
+import za.co.ccos.domain.ConsultationState;
+import za.co.ccos.infra.persistence.ConsultationRepository;
+import za.co.ccos.infra.persistence.ConsultationStateRow;
+import za.co.ccos.infra.persistence.StageCheckpointRepository;
+import za.co.ccos.infra.persistence.StageCheckpointRow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ConsultationEventRegistryTest {
+    
+    private final UUID consultationId = UUID.randomUUID();
+    private final List<RecordingEmitter> emitters = new ArrayList<>();
+    private ConsultationRepository consultationRepository;
+    private StageCheckpointRepository checkpointRepository;
+    private ConsultationEventRegistry registry;
+    
+    @BeforeEach
+    void setUp() {
+        consultationRepository = mock(ConsultationRepository.class);
+        checkpointRepository = mock(StageCheckpointRepository.class);
+        // Sends run inline, so every test but the slow-client one can assert right away
+        registry = registry(Runnable::run);
+    }
+    
+    @Test
+    void testSubscriberGetsSnapshotThenTransitions() {
+        subscribe(consultationId, ConsultationState.PROCESSING);
+        
+        registry.onProgress(ConsultationProgressEvent.stageChanged(consultationId, "perception", StageStatus.STARTED));
+        
+        RecordingEmitter emitter = emitters.get(0);
+        assertEquals(2, emitter.sent.size());
+        assertTrue(emitter.sent.get(0).startsWith("event:state"));
+        assertTrue(emitter.sent.get(1).startsWith("event:stage"));
+        assertTrue(emitter.sent.get(1).contains("perception"));
+        assertFalse(emitter.completed);
+        assertEquals(1, registry.getSubscriberCount());
+    }
+    
+    @Test
+    void testEventsFanOutToSubscribersOfThatConsultationOnly() {
+        UUID other = UUID.randomUUID();
+        subscribe(consultationId, ConsultationState.PROCESSING);
+        subscribe(consultationId, ConsultationState.PROCESSING);
+        subscribe(other, ConsultationState.PROCESSING);
+        
+        registry.onProgress(ConsultationProgressEvent.stageChanged(consultationId, "documentation", StageStatus.COMPLETED));
+        
+        assertEquals(2, emitters.get(0).sent.size());
+        assertEquals(2, emitters.get(1).sent.size());
+        assertEquals(1, emitters.get(2).sent.size());
+    }
+    
+    @Test
+    void testTerminalStatesCloseTheStreams() {
+        UUID failed = UUID.randomUUID();
+        subscribe(consultationId, ConsultationState.PROCESSING);
+        subscribe(failed, ConsultationState.PROCESSING);
+        
+        registry.onProgress(ConsultationProgressEvent.stateChanged(consultationId, ConsultationState.READY, null));
+        registry.onProgress(ConsultationProgressEvent.stateChanged(failed, ConsultationState.ERROR, "Compliance timed out"));
+        
+        assertTrue(emitters.get(0).completed);
+        assertTrue(emitters.get(1).completed);
+        assertEquals(0, registry.getSubscriberCount());
+    }
+    
+    @Test
+    void testSubscribingToFinishedConsultationClosesAfterSnapshot() {
+        subscribe(consultationId, ConsultationState.READY);
+        
+        assertEquals(1, emitters.get(0).sent.size());
+        assertTrue(emitters.get(0).completed);
+        assertEquals(0, registry.getSubscriberCount());
+    }
+    
+    @Test
+    void testHeartbeatKeepsLiveStreamsAndDropsDeadOnes() {
+        subscribe(consultationId, ConsultationState.PROCESSING);
+        subscribe(consultationId, ConsultationState.PROCESSING);
+        emitters.get(1).broken = true;
+        
+        registry.heartbeat();
+        
+        assertEquals(":keep-alive\n\n", emitters.get(0).sent.get(1));
+        assertEquals(1, registry.getSubscriberCount());
+    }
+    
+    @Test
+    void testFailedSendDropsOnlyThatStream() {
+        subscribe(consultationId, ConsultationState.PROCESSING);
+        subscribe(consultationId, ConsultationState.PROCESSING);
+        emitters.get(0).broken = true;
+        
+        registry.onProgress(ConsultationProgressEvent.stageChanged(consultationId, "coordination", StageStatus.STARTED));
+        registry.onProgress(ConsultationProgressEvent.stageChanged(consultationId, "coordination", StageStatus.COMPLETED));
+        
+        assertEquals(1, registry.getSubscriberCount());
+        assertEquals(3, emitters.get(1).sent.size());
+    }
+    
+    @Test
+    void testProgressOnAnotherNodeIsPolledFromTheDatabase() {
+        subscribe(consultationId, ConsultationState.PROCESSING);
+        when(checkpointRepository.findStages(any())).thenReturn(List.of(
+                new StageCheckpointRow(consultationId, "perception"),
+                new StageCheckpointRow(consultationId, "documentation")));
+        when(consultationRepository.findStates(any()))
+                .thenReturn(List.of(new ConsultationStateRow(consultationId, ConsultationState.PROCESSING, null)));
+        
+        registry.pollRemoteProgress();
+        registry.pollRemoteProgress();
+        
+        RecordingEmitter emitter = emitters.get(0);
+        assertEquals(3, emitter.sent.size());
+        assertTrue(emitter.sent.get(1).contains("perception") && emitter.sent.get(1).contains("COMPLETED"));
+        assertTrue(emitter.sent.get(2).contains("documentation"));
+        
+        when(consultationRepository.findStates(any()))
+                .thenReturn(List.of(new ConsultationStateRow(consultationId, ConsultationState.READY, null)));
+        registry.pollRemoteProgress();
+        
+        assertEquals(4, emitter.sent.size());
+        assertTrue(emitter.sent.get(3).contains("READY"));
+        assertTrue(emitter.completed);
+        assertEquals(0, registry.getSubscriberCount());
+    }
+    
+    @Test
+    void testProgressAlreadySentFromThisNodeIsNotRepeated() {
+        subscribe(consultationId, ConsultationState.PROCESSING);
+        registry.onProgress(ConsultationProgressEvent.stageChanged(consultationId, "perception", StageStatus.COMPLETED));
+        when(checkpointRepository.findStages(any()))
+                .thenReturn(List.of(new StageCheckpointRow(consultationId, "perception")));
+        when(consultationRepository.findStates(any()))
+                .thenReturn(List.of(new ConsultationStateRow(consultationId, ConsultationState.PROCESSING, null)));
+        
+        registry.pollRemoteProgress();
+        
+        assertEquals(2, emitters.get(0).sent.size());
+    }
+    
+    @Test
+    void testSlowClientDoesNotHoldUpThePipeline() throws Exception {
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        try {
+            registry = registry(sender::execute);
+            subscribe(consultationId, ConsultationState.PROCESSING);
+            RecordingEmitter emitter = emitters.get(0);
+            emitter.gate = new CountDownLatch(1);
+            
+            // Published while the client is stuck, and returned from without waiting for it
+            registry.onProgress(ConsultationProgressEvent.stageChanged(consultationId, "perception", StageStatus.STARTED));
+            registry.onProgress(ConsultationProgressEvent.stageChanged(consultationId, "perception", StageStatus.COMPLETED));
+            registry.onProgress(ConsultationProgressEvent.stateChanged(consultationId, ConsultationState.READY, null));
+            assertFalse(emitter.completed);
+            
+            emitter.gate.countDown();
+            sender.shutdown();
+            assertTrue(sender.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(4, emitter.sent.size());
+            assertTrue(emitter.sent.get(1).contains("STARTED"));
+            assertTrue(emitter.sent.get(2).contains("COMPLETED"));
+            assertTrue(emitter.sent.get(3).contains("READY"));
+            assertTrue(emitter.completed);
+        } finally {
+            sender.shutdownNow();
+        }
+    }
+    
+    private ConsultationEventRegistry registry(TaskExecutor executor) {
+        return new ConsultationEventRegistry(consultationRepository, checkpointRepository, executor) {
+            @Override
+            SseEmitter createEmitter() {
+                RecordingEmitter emitter = new RecordingEmitter();
+                emitters.add(emitter);
+                return emitter;
+            }
+        };
+    }
+    
+    private void subscribe(UUID id, ConsultationState state) {
+        registry.subscribe(id, () -> ConsultationProgressEvent.stateChanged(id, state, null));
+    }
+    
+    // Records what would be written to the client; `broken` makes sends fail like a closed connection,
+    // and a `gate` holds them like a client that stopped reading
+    private static class RecordingEmitter extends SseEmitter {
+        
+        final List<String> sent = new ArrayList<>();
+        volatile boolean broken;
+        volatile CountDownLatch gate;
+        volatile boolean completed;
+        private Runnable completionCallback = () -> { };
+        
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (broken) {
+                throw new IOException("Broken pipe");
+            }
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            sent.add(builder.build().stream()
+                    .map(part -> String.valueOf(part.getData()))
+                    .collect(Collectors.joining()));
+        }
+        
+        @Override
+        public synchronized void onCompletion(Runnable callback) {
+            completionCallback = callback;
+        }
+        
+        @Override
+        public synchronized void complete() {
+            completed = true;
+            completionCallback.run();
+        }
+    }
+}